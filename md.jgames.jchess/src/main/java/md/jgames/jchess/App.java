@@ -2,12 +2,18 @@ package md.jgames.jchess;
 
 import md.jgames.jchess.activities.MainActivity;
 import md.jgames.jchess.components.ChessboardViewConfiguration;
+import md.jgames.jchess.logic.Utilities;
 import md.jgames.jchess.resources.AppResources;
+import md.jgames.jchess.puzzles.PuzzleExtractor;
+import md.jgames.jchess.server.ChessServer;
 import mdlib.materifx.MaterialSettings;
-import mdlib.utils.JFXUtilities;
+import mdlib.utils.metrics.Metrics;
+import mdlib.utils.metrics.StartupProfile;
+
+import java.io.IOException;
+import java.util.Arrays;
 
 import javafx.application.Application;
-import javafx.scene.image.Image;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
@@ -36,12 +42,28 @@ public final class App extends Application {
     }
 
     /**
-     * The {@code main()} method of MD jChess application.
+     * The {@code main()} method of MD jChess application. If the first argument is {@code --server}, headless {@link
+     * ChessServer} is run instead of the application, remaining arguments are passed to {@link
+     * ChessServer#main(String[])}. Similarly, {@code --puzzles} runs {@link PuzzleExtractor} on a file of games.
      *
      * @param args arguments passed to the {@code main()} method
+     * @throws IOException if the server cannot be started or the games cannot be read
      */
-    public static void main(final String[] args) {
+    public static void main(final String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            Metrics.registerMBean();
+            ChessServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--puzzles")) {
+            Metrics.registerMBean();
+            PuzzleExtractor.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         MaterialSettings.launchInit();
+        // Engine and chessboard latencies can be watched by JConsole
+        Metrics.registerMBean();
 
         // For testing purposes, only
         // Will be changed by loading user settings
@@ -56,9 +78,16 @@ public final class App extends Application {
             MaterialSettings.theme().set(MaterialSettings.THEME_DARK);
         }
 
-        // Load images for ChessboardView
-        Image chessboardImage = JFXUtilities.loadImage(AppResources.loadResource("default-chessboard.png"));
-        ChessboardViewConfiguration.chessboardImage().set(chessboardImage);
+        // Images for ChessboardView are decoded in background while the application starts
+        long start = System.nanoTime();
+        ChessboardViewConfiguration.chessboardImage().set(AppResources.loadCachedImage("default-chessboard.png"));
+        for (char ch : new char[]{'k', 'q', 'r', 'n', 'b', 'p'}) {
+            ChessboardViewConfiguration.pieceImage(Utilities.pieceCharToConstant(ch)).set(
+                    AppResources.loadCachedImage("default-piece-b" + ch + ".png"));
+            ChessboardViewConfiguration.pieceImage(Utilities.pieceCharToConstant(Character.toUpperCase(ch))).set(
+                    AppResources.loadCachedImage("default-piece-w" + ch + ".png"));
+        }
+        StartupProfile.record("resources", start);
 
         launch(args);
     }
@@ -77,5 +106,6 @@ public final class App extends Application {
         primaryStage.setTitle("MD jChess");
         primaryStage.setScene(MainActivity.getInstance());
         primaryStage.show();
+        StartupProfile.recordFirstFrame(primaryStage.getScene());
     }
 }
@@ -1,9 +1,11 @@
 package md.jgames.jchess.activities;
 
 import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
 
 import mdlib.materifx.MaterialSettings;
+import mdlib.utils.metrics.StartupProfile;
 
 import java.io.IOException;
 
@@ -22,7 +24,11 @@ public final class MainActivity extends Scene {
      */
     public static MainActivity getInstance() {
         if (instance == null) try {
-            instance = new MainActivity();
+            // Load FXML file
+            long start = System.nanoTime();
+            Parent root = FXMLLoader.load(MainActivity.class.getResource("activity_main.fxml"));
+            StartupProfile.record("fxml", start);
+            instance = new MainActivity(root);
         } catch (IOException exc) {
             // Should never happen
             throw new RuntimeException(exc);
@@ -31,9 +37,8 @@ public final class MainActivity extends Scene {
     }
 
     // Private constructor for material activity
-    private MainActivity() throws IOException {
-        // Load FXML file
-        super(FXMLLoader.load(MainActivity.class.getResource("activity_main.fxml")), 800, 600);
+    private MainActivity(final Parent root) {
+        super(root, 800, 600);
         MaterialSettings.activityPostInit(this);
     }
 }
@@ -5,6 +5,8 @@ import javafx.fxml.Initializable;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import md.jgames.jchess.App;
+import md.jgames.jchess.logic.ChessboardRegistry;
+import md.jgames.jchess.logic.StockfishPool;
 import md.jgames.jchess.resources.AppResources;
 
 import java.net.URL;
@@ -21,6 +23,12 @@ public class MainActivityController implements Initializable {
     @Override
     public void initialize(final URL location, final ResourceBundle resources) {
         logoImageView.setImage(new Image(AppResources.loadResource("jchess-logo-256px.png")));
+        // Engines for the chessboard and the computer player start while the user is choosing the game
+        StockfishPool.warmUp(2);
+        // Chessboards which are not shown or played give their engines back, and their positions beyond 32 MB
+        ChessboardRegistry.setEngineBudget(4);
+        ChessboardRegistry.setMemoryBudget(32L << 20);
+        ChessboardRegistry.setIdleTimeout(300_000);
     }
 
     @FXML
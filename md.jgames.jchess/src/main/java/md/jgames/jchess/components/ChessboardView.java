@@ -1,35 +1,129 @@
 package md.jgames.jchess.components;
 
 import md.jgames.jchess.logic.Chessboard;
+import md.jgames.jchess.logic.ChessboardEvent;
+import md.jgames.jchess.logic.ChessboardListener;
 import md.jgames.jchess.logic.Move;
-import md.jgames.jchess.logic.Move.PawnPromotion;
 import md.jgames.jchess.logic.Square;
 import mdlib.utils.JFXUtilities;
+import mdlib.utils.drawing.CachedImage;
 
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Optional;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import javafx.animation.AnimationTimer;
-import javafx.geometry.Point2D;
-import javafx.geometry.Rectangle2D;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.value.ChangeListener;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ListView;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
-
-@SuppressWarnings("FieldCanBeLocal")
+import javafx.scene.paint.Color;
+import javafx.stage.Window;
+
+/**
+ * JavaFX component showing a {@link Chessboard}. The component is painted only when something changes: a move is done
+ * on the chessboard, the component is resized or the square under the mouse or the selected square changes. Nothing is
+ * painted while the component is not showing, so an idle chessboard costs no CPU time.
+ *
+ * <p>The component is painted in three layers, each one in its own {@link Canvas}: the board, which is painted again
+ * only when the size changes, the pieces, drawn from sprites pre-scaled to the square size (see {@link PieceSprites}),
+ * and the overlay with highlighted squares. Only invalidated layers are painted again. Images are decoded and scaled in
+ * background, see {@link ChessboardViewConfiguration}, layers are painted again when they get ready.</p>
+ *
+ * <p>Changes of the position are animated, see {@link MoveAnimation}. When moves come faster than they can be shown,
+ * e.g. when a game is replayed at high speed, animations get shorter and then pieces just jump, so no animations are
+ * queued. Animation speed can be changed by {@link #setAnimationSpeed(double)}.</p>
+ *
+ * @author Michal Douša
+ */
 public final class ChessboardView extends Pane {
 
+    private static final Color COLOR_HOVER = Color.rgb(255, 255, 255, 0.2);
+    private static final Color COLOR_SELECTION = Color.rgb(255, 255, 0, 0.35);
+    private static final Color COLOR_TARGET = Color.rgb(0, 0, 0, 0.25);
+
     private Chessboard chessboard;
     private boolean chessboardReversed;
     private String alternativeText;
 
-    private final Canvas canvas;
-    private final AnimationTimer animationTimer;
+    // Layers which can be invalidated
+    private static final int LAYER_BOARD = 1;
+    private static final int LAYER_PIECES = 2;
+    private static final int LAYER_OVERLAY = 4;
+    private static final int LAYER_ALL = LAYER_BOARD | LAYER_PIECES | LAYER_OVERLAY;
+
+    private final Canvas boardLayer;
+    private final Canvas pieceLayer;
+    private final Canvas overlayLayer;
+    // Chessboard image painted in the board layer, converted from the decoded image
+    private CachedImage boardSource;
+    private BufferedImage boardData;
+    private Image boardImage;
+    // Sprites the piece layer was painted with
+    private PieceSprites sprites;
+
+    // Images get ready on a background thread, all of them until the next pulse cause a single repaint
+    private final AtomicBoolean imagesReadyPosted = new AtomicBoolean();
+    private final Runnable imagesReady = () -> {
+        if (imagesReadyPosted.compareAndSet(false, true))
+            Platform.runLater(() -> {
+                imagesReadyPosted.set(false);
+                invalidate(LAYER_ALL);
+            });
+    };
+
+    // Duration of animations and the shortest one which is still shown, in nanoseconds
+    private static final double ANIMATION_DURATION = 200e6;
+    private static final double MIN_ANIMATION_DURATION = 50e6;
+
+    // Frames are requested only while there is something to paint, see invalidate(int)
+    private final FramePulse.Client frameClient = this::frame;
+    private int dirtyLayers;
+    private boolean showing;
+    // This component and its ancestors, whose visibility is followed, see updateShowing()
+    private final ArrayList<Node> ancestors = new ArrayList<>();
+    private final InvalidationListener showingListener = observable -> updateShowing();
+    private final InvalidationListener ancestorsListener = observable -> {
+        followAncestors();
+        updateShowing();
+    };
+
+    private final MoveAnimation animation = new MoveAnimation();
+    // Position of the chessboard, read when it changes
+    private final byte[] position = new byte[64];
+    private double animationSpeed = 1;
+    private long lastChangeNanos = Long.MIN_VALUE;
+
+    // Chessboard events come from other threads, all events until the next pulse cause a single repaint
+    private final AtomicBoolean chessboardChangePosted = new AtomicBoolean();
+    private final ChessboardListener chessboardListener = new ChessboardListener() {
+        @Override
+        public void moveDone(final ChessboardEvent evt) {
+            postChessboardChange();
+        }
+
+        @Override
+        public void moveUndone(final ChessboardEvent evt) {
+            postChessboardChange();
+        }
+
+        @Override
+        public void moveRedone(final ChessboardEvent evt) {
+            postChessboardChange();
+        }
+    };
 
     public Chessboard getChessboard() {
         return chessboard;
@@ -41,14 +135,24 @@ public final class ChessboardView extends Pane {
      * chessboard is set to {@code null}, no exception will be thrown and request to dispose previous chessboard will be
      * ignored.
      *
+     * If the previous chessboard is not disposed, it is hibernated, so it does not hold an engine process while it is not
+     * shown, see {@link Chessboard#hibernate()}.
+     *
      * @param chessboard new {@link Chessboard} to be shown
      * @param disposePrevious {@code boolean} value, if you want to dispose the previous {@link Chessboard} instance
      */
     public void setChessboard(final Chessboard chessboard, final boolean disposePrevious) {
+        if (this.chessboard != null)
+            this.chessboard.removeChessboardListener(chessboardListener);
         if (disposePrevious && this.chessboard != null)
             this.chessboard.dispose();
+        else if (this.chessboard != null && this.chessboard != chessboard && !this.chessboard.isDisposed())
+            this.chessboard.hibernate();
 
         this.chessboard = chessboard;
+        if (chessboard != null)
+            chessboard.addChessboardListener(chessboardListener);
+        chessboardChanged(false);
     }
 
     /**
@@ -76,6 +180,36 @@ public final class ChessboardView extends Pane {
      */
     public void setChessboardReversed(final boolean chessboardReversed) {
         this.chessboardReversed = chessboardReversed;
+        invalidate(LAYER_PIECES | LAYER_OVERLAY);
+    }
+
+    /**
+     * Returns how many times faster than normally moves are animated.
+     *
+     * @return the animation speed
+     *
+     * @see #setAnimationSpeed(double)
+     */
+    public double getAnimationSpeed() {
+        return animationSpeed;
+    }
+
+    /**
+     * Sets how many times faster than normally moves are animated. Zero turns animations off.
+     *
+     * @param animationSpeed the animation speed
+     * @throws IllegalArgumentException if the speed is negative, infinite or NaN
+     *
+     * @see #getAnimationSpeed()
+     */
+    public void setAnimationSpeed(final double animationSpeed) {
+        if (!(animationSpeed >= 0) || Double.isInfinite(animationSpeed))
+            throw new IllegalArgumentException("Invalid animation speed: " + animationSpeed);
+        this.animationSpeed = animationSpeed;
+        if (animationSpeed == 0 && animation.isRunning()) {
+            animation.finish();
+            invalidate(LAYER_PIECES);
+        }
     }
 
     public String getAlternativeText() {
@@ -84,113 +218,391 @@ public final class ChessboardView extends Pane {
 
     public void setAlternativeText(final String alternativeText) {
         this.alternativeText = alternativeText.trim();
+        invalidate(LAYER_ALL);
     }
 
     /**
      * Creates a {@link ChessboardView} component.
      */
     public ChessboardView() {
-        // Animation timer
-        this.animationTimer = JFXUtilities.animationTimer(this::repaint);
-        this.animationTimer.start(); // Not ideal!
-
-        // Canvas setup
-        this.canvas = new Canvas();
-        this.widthProperty().addListener((observable, oldValue, newValue) -> canvas.setWidth(newValue.doubleValue()));
-        this.heightProperty().addListener((observable, oldValue, newValue) -> canvas.setHeight(newValue.doubleValue()));
-        this.getChildren().addAll(canvas);
+        // Canvas setup, resizing clears the canvases
+        this.boardLayer = new Canvas();
+        this.pieceLayer = new Canvas();
+        this.overlayLayer = new Canvas();
+        this.widthProperty().addListener((observable, oldValue, newValue) -> {
+            boardLayer.setWidth(newValue.doubleValue());
+            pieceLayer.setWidth(newValue.doubleValue());
+            overlayLayer.setWidth(newValue.doubleValue());
+            updateGeometry();
+            invalidate(LAYER_ALL);
+        });
+        this.heightProperty().addListener((observable, oldValue, newValue) -> {
+            boardLayer.setHeight(newValue.doubleValue());
+            pieceLayer.setHeight(newValue.doubleValue());
+            overlayLayer.setHeight(newValue.doubleValue());
+            updateGeometry();
+            invalidate(LAYER_ALL);
+        });
+        this.getChildren().addAll(boardLayer, pieceLayer, overlayLayer);
+
+        // Follow if the component is showing: it and all its ancestors are visible and in a scene of a showing window,
+        // so a chessboard in an unselected tab is not painted either
+        ChangeListener<Window> windowListener = (observable, oldWindow, newWindow) -> {
+            if (oldWindow != null)
+                oldWindow.showingProperty().removeListener(showingListener);
+            if (newWindow != null)
+                newWindow.showingProperty().addListener(showingListener);
+            updateShowing();
+        };
+        this.sceneProperty().addListener((observable, oldScene, newScene) -> {
+            if (oldScene != null) {
+                oldScene.windowProperty().removeListener(windowListener);
+                if (oldScene.getWindow() != null)
+                    oldScene.getWindow().showingProperty().removeListener(showingListener);
+            }
+            if (newScene != null) {
+                newScene.windowProperty().addListener(windowListener);
+                if (newScene.getWindow() != null)
+                    newScene.getWindow().showingProperty().addListener(showingListener);
+            }
+            updateShowing();
+        });
+        followAncestors();
 
         // Canvas mouse events
         this.addEventHandler(MouseEvent.MOUSE_PRESSED, JFXUtilities.eventHandler(this::onMousePressed));
         this.addEventHandler(MouseEvent.MOUSE_RELEASED, JFXUtilities.eventHandler(this::onMouseReleased));
+        this.addEventHandler(MouseEvent.MOUSE_DRAGGED, JFXUtilities.eventHandler(this::onMouseDragged));
+        this.addEventHandler(MouseEvent.MOUSE_MOVED, JFXUtilities.eventHandler(this::onMouseMoved));
+        this.addEventHandler(MouseEvent.MOUSE_EXITED, JFXUtilities.eventHandler(this::onMouseExited));
+    }
+
+    // Render scheduling
+
+    /**
+     * Marks layers to be painted in the next pulse. Must be called on JavaFX application thread.
+     *
+     * @param layers bit mask of {@code LAYER_*} constants
+     */
+    private void invalidate(final int layers) {
+        dirtyLayers |= layers;
+        if (showing)
+            FramePulse.request(frameClient);
+    }
+
+    private boolean frame(final long now) {
+        if (!showing)
+            return false;
+        // Pieces are painted in every frame of the animation and once after it has finished
+        if (animation.isRunning()) {
+            animation.advance(now, animationSpeed);
+            dirtyLayers |= LAYER_PIECES;
+        }
+        if (dirtyLayers != 0) {
+            int layers = dirtyLayers;
+            dirtyLayers = 0;
+            repaint(layers);
+        }
+        // Nothing more to paint until the next invalidation
+        return animation.isRunning();
+    }
+
+    // Listens to visibility of this component and its ancestors, and to changes of their parents
+    private void followAncestors() {
+        for (Node node : ancestors) {
+            node.visibleProperty().removeListener(showingListener);
+            node.parentProperty().removeListener(ancestorsListener);
+        }
+        ancestors.clear();
+        for (Node node = this; node != null; node = node.getParent()) {
+            node.visibleProperty().addListener(showingListener);
+            node.parentProperty().addListener(ancestorsListener);
+            ancestors.add(node);
+        }
+    }
+
+    private void updateShowing() {
+        Scene scene = getScene();
+        Window window = scene == null ? null : scene.getWindow();
+        boolean treeVisible = true;
+        for (Node node = this; node != null && treeVisible; node = node.getParent())
+            treeVisible = node.isVisible();
+        showing = treeVisible && window != null && window.isShowing();
+        // Animations are not continued after the component is shown again
+        if (!showing && animation.isRunning()) {
+            animation.finish();
+            dirtyLayers |= LAYER_PIECES;
+        }
+        // The canvases keep their content while hidden, so only changes made meanwhile are painted
+        if (showing && dirtyLayers != 0)
+            invalidate(dirtyLayers);
+    }
+
+    // Called by any thread
+    private void postChessboardChange() {
+        if (chessboardChangePosted.compareAndSet(false, true))
+            Platform.runLater(() -> {
+                chessboardChangePosted.set(false);
+                chessboardChanged(true);
+            });
+    }
+
+    private void chessboardChanged(final boolean animate) {
+        selectedSquare = -1;
+        selSquarePossibleMoves = null;
+        targetSquares = 0;
+        dragging = false;
+        boolean changed = false;
+        for (int i = 0; i < position.length; i++) {
+            position[i] = chessboard == null ? Chessboard.PIECE_NONE : chessboard.pieceAt(SQUARES[i]);
+            changed |= position[i] != animation.pieceAt(i);
+        }
+        if (!changed) {
+            invalidate(LAYER_OVERLAY);
+            return;
+        }
+
+        // Animations must not be longer than the time between changes, too short ones are not shown at all
+        long now = System.nanoTime();
+        double duration = ANIMATION_DURATION;
+        if (lastChangeNanos != Long.MIN_VALUE)
+            duration = Math.min(duration, (now - lastChangeNanos) * animationSpeed);
+        lastChangeNanos = now;
+        if (!animate || !showing || animationSpeed == 0 || duration / animationSpeed < MIN_ANIMATION_DURATION
+                || !animation.start(position, duration))
+            animation.reset(position);
+        invalidate(LAYER_PIECES | LAYER_OVERLAY);
     }
 
     // Auxiliary methods and fields
 
-    private Square selectedSquare;
+    // All squares, so painting does not create them again
+    private static final Square[] SQUARES = new Square[64];
+
+    static {
+        for (int i = 0; i < SQUARES.length; i++)
+            SQUARES[i] = new Square(i);
+    }
+
+    // Squares are indexed as in MoveAnimation, -1 is no square
+    private int selectedSquare = -1;
     private SortedSet<Move> selSquarePossibleMoves;
+    // Bit for every square the selected piece can move to
+    private long targetSquares;
+    private int hoveredSquare = -1;
     private boolean mouseDown;
+    // Where the selected piece is dragged to, valid while dragging
+    private boolean dragging;
+    private double dragX;
+    private double dragY;
 
-    private Rectangle2D chessboardBounds() {
+    // Geometry of the chessboard, computed when the size changes
+    private double boardX;
+    private double boardY;
+    private int squareSize;
+
+    private void updateGeometry() {
         int size = (int) Math.min(getWidth(), getHeight()) * 7 / 64 * 8;
-        int offsetX = (int) ((getWidth() - size) / 2.0);
-        int offsetY = (int) ((getHeight() - size) / 2.0);
-        return new Rectangle2D(offsetX, offsetY, size, size);
+        boardX = (int) ((getWidth() - size) / 2.0);
+        boardY = (int) ((getHeight() - size) / 2.0);
+        squareSize = size / 8;
     }
 
-    private strictfp Rectangle2D rectangleFor(final Square square) {
-        Rectangle2D chessboard = chessboardBounds();
-
-        // square size is chessboard size divided by 8, because we have 8x8 squares
-        double squareSize = chessboard.getHeight() / 8.0;
+    // Coordinates are in squares as in MoveAnimation
+    private double realX(final double x) {
+        return boardX + (chessboardReversed ? 7 - x : x) * squareSize;
+    }
 
-        // get square x and y in range from 0 to 7
-        byte x = (byte) (chessboardReversed ? 7 - square.file() : square.file());
-        byte y = (byte) (chessboardReversed ? square.rank() : 7 - square.rank());
+    private double realY(final double y) {
+        return boardY + (chessboardReversed ? y : 7 - y) * squareSize;
+    }
 
-        // Where the square really is (its upper-left corner coordinates)
-        double realX = chessboard.getMinX() + x * squareSize;
-        double realY = chessboard.getMinY() + y * squareSize;
+    // Index of the square at given point, -1 if there is none
+    private int squareAt(final double x, final double y) {
+        if (squareSize == 0 || x < boardX || y < boardY)
+            return -1;
+        int column = (int) ((x - boardX) / squareSize);
+        int row = (int) ((y - boardY) / squareSize);
+        if (column > 7 || row > 7)
+            return -1;
+        return chessboardReversed ? 8 * row + 7 - column : 8 * (7 - row) + column;
+    }
 
-        return new Rectangle2D(realX, realY, squareSize, squareSize);
+    private void select(final int square) {
+        selectedSquare = square;
+        selSquarePossibleMoves = square < 0 ? null : chessboard.possibleMovesFor(SQUARES[square]);
+        targetSquares = 0;
+        if (selSquarePossibleMoves != null)
+            for (Move move : selSquarePossibleMoves)
+                targetSquares |= 1L << move.squareTo().hashCode();
     }
 
-    private Square squareAt(final Point2D point) {
-        if (chessboardBounds().contains(point))
-            for (byte file = 0; file < 8; file++)
-                for (byte rank = 0; rank < 8; rank++) {
-                    Square square = new Square(rank, file);
-                    Rectangle2D rectangle = rectangleFor(square);
-                    if (rectangle.contains(point))
-                        return square;
-                }
-        return null;
+    private boolean isTarget(final int square) {
+        return square >= 0 && (targetSquares & 1L << square) != 0;
     }
 
     // Painting
 
-    private void repaint() {
-        // Get GraphicsContext and clear canvas
-        GraphicsContext gctx = canvas.getGraphicsContext2D();
+    private void repaint(int layers) {
+        // The board image may be changed in the configuration
+        if (boardSource != ChessboardViewConfiguration.chessboardImage().get())
+            layers |= LAYER_BOARD;
+        if ((layers & LAYER_BOARD) != 0)
+            paintBoard(boardLayer.getGraphicsContext2D());
+        if ((layers & LAYER_PIECES) != 0)
+            paintPieces(pieceLayer.getGraphicsContext2D());
+        if ((layers & LAYER_OVERLAY) != 0)
+            paintOverlay(overlayLayer.getGraphicsContext2D());
+    }
+
+    private void paintBoard(final GraphicsContext gctx) {
         gctx.clearRect(0, 0, getWidth(), getHeight());
+        // The previous image is painted until the new one is decoded
+        boardSource = ChessboardViewConfiguration.chessboardImage().get();
+        BufferedImage data = boardSource.get(imagesReady);
+        if (data != null && data != boardData) {
+            boardData = data;
+            boardImage = SwingFXUtils.toFXImage(data, null);
+        }
 
         // Draw chessboard if it is not set to null, otherwise draw alternative text
-        if (chessboard != null) {
-            // Draw chessboard
-            JFXUtilities.canvasDrawImage(gctx, ChessboardViewConfiguration.chessboardImage().get(), chessboardBounds());
+        if (chessboard != null && boardImage != null) {
+            gctx.setImageSmoothing(true);
+            gctx.drawImage(boardImage, boardX, boardY, 8 * squareSize, 8 * squareSize);
         } else {
             // Draw alternative text
         }
     }
 
+    private void paintPieces(final GraphicsContext gctx) {
+        gctx.clearRect(0, 0, getWidth(), getHeight());
+        if (chessboard == null || squareSize == 0)
+            return;
+
+        // Sprites are already scaled, so they are only copied. Pieces which do not move are painted first, so moving
+        // ones are on top of them. The dragged piece is painted in the overlay.
+        sprites = PieceSprites.forSquareSize(squareSize, outputScale(), imagesReady);
+        for (int square = 0; square < 64; square++) {
+            byte piece = animation.pieceAt(square);
+            if (piece != Chessboard.PIECE_NONE && !animation.isSliding(square)
+                    && !(dragging && square == selectedSquare))
+                sprites.draw(gctx, piece, realX(animation.x(square)), realY(animation.y(square)),
+                        animation.opacity(square));
+        }
+        if (!animation.isRunning())
+            return;
+        for (int square = 0; square < 64; square++) {
+            byte piece = animation.fadingOutAt(square);
+            if (piece != Chessboard.PIECE_NONE)
+                sprites.draw(gctx, piece, realX(animation.fadeOutX(square)), realY(animation.fadeOutY(square)),
+                        animation.fadeOutOpacity());
+        }
+        for (int square = 0; square < 64; square++)
+            if (animation.isSliding(square))
+                sprites.draw(gctx, animation.pieceAt(square), realX(animation.x(square)),
+                        realY(animation.y(square)));
+    }
+
+    private void paintOverlay(final GraphicsContext gctx) {
+        gctx.clearRect(0, 0, getWidth(), getHeight());
+        if (chessboard == null || squareSize == 0)
+            return;
+
+        // Square under the mouse, the selected square and where the selected piece can move
+        if (hoveredSquare >= 0)
+            fillSquare(gctx, hoveredSquare, COLOR_HOVER);
+        if (selectedSquare >= 0)
+            fillSquare(gctx, selectedSquare, COLOR_SELECTION);
+        gctx.setFill(COLOR_TARGET);
+        double size = squareSize / 3.0;
+        for (int square = 0; square < 64; square++)
+            if (isTarget(square))
+                gctx.fillOval(realX(square % 8) + size, realY(square / 8) + size, size, size);
+
+        // Dragged piece is centered on the mouse
+        if (dragging) {
+            byte piece = animation.pieceAt(selectedSquare);
+            if (piece != Chessboard.PIECE_NONE) {
+                if (sprites == null || sprites.squareSize() != squareSize)
+                    sprites = PieceSprites.forSquareSize(squareSize, outputScale(), imagesReady);
+                sprites.draw(gctx, piece, dragX - squareSize / 2.0, dragY - squareSize / 2.0);
+            }
+        }
+    }
+
+    // Sprites are scaled to physical pixels of the screen the window is on
+    private double outputScale() {
+        Scene scene = getScene();
+        Window window = scene == null ? null : scene.getWindow();
+        return window == null ? 1 : window.getOutputScaleX();
+    }
+
+    private void fillSquare(final GraphicsContext gctx, final int square, final Color color) {
+        gctx.setFill(color);
+        gctx.fillRect(realX(square % 8), realY(square / 8), squareSize, squareSize);
+    }
+
     // Event handling
 
+    private void onMouseMoved(final MouseEvent event) {
+        int square = squareAt(event.getX(), event.getY());
+        if (square != hoveredSquare) {
+            hoveredSquare = square;
+            invalidate(LAYER_OVERLAY);
+        }
+    }
+
+    private void onMouseExited(final MouseEvent event) {
+        if (hoveredSquare >= 0) {
+            hoveredSquare = -1;
+            invalidate(LAYER_OVERLAY);
+        }
+    }
+
     private void onMousePressed(final MouseEvent event) {
-        Point2D mousePoint = new Point2D(event.getSceneX(), event.getSceneY());
-        Square mouseSquare = squareAt(mousePoint);
+        if (isDisabled() || chessboard == null)
+            return;
+        int square = squareAt(event.getX(), event.getY());
+        this.mouseDown = true;
+
+        // Pressing a target keeps the selection, the move is done when the mouse is released
+        if (!isTarget(square)) {
+            select(square < 0 || chessboard.pieceAt(SQUARES[square]) == Chessboard.PIECE_NONE ? -1 : square);
+            invalidate(LAYER_OVERLAY);
+        }
+    }
 
-        if (!isDisabled() && mouseSquare != null && selectedSquare != null && !selSquarePossibleMoves.contains(new Move(selectedSquare, mouseSquare, PawnPromotion.NONE))) {
-            this.selectedSquare = mouseSquare;
-            this.selSquarePossibleMoves = chessboard.possibleMovesFor(selectedSquare);
-            this.mouseDown = true;
+    private void onMouseDragged(final MouseEvent event) {
+        if (!mouseDown || selectedSquare < 0)
+            return;
+        // Only the first drag event paints the pieces again, without the dragged one
+        if (!dragging) {
+            dragging = true;
+            invalidate(LAYER_PIECES);
         }
+        dragX = event.getX();
+        dragY = event.getY();
+        hoveredSquare = squareAt(dragX, dragY);
+        invalidate(LAYER_OVERLAY);
     }
 
     private void onMouseReleased(final MouseEvent event) {
         this.mouseDown = false;
-        Point2D mousePoint = new Point2D(event.getSceneX(), event.getSceneY());
-        Square mouseSquare = squareAt(mousePoint);
+        if (dragging) {
+            dragging = false;
+            invalidate(LAYER_PIECES | LAYER_OVERLAY);
+        }
+        int square = squareAt(event.getX(), event.getY());
 
-        if (!isDisabled() && mouseSquare != null) {
+        if (!isDisabled() && isTarget(square)) {
             TreeSet<Move> moves = new TreeSet<>();
             for (Move move : selSquarePossibleMoves)
-                if (move.squareTo().equals(mouseSquare))
+                if (move.squareTo().hashCode() == square)
                     moves.add(move);
             if (moves.size() == 1) {
                 // If there is exactly one move
                 chessboard.performMove(moves.first());
-                selectedSquare = null;
-                selSquarePossibleMoves = null;
+                chessboardChanged(true);
             } else if (moves.size() > 1) {
                 // There can be 4 different UCI moves when pawn promoting
                 // Construct ListView and show it in an Alert
@@ -207,6 +619,7 @@ public final class ChessboardView extends Pane {
                 if (result.isPresent() && result.get() == ButtonType.OK) {
                     Move todo = moveListView.getSelectionModel().getSelectedItem();
                     chessboard.performMove(todo);
+                    chessboardChanged(true);
                 }
             }
         }
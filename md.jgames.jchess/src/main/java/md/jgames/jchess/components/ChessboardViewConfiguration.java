@@ -1,18 +1,41 @@
 package md.jgames.jchess.components;
 
+import md.jgames.jchess.logic.Chessboard;
 import mdlib.utils.FilteredAtomicReference;
+import mdlib.utils.drawing.CachedImage;
+import mdlib.utils.drawing.ImageCache;
 
 import java.awt.image.BufferedImage;
 import java.util.Objects;
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.Image;
 
+/**
+ * Images used by all {@link ChessboardView} instances. Images are held as {@link CachedImage}s, so they are decoded and
+ * scaled in background and setting another piece set does not block JavaFX application thread: views keep showing the
+ * previous images until the new ones are ready.
+ *
+ * @author Michal Douša
+ */
 public final class ChessboardViewConfiguration {
 
     // Initial empty chessboard image
-    private static final Image INITTIAL_CHESSBOARD_IMAGE = SwingFXUtils.toFXImage(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB), null);
+    private static final CachedImage INITTIAL_CHESSBOARD_IMAGE = ImageCache.shared().put("jchess.empty",
+            new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
     // Chessboard image filtered field
-    private static final FilteredAtomicReference<Image> chessboardImage = new FilteredAtomicReference<>(Objects::nonNull, INITTIAL_CHESSBOARD_IMAGE);
+    private static final FilteredAtomicReference<CachedImage> chessboardImage = new FilteredAtomicReference<>(Objects::nonNull, INITTIAL_CHESSBOARD_IMAGE);
+    // Piece images filtered fields, indexed by piece constant
+    private static final FilteredAtomicReference<CachedImage>[] pieceImages = createPieceImages();
+
+    // Do not create any instance
+    private ChessboardViewConfiguration() {
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static FilteredAtomicReference<CachedImage>[] createPieceImages() {
+        FilteredAtomicReference<CachedImage>[] references = new FilteredAtomicReference[Chessboard.PIECE_BLACK_KING + 1];
+        for (int piece = Chessboard.PIECE_WHITE_PAWN; piece <= Chessboard.PIECE_BLACK_KING; piece++)
+            references[piece] = new FilteredAtomicReference<>(Objects::nonNull, INITTIAL_CHESSBOARD_IMAGE);
+        return references;
+    }
 
     /**
      * Returns {@link FilteredAtomicReference} to image used as chessboard in this component. Caannot pass {@code null}
@@ -22,7 +45,23 @@ public final class ChessboardViewConfiguration {
      *
      * @see FilteredAtomicReference#set(Object)
      */
-    public static FilteredAtomicReference<Image> chessboardImage() {
+    public static FilteredAtomicReference<CachedImage> chessboardImage() {
         return chessboardImage;
     }
+
+    /**
+     * Returns {@link FilteredAtomicReference} to image used for given piece in this component. Cannot pass {@code
+     * null} as value.
+     *
+     * @param piece one of piece constants in {@link Chessboard} except {@link Chessboard#PIECE_NONE}
+     * @return {@link FilteredAtomicReference} to the piece image
+     *
+     * @throws IllegalArgumentException if given value is not a piece
+     * @see FilteredAtomicReference#set(Object)
+     */
+    public static FilteredAtomicReference<CachedImage> pieceImage(final byte piece) {
+        if (piece < Chessboard.PIECE_WHITE_PAWN || piece > Chessboard.PIECE_BLACK_KING)
+            throw new IllegalArgumentException("Not a piece: " + piece);
+        return pieceImages[piece];
+    }
 }
@@ -0,0 +1,69 @@
+package md.jgames.jchess.components;
+
+import java.util.ArrayList;
+import javafx.animation.AnimationTimer;
+
+/**
+ * Single {@link AnimationTimer} shared by all components which paint or animate. Components request frames, the timer
+ * runs only while some frame is requested. Must be used on JavaFX application thread only.
+ *
+ * @author Michal Douša
+ */
+final class FramePulse {
+
+    /**
+     * Component which paints in frames.
+     */
+    interface Client {
+
+        /**
+         * Paints a frame.
+         *
+         * @param nanos time of the frame in nanoseconds, see {@link AnimationTimer#handle(long)}
+         * @return if the next frame is wanted too
+         */
+        boolean frame(long nanos);
+    }
+
+    // Do not create any instance
+    private FramePulse() {
+    }
+
+    // Clients of the next frame and of the frame being painted, swapped in every frame
+    private static ArrayList<Client> clients = new ArrayList<>();
+    private static ArrayList<Client> painted = new ArrayList<>();
+    private static boolean running;
+
+    private static final AnimationTimer TIMER = new AnimationTimer() {
+        @Override
+        public void handle(final long now) {
+            ArrayList<Client> current = clients;
+            clients = painted;
+            painted = current;
+            for (int i = 0; i < current.size(); i++) {
+                Client client = current.get(i);
+                if (client.frame(now) && !clients.contains(client))
+                    clients.add(client);
+            }
+            current.clear();
+            if (clients.isEmpty()) {
+                running = false;
+                stop();
+            }
+        }
+    };
+
+    /**
+     * Requests a frame for given client. Requesting a frame more times before it is painted has no effect.
+     *
+     * @param client the client
+     */
+    static void request(final Client client) {
+        if (!clients.contains(client))
+            clients.add(client);
+        if (!running) {
+            running = true;
+            TIMER.start();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package md.jgames.jchess.components;
+
+import md.jgames.jchess.logic.Chessboard;
+
+import java.util.Arrays;
+
+/**
+ * Animation of pieces from one position to another. Animations are found by comparing the positions, not from moves,
+ * so any number of moves done between two frames is shown as one animation: pieces which have left a square slide to
+ * the nearest square which a piece of the same kind has arrived to, pieces which have disappeared fade out and pieces
+ * which have appeared from nowhere fade in. Castling is shown as two slides, en passant as a slide and a fade out.
+ *
+ * <p>When a new position arrives before the animation has finished, sliding pieces continue from where they are shown
+ * at the moment. All state is kept in arrays allocated with the instance, so neither starting nor advancing an
+ * animation allocates any memory.</p>
+ *
+ * <p>Squares are indexed by {@link md.jgames.jchess.logic.Square#hashCode()}, coordinates are in squares with file
+ * as x and rank as y, not depending on if the chessboard is reversed.</p>
+ *
+ * @author Michal Douša
+ */
+final class MoveAnimation {
+
+    // Position the animation goes to
+    private final byte[] position = new byte[64];
+    // For every square, if a piece is sliding to it and where the piece started
+    private final boolean[] sliding = new boolean[64];
+    private final double[] startX = new double[64];
+    private final double[] startY = new double[64];
+    // For every square, piece fading in on it
+    private final boolean[] fadingIn = new boolean[64];
+    // For every square, piece fading out from it and where it is shown
+    private final byte[] fadingOut = new byte[64];
+    private final double[] fadeX = new double[64];
+    private final double[] fadeY = new double[64];
+
+    // Scratch arrays for start(byte[], double)
+    private final byte[] previous = new byte[64];
+    private final double[] shownX = new double[64];
+    private final double[] shownY = new double[64];
+    private final boolean[] used = new boolean[64];
+
+    private boolean running;
+    private double progress;
+    private double durationNanos;
+    private long lastNanos;
+
+    /**
+     * Shows given position without any animation, finishing the running animation.
+     *
+     * @param target the position, piece constants indexed by square
+     */
+    void reset(final byte[] target) {
+        System.arraycopy(target, 0, position, 0, 64);
+        finish();
+    }
+
+    /**
+     * Finishes the running animation, so the target position is shown.
+     */
+    void finish() {
+        running = false;
+        Arrays.fill(sliding, false);
+        Arrays.fill(fadingIn, false);
+        Arrays.fill(fadingOut, Chessboard.PIECE_NONE);
+    }
+
+    /**
+     * Starts animation from the shown state to given position. Pieces which are sliding at the moment continue from
+     * where they are shown.
+     *
+     * @param target        the position, piece constants indexed by square
+     * @param durationNanos duration of the animation in nanoseconds of animation time
+     * @return if there is something to animate
+     */
+    boolean start(final byte[] target, final double durationNanos) {
+        // Where pieces of the previous target are shown now
+        System.arraycopy(position, 0, previous, 0, 64);
+        double eased = ease(progress);
+        for (int square = 0; square < 64; square++) {
+            double x = square % 8, y = square / 8;
+            if (running && sliding[square]) {
+                x = startX[square] + (x - startX[square]) * eased;
+                y = startY[square] + (y - startY[square]) * eased;
+            }
+            shownX[square] = x;
+            shownY[square] = y;
+        }
+        finish();
+        System.arraycopy(target, 0, position, 0, 64);
+
+        boolean animated = false;
+        Arrays.fill(used, false);
+        for (int square = 0; square < 64; square++) {
+            byte piece = target[square];
+            if (piece == Chessboard.PIECE_NONE)
+                continue;
+            if (piece == previous[square]) {
+                // The piece stays, but it may still be on its way
+                used[square] = true;
+                if (shownX[square] != square % 8 || shownY[square] != square / 8)
+                    animated |= slide(square, shownX[square], shownY[square]);
+                continue;
+            }
+            int from = nearestSource(piece, square, target);
+            if (from >= 0) {
+                used[from] = true;
+                animated |= slide(square, shownX[from], shownY[from]);
+            } else {
+                fadingIn[square] = true;
+                animated = true;
+            }
+        }
+        // Pieces which have not gone anywhere have been captured
+        for (int square = 0; square < 64; square++)
+            if (!used[square] && previous[square] != Chessboard.PIECE_NONE) {
+                fadingOut[square] = previous[square];
+                fadeX[square] = shownX[square];
+                fadeY[square] = shownY[square];
+                animated = true;
+            }
+
+        if (!animated || durationNanos <= 0) {
+            finish();
+            return false;
+        }
+        this.running = true;
+        this.progress = 0;
+        this.durationNanos = durationNanos;
+        this.lastNanos = Long.MIN_VALUE;
+        return true;
+    }
+
+    private boolean slide(final int square, final double fromX, final double fromY) {
+        if (fromX == square % 8 && fromY == square / 8)
+            return false;
+        sliding[square] = true;
+        startX[square] = fromX;
+        startY[square] = fromY;
+        return true;
+    }
+
+    // Not used square left by given piece, nearest to the target square
+    private int nearestSource(final byte piece, final int square, final byte[] target) {
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int from = 0; from < 64; from++) {
+            if (used[from] || previous[from] != piece || target[from] == piece)
+                continue;
+            double dx = shownX[from] - square % 8, dy = shownY[from] - square / 8;
+            double distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                best = from;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Advances the animation to given time.
+     *
+     * @param nanos the time in nanoseconds
+     * @param speed how many times faster the animation time goes
+     * @return if the animation is still running
+     */
+    boolean advance(final long nanos, final double speed) {
+        if (!running)
+            return false;
+        if (lastNanos != Long.MIN_VALUE)
+            progress += (nanos - lastNanos) * speed / durationNanos;
+        lastNanos = nanos;
+        if (progress >= 1)
+            finish();
+        return running;
+    }
+
+    // Starts fast and slows down at the end
+    private static double ease(final double t) {
+        double inverse = 1 - Math.min(t, 1);
+        return 1 - inverse * inverse * inverse;
+    }
+
+    /**
+     * Returns if the animation is running.
+     *
+     * @return if the animation is running
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns piece on given square in the target position.
+     *
+     * @param square the square index
+     * @return piece constant
+     */
+    byte pieceAt(final int square) {
+        return position[square];
+    }
+
+    /**
+     * Returns if the piece of the target position on given square is moving.
+     *
+     * @param square the square index
+     * @return if the piece is sliding to the square
+     */
+    boolean isSliding(final int square) {
+        return running && sliding[square];
+    }
+
+    /**
+     * Returns x coordinate where the piece of the target position on given square is shown.
+     *
+     * @param square the square index
+     * @return x coordinate in squares
+     */
+    double x(final int square) {
+        double x = square % 8;
+        return isSliding(square) ? startX[square] + (x - startX[square]) * ease(progress) : x;
+    }
+
+    /**
+     * Returns y coordinate where the piece of the target position on given square is shown.
+     *
+     * @param square the square index
+     * @return y coordinate in squares
+     */
+    double y(final int square) {
+        double y = square / 8;
+        return isSliding(square) ? startY[square] + (y - startY[square]) * ease(progress) : y;
+    }
+
+    /**
+     * Returns opacity of the piece of the target position on given square.
+     *
+     * @param square the square index
+     * @return the opacity from 0 to 1
+     */
+    double opacity(final int square) {
+        return running && fadingIn[square] ? progress : 1;
+    }
+
+    /**
+     * Returns piece fading out from given square.
+     *
+     * @param square the square index
+     * @return piece constant, {@link Chessboard#PIECE_NONE} if no piece is fading out
+     */
+    byte fadingOutAt(final int square) {
+        return running ? fadingOut[square] : Chessboard.PIECE_NONE;
+    }
+
+    /**
+     * Returns x coordinate of the piece fading out from given square.
+     *
+     * @param square the square index
+     * @return x coordinate in squares
+     */
+    double fadeOutX(final int square) {
+        return fadeX[square];
+    }
+
+    /**
+     * Returns y coordinate of the piece fading out from given square.
+     *
+     * @param square the square index
+     * @return y coordinate in squares
+     */
+    double fadeOutY(final int square) {
+        return fadeY[square];
+    }
+
+    /**
+     * Returns opacity of pieces fading out.
+     *
+     * @return the opacity from 0 to 1
+     */
+    double fadeOutOpacity() {
+        return 1 - Math.min(progress, 1);
+    }
+}
@@ -0,0 +1,168 @@
+package md.jgames.jchess.components;
+
+import md.jgames.jchess.logic.Chessboard;
+import mdlib.utils.drawing.CachedImage;
+import mdlib.utils.drawing.ImageCache;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedList;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Atlas of piece images pre-scaled to one square size. All twelve pieces are put side by side into a single image, so
+ * painting a piece is a copy of a region of the atlas without any scaling. Piece images are scaled in background by
+ * the {@link ImageCache}, in physical pixels of the screen, so pieces are sharp on HiDPI screens too. Atlases of
+ * recently used sizes are kept, so resizing a window back and forth does not put them together again. Must be used on
+ * JavaFX application thread only.
+ *
+ * <p>Until all pieces are scaled, the atlas is put together from the closest sizes which are ready. When the piece
+ * images are changed, the previous atlas of the same size is used until all new pieces are ready, so switching piece
+ * sets does not make pieces disappear or block the thread.</p>
+ *
+ * @author Michal Douša
+ */
+final class PieceSprites {
+
+    // How many atlases of different sizes are kept
+    private static final int CACHE_SIZE = 4;
+    // Most recently used atlas is the first one
+    private static final LinkedList<PieceSprites> CACHE = new LinkedList<>();
+
+    private final int squareSize;
+    private final int pixelSize;
+    private final CachedImage[] sources;
+    // Images the atlas is put together from, variants of the sources or placeholders
+    private final BufferedImage[] images;
+    private final boolean complete;
+    private final WritableImage atlas;
+
+    private PieceSprites(final int squareSize, final int pixelSize, final CachedImage[] sources,
+                         final BufferedImage[] images, final boolean complete) {
+        this.squareSize = squareSize;
+        this.pixelSize = pixelSize;
+        this.sources = sources;
+        this.images = images;
+        this.complete = complete;
+
+        // Variants of the right size are only copied, placeholders are scaled
+        BufferedImage atlas = new BufferedImage(pixelSize * Chessboard.PIECE_BLACK_KING, pixelSize,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = atlas.createGraphics();
+        try {
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            for (int piece = Chessboard.PIECE_WHITE_PAWN; piece <= Chessboard.PIECE_BLACK_KING; piece++) {
+                if (images[piece] != null)
+                    g2d.drawImage(images[piece], (piece - 1) * pixelSize, 0, pixelSize, pixelSize, null);
+            }
+        } finally {
+            g2d.dispose();
+        }
+        this.atlas = SwingFXUtils.toFXImage(atlas, null);
+    }
+
+    /**
+     * Returns sprites of pieces configured in {@link ChessboardViewConfiguration#pieceImage(byte)} scaled to given
+     * square size. Sprites are put together again when a piece image is changed or gets ready.
+     *
+     * @param squareSize the square size in logical pixels
+     * @param scale      the output scale of the screen
+     * @param onReady    called on a background thread when a piece image gets ready, so sprites should be requested
+     *                   again
+     * @return the sprites
+     *
+     * @throws IllegalArgumentException if the square size or the scale is not positive
+     */
+    static PieceSprites forSquareSize(final int squareSize, final double scale, final Runnable onReady) {
+        int pixelSize = ImageCache.pixelSize(squareSize, scale);
+        CachedImage[] sources = new CachedImage[Chessboard.PIECE_BLACK_KING + 1];
+        BufferedImage[] images = new BufferedImage[Chessboard.PIECE_BLACK_KING + 1];
+        boolean complete = true;
+        for (byte piece = Chessboard.PIECE_WHITE_PAWN; piece <= Chessboard.PIECE_BLACK_KING; piece++) {
+            sources[piece] = ChessboardViewConfiguration.pieceImage(piece).get();
+            images[piece] = sources[piece].get(squareSize, squareSize, scale, onReady);
+            complete &= images[piece] != null && images[piece].getWidth() == pixelSize
+                    && images[piece].getHeight() == pixelSize;
+        }
+
+        PieceSprites previous = null;
+        Iterator<PieceSprites> iterator = CACHE.iterator();
+        while (iterator.hasNext()) {
+            PieceSprites sprites = iterator.next();
+            if (sprites.squareSize != squareSize || sprites.pixelSize != pixelSize)
+                continue;
+            iterator.remove();
+            if (sprites.isMadeOf(sources, images)) {
+                CACHE.addFirst(sprites);
+                return sprites;
+            }
+            previous = sprites;
+            break;
+        }
+
+        // Complete sprites of the previous pieces are better than incomplete sprites of the new ones
+        if (!complete && previous != null && previous.complete) {
+            CACHE.addFirst(previous);
+            return previous;
+        }
+        PieceSprites sprites = new PieceSprites(squareSize, pixelSize, sources, images, complete);
+        CACHE.addFirst(sprites);
+        if (CACHE.size() > CACHE_SIZE)
+            CACHE.removeLast();
+        return sprites;
+    }
+
+    private boolean isMadeOf(final CachedImage[] sources, final BufferedImage[] images) {
+        for (int piece = Chessboard.PIECE_WHITE_PAWN; piece <= Chessboard.PIECE_BLACK_KING; piece++)
+            if (this.sources[piece] != sources[piece] || this.images[piece] != images[piece])
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the square size the sprites are scaled to.
+     *
+     * @return the square size in logical pixels
+     */
+    int squareSize() {
+        return squareSize;
+    }
+
+    /**
+     * Draws a piece with upper-left corner at given point.
+     *
+     * @param gctx  graphics context to draw into
+     * @param piece one of piece constants in {@link Chessboard} except {@link Chessboard#PIECE_NONE}
+     * @param x     x coordinate of the upper-left corner
+     * @param y     y coordinate of the upper-left corner
+     */
+    void draw(final GraphicsContext gctx, final byte piece, final double x, final double y) {
+        gctx.drawImage(atlas, (piece - 1) * pixelSize, 0, pixelSize, pixelSize, x, y, squareSize, squareSize);
+    }
+
+    /**
+     * Draws a piece with upper-left corner at given point and given opacity.
+     *
+     * @param gctx    graphics context to draw into
+     * @param piece   one of piece constants in {@link Chessboard} except {@link Chessboard#PIECE_NONE}
+     * @param x       x coordinate of the upper-left corner
+     * @param y       y coordinate of the upper-left corner
+     * @param opacity the opacity from 0 to 1
+     */
+    void draw(final GraphicsContext gctx, final byte piece, final double x, final double y, final double opacity) {
+        if (opacity >= 1) {
+            draw(gctx, piece, x, y);
+        } else {
+            double alpha = gctx.getGlobalAlpha();
+            gctx.setGlobalAlpha(opacity);
+            draw(gctx, piece, x, y);
+            gctx.setGlobalAlpha(alpha);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package md.jgames.jchess.engine;
+
+import md.jgames.jchess.io.UCIEngineProcess;
+import md.jgames.jchess.logic.Move;
+import mdlib.utils.Disposable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Chess engine running inside the JVM, an alternative to an external engine process like Stockfish. It offers the same
+ * operations as {@link UCIEngineProcess}, so it can be used anywhere a JVM runs and no process has to be started.
+ * Supported options are:
+ *
+ * <ul>
+ * <li>{@code Threads} &ndash; count of search threads (Lazy SMP), from 1 to 256, default 1</li>
+ * <li>{@code Hash} &ndash; size of the transposition table in megabytes, from 1 to 4096, default 16</li>
+ * <li>{@code Skill Level} &ndash; from 0 to 20 (same range as {@link
+ * md.jgames.jchess.logic.ChessPlayerConfiguration#engineSkillLevel()}), lower levels search shallower and with noisier
+ * evaluation, default 20</li>
+ * <li>{@code UCI_Chess960} &ndash; {@code true} or {@code false}, if castling moves are written in Chess960 notation,
+ * i.e. as the king capturing own rook, default {@code false}. Positions whose castling cannot be written in standard
+ * notation always use Chess960 notation.</li>
+ * </ul>
+ *
+ * @author Michal Douša
+ * @see #setPosition(String, Iterator)
+ * @see #search(int, long)
+ * @see #go(int, long, long)
+ */
+public final class EmbeddedEngine implements Disposable {
+
+    private static final AtomicInteger createdEnginesCount = new AtomicInteger();
+
+    private final Position position = new Position();
+    private final int engineNumber = createdEnginesCount.getAndIncrement();
+    private TranspositionTable table;
+    private ExecutorService executor;
+    private SearchThread[] searchThreads;
+    private int threadCount = 1;
+    private int skillLevel = 20;
+    private boolean chess960 = false;
+    private SearchContext runningSearch;
+
+    /**
+     * Creates an engine with default options set and the standard starting position.
+     */
+    public EmbeddedEngine() {
+        table = new TranspositionTable(16);
+    }
+
+    /**
+     * Tells the engine that new game will start. The transposition table is cleared.
+     */
+    public synchronized void startNewGame() {
+        Disposable.requireNotDisposed(this);
+        table.clear();
+    }
+
+    /**
+     * Sets an option of the engine. For supported options see {@link EmbeddedEngine}.
+     *
+     * @param name  option name
+     * @param value option value
+     * @throws IllegalArgumentException if the option is not supported or its value is invalid
+     * @throws IllegalStateException    if a search is running
+     */
+    public synchronized void setOption(final String name, final Object value) {
+        Disposable.requireNotDisposed(this);
+        Objects.requireNonNull(name, "Option name cannot be null");
+        Objects.requireNonNull(value, "Option value cannot be null");
+        requireNotSearching();
+
+        if (name.equals("UCI_Chess960")) {
+            String stringValue = value.toString().trim();
+            if (!stringValue.equals("true") && !stringValue.equals("false"))
+                throw new IllegalArgumentException("Invalid value of option '" + name + "': " + value);
+            // Takes effect when the position is set next time
+            chess960 = stringValue.equals("true");
+            return;
+        }
+
+        int intValue;
+        try {
+            intValue = Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException("Invalid value of option '" + name + "': " + value, exc);
+        }
+
+        switch (name) {
+            case "Threads":
+                checkRange(name, intValue, 1, 256);
+                if (intValue != threadCount) {
+                    shutdownThreads();
+                    threadCount = intValue;
+                }
+                break;
+            case "Hash":
+                checkRange(name, intValue, 1, 4096);
+                table.resize(intValue);
+                break;
+            case "Skill Level":
+                checkRange(name, intValue, 0, 20);
+                skillLevel = intValue;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported option: '" + name + "'");
+        }
+    }
+
+    private static void checkRange(final String name, final int value, final int min, final int max) {
+        if (value < min || value > max)
+            throw new IllegalArgumentException("Value of option '" + name + "' out of range: " + value);
+    }
+
+    /**
+     * Sets the position via initial position and done moves from that position provided by given {@link Iterator}.
+     *
+     * @param fen          the initial FEN position
+     * @param moveIterator an instance of {@link Iterator} iterating over a collection of {@link Move}s, may be {@code
+     *                     null}
+     * @throws md.jgames.jchess.logic.IllegalFENException if invalid FEN is given
+     * @throws IllegalArgumentException                   if one of the moves is illegal
+     * @throws IllegalStateException                      if a search is running
+     */
+    public synchronized void setPosition(final String fen, final Iterator<Move> moveIterator) {
+        Disposable.requireNotDisposed(this);
+        requireNotSearching();
+        position.setFEN(fen);
+        if (chess960)
+            position.setChess960(true);
+        if (moveIterator != null)
+            while (moveIterator.hasNext()) {
+                Move move = moveIterator.next();
+                int encoded = position.findMove(move);
+                if (encoded == EngineMove.NONE)
+                    throw new IllegalArgumentException("Illegal move " + move + " in position " + position.toFEN());
+                position.makeMove(encoded);
+            }
+    }
+
+    /**
+     * Sets the position via initial position and done moves from that position.
+     *
+     * @param fen   the initial FEN position
+     * @param moves done moves from the initial position
+     * @see #setPosition(String, Iterator)
+     */
+    public synchronized void setPosition(final String fen, final Iterable<Move> moves) {
+        setPosition(fen, moves == null ? null : moves.iterator());
+    }
+
+    /**
+     * Sets the position via initial position and done moves from that position.
+     *
+     * @param fen   the initial FEN position
+     * @param moves done moves from the initial position
+     * @see #setPosition(String, Iterator)
+     */
+    public synchronized void setPosition(final String fen, final Move... moves) {
+        setPosition(fen, moves == null ? null : Arrays.asList(moves).iterator());
+    }
+
+    /**
+     * Sets the position via initial position and done moves from that position.
+     *
+     * @param fen        the initial FEN position
+     * @param moveStream a {@link Stream} of done moves from the initial position
+     * @see #setPosition(String, Iterator)
+     */
+    public synchronized void setPosition(final String fen, final Stream<Move> moveStream) {
+        setPosition(fen, moveStream.iterator());
+    }
+
+    /**
+     * Returns immediately, the engine is always ready. Present to match {@link UCIEngineProcess#waitForReady()}.
+     */
+    public void waitForReady() {
+        Disposable.requireNotDisposed(this);
+    }
+
+    /**
+     * Returns FEN of the current position.
+     *
+     * @return FEN of the current position
+     */
+    public synchronized String getPosition() {
+        Disposable.requireNotDisposed(this);
+        return position.toFEN();
+    }
+
+    /**
+     * Returns unmodifiable {@link List} of all legal moves in the current position.
+     *
+     * @return legal moves
+     */
+    public synchronized List<Move> legalMoves() {
+        Disposable.requireNotDisposed(this);
+        int[] buffer = new int[Position.MAX_MOVES];
+        int count = position.generateLegalMoves(buffer, 0);
+        ArrayList<Move> moves = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            moves.add(position.toMove(buffer[i]));
+        return Collections.unmodifiableList(moves);
+    }
+
+    /**
+     * Starts searching the current position in background. The search ends when given depth is reached, given time
+     * elapses, given count of nodes is searched or {@link #stop()} is called, whichever comes first.
+     *
+     * @param depth          maximum depth, or 0 for no limit
+     * @param moveTimeMillis maximum search time in milliseconds, or 0 for no limit
+     * @param nodeLimit      maximum count of searched nodes, or 0 for no limit
+     * @return {@link CompletableFuture} completed with the result of the search
+     * @throws IllegalStateException if another search is running
+     */
+    public synchronized CompletableFuture<SearchResult> go(final int depth, final long moveTimeMillis,
+                                                           final long nodeLimit) {
+        Disposable.requireNotDisposed(this);
+        requireNotSearching();
+
+        // Lower skill levels see less and misjudge positions more
+        int maxDepth = depth > 0 ? Math.min(depth, SearchThread.MAX_PLY - 1) : SearchThread.MAX_PLY - 1;
+        if (skillLevel < 20)
+            maxDepth = Math.min(maxDepth, 1 + skillLevel / 2);
+        int evaluationNoise = (20 - skillLevel) * 10;
+
+        if (searchThreads == null) {
+            searchThreads = new SearchThread[threadCount];
+            for (int i = 0; i < threadCount; i++)
+                searchThreads[i] = new SearchThread(i);
+            executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(runnable, "EmbeddedEngine" + engineNumber + "-" + System.nanoTime());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        table.newSearch();
+        SearchContext context = new SearchContext(table, maxDepth, moveTimeMillis, nodeLimit, threadCount,
+                evaluationNoise);
+        for (SearchThread thread : searchThreads)
+            thread.prepare(context, position);
+        runningSearch = context;
+
+        CompletableFuture<SearchResult> future = new CompletableFuture<>();
+        for (int i = 1; i < threadCount; i++)
+            executor.execute(searchThreads[i]);
+        Position root = new Position(position);
+        SearchThread[] threads = searchThreads;
+        executor.execute(() -> {
+            SearchResult result = null;
+            Throwable failure = null;
+            try {
+                threads[0].run();
+                context.finished.await();
+                result = createResult(context, threads, root);
+            } catch (Throwable exc) {
+                failure = exc;
+            }
+            // The engine has to accept commands once the future is completed
+            synchronized (this) {
+                if (runningSearch == context)
+                    runningSearch = null;
+            }
+            if (failure == null)
+                future.complete(result);
+            else
+                future.completeExceptionally(failure);
+        });
+        return future;
+    }
+
+    private static SearchResult createResult(final SearchContext context, final SearchThread[] threads,
+                                             final Position root) {
+        long nodes = 0;
+        for (SearchThread thread : threads)
+            nodes += thread.nodes();
+        int[] pv = threads[0].completedPv();
+        int score = threads[0].completedScore();
+        // Stopped before the first iteration was completed
+        if (pv.length == 0) {
+            int[] buffer = new int[Position.MAX_MOVES];
+            if (root.generateLegalMoves(buffer, 0) > 0)
+                pv = new int[]{buffer[0]};
+            else
+                score = root.inCheck() ? -SearchResult.SCORE_MATE : 0;
+        }
+        ArrayList<Move> moves = new ArrayList<>(pv.length);
+        for (int move : pv)
+            moves.add(root.toMove(move));
+        return new SearchResult(moves, score, threads[0].completedDepth(), nodes, context.elapsedMillis());
+    }
+
+    /**
+     * Searches the current position and waits for the result.
+     *
+     * @param depth          maximum depth, or 0 for no limit
+     * @param moveTimeMillis maximum search time in milliseconds, or 0 for no limit
+     * @return the result of the search
+     * @see #go(int, long, long)
+     */
+    public SearchResult search(final int depth, final long moveTimeMillis) {
+        return go(depth, moveTimeMillis, 0).join();
+    }
+
+    /**
+     * Searches the current position to given depth and returns the best move, same as {@link
+     * md.jgames.jchess.logic.Utilities#getBestMove(mdlib.utils.io.ExecutableProcess, int) Utilities.getBestMove()}
+     * does with an external engine.
+     *
+     * @param depth the depth of the search
+     * @return the best move, or {@code null} if there is no legal move
+     */
+    public Move getBestMove(final int depth) {
+        return search(depth, 0).bestMove();
+    }
+
+    /**
+     * Stops the running search, if any. The search finishes with the best move found so far.
+     */
+    public synchronized void stop() {
+        if (runningSearch != null)
+            runningSearch.stopped = true;
+    }
+
+    /**
+     * Returns if a search is running.
+     *
+     * @return if a search is running
+     */
+    public synchronized boolean isSearching() {
+        return runningSearch != null;
+    }
+
+    private void requireNotSearching() {
+        if (runningSearch != null)
+            throw new IllegalStateException("Search is running");
+    }
+
+    private void shutdownThreads() {
+        if (executor != null)
+            executor.shutdown();
+        executor = null;
+        searchThreads = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!isDisposed()) {
+            stop();
+            shutdownThreads();
+            table = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isDisposed() {
+        return table == null;
+    }
+}
@@ -0,0 +1,134 @@
+package md.jgames.jchess.engine;
+
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Move.PawnPromotion;
+import md.jgames.jchess.logic.Square;
+
+/**
+ * Static methods for working with moves encoded as {@code int}s, which are used by {@link Position} and the search
+ * instead of {@link Move} objects. Bits 0&ndash;5 hold the square the piece moves from, bits 6&ndash;11 the square the
+ * piece moves to (both in the same numbering as {@link Square#hashCode()}), bits 12&ndash;14 the pawn promotion (same
+ * values as {@link PawnPromotion#hashCode()}) and bits 15&ndash;17 special move flags. Value {@link #NONE} represents no
+ * move at all.
+ *
+ * @author Michal Douša
+ * @see Position
+ */
+public final class EngineMove {
+
+    // Do not create any instances
+    private EngineMove() {
+    }
+
+    /**
+     * Represents no move.
+     */
+    public static final int NONE = 0;
+
+    /**
+     * Flag of castling moves.
+     */
+    public static final int FLAG_CASTLING = 1;
+
+    /**
+     * Flag of en passant captures.
+     */
+    public static final int FLAG_EN_PASSANT = 2;
+
+    /**
+     * Flag of pawn moves by two squares.
+     */
+    public static final int FLAG_DOUBLE_PUSH = 4;
+
+    /**
+     * Encodes a move.
+     *
+     * @param from      the square the piece moves from
+     * @param to        the square the piece moves to
+     * @param promotion pawn promotion as in {@link PawnPromotion#hashCode()}
+     * @param flags     special move flags
+     * @return the encoded move
+     */
+    public static int encode(final int from, final int to, final int promotion, final int flags) {
+        return from | (to << 6) | (promotion << 12) | (flags << 15);
+    }
+
+    /**
+     * Returns the square the piece moves from.
+     *
+     * @param move encoded move
+     * @return index of the square
+     */
+    public static int from(final int move) {
+        return move & 63;
+    }
+
+    /**
+     * Returns the square the piece moves to.
+     *
+     * @param move encoded move
+     * @return index of the square
+     */
+    public static int to(final int move) {
+        return (move >>> 6) & 63;
+    }
+
+    /**
+     * Returns the pawn promotion, same values as {@link PawnPromotion#hashCode()} are used.
+     *
+     * @param move encoded move
+     * @return the pawn promotion
+     */
+    public static int promotion(final int move) {
+        return (move >>> 12) & 7;
+    }
+
+    /**
+     * Returns special move flags.
+     *
+     * @param move encoded move
+     * @return the flags
+     */
+    public static int flags(final int move) {
+        return move >>> 15;
+    }
+
+    /**
+     * Converts an encoded move into a {@link Move} object. Castling is written in the standard notation, i.e. as the
+     * king moving two squares.
+     *
+     * @param move encoded move
+     * @return the {@link Move} object, or {@code null} if {@link #NONE} is given
+     * @see #toMove(int, boolean)
+     */
+    public static Move toMove(final int move) {
+        return toMove(move, false);
+    }
+
+    /**
+     * Converts an encoded move into a {@link Move} object. Castling is encoded as the king capturing own rook, which is
+     * also the Chess960 notation. In the standard notation the king moves to g- or c-file instead.
+     *
+     * @param move     encoded move
+     * @param chess960 if castling should be written in Chess960 notation
+     * @return the {@link Move} object, or {@code null} if {@link #NONE} is given
+     */
+    public static Move toMove(final int move, final boolean chess960) {
+        if (move == NONE)
+            return null;
+        int from = from(move), to = to(move);
+        if (!chess960 && (flags(move) & FLAG_CASTLING) != 0)
+            to = (from & 56) + (to > from ? 6 : 2);
+        return new Move(new Square(from), new Square(to), PawnPromotion.fromHashCode(promotion(move)));
+    }
+
+    /**
+     * Returns encoded move in UCI notation.
+     *
+     * @param move encoded move
+     * @return the move in UCI notation
+     */
+    public static String toString(final int move) {
+        return move == NONE ? "0000" : toMove(move).toString();
+    }
+}
@@ -0,0 +1,335 @@
+package md.jgames.jchess.engine;
+
+import md.jgames.jchess.logic.Chessboard;
+
+import java.util.Arrays;
+
+/**
+ * Static evaluation of positions. Material and piece-square terms are kept up to date by {@link Position} on every
+ * made and unmade move, separately for middlegame and endgame, and blended by the game phase. Pawn structure and king
+ * shelter depend only on pawns and kings, so they are cached in a pawn hash table keyed by {@link Position#pawnKey()}.
+ * Evaluating a position does not allocate any objects.
+ *
+ * <p>Instances are not thread-safe, every search thread uses its own instance.</p>
+ *
+ * @author Michal Douša
+ * @see SearchThread
+ */
+public final class Evaluation {
+
+    /**
+     * Values of pieces in centipawns, indexed by piece type. These are middlegame values.
+     */
+    public static final int[] PIECE_VALUES = {0, 100, 320, 330, 500, 900, 0};
+
+    /**
+     * Game phase of the starting position. Phase of a position is the sum of {@link #PHASE_WEIGHTS} of all pieces
+     * except pawns and kings and it decreases as pieces are traded off.
+     */
+    public static final int MAX_PHASE = 24;
+
+    /**
+     * Weights of pieces in the game phase, indexed by piece type.
+     */
+    public static final int[] PHASE_WEIGHTS = {0, 0, 1, 1, 2, 4, 0};
+
+    private static final int[] ENDGAME_VALUES = {0, 120, 290, 310, 530, 950, 0};
+
+    // Middlegame piece-square tables from White's point of view, indexed by piece type and square (a1 = 0)
+    private static final int[][] MIDDLEGAME_TABLES = {
+            {},
+            { // Pawn
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    5, 10, 10, -20, -20, 10, 10, 5,
+                    5, -5, -10, 0, 0, -10, -5, 5,
+                    0, 0, 0, 20, 20, 0, 0, 0,
+                    5, 5, 10, 25, 25, 10, 5, 5,
+                    10, 10, 20, 30, 30, 20, 10, 10,
+                    50, 50, 50, 50, 50, 50, 50, 50,
+                    0, 0, 0, 0, 0, 0, 0, 0},
+            { // Knight
+                    -50, -40, -30, -30, -30, -30, -40, -50,
+                    -40, -20, 0, 5, 5, 0, -20, -40,
+                    -30, 5, 10, 15, 15, 10, 5, -30,
+                    -30, 0, 15, 20, 20, 15, 0, -30,
+                    -30, 5, 15, 20, 20, 15, 5, -30,
+                    -30, 0, 10, 15, 15, 10, 0, -30,
+                    -40, -20, 0, 0, 0, 0, -20, -40,
+                    -50, -40, -30, -30, -30, -30, -40, -50},
+            { // Bishop
+                    -20, -10, -10, -10, -10, -10, -10, -20,
+                    -10, 5, 0, 0, 0, 0, 5, -10,
+                    -10, 10, 10, 10, 10, 10, 10, -10,
+                    -10, 0, 10, 10, 10, 10, 0, -10,
+                    -10, 5, 5, 10, 10, 5, 5, -10,
+                    -10, 0, 5, 10, 10, 5, 0, -10,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -20, -10, -10, -10, -10, -10, -10, -20},
+            { // Rook
+                    0, 0, 0, 5, 5, 0, 0, 0,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    5, 10, 10, 10, 10, 10, 10, 5,
+                    0, 0, 0, 0, 0, 0, 0, 0},
+            { // Queen
+                    -20, -10, -10, -5, -5, -10, -10, -20,
+                    -10, 0, 5, 0, 0, 0, 0, -10,
+                    -10, 5, 5, 5, 5, 5, 0, -10,
+                    0, 0, 5, 5, 5, 5, 0, -5,
+                    -5, 0, 5, 5, 5, 5, 0, -5,
+                    -10, 0, 5, 5, 5, 5, 0, -10,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -20, -10, -10, -5, -5, -10, -10, -20},
+            { // King
+                    20, 30, 10, 0, 0, 10, 30, 20,
+                    20, 20, 0, 0, 0, 0, 20, 20,
+                    -10, -20, -20, -20, -20, -20, -20, -10,
+                    -20, -30, -30, -40, -40, -30, -30, -20,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30}
+    };
+
+    // Endgame piece-square tables, see MIDDLEGAME_TABLES
+    private static final int[][] ENDGAME_TABLES = {
+            {},
+            { // Pawn
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    5, 5, 5, 5, 5, 5, 5, 5,
+                    10, 10, 10, 10, 10, 10, 10, 10,
+                    20, 20, 20, 20, 20, 20, 20, 20,
+                    35, 35, 35, 35, 35, 35, 35, 35,
+                    60, 60, 60, 60, 60, 60, 60, 60,
+                    0, 0, 0, 0, 0, 0, 0, 0},
+            { // Knight
+                    -50, -40, -30, -30, -30, -30, -40, -50,
+                    -40, -20, 0, 0, 0, 0, -20, -40,
+                    -30, 0, 10, 15, 15, 10, 0, -30,
+                    -30, 5, 15, 20, 20, 15, 5, -30,
+                    -30, 5, 15, 20, 20, 15, 5, -30,
+                    -30, 0, 10, 15, 15, 10, 0, -30,
+                    -40, -20, 0, 0, 0, 0, -20, -40,
+                    -50, -40, -30, -30, -30, -30, -40, -50},
+            { // Bishop
+                    -20, -10, -10, -10, -10, -10, -10, -20,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -10, 0, 5, 10, 10, 5, 0, -10,
+                    -10, 5, 10, 15, 15, 10, 5, -10,
+                    -10, 5, 10, 15, 15, 10, 5, -10,
+                    -10, 0, 5, 10, 10, 5, 0, -10,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -20, -10, -10, -10, -10, -10, -10, -20},
+            { // Rook
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    10, 10, 10, 10, 10, 10, 10, 10,
+                    0, 0, 0, 0, 0, 0, 0, 0},
+            { // Queen
+                    -20, -10, -10, -5, -5, -10, -10, -20,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -10, 0, 5, 5, 5, 5, 0, -10,
+                    -5, 0, 5, 10, 10, 5, 0, -5,
+                    -5, 0, 5, 10, 10, 5, 0, -5,
+                    -10, 0, 5, 5, 5, 5, 0, -10,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -20, -10, -10, -5, -5, -10, -10, -20},
+            { // King
+                    -50, -30, -30, -30, -30, -30, -30, -50,
+                    -30, -30, 0, 0, 0, 0, -30, -30,
+                    -30, -10, 20, 30, 30, 20, -10, -30,
+                    -30, -10, 30, 40, 40, 30, -10, -30,
+                    -30, -10, 30, 40, 40, 30, -10, -30,
+                    -30, -10, 20, 30, 30, 20, -10, -30,
+                    -30, -20, -10, 0, 0, -10, -20, -30,
+                    -50, -40, -30, -20, -20, -30, -40, -50}
+    };
+
+    /**
+     * Middlegame and endgame value of a piece including the material, indexed by piece constant from {@link
+     * Chessboard} and square. Values of Black pieces are negative. Used by {@link Position} to update its scores.
+     */
+    static final int[][] MIDDLEGAME_SQUARE_VALUES = new int[13][64], ENDGAME_SQUARE_VALUES = new int[13][64];
+
+    // Pawn structure and king shelter terms as {middlegame, endgame}
+    private static final int[] DOUBLED_PAWN = {-10, -20};
+    private static final int[] ISOLATED_PAWN = {-10, -15};
+    // Passed pawn bonus indexed by rank relative to the owner of the pawn
+    private static final int[][] PASSED_PAWN = {
+            {0, 5, 10, 15, 25, 40, 60, 0},
+            {0, 10, 20, 35, 60, 100, 150, 0}};
+    // King shelter, middlegame only: own pawn one or two ranks in front of the king, no own pawn on the file at all
+    private static final int SHELTER_CLOSE = 12, SHELTER_FAR = 6, SHELTER_MISSING = -20, SHELTER_OPEN_FILE = -10;
+
+    private static final long FILE_A = 0x0101010101010101L;
+    private static final long[] FILES = new long[8];
+    private static final long[] ADJACENT_FILES = new long[8];
+    // Squares which must be free of enemy pawns for a pawn to be passed, indexed by color and square
+    private static final long[][] PASSED_MASKS = new long[2][64];
+
+    static {
+        for (int piece = Chessboard.PIECE_WHITE_PAWN; piece <= Chessboard.PIECE_BLACK_KING; piece++) {
+            int type = Position.typeOf(piece);
+            boolean white = Position.colorOf(piece) == Position.WHITE;
+            for (int square = 0; square < 64; square++) {
+                int tableSquare = white ? square : square ^ 56;
+                int middlegame = PIECE_VALUES[type] + MIDDLEGAME_TABLES[type][tableSquare];
+                int endgame = ENDGAME_VALUES[type] + ENDGAME_TABLES[type][tableSquare];
+                MIDDLEGAME_SQUARE_VALUES[piece][square] = white ? middlegame : -middlegame;
+                ENDGAME_SQUARE_VALUES[piece][square] = white ? endgame : -endgame;
+            }
+        }
+        for (int file = 0; file < 8; file++)
+            FILES[file] = FILE_A << file;
+        for (int file = 0; file < 8; file++)
+            ADJACENT_FILES[file] = (file > 0 ? FILES[file - 1] : 0) | (file < 7 ? FILES[file + 1] : 0);
+        for (int square = 0; square < 64; square++) {
+            int rank = square >> 3;
+            long span = FILES[square & 7] | ADJACENT_FILES[square & 7];
+            // Ranks in front of the pawn for White and for Black
+            long whiteFront = rank == 7 ? 0 : -1L << (8 * (rank + 1));
+            long blackFront = rank == 0 ? 0 : -1L >>> (8 * (8 - rank));
+            PASSED_MASKS[Position.WHITE][square] = span & whiteFront;
+            PASSED_MASKS[Position.BLACK][square] = span & blackFront;
+        }
+    }
+
+    private final long[] pawnTable;
+    private final int pawnTableMask;
+    private int noise;
+
+    /**
+     * Creates an evaluation with a pawn hash table of 16384 entries.
+     */
+    public Evaluation() {
+        this(16384);
+    }
+
+    /**
+     * Creates an evaluation with a pawn hash table of given size.
+     *
+     * @param pawnTableEntries count of entries of the pawn hash table, rounded down to a power of two
+     * @throws IllegalArgumentException if the count is not positive
+     */
+    public Evaluation(final int pawnTableEntries) {
+        if (pawnTableEntries <= 0)
+            throw new IllegalArgumentException("Pawn hash table size must be positive");
+        int entries = Integer.highestOneBit(pawnTableEntries);
+        pawnTable = new long[entries * 2];
+        pawnTableMask = entries - 1;
+    }
+
+    /**
+     * Sets the amplitude of pseudo-random noise added to every evaluation, used to weaken the engine on lower skill
+     * levels. The noise of a position is derived from its key, so it is the same every time the position is
+     * evaluated.
+     *
+     * @param amplitude maximum noise in centipawns, 0 to disable
+     * @throws IllegalArgumentException if the amplitude is negative
+     */
+    public void setNoise(final int amplitude) {
+        if (amplitude < 0)
+            throw new IllegalArgumentException("Noise amplitude cannot be negative");
+        this.noise = amplitude;
+    }
+
+    /**
+     * Evaluates given position.
+     *
+     * @param position the position to evaluate
+     * @return score in centipawns from the point of view of the side to move
+     */
+    public int evaluate(final Position position) {
+        long pawnKey = position.pawnKey();
+        int index = ((int) pawnKey & pawnTableMask) << 1;
+        long pawnScores;
+        if (pawnTable[index] == pawnKey) {
+            pawnScores = pawnTable[index + 1];
+        } else {
+            pawnScores = evaluatePawns(position);
+            pawnTable[index] = pawnKey;
+            pawnTable[index + 1] = pawnScores;
+        }
+
+        int middlegame = position.middlegameScore() + (int) (pawnScores >> 32);
+        int endgame = position.endgameScore() + (int) pawnScores;
+        int phase = Math.min(position.phase(), MAX_PHASE);
+        int score = (middlegame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+
+        if (noise > 0) {
+            long hash = position.key() * 0x9E3779B97F4A7C15L;
+            score += (int) ((hash >>> 33) % (2 * noise + 1)) - noise;
+        }
+        return position.sideToMove() == Position.WHITE ? score : -score;
+    }
+
+    /**
+     * Removes all entries from the pawn hash table.
+     */
+    public void clear() {
+        Arrays.fill(pawnTable, 0L);
+    }
+
+    // Returns middlegame score in the upper half and endgame score in the lower half
+    private static long evaluatePawns(final Position position) {
+        int middlegame = 0, endgame = 0;
+        for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+            int sign = color == Position.WHITE ? 1 : -1;
+            long ours = position.pawnBitboard(color);
+            long theirs = position.pawnBitboard(color ^ 1);
+
+            for (int file = 0; file < 8; file++) {
+                long onFile = ours & FILES[file];
+                if (onFile == 0)
+                    continue;
+                int count = Long.bitCount(onFile);
+                if (count > 1) {
+                    middlegame += sign * DOUBLED_PAWN[0] * (count - 1);
+                    endgame += sign * DOUBLED_PAWN[1] * (count - 1);
+                }
+                if ((ours & ADJACENT_FILES[file]) == 0) {
+                    middlegame += sign * ISOLATED_PAWN[0] * count;
+                    endgame += sign * ISOLATED_PAWN[1] * count;
+                }
+            }
+
+            for (long pawns = ours; pawns != 0; pawns &= pawns - 1) {
+                int square = Long.numberOfTrailingZeros(pawns);
+                if ((theirs & PASSED_MASKS[color][square]) == 0) {
+                    int rank = color == Position.WHITE ? square >> 3 : 7 - (square >> 3);
+                    middlegame += sign * PASSED_PAWN[0][rank];
+                    endgame += sign * PASSED_PAWN[1][rank];
+                }
+            }
+
+            middlegame += sign * kingShelter(position.kingSquare(color), color, ours, theirs);
+        }
+        return ((long) middlegame << 32) | (endgame & 0xFFFFFFFFL);
+    }
+
+    // Shelter of the king by own pawns on its file and both adjacent files
+    private static int kingShelter(final int kingSquare, final int color, final long ours, final long theirs) {
+        int kingFile = kingSquare & 7, kingRank = kingSquare >> 3;
+        int forward = color == Position.WHITE ? 1 : -1;
+        int score = 0;
+        for (int file = Math.max(0, kingFile - 1); file <= Math.min(7, kingFile + 1); file++) {
+            long onFile = ours & FILES[file];
+            int closeRank = kingRank + forward, farRank = kingRank + 2 * forward;
+            if (closeRank >= 0 && closeRank < 8 && (onFile & (1L << (closeRank * 8 + file))) != 0)
+                score += SHELTER_CLOSE;
+            else if (farRank >= 0 && farRank < 8 && (onFile & (1L << (farRank * 8 + file))) != 0)
+                score += SHELTER_FAR;
+            else if (onFile == 0)
+                score += (theirs & FILES[file]) == 0 ? SHELTER_MISSING + SHELTER_OPEN_FILE : SHELTER_MISSING;
+        }
+        return score;
+    }
+}
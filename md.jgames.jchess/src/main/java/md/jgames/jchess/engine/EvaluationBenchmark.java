@@ -0,0 +1,54 @@
+package md.jgames.jchess.engine;
+
+/**
+ * Measures throughput of making a move, evaluating the position and unmaking the move, the innermost work of the
+ * search. It is run by hand, e.g. to compare changes of {@link Position} or {@link Evaluation}, and is not a part of
+ * tests, so their results do not depend on speed of the machine.
+ *
+ * @author Michal Douša
+ */
+public final class EvaluationBenchmark {
+
+    private static final String DEFAULT_FEN = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+    private static final int DEFAULT_ITERATIONS = 20000;
+
+    private EvaluationBenchmark() {
+        // Do not create any instance
+    }
+
+    /**
+     * Makes, evaluates and unmakes every legal move of a position repeatedly and prints how many times per second it
+     * was done. Arguments are the count of iterations and FEN of the position, both optional. The first half of
+     * iterations warms up the JVM and is not measured.
+     *
+     * @param args the arguments
+     */
+    public static void main(final String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        Position position = new Position(args.length > 1 ? args[1] : DEFAULT_FEN);
+        Evaluation evaluation = new Evaluation();
+        int[] buffer = new int[Position.MAX_MOVES];
+        int count = position.generateLegalMoves(buffer, 0);
+
+        long sum = run(position, evaluation, buffer, count, iterations / 2);
+        long start = System.nanoTime();
+        sum += run(position, evaluation, buffer, count, iterations);
+        long nanos = System.nanoTime() - start;
+        long evaluations = (long) iterations * count;
+        // The checksum is printed, so evaluations cannot be optimized away
+        System.out.println("Make, evaluate and unmake: " + evaluations * 1_000_000_000L / Math.max(1, nanos)
+                + " per second (checksum " + sum + ")");
+    }
+
+    private static long run(final Position position, final Evaluation evaluation, final int[] moves, final int count,
+                            final int iterations) {
+        long sum = 0;
+        for (int i = 0; i < iterations; i++)
+            for (int j = 0; j < count; j++) {
+                position.makeMove(moves[j]);
+                sum += evaluation.evaluate(position);
+                position.unmakeMove();
+            }
+        return sum;
+    }
+}
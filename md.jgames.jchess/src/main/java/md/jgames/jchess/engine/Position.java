@@ -0,0 +1,1066 @@
+package md.jgames.jchess.engine;
+
+import md.jgames.jchess.logic.Chessboard;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Utilities;
+
+import java.util.Arrays;
+
+/**
+ * Mutable chess position with legal move generation and fast make/unmake of moves encoded by {@link EngineMove}. Pieces
+ * are represented by the same constants as in {@link Chessboard} and squares are numbered same as by {@link
+ * md.jgames.jchess.logic.Square#hashCode() Square.hashCode()}, e.g. a1 &rarr; 0, b1 &rarr; 1, &hellip;, h8 &rarr; 63.
+ * Making and unmaking moves does not allocate any objects, so this class is suitable for in-process search.
+ *
+ * @author Michal Douša
+ * @see EngineMove
+ * @see EmbeddedEngine
+ */
+public final class Position {
+
+    /**
+     * Index of White side.
+     */
+    public static final int WHITE = 0;
+
+    /**
+     * Index of Black side.
+     */
+    public static final int BLACK = 1;
+
+    /**
+     * Piece type constants. Piece type of a piece constant from {@link Chessboard} is returned by {@link
+     * #typeOf(int)}.
+     */
+    public static final int PAWN = 1, KNIGHT = 2, BISHOP = 3, ROOK = 4, QUEEN = 5, KING = 6;
+
+    /**
+     * Castling rights bits.
+     */
+    public static final int CASTLING_WHITE_KINGSIDE = 1, CASTLING_WHITE_QUEENSIDE = 2,
+            CASTLING_BLACK_KINGSIDE = 4, CASTLING_BLACK_QUEENSIDE = 8;
+
+    /**
+     * Maximum count of pseudo-legal moves in any position.
+     */
+    public static final int MAX_MOVES = 256;
+
+    // Piece type to which pawn promotes, indexed by PawnPromotion hash code
+    private static final int[] PROMOTION_TYPES = {0, ROOK, KNIGHT, BISHOP, QUEEN};
+
+    // Attack tables
+    static final int[][] KNIGHT_TARGETS = new int[64][];
+    static final int[][] KING_TARGETS = new int[64][];
+    // Rays in all eight directions, first four are orthogonal, other are diagonal
+    static final int[][][] RAYS = new int[64][8][];
+
+    static {
+        int[][] knightSteps = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        int[][] kingSteps = {{0, 1}, {0, -1}, {1, 0}, {-1, 0}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+        for (int square = 0; square < 64; square++) {
+            int rank = square >> 3, file = square & 7;
+            KNIGHT_TARGETS[square] = targets(rank, file, knightSteps);
+            KING_TARGETS[square] = targets(rank, file, kingSteps);
+            for (int direction = 0; direction < 8; direction++) {
+                int[] ray = new int[7];
+                int length = 0;
+                int r = rank + kingSteps[direction][0], f = file + kingSteps[direction][1];
+                while (r >= 0 && r < 8 && f >= 0 && f < 8) {
+                    ray[length++] = r * 8 + f;
+                    r += kingSteps[direction][0];
+                    f += kingSteps[direction][1];
+                }
+                RAYS[square][direction] = Arrays.copyOf(ray, length);
+            }
+        }
+    }
+
+    private static int[] targets(final int rank, final int file, final int[][] steps) {
+        int[] targets = new int[steps.length];
+        int count = 0;
+        for (int[] step : steps) {
+            int r = rank + step[0], f = file + step[1];
+            if (r >= 0 && r < 8 && f >= 0 && f < 8)
+                targets[count++] = r * 8 + f;
+        }
+        return Arrays.copyOf(targets, count);
+    }
+
+    private final byte[] board = new byte[64];
+    private final int[] kingSquares = new int[2];
+    private int side;
+    private int castling;
+    private int enPassantSquare;
+    private int halfmoveClock;
+    private int fullmoveNumber;
+    private long key;
+
+    // Squares of the castling rooks indexed by the bit of the castling right, castling rights kept when a piece moves
+    // from or to the square, and if castling is written in Chess960 notation
+    private final int[] castlingRooks = new int[4];
+    private final int[] castlingMasks = new int[64];
+    private boolean chess960;
+
+    // Incrementally updated evaluation terms, see Evaluation
+    private final int[] pieceCounts = new int[13];
+    private final long[] pawns = new long[2];
+    private long pawnKey;
+    private int middlegameScore;
+    private int endgameScore;
+    private int phase;
+
+    // Undo information, one entry for every made move
+    private int ply;
+    private long[] keyStack = new long[256];
+    private int[] stateStack = new int[256];
+    private int[] moveStack = new int[256];
+
+    /**
+     * Creates position with the standard starting position.
+     */
+    public Position() {
+        this(Utilities.FEN_STARTING_POSITION);
+    }
+
+    /**
+     * Creates position from given FEN.
+     *
+     * @param fen FEN of the position
+     * @throws md.jgames.jchess.logic.IllegalFENException if invalid FEN is given
+     */
+    public Position(final String fen) {
+        setFEN(fen);
+    }
+
+    /**
+     * Creates a deep copy of given position, including the history of made moves.
+     *
+     * @param position position to be copied
+     */
+    public Position(final Position position) {
+        copyFrom(position);
+    }
+
+    /**
+     * Makes this position deep copy of given position, including the history of made moves.
+     *
+     * @param position position to be copied
+     */
+    public void copyFrom(final Position position) {
+        System.arraycopy(position.board, 0, board, 0, 64);
+        kingSquares[WHITE] = position.kingSquares[WHITE];
+        kingSquares[BLACK] = position.kingSquares[BLACK];
+        side = position.side;
+        castling = position.castling;
+        System.arraycopy(position.castlingRooks, 0, castlingRooks, 0, 4);
+        System.arraycopy(position.castlingMasks, 0, castlingMasks, 0, 64);
+        chess960 = position.chess960;
+        enPassantSquare = position.enPassantSquare;
+        halfmoveClock = position.halfmoveClock;
+        fullmoveNumber = position.fullmoveNumber;
+        key = position.key;
+        System.arraycopy(position.pieceCounts, 0, pieceCounts, 0, 13);
+        pawns[WHITE] = position.pawns[WHITE];
+        pawns[BLACK] = position.pawns[BLACK];
+        pawnKey = position.pawnKey;
+        middlegameScore = position.middlegameScore;
+        endgameScore = position.endgameScore;
+        phase = position.phase;
+        ply = position.ply;
+        if (keyStack.length < position.keyStack.length) {
+            keyStack = new long[position.keyStack.length];
+            stateStack = new int[position.keyStack.length];
+            moveStack = new int[position.keyStack.length];
+        }
+        System.arraycopy(position.keyStack, 0, keyStack, 0, ply);
+        System.arraycopy(position.stateStack, 0, stateStack, 0, ply);
+        System.arraycopy(position.moveStack, 0, moveStack, 0, ply);
+    }
+
+    // Piece helpers ----------------------------------------------------------
+
+    /**
+     * Returns the color of given piece.
+     *
+     * @param piece piece constant from {@link Chessboard}, other than {@link Chessboard#PIECE_NONE}
+     * @return {@link #WHITE} or {@link #BLACK}
+     */
+    public static int colorOf(final int piece) {
+        return piece > Chessboard.PIECE_WHITE_KING ? BLACK : WHITE;
+    }
+
+    /**
+     * Returns the type of given piece.
+     *
+     * @param piece piece constant from {@link Chessboard}
+     * @return one of piece type constants, e.g. {@link #PAWN}, or 0 if {@link Chessboard#PIECE_NONE} is given
+     */
+    public static int typeOf(final int piece) {
+        return piece > Chessboard.PIECE_WHITE_KING ? piece - 6 : piece;
+    }
+
+    /**
+     * Returns piece constant from {@link Chessboard} of given color and type.
+     *
+     * @param color {@link #WHITE} or {@link #BLACK}
+     * @param type  piece type, e.g. {@link #PAWN}
+     * @return the piece constant
+     */
+    public static int pieceOf(final int color, final int type) {
+        return type + 6 * color;
+    }
+
+    // Getters ----------------------------------------------------------------
+
+    /**
+     * Returns piece on given square.
+     *
+     * @param square index of the square
+     * @return piece constant from {@link Chessboard}
+     */
+    public int pieceAt(final int square) {
+        return board[square];
+    }
+
+    /**
+     * Returns the side to move.
+     *
+     * @return {@link #WHITE} or {@link #BLACK}
+     */
+    public int sideToMove() {
+        return side;
+    }
+
+    /**
+     * Returns the castling rights as a bit set of {@code CASTLING_*} constants.
+     *
+     * @return castling rights
+     */
+    public int castlingRights() {
+        return castling;
+    }
+
+    /**
+     * Returns the square of the rook which castles using given castling right.
+     *
+     * @param right one of {@code CASTLING_*} constants
+     * @return square of the castling rook, or -1 if the right was not present in the FEN the position was set from
+     */
+    public int castlingRookSquare(final int right) {
+        int index = Integer.numberOfTrailingZeros(right);
+        if (Integer.bitCount(right) != 1 || index > 3)
+            throw new IllegalArgumentException("Invalid castling right: " + right);
+        return castlingRooks[index];
+    }
+
+    /**
+     * Returns if castling moves are written in Chess960 notation, i.e. as the king capturing own rook, and castling
+     * rights in FEN by the files of the castling rooks.
+     *
+     * @return if Chess960 notation is used
+     * @see #setChess960(boolean)
+     */
+    public boolean isChess960() {
+        return chess960;
+    }
+
+    /**
+     * Sets if castling moves are written in Chess960 notation. {@link #setFEN(String)} turns it on automatically when
+     * the castling rights cannot be written in the standard notation.
+     *
+     * @param chess960 if Chess960 notation should be used
+     * @throws IllegalStateException if turning the Chess960 notation off for a position whose castling cannot be
+     *                               written in the standard notation
+     */
+    public void setChess960(final boolean chess960) {
+        if (!chess960 && requiresChess960())
+            throw new IllegalStateException("Castling cannot be written in standard notation");
+        this.chess960 = chess960;
+    }
+
+    private boolean requiresChess960() {
+        for (int index = 0; index < 4; index++) {
+            if ((castling & (1 << index)) == 0)
+                continue;
+            int rank = index < 2 ? 0 : 56;
+            if (kingSquares[index >> 1] != rank + 4 || castlingRooks[index] != rank + ((index & 1) == 0 ? 7 : 0))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns en passant target square, or -1 if no en passant capture is possible.
+     *
+     * @return en passant target square
+     */
+    public int enPassantSquare() {
+        return enPassantSquare;
+    }
+
+    /**
+     * Returns count of halfmoves since the last capture or pawn move.
+     *
+     * @return the halfmove clock
+     */
+    public int halfmoveClock() {
+        return halfmoveClock;
+    }
+
+    /**
+     * Returns the fullmove number.
+     *
+     * @return the fullmove number
+     */
+    public int fullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    /**
+     * Returns square of the king of given side.
+     *
+     * @param color {@link #WHITE} or {@link #BLACK}
+     * @return index of the square
+     */
+    public int kingSquare(final int color) {
+        return kingSquares[color];
+    }
+
+    /**
+     * Returns Zobrist hash of the position. Two equal positions always have the same hash.
+     *
+     * @return 64-bit hash of the position
+     */
+    public long key() {
+        return key;
+    }
+
+    /**
+     * Returns Zobrist hash of pawns and kings only. Used as the key of the pawn hash table of {@link Evaluation}.
+     *
+     * @return 64-bit hash of pawns and kings
+     */
+    public long pawnKey() {
+        return pawnKey;
+    }
+
+    /**
+     * Returns bit set of squares occupied by pawns of given side, square {@code n} is represented by bit {@code n}.
+     *
+     * @param color {@link #WHITE} or {@link #BLACK}
+     * @return bit set of pawns
+     */
+    public long pawnBitboard(final int color) {
+        return pawns[color];
+    }
+
+    /**
+     * Returns how many pieces of given kind are on the board.
+     *
+     * @param piece piece constant from {@link Chessboard}
+     * @return count of the pieces
+     */
+    public int pieceCount(final int piece) {
+        return pieceCounts[piece];
+    }
+
+    /**
+     * Returns material and piece-square score for the middlegame from White's point of view.
+     *
+     * @return middlegame score in centipawns
+     */
+    public int middlegameScore() {
+        return middlegameScore;
+    }
+
+    /**
+     * Returns material and piece-square score for the endgame from White's point of view.
+     *
+     * @return endgame score in centipawns
+     */
+    public int endgameScore() {
+        return endgameScore;
+    }
+
+    /**
+     * Returns the game phase, {@link Evaluation#MAX_PHASE} in the starting position, 0 when only pawns and kings are
+     * left. The phase may exceed the maximum after promotions.
+     *
+     * @return the game phase
+     */
+    public int phase() {
+        return phase;
+    }
+
+    /**
+     * Returns count of moves made on this position since the FEN was set.
+     *
+     * @return count of made moves
+     */
+    public int ply() {
+        return ply;
+    }
+
+    // FEN --------------------------------------------------------------------
+
+    /**
+     * Sets the position from given FEN. History of made moves is discarded.
+     *
+     * @param fen FEN of the position
+     * @throws md.jgames.jchess.logic.IllegalFENException if invalid FEN is given
+     */
+    public void setFEN(final String fen) {
+        Utilities.assertFENValidity(fen);
+        String[] fields = fen.split(" ");
+        byte[][] pieces = Utilities.mapPieces(fen);
+
+        Arrays.fill(board, (byte) 0);
+        Arrays.fill(pieceCounts, 0);
+        Arrays.fill(pawns, 0L);
+        key = pawnKey = 0;
+        middlegameScore = endgameScore = phase = 0;
+        for (int square = 0; square < 64; square++) {
+            int piece = pieces[square >> 3][square & 7];
+            if (piece != Chessboard.PIECE_NONE)
+                putPiece(square, piece);
+        }
+
+        side = fields[1].equals("w") ? WHITE : BLACK;
+        castling = 0;
+        Arrays.fill(castlingRooks, -1);
+        Arrays.fill(castlingMasks, 15);
+        boolean fileLetters = false;
+        for (char ch : fields[2].toCharArray()) {
+            if (ch == '-')
+                continue;
+            int color = Character.isUpperCase(ch) ? WHITE : BLACK;
+            int rank = color == WHITE ? 0 : 56;
+            int rook = pieceOf(color, ROOK), king = kingSquares[color];
+            // Castling rights which cannot be used are ignored
+            if (board[king] != pieceOf(color, KING) || (king & 56) != rank)
+                continue;
+            int rookSquare = -1;
+            char lower = Character.toLowerCase(ch);
+            if (lower == 'k') {
+                // X-FEN: the outermost rook on the king side
+                for (int square = rank + 7; square > king && rookSquare < 0; square--)
+                    if (board[square] == rook)
+                        rookSquare = square;
+            } else if (lower == 'q') {
+                for (int square = rank; square < king && rookSquare < 0; square++)
+                    if (board[square] == rook)
+                        rookSquare = square;
+            } else {
+                fileLetters = true;
+                if (board[rank + lower - 'a'] == rook && rank + lower - 'a' != king)
+                    rookSquare = rank + lower - 'a';
+            }
+            if (rookSquare < 0)
+                continue;
+            int right = 1 << (2 * color + (rookSquare > king ? 0 : 1));
+            castling |= right;
+            castlingRooks[2 * color + (rookSquare > king ? 0 : 1)] = rookSquare;
+            castlingMasks[rookSquare] &= ~right;
+            castlingMasks[king] &= ~right;
+        }
+        chess960 = fileLetters || requiresChess960();
+
+        enPassantSquare = -1;
+        if (!fields[3].equals("-")) {
+            int square = (fields[3].charAt(1) - '1') * 8 + (fields[3].charAt(0) - 'a');
+            if (canCaptureEnPassant(square, side))
+                enPassantSquare = square;
+        }
+        halfmoveClock = Integer.parseInt(fields[4]);
+        fullmoveNumber = Math.max(1, Integer.parseInt(fields[5]));
+
+        if (side == BLACK)
+            key ^= Zobrist.SIDE;
+        key ^= Zobrist.CASTLING[castling];
+        if (enPassantSquare >= 0)
+            key ^= Zobrist.EN_PASSANT[enPassantSquare & 7];
+        ply = 0;
+    }
+
+    /**
+     * Returns FEN of the position.
+     *
+     * @return FEN of the position
+     */
+    public String toFEN() {
+        StringBuilder fen = new StringBuilder(90);
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int piece = board[rank * 8 + file];
+                if (piece == Chessboard.PIECE_NONE)
+                    empty++;
+                else {
+                    if (empty > 0)
+                        fen.append(empty);
+                    empty = 0;
+                    fen.append(" PNBRQKpnbrqk".charAt(piece));
+                }
+            }
+            if (empty > 0)
+                fen.append(empty);
+            if (rank > 0)
+                fen.append('/');
+        }
+        fen.append(side == WHITE ? " w " : " b ");
+        if (castling == 0)
+            fen.append('-');
+        for (int index = 0; index < 4; index++)
+            if ((castling & (1 << index)) != 0) {
+                // Shredder-FEN in Chess960, e.g. HAha
+                char ch = chess960 ? (char) ('a' + (castlingRooks[index] & 7)) : "kqkq".charAt(index);
+                fen.append(index < 2 ? Character.toUpperCase(ch) : ch);
+            }
+        fen.append(' ');
+        if (enPassantSquare < 0)
+            fen.append('-');
+        else {
+            fen.append((char) ('a' + (enPassantSquare & 7)));
+            fen.append((char) ('1' + (enPassantSquare >> 3)));
+        }
+        fen.append(' ');
+        fen.append(halfmoveClock);
+        fen.append(' ');
+        fen.append(fullmoveNumber);
+        return fen.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toFEN();
+    }
+
+    // Board manipulation -----------------------------------------------------
+
+    // All changes of the board go through these three methods, which keep the keys and evaluation terms up to date
+
+    private void putPiece(final int square, final int piece) {
+        board[square] = (byte) piece;
+        key ^= Zobrist.PIECES[piece][square];
+        middlegameScore += Evaluation.MIDDLEGAME_SQUARE_VALUES[piece][square];
+        endgameScore += Evaluation.ENDGAME_SQUARE_VALUES[piece][square];
+        pieceCounts[piece]++;
+        int type = typeOf(piece);
+        phase += Evaluation.PHASE_WEIGHTS[type];
+        if (type == PAWN) {
+            pawns[colorOf(piece)] |= 1L << square;
+            pawnKey ^= Zobrist.PIECES[piece][square];
+        } else if (type == KING) {
+            kingSquares[colorOf(piece)] = square;
+            pawnKey ^= Zobrist.PIECES[piece][square];
+        }
+    }
+
+    private void removePiece(final int square) {
+        int piece = board[square];
+        board[square] = Chessboard.PIECE_NONE;
+        key ^= Zobrist.PIECES[piece][square];
+        middlegameScore -= Evaluation.MIDDLEGAME_SQUARE_VALUES[piece][square];
+        endgameScore -= Evaluation.ENDGAME_SQUARE_VALUES[piece][square];
+        pieceCounts[piece]--;
+        int type = typeOf(piece);
+        phase -= Evaluation.PHASE_WEIGHTS[type];
+        if (type == PAWN) {
+            pawns[colorOf(piece)] &= ~(1L << square);
+            pawnKey ^= Zobrist.PIECES[piece][square];
+        } else if (type == KING) {
+            pawnKey ^= Zobrist.PIECES[piece][square];
+        }
+    }
+
+    private void movePiece(final int from, final int to) {
+        int piece = board[from];
+        board[from] = Chessboard.PIECE_NONE;
+        board[to] = (byte) piece;
+        long keyChange = Zobrist.PIECES[piece][from] ^ Zobrist.PIECES[piece][to];
+        key ^= keyChange;
+        middlegameScore += Evaluation.MIDDLEGAME_SQUARE_VALUES[piece][to]
+                - Evaluation.MIDDLEGAME_SQUARE_VALUES[piece][from];
+        endgameScore += Evaluation.ENDGAME_SQUARE_VALUES[piece][to] - Evaluation.ENDGAME_SQUARE_VALUES[piece][from];
+        int type = typeOf(piece);
+        if (type == PAWN) {
+            pawns[colorOf(piece)] ^= (1L << from) | (1L << to);
+            pawnKey ^= keyChange;
+        } else if (type == KING) {
+            kingSquares[colorOf(piece)] = to;
+            pawnKey ^= keyChange;
+        }
+    }
+
+    // Is there a pawn of given side that could capture en passant on given square?
+    private boolean canCaptureEnPassant(final int square, final int color) {
+        int pawnRank = color == WHITE ? 4 : 3;
+        if ((square >> 3) != (color == WHITE ? 5 : 2))
+            return false;
+        int file = square & 7;
+        int pawn = pieceOf(color, PAWN);
+        return (file > 0 && board[pawnRank * 8 + file - 1] == pawn)
+                || (file < 7 && board[pawnRank * 8 + file + 1] == pawn);
+    }
+
+    private void ensureStackCapacity() {
+        if (ply == keyStack.length) {
+            keyStack = Arrays.copyOf(keyStack, ply * 2);
+            stateStack = Arrays.copyOf(stateStack, ply * 2);
+            moveStack = Arrays.copyOf(moveStack, ply * 2);
+        }
+    }
+
+    /**
+     * Makes given pseudo-legal move. The move must have been generated for this position, otherwise the behaviour is
+     * undefined. Use {@link #unmakeMove()} to take the move back.
+     *
+     * @param move encoded move
+     * @see #generateMoves(int[], int, boolean)
+     */
+    public void makeMove(final int move) {
+        int from = EngineMove.from(move), to = EngineMove.to(move);
+        int flags = EngineMove.flags(move);
+        int piece = board[from];
+        int captureSquare = (flags & EngineMove.FLAG_EN_PASSANT) != 0 ? (to & 7) | (from & 56) : to;
+        int captured = (flags & EngineMove.FLAG_CASTLING) != 0 ? Chessboard.PIECE_NONE : board[captureSquare];
+
+        // Save the state for unmakeMove()
+        ensureStackCapacity();
+        keyStack[ply] = key;
+        stateStack[ply] = captured | (castling << 4) | ((enPassantSquare + 1) << 8) | (halfmoveClock << 16);
+        moveStack[ply] = move;
+        ply++;
+
+        if (enPassantSquare >= 0)
+            key ^= Zobrist.EN_PASSANT[enPassantSquare & 7];
+        enPassantSquare = -1;
+        halfmoveClock++;
+
+        if ((flags & EngineMove.FLAG_CASTLING) != 0) {
+            // Encoded as the king capturing own rook, both pieces are lifted first as their squares may overlap
+            int rank = from & 56;
+            boolean kingside = to > from;
+            int king = board[from], rook = board[to];
+            removePiece(from);
+            removePiece(to);
+            putPiece(rank + (kingside ? 6 : 2), king);
+            putPiece(rank + (kingside ? 5 : 3), rook);
+        } else {
+            if (captured != Chessboard.PIECE_NONE) {
+                removePiece(captureSquare);
+                halfmoveClock = 0;
+            }
+            movePiece(from, to);
+            int promotion = EngineMove.promotion(move);
+            if (promotion != 0) {
+                removePiece(to);
+                putPiece(to, pieceOf(side, PROMOTION_TYPES[promotion]));
+            }
+            if (typeOf(piece) == PAWN) {
+                halfmoveClock = 0;
+                if ((flags & EngineMove.FLAG_DOUBLE_PUSH) != 0 && canCaptureEnPassant((from + to) >> 1, side ^ 1)) {
+                    enPassantSquare = (from + to) >> 1;
+                    key ^= Zobrist.EN_PASSANT[enPassantSquare & 7];
+                }
+            }
+        }
+
+        key ^= Zobrist.CASTLING[castling];
+        castling &= castlingMasks[from] & castlingMasks[to];
+        key ^= Zobrist.CASTLING[castling];
+
+        if (side == BLACK)
+            fullmoveNumber++;
+        side ^= 1;
+        key ^= Zobrist.SIDE;
+    }
+
+    /**
+     * Takes back the last move made by {@link #makeMove(int)} or {@link #makeNullMove()}.
+     *
+     * @throws IllegalStateException if there is no move to take back
+     */
+    public void unmakeMove() {
+        if (ply == 0)
+            throw new IllegalStateException("No move to unmake");
+        ply--;
+        int move = moveStack[ply];
+        int state = stateStack[ply];
+
+        side ^= 1;
+        if (side == BLACK)
+            fullmoveNumber--;
+
+        if (move != EngineMove.NONE) {
+            int from = EngineMove.from(move), to = EngineMove.to(move);
+            int flags = EngineMove.flags(move);
+            if ((flags & EngineMove.FLAG_CASTLING) != 0) {
+                int rank = from & 56;
+                boolean kingside = to > from;
+                int king = board[rank + (kingside ? 6 : 2)], rook = board[rank + (kingside ? 5 : 3)];
+                removePiece(rank + (kingside ? 6 : 2));
+                removePiece(rank + (kingside ? 5 : 3));
+                putPiece(from, king);
+                putPiece(to, rook);
+            } else {
+                if (EngineMove.promotion(move) != 0) {
+                    removePiece(to);
+                    putPiece(to, pieceOf(side, PAWN));
+                }
+                movePiece(to, from);
+                int captured = state & 15;
+                if (captured != Chessboard.PIECE_NONE)
+                    putPiece((flags & EngineMove.FLAG_EN_PASSANT) != 0 ? (to & 7) | (from & 56) : to, captured);
+            }
+        }
+
+        castling = (state >>> 4) & 15;
+        enPassantSquare = ((state >>> 8) & 127) - 1;
+        halfmoveClock = state >>> 16;
+        key = keyStack[ply];
+    }
+
+    /**
+     * Passes the turn to the opponent without moving. Used by the null move pruning. Must not be called when the side
+     * to move is in check.
+     */
+    public void makeNullMove() {
+        ensureStackCapacity();
+        keyStack[ply] = key;
+        stateStack[ply] = (castling << 4) | ((enPassantSquare + 1) << 8) | (halfmoveClock << 16);
+        moveStack[ply] = EngineMove.NONE;
+        ply++;
+
+        if (enPassantSquare >= 0)
+            key ^= Zobrist.EN_PASSANT[enPassantSquare & 7];
+        enPassantSquare = -1;
+        halfmoveClock++;
+        if (side == BLACK)
+            fullmoveNumber++;
+        side ^= 1;
+        key ^= Zobrist.SIDE;
+    }
+
+    // Attacks ----------------------------------------------------------------
+
+    /**
+     * Returns if given square is attacked by any piece of given side.
+     *
+     * @param square index of the square
+     * @param by     attacking side, {@link #WHITE} or {@link #BLACK}
+     * @return if the square is attacked
+     */
+    public boolean isAttacked(final int square, final int by) {
+        int file = square & 7;
+        // Pawns
+        if (by == WHITE) {
+            if (file < 7 && square >= 7 && board[square - 7] == Chessboard.PIECE_WHITE_PAWN)
+                return true;
+            if (file > 0 && square >= 9 && board[square - 9] == Chessboard.PIECE_WHITE_PAWN)
+                return true;
+        } else {
+            if (file > 0 && square < 57 && board[square + 7] == Chessboard.PIECE_BLACK_PAWN)
+                return true;
+            if (file < 7 && square < 55 && board[square + 9] == Chessboard.PIECE_BLACK_PAWN)
+                return true;
+        }
+        // Knights and king
+        int knight = pieceOf(by, KNIGHT);
+        for (int target : KNIGHT_TARGETS[square])
+            if (board[target] == knight)
+                return true;
+        int king = pieceOf(by, KING);
+        for (int target : KING_TARGETS[square])
+            if (board[target] == king)
+                return true;
+        // Sliding pieces
+        int queen = pieceOf(by, QUEEN);
+        for (int direction = 0; direction < 8; direction++) {
+            int slider = pieceOf(by, direction < 4 ? ROOK : BISHOP);
+            for (int target : RAYS[square][direction]) {
+                int piece = board[target];
+                if (piece != Chessboard.PIECE_NONE) {
+                    if (piece == slider || piece == queen)
+                        return true;
+                    break;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns if the side to move is in check.
+     *
+     * @return if the side to move is in check
+     */
+    public boolean inCheck() {
+        return isAttacked(kingSquares[side], side ^ 1);
+    }
+
+    /**
+     * Returns if given side has at least one piece other than pawns and king.
+     *
+     * @param color {@link #WHITE} or {@link #BLACK}
+     * @return if the side has a piece other than pawns and king
+     */
+    public boolean hasNonPawnMaterial(final int color) {
+        for (int type = KNIGHT; type <= QUEEN; type++)
+            if (pieceCounts[pieceOf(color, type)] > 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns if the current position occurred already since the last irreversible move.
+     *
+     * @return if the position is repeated
+     */
+    public boolean isRepetition() {
+        int limit = Math.max(0, ply - halfmoveClock);
+        for (int i = ply - 2; i >= limit; i -= 2)
+            if (keyStack[i] == key)
+                return true;
+        return false;
+    }
+
+    // Move generation --------------------------------------------------------
+
+    /**
+     * Generates pseudo-legal moves into given buffer. Moves may leave own king in check, use {@link #isLegal(int)} to
+     * filter them out. Castling moves are generated only when they are fully legal.
+     *
+     * @param buffer       buffer for the moves, at least {@link #MAX_MOVES} entries after {@code offset}
+     * @param offset       index of the first move in the buffer
+     * @param capturesOnly if only captures and promotions should be generated
+     * @return index after the last generated move
+     */
+    public int generateMoves(final int[] buffer, final int offset, final boolean capturesOnly) {
+        int count = offset;
+        int us = side, them = side ^ 1;
+        for (int from = 0; from < 64; from++) {
+            int piece = board[from];
+            if (piece == Chessboard.PIECE_NONE || colorOf(piece) != us)
+                continue;
+            switch (typeOf(piece)) {
+                case PAWN:
+                    count = generatePawnMoves(buffer, count, from, capturesOnly);
+                    break;
+                case KNIGHT:
+                    count = generateStepMoves(buffer, count, from, KNIGHT_TARGETS[from], capturesOnly);
+                    break;
+                case KING:
+                    count = generateStepMoves(buffer, count, from, KING_TARGETS[from], capturesOnly);
+                    break;
+                case BISHOP:
+                    count = generateSlidingMoves(buffer, count, from, 4, 8, capturesOnly);
+                    break;
+                case ROOK:
+                    count = generateSlidingMoves(buffer, count, from, 0, 4, capturesOnly);
+                    break;
+                case QUEEN:
+                    count = generateSlidingMoves(buffer, count, from, 0, 8, capturesOnly);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!capturesOnly && castling != 0 && !isAttacked(kingSquares[us], them))
+            count = generateCastlingMoves(buffer, count);
+        return count;
+    }
+
+    private int generatePawnMoves(final int[] buffer, int count, final int from, final boolean capturesOnly) {
+        int us = side;
+        int forward = us == WHITE ? 8 : -8;
+        int rank = from >> 3, file = from & 7;
+        int startRank = us == WHITE ? 1 : 6;
+        int lastRank = us == WHITE ? 6 : 1;
+        boolean promoting = rank == lastRank;
+        int to = from + forward;
+
+        // Pushes
+        if (board[to] == Chessboard.PIECE_NONE) {
+            if (promoting)
+                count = addPromotions(buffer, count, from, to, capturesOnly);
+            else if (!capturesOnly) {
+                buffer[count++] = EngineMove.encode(from, to, 0, 0);
+                if (rank == startRank && board[to + forward] == Chessboard.PIECE_NONE)
+                    buffer[count++] = EngineMove.encode(from, to + forward, 0, EngineMove.FLAG_DOUBLE_PUSH);
+            }
+        }
+        // Captures
+        for (int df = -1; df <= 1; df += 2) {
+            if (file + df < 0 || file + df > 7)
+                continue;
+            int target = to + df;
+            int piece = board[target];
+            if (piece != Chessboard.PIECE_NONE && colorOf(piece) != us) {
+                if (promoting)
+                    count = addPromotions(buffer, count, from, target, false);
+                else
+                    buffer[count++] = EngineMove.encode(from, target, 0, 0);
+            } else if (target == enPassantSquare)
+                buffer[count++] = EngineMove.encode(from, target, 0, EngineMove.FLAG_EN_PASSANT);
+        }
+        return count;
+    }
+
+    private static int addPromotions(final int[] buffer, int count, final int from, final int to,
+                                     final boolean queenOnly) {
+        // Queen first, it is usually the best one
+        buffer[count++] = EngineMove.encode(from, to, 4, 0);
+        if (!queenOnly)
+            for (int promotion = 1; promotion <= 3; promotion++)
+                buffer[count++] = EngineMove.encode(from, to, promotion, 0);
+        return count;
+    }
+
+    private int generateStepMoves(final int[] buffer, int count, final int from, final int[] targets,
+                                  final boolean capturesOnly) {
+        for (int to : targets) {
+            int piece = board[to];
+            if (piece == Chessboard.PIECE_NONE) {
+                if (!capturesOnly)
+                    buffer[count++] = EngineMove.encode(from, to, 0, 0);
+            } else if (colorOf(piece) != side)
+                buffer[count++] = EngineMove.encode(from, to, 0, 0);
+        }
+        return count;
+    }
+
+    private int generateSlidingMoves(final int[] buffer, int count, final int from, final int firstDirection,
+                                     final int lastDirection, final boolean capturesOnly) {
+        for (int direction = firstDirection; direction < lastDirection; direction++)
+            for (int to : RAYS[from][direction]) {
+                int piece = board[to];
+                if (piece == Chessboard.PIECE_NONE) {
+                    if (!capturesOnly)
+                        buffer[count++] = EngineMove.encode(from, to, 0, 0);
+                } else {
+                    if (colorOf(piece) != side)
+                        buffer[count++] = EngineMove.encode(from, to, 0, 0);
+                    break;
+                }
+            }
+        return count;
+    }
+
+    private int generateCastlingMoves(final int[] buffer, int count) {
+        int them = side ^ 1;
+        int king = kingSquares[side];
+        for (int index = 2 * side; index < 2 * side + 2; index++) {
+            if ((castling & (1 << index)) == 0)
+                continue;
+            int rook = castlingRooks[index];
+            int rank = king & 56;
+            int kingTo = rank + ((index & 1) == 0 ? 6 : 2), rookTo = rank + ((index & 1) == 0 ? 5 : 3);
+            // Squares passed by the king and the rook must be empty except the two castling pieces
+            int low = Math.min(Math.min(king, kingTo), Math.min(rook, rookTo));
+            int high = Math.max(Math.max(king, kingTo), Math.max(rook, rookTo));
+            boolean possible = true;
+            for (int square = low; square <= high && possible; square++)
+                if (square != king && square != rook && board[square] != Chessboard.PIECE_NONE)
+                    possible = false;
+            // The king must not stand on or pass an attacked square, its destination is checked by isLegal()
+            int step = kingTo > king ? 1 : -1;
+            for (int square = king; square != kingTo && possible; square += step)
+                if (isAttacked(square, them))
+                    possible = false;
+            if (possible)
+                buffer[count++] = EngineMove.encode(king, rook, 0, EngineMove.FLAG_CASTLING);
+        }
+        return count;
+    }
+
+    /**
+     * Returns if given pseudo-legal move does not leave own king in check.
+     *
+     * @param move pseudo-legal move generated for this position
+     * @return if the move is legal
+     */
+    public boolean isLegal(final int move) {
+        int us = side;
+        makeMove(move);
+        boolean legal = !isAttacked(kingSquares[us], us ^ 1);
+        unmakeMove();
+        return legal;
+    }
+
+    /**
+     * Generates legal moves into given buffer.
+     *
+     * @param buffer buffer for the moves, at least {@link #MAX_MOVES} entries after {@code offset}
+     * @param offset index of the first move in the buffer
+     * @return index after the last generated move
+     */
+    public int generateLegalMoves(final int[] buffer, final int offset) {
+        int end = generateMoves(buffer, offset, false);
+        int count = offset;
+        for (int i = offset; i < end; i++)
+            if (isLegal(buffer[i]))
+                buffer[count++] = buffer[i];
+        return count;
+    }
+
+    /**
+     * Finds legal move in this position equal to given {@link Move}.
+     *
+     * @param move the move
+     * @return encoded legal move, or {@link EngineMove#NONE} if the move is not legal in this position
+     */
+    public int findMove(final Move move) {
+        int[] buffer = new int[MAX_MOVES];
+        int count = generateLegalMoves(buffer, 0);
+        int from = move.squareFrom().hashCode(), to = move.squareTo().hashCode();
+        int promotion = move.pawnPromotion().hashCode();
+        for (int i = 0; i < count; i++) {
+            int candidate = buffer[i];
+            if (EngineMove.from(candidate) != from || EngineMove.promotion(candidate) != promotion)
+                continue;
+            if (EngineMove.to(candidate) == to)
+                return candidate;
+            // Castling in the standard notation, given by the destination of the king
+            if (!chess960 && (EngineMove.flags(candidate) & EngineMove.FLAG_CASTLING) != 0
+                    && EngineMove.toMove(candidate, false).squareTo().hashCode() == to)
+                return candidate;
+        }
+        return EngineMove.NONE;
+    }
+
+    /**
+     * Converts an encoded move into a {@link Move} object, writing castling in the notation used by this position.
+     *
+     * @param move encoded move
+     * @return the {@link Move} object, or {@code null} if {@link EngineMove#NONE} is given
+     * @see #isChess960()
+     */
+    public Move toMove(final int move) {
+        return EngineMove.toMove(move, chess960);
+    }
+
+    /**
+     * Counts leaf nodes of the legal move tree of given depth. Used to verify the move generator.
+     *
+     * @param depth depth of the tree
+     * @return count of leaf nodes
+     */
+    public long perft(final int depth) {
+        return perft(depth, new int[(depth + 1) * MAX_MOVES]);
+    }
+
+    private long perft(final int depth, final int[] buffer) {
+        int offset = depth * MAX_MOVES;
+        int end = generateLegalMoves(buffer, offset);
+        if (depth <= 1)
+            return depth == 1 ? end - offset : 1;
+        long nodes = 0;
+        for (int i = offset; i < end; i++) {
+            makeMove(buffer[i]);
+            nodes += perft(depth - 1, buffer);
+            unmakeMove();
+        }
+        return nodes;
+    }
+}
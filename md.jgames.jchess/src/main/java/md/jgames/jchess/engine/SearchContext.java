@@ -0,0 +1,51 @@
+package md.jgames.jchess.engine;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * State shared by all threads of one search: the transposition table, search limits and the stop flag.
+ *
+ * @author Michal Douša
+ * @see SearchThread
+ */
+final class SearchContext {
+
+    final TranspositionTable table;
+    final int maxDepth;
+    final long deadline;
+    final long nodeLimit;
+    final long startTime;
+    final int evaluationNoise;
+    final CountDownLatch finished;
+    volatile boolean stopped;
+
+    /**
+     * Creates a search context.
+     *
+     * @param table           the shared transposition table
+     * @param maxDepth        maximum depth to be searched
+     * @param moveTimeMillis  maximum search time in milliseconds, or 0 for no limit
+     * @param nodeLimit       maximum count of nodes searched by the main thread, or 0 for no limit
+     * @param threadCount     count of threads taking part in the search
+     * @param evaluationNoise amplitude of noise added to evaluations in centipawns, see {@link Evaluation#setNoise(int)}
+     */
+    SearchContext(final TranspositionTable table, final int maxDepth, final long moveTimeMillis,
+                  final long nodeLimit, final int threadCount, final int evaluationNoise) {
+        this.table = table;
+        this.maxDepth = maxDepth;
+        this.startTime = System.nanoTime();
+        this.deadline = moveTimeMillis > 0 ? startTime + moveTimeMillis * 1_000_000L : Long.MAX_VALUE;
+        this.nodeLimit = nodeLimit > 0 ? nodeLimit : Long.MAX_VALUE;
+        this.finished = new CountDownLatch(threadCount);
+        this.evaluationNoise = evaluationNoise;
+    }
+
+    /**
+     * Returns milliseconds elapsed since the search started.
+     *
+     * @return elapsed time in milliseconds
+     */
+    long elapsedMillis() {
+        return (System.nanoTime() - startTime) / 1_000_000L;
+    }
+}
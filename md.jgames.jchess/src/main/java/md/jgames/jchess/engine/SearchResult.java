@@ -0,0 +1,143 @@
+package md.jgames.jchess.engine;
+
+import md.jgames.jchess.logic.Move;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a search done by {@link EmbeddedEngine}. Instances of this class are immutable.
+ *
+ * @author Michal Douša
+ * @see EmbeddedEngine#search(int, long)
+ */
+public final class SearchResult {
+
+    /**
+     * Score of a position where the side to move gives mate immediately. Scores of mates in more moves are lower by
+     * the count of plies to the mate.
+     */
+    public static final int SCORE_MATE = 32000;
+
+    // Scores above this limit are mate scores
+    static final int SCORE_MATE_BOUND = SCORE_MATE - 1000;
+
+    private final List<Move> principalVariation;
+    private final int score;
+    private final int depth;
+    private final long nodes;
+    private final long timeMillis;
+
+    SearchResult(final List<Move> principalVariation, final int score, final int depth, final long nodes,
+                 final long timeMillis) {
+        this.principalVariation = Collections.unmodifiableList(principalVariation);
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.timeMillis = timeMillis;
+    }
+
+    /**
+     * Returns the best move found, or {@code null} if there is no legal move in the position.
+     *
+     * @return the best move
+     */
+    public Move bestMove() {
+        return principalVariation.isEmpty() ? null : principalVariation.get(0);
+    }
+
+    /**
+     * Returns the expected reply to the best move, or {@code null} if it is not known.
+     *
+     * @return the expected reply
+     */
+    public Move ponderMove() {
+        return principalVariation.size() < 2 ? null : principalVariation.get(1);
+    }
+
+    /**
+     * Returns unmodifiable {@link List} of moves of the principal variation, starting by the best move.
+     *
+     * @return the principal variation
+     */
+    public List<Move> principalVariation() {
+        return principalVariation;
+    }
+
+    /**
+     * Returns the score in centipawns from the point of view of the side to move. For mate scores see {@link
+     * #isMate()}.
+     *
+     * @return the score
+     */
+    public int score() {
+        return score;
+    }
+
+    /**
+     * Returns if the score is a mate score.
+     *
+     * @return if a forced mate was found
+     */
+    public boolean isMate() {
+        return Math.abs(score) > SCORE_MATE_BOUND;
+    }
+
+    /**
+     * Returns count of moves to mate as used by UCI protocol: positive if the side to move mates, negative if it gets
+     * mated. Returns 0 if the score is not a mate score.
+     *
+     * @return moves to mate
+     */
+    public int mateIn() {
+        if (!isMate())
+            return 0;
+        return score > 0 ? (SCORE_MATE - score + 1) / 2 : -(SCORE_MATE + score) / 2;
+    }
+
+    /**
+     * Returns the depth of the last completed iteration.
+     *
+     * @return the depth
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns the count of searched nodes by all threads.
+     *
+     * @return count of nodes
+     */
+    public long nodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns how long the search took in milliseconds.
+     *
+     * @return search time in milliseconds
+     */
+    public long timeMillis() {
+        return timeMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("depth ");
+        builder.append(depth);
+        builder.append(isMate() ? " score mate " : " score cp ");
+        builder.append(isMate() ? mateIn() : score);
+        builder.append(" nodes ");
+        builder.append(nodes);
+        builder.append(" time ");
+        builder.append(timeMillis);
+        builder.append(" pv");
+        for (Move move : principalVariation) {
+            builder.append(' ');
+            builder.append(move);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,398 @@
+package md.jgames.jchess.engine;
+
+import md.jgames.jchess.logic.Chessboard;
+
+import java.util.Arrays;
+
+import static md.jgames.jchess.engine.SearchResult.SCORE_MATE;
+import static md.jgames.jchess.engine.SearchResult.SCORE_MATE_BOUND;
+
+/**
+ * One thread of the search. Every thread has its own copy of the position, killer moves and history table, the
+ * transposition table is shared. The thread with index 0 is the main thread, whose principal variation is the result of
+ * the search. Other threads are helpers of Lazy SMP: they search the same position with slightly different depths and
+ * their only job is to fill the shared transposition table.
+ *
+ * <p>Search is an iterative deepening principal variation search with aspiration windows, null move pruning, late move
+ * reductions and quiescence search. Moves are ordered by the transposition table move, captures by MVV-LVA, killer
+ * moves and history heuristic. All buffers are allocated once, so no objects are created during the search.</p>
+ *
+ * @author Michal Douša
+ * @see EmbeddedEngine
+ */
+final class SearchThread implements Runnable {
+
+    static final int MAX_PLY = 128;
+
+    private static final int INFINITY = SCORE_MATE + 1;
+    private static final int HISTORY_LIMIT = 1 << 20;
+
+    private final int id;
+    private final Position position = new Position();
+    private final Evaluation evaluation = new Evaluation();
+    private final int[] moves = new int[MAX_PLY * Position.MAX_MOVES];
+    private final int[] moveScores = new int[MAX_PLY * Position.MAX_MOVES];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[] history = new int[2 * 64 * 64];
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+
+    private SearchContext context;
+    private long nodes;
+    private int completedDepth;
+    private int completedScore;
+    private int[] completedPv = new int[0];
+
+    SearchThread(final int id) {
+        this.id = id;
+    }
+
+    /**
+     * Prepares the thread for a new search.
+     *
+     * @param context the context of the search
+     * @param root    position to be searched, it is copied
+     */
+    void prepare(final SearchContext context, final Position root) {
+        this.context = context;
+        this.position.copyFrom(root);
+        this.evaluation.setNoise(context.evaluationNoise);
+        this.nodes = 0;
+        this.completedDepth = 0;
+        this.completedScore = 0;
+        this.completedPv = new int[0];
+        for (int[] killer : killers)
+            Arrays.fill(killer, EngineMove.NONE);
+        // Keep some knowledge from the previous search
+        for (int i = 0; i < history.length; i++)
+            history[i] >>= 2;
+    }
+
+    long nodes() {
+        return nodes;
+    }
+
+    int completedDepth() {
+        return completedDepth;
+    }
+
+    int completedScore() {
+        return completedScore;
+    }
+
+    int[] completedPv() {
+        return completedPv;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int score = 0;
+            // Helpers start at different depths, so threads do not search the same nodes at the same time
+            for (int depth = 1 + (id & 1); depth <= context.maxDepth; depth++) {
+                score = aspirationSearch(depth, score);
+                if (context.stopped)
+                    break;
+                if (id == 0) {
+                    completedDepth = depth;
+                    completedScore = score;
+                    completedPv = Arrays.copyOf(pv[0], pvLength[0]);
+                    // Mate found, deeper search will not find anything better
+                    if (Math.abs(score) > SCORE_MATE_BOUND && SCORE_MATE - Math.abs(score) <= depth)
+                        break;
+                }
+            }
+        } finally {
+            // When the main thread is done, helpers are done too
+            if (id == 0)
+                context.stopped = true;
+            context.finished.countDown();
+        }
+    }
+
+    private int aspirationSearch(final int depth, final int previousScore) {
+        if (depth < 5 || Math.abs(previousScore) > SCORE_MATE_BOUND)
+            return search(depth, -INFINITY, INFINITY, 0, true);
+        int window = 40;
+        int alpha = previousScore - window, beta = previousScore + window;
+        while (true) {
+            int score = search(depth, alpha, beta, 0, true);
+            if (context.stopped)
+                return score;
+            if (score <= alpha)
+                alpha = Math.max(-INFINITY, alpha - window);
+            else if (score >= beta)
+                beta = Math.min(INFINITY, beta + window);
+            else
+                return score;
+            window *= 2;
+        }
+    }
+
+    private void checkLimits() {
+        if (System.nanoTime() > context.deadline || (id == 0 && nodes > context.nodeLimit))
+            context.stopped = true;
+    }
+
+    private int search(int depth, int alpha, int beta, final int ply, final boolean allowNull) {
+        pvLength[ply] = ply;
+        boolean pvNode = beta - alpha > 1;
+
+        if (ply > 0) {
+            if (position.halfmoveClock() >= 100 || position.isRepetition())
+                return 0;
+            // Mate distance pruning
+            alpha = Math.max(alpha, -SCORE_MATE + ply);
+            beta = Math.min(beta, SCORE_MATE - ply - 1);
+            if (alpha >= beta)
+                return alpha;
+        }
+
+        boolean inCheck = position.inCheck();
+        if (inCheck)
+            depth++;
+        if (depth <= 0)
+            return quiescence(alpha, beta, ply);
+        if (ply >= MAX_PLY - 1)
+            return evaluation.evaluate(position);
+
+        nodes++;
+        if ((nodes & 2047) == 0)
+            checkLimits();
+        if (context.stopped)
+            return 0;
+
+        // Transposition table
+        long key = position.key();
+        long entry = context.table.probe(key);
+        int tableMove = EngineMove.NONE;
+        if (entry != 0) {
+            tableMove = TranspositionTable.move(entry);
+            if (!pvNode && TranspositionTable.depth(entry) >= depth) {
+                int score = scoreFromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.BOUND_EXACT
+                        || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                        || (bound == TranspositionTable.BOUND_UPPER && score <= alpha))
+                    return score;
+            }
+        }
+
+        // Null move pruning
+        if (!pvNode && !inCheck && allowNull && depth >= 3
+                && position.hasNonPawnMaterial(position.sideToMove()) && evaluation.evaluate(position) >= beta) {
+            position.makeNullMove();
+            int score = -search(depth - 3, -beta, -beta + 1, ply + 1, false);
+            position.unmakeMove();
+            if (context.stopped)
+                return 0;
+            if (score >= beta)
+                return score > SCORE_MATE_BOUND ? beta : score;
+        }
+
+        int offset = ply * Position.MAX_MOVES;
+        int end = position.generateMoves(moves, offset, false);
+        scoreMoves(offset, end, tableMove, ply);
+
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = EngineMove.NONE;
+        int legalMoves = 0;
+        int us = position.sideToMove();
+
+        for (int i = offset; i < end; i++) {
+            int move = pickMove(i, end);
+            boolean quiet = isQuiet(move);
+            position.makeMove(move);
+            if (position.isAttacked(position.kingSquare(us), us ^ 1)) {
+                position.unmakeMove();
+                continue;
+            }
+            legalMoves++;
+
+            int score;
+            if (legalMoves == 1)
+                score = -search(depth - 1, -beta, -alpha, ply + 1, true);
+            else {
+                // Late quiet moves are searched with reduced depth first
+                int reduction = depth >= 3 && legalMoves > 3 && quiet && !inCheck && !position.inCheck() ? 1 : 0;
+                score = -search(depth - 1 - reduction, -alpha - 1, -alpha, ply + 1, true);
+                if (score > alpha && reduction > 0)
+                    score = -search(depth - 1, -alpha - 1, -alpha, ply + 1, true);
+                if (score > alpha && score < beta)
+                    score = -search(depth - 1, -beta, -alpha, ply + 1, true);
+            }
+            position.unmakeMove();
+            if (context.stopped)
+                return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        if (quiet)
+                            updateQuietStatistics(move, depth, ply, us);
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (legalMoves == 0)
+            return inCheck ? -SCORE_MATE + ply : 0;
+
+        int bound = bestScore >= beta ? TranspositionTable.BOUND_LOWER
+                : bestScore > originalAlpha ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+        context.table.store(key, bestMove, scoreToTable(bestScore, ply), depth, bound);
+        return bestScore;
+    }
+
+    private int quiescence(int alpha, final int beta, final int ply) {
+        pvLength[ply] = ply;
+        nodes++;
+        if ((nodes & 2047) == 0)
+            checkLimits();
+        if (context.stopped)
+            return 0;
+        if (ply >= MAX_PLY - 1)
+            return evaluation.evaluate(position);
+
+        // When in check, all evasions are searched and standing pat is not possible
+        boolean inCheck = position.inCheck();
+        int bestScore = -INFINITY;
+        if (!inCheck) {
+            int standPat = evaluation.evaluate(position);
+            if (standPat >= beta)
+                return standPat;
+            if (standPat > alpha)
+                alpha = standPat;
+            bestScore = standPat;
+        }
+
+        int offset = ply * Position.MAX_MOVES;
+        int end = position.generateMoves(moves, offset, !inCheck);
+        scoreMoves(offset, end, EngineMove.NONE, ply);
+
+        int legalMoves = 0;
+        int us = position.sideToMove();
+        for (int i = offset; i < end; i++) {
+            int move = pickMove(i, end);
+            position.makeMove(move);
+            if (position.isAttacked(position.kingSquare(us), us ^ 1)) {
+                position.unmakeMove();
+                continue;
+            }
+            legalMoves++;
+            int score = -quiescence(-beta, -alpha, ply + 1);
+            position.unmakeMove();
+            if (context.stopped)
+                return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (score >= beta)
+                        break;
+                }
+            }
+        }
+
+        if (inCheck && legalMoves == 0)
+            return -SCORE_MATE + ply;
+        return bestScore;
+    }
+
+    // Move ordering ----------------------------------------------------------
+
+    private boolean isQuiet(final int move) {
+        // Castling is encoded as the king capturing own rook
+        if ((EngineMove.flags(move) & EngineMove.FLAG_CASTLING) != 0)
+            return true;
+        return position.pieceAt(EngineMove.to(move)) == Chessboard.PIECE_NONE && EngineMove.promotion(move) == 0
+                && (EngineMove.flags(move) & EngineMove.FLAG_EN_PASSANT) == 0;
+    }
+
+    private void scoreMoves(final int offset, final int end, final int tableMove, final int ply) {
+        int side = position.sideToMove();
+        for (int i = offset; i < end; i++) {
+            int move = moves[i];
+            int score;
+            if (move == tableMove)
+                score = 1 << 30;
+            else if (!isQuiet(move)) {
+                int victim = Position.typeOf(position.pieceAt(EngineMove.to(move)));
+                int attacker = Position.typeOf(position.pieceAt(EngineMove.from(move)));
+                // Most valuable victim, least valuable attacker; promotions count as capturing a queen
+                if (EngineMove.promotion(move) == 4 || (EngineMove.flags(move) & EngineMove.FLAG_EN_PASSANT) != 0)
+                    victim = Math.max(victim, EngineMove.promotion(move) == 4 ? Position.QUEEN : Position.PAWN);
+                score = (1 << 26) + victim * 16 - attacker;
+            } else if (move == killers[ply][0])
+                score = 1 << 25;
+            else if (move == killers[ply][1])
+                score = 1 << 24;
+            else
+                score = history[historyIndex(side, move)];
+            moveScores[i] = score;
+        }
+    }
+
+    // Selects the best scored move from the rest of the list and moves it to the given index
+    private int pickMove(final int index, final int end) {
+        int best = index;
+        for (int i = index + 1; i < end; i++)
+            if (moveScores[i] > moveScores[best])
+                best = i;
+        int move = moves[best];
+        moves[best] = moves[index];
+        moves[index] = move;
+        int score = moveScores[best];
+        moveScores[best] = moveScores[index];
+        moveScores[index] = score;
+        return move;
+    }
+
+    private static int historyIndex(final int side, final int move) {
+        return (side << 12) | (EngineMove.from(move) << 6) | EngineMove.to(move);
+    }
+
+    private void updateQuietStatistics(final int move, final int depth, final int ply, final int side) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        int index = historyIndex(side, move);
+        history[index] += depth * depth;
+        if (history[index] > HISTORY_LIMIT)
+            for (int i = 0; i < history.length; i++)
+                history[i] >>= 1;
+    }
+
+    private void updatePv(final int ply, final int move) {
+        pv[ply][ply] = move;
+        int length = pvLength[ply + 1];
+        if (length > ply + 1)
+            System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, length - ply - 1);
+        pvLength[ply] = Math.max(length, ply + 1);
+    }
+
+    // Mate scores are stored relative to the node, not to the root
+    private static int scoreToTable(final int score, final int ply) {
+        if (score > SCORE_MATE_BOUND)
+            return score + ply;
+        if (score < -SCORE_MATE_BOUND)
+            return score - ply;
+        return score;
+    }
+
+    private static int scoreFromTable(final int score, final int ply) {
+        if (score > SCORE_MATE_BOUND)
+            return score - ply;
+        if (score < -SCORE_MATE_BOUND)
+            return score + ply;
+        return score;
+    }
+}
@@ -0,0 +1,135 @@
+package md.jgames.jchess.engine;
+
+import java.util.Arrays;
+
+/**
+ * Transposition table shared by all search threads. Entries are stored in a flat {@code long[]}, two {@code long}s per
+ * entry: the position key XOR-ed with the data and the data itself. Threads read and write entries without locking; an
+ * entry torn by a concurrent write fails the key check and is treated as a miss.
+ *
+ * <p>Data word layout: bits 0&ndash;17 move, bits 18&ndash;33 score, bits 34&ndash;41 depth, bits 42&ndash;43 bound,
+ * bits 44&ndash;51 age.</p>
+ *
+ * @author Michal Douša
+ * @see SearchThread
+ */
+final class TranspositionTable {
+
+    static final int BOUND_NONE = 0, BOUND_UPPER = 1, BOUND_LOWER = 2, BOUND_EXACT = 3;
+
+    private long[] table;
+    private int mask;
+    private int age;
+
+    /**
+     * Creates a table of given size.
+     *
+     * @param megabytes size of the table in megabytes
+     */
+    TranspositionTable(final int megabytes) {
+        resize(megabytes);
+    }
+
+    /**
+     * Resizes the table. All entries are discarded.
+     *
+     * @param megabytes new size of the table in megabytes
+     */
+    void resize(final int megabytes) {
+        // Entry count must be a power of two, every entry takes 16 bytes
+        long entries = Long.highestOneBit(Math.max(1L, (long) megabytes * 1024 * 1024 / 16));
+        table = new long[(int) Math.min(entries * 2, 1 << 30)];
+        mask = table.length / 2 - 1;
+        age = 0;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        Arrays.fill(table, 0L);
+        age = 0;
+    }
+
+    /**
+     * Starts a new search, entries from previous searches become preferred for replacement.
+     */
+    void newSearch() {
+        age = (age + 1) & 255;
+    }
+
+    /**
+     * Returns data word of the entry of given position, or 0 if there is no such entry.
+     *
+     * @param key key of the position
+     * @return data word
+     */
+    long probe(final long key) {
+        int index = ((int) key & mask) << 1;
+        long data = table[index + 1];
+        return (table[index] ^ data) == key ? data : 0L;
+    }
+
+    /**
+     * Stores an entry.
+     *
+     * @param key   key of the position
+     * @param move  the best move, may be {@link EngineMove#NONE}
+     * @param score the score
+     * @param depth the depth searched
+     * @param bound one of {@code BOUND_*} constants
+     */
+    void store(final long key, final int move, final int score, final int depth, final int bound) {
+        int index = ((int) key & mask) << 1;
+        long old = table[index + 1];
+        boolean sameKey = (table[index] ^ old) == key;
+        // Keep deeper entries of the current search of other positions
+        if (!sameKey && old != 0 && age(old) == age && depth(old) > depth)
+            return;
+        // Keep the old move if the new entry has none
+        int storedMove = move == EngineMove.NONE && sameKey ? move(old) : move;
+        long data = (storedMove & 0x3FFFFL)
+                | ((long) (score & 0xFFFF) << 18)
+                | ((long) (Math.max(0, depth) & 0xFF) << 34)
+                | ((long) bound << 42)
+                | ((long) age << 44);
+        table[index] = key ^ data;
+        table[index + 1] = data;
+    }
+
+    /**
+     * Returns how many entries of a sample are used by the current search, in permille.
+     *
+     * @return permille of the table used
+     */
+    int hashfull() {
+        int used = 0;
+        int sample = Math.min(1000, mask + 1);
+        for (int i = 0; i < sample; i++) {
+            long data = table[2 * i + 1];
+            if (data != 0 && age(data) == age)
+                used++;
+        }
+        return used * 1000 / sample;
+    }
+
+    static int move(final long data) {
+        return (int) (data & 0x3FFFF);
+    }
+
+    static int score(final long data) {
+        return (short) (data >>> 18);
+    }
+
+    static int depth(final long data) {
+        return (int) ((data >>> 34) & 0xFF);
+    }
+
+    static int bound(final long data) {
+        return (int) ((data >>> 42) & 3);
+    }
+
+    private static int age(final long data) {
+        return (int) ((data >>> 44) & 0xFF);
+    }
+}
@@ -0,0 +1,61 @@
+package md.jgames.jchess.engine;
+
+/**
+ * Random keys used for Zobrist hashing of positions. Keys are generated from a fixed seed, so hashes of the same
+ * position are equal across runs.
+ *
+ * @author Michal Douša
+ * @see Position#key()
+ */
+final class Zobrist {
+
+    // Do not create any instances
+    private Zobrist() {
+    }
+
+    /**
+     * Keys of pieces, indexed by piece constant and square.
+     */
+    static final long[][] PIECES = new long[13][64];
+
+    /**
+     * Key of the side to move, used when Black is to move.
+     */
+    static final long SIDE;
+
+    /**
+     * Keys of castling rights, indexed by castling rights bit set.
+     */
+    static final long[] CASTLING = new long[16];
+
+    /**
+     * Keys of en passant square, indexed by file.
+     */
+    static final long[] EN_PASSANT = new long[8];
+
+    static {
+        long seed = 0x6D642D6A63686573L;
+        for (int piece = 1; piece < 13; piece++)
+            for (int square = 0; square < 64; square++)
+                PIECES[piece][square] = seed = next(seed);
+        SIDE = seed = next(seed);
+        long[] castlingBits = new long[4];
+        for (int i = 0; i < 4; i++)
+            castlingBits[i] = seed = next(seed);
+        // Every combination of castling rights is a XOR of keys of its single rights
+        for (int rights = 0; rights < 16; rights++)
+            for (int i = 0; i < 4; i++)
+                if ((rights & (1 << i)) != 0)
+                    CASTLING[rights] ^= castlingBits[i];
+        for (int file = 0; file < 8; file++)
+            EN_PASSANT[file] = seed = next(seed);
+    }
+
+    // SplitMix64 step; the returned value is used both as the key and as the next seed
+    private static long next(final long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,373 @@
+package md.jgames.jchess.io;
+
+import md.jgames.jchess.logic.GameRecord;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Move.PawnPromotion;
+import md.jgames.jchess.logic.Square;
+import md.jgames.jchess.logic.Utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Compact binary format of {@link GameRecord}s. A stream starts by bytes {@code 'J' 'C' 'G'} and the version of the
+ * format, followed by any count of games and ends by a zero byte. Every game is written as:
+ *
+ * <ol>
+ * <li>byte {@code 1}</li>
+ * <li>index of the starting FEN in the dictionary of the stream; index 0 is the usual starting position, if the index
+ * equals the size of the dictionary, the FEN follows as a string and is added to the dictionary</li>
+ * <li>count of moves and count of done moves</li>
+ * <li>moves, each as {@code promotion << 12 | from << 6 | to}, where squares are hash codes of {@link Square} and
+ * promotion is the hash code of {@link PawnPromotion}</li>
+ * <li>count of annotated moves, for each of them the index of the move, count of NAGs, the NAGs and the comment as a
+ * string, which is empty if the move has no comment</li>
+ * </ol>
+ *
+ * <p>All numbers are unsigned variable-length integers (7 bits per byte, the least significant first, the highest bit
+ * set on all bytes except the last one), strings are the length in bytes followed by UTF-8 bytes. A usual move takes 2
+ * bytes, a game from the usual starting position has 4 bytes of overhead.</p>
+ *
+ * @author Michal Douša
+ * @see Encoder
+ * @see Decoder
+ */
+public final class GameCodec {
+
+    // Do not create any instance
+    private GameCodec() {
+    }
+
+    /**
+     * Version of the format written by {@link Encoder}.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'J', 'C', 'G'};
+    private static final int TAG_END = 0, TAG_GAME = 1;
+
+    // Decoded moves share squares
+    private static final Square[] SQUARES = new Square[64];
+
+    static {
+        for (int i = 0; i < 64; i++)
+            SQUARES[i] = new Square(i);
+    }
+
+    /**
+     * Writes games one by one into a {@link DataOutput}. The header is written when the encoder is created, {@link
+     * #finish()} has to be called after the last game.
+     */
+    public static final class Encoder {
+        private final DataOutput output;
+        private final HashMap<String, Integer> dictionary = new HashMap<>();
+        private byte[] buffer = new byte[64];
+        private boolean finished;
+
+        /**
+         * Creates an encoder and writes the header.
+         *
+         * @param output the output
+         * @throws IOException          if writing fails
+         * @throws NullPointerException if {@code null} is given
+         */
+        public Encoder(final DataOutput output) throws IOException {
+            this.output = Objects.requireNonNull(output, "Output cannot be null");
+            dictionary.put(Utilities.FEN_STARTING_POSITION, 0);
+            output.write(MAGIC);
+            output.writeByte(VERSION);
+        }
+
+        /**
+         * Writes a game.
+         *
+         * @param record the game
+         * @throws IOException           if writing fails
+         * @throws IllegalStateException if {@link #finish()} was already called
+         */
+        public void write(final GameRecord record) throws IOException {
+            if (finished)
+                throw new IllegalStateException("Encoder was already finished");
+            List<Move> moves = record.moves();
+            int[] annotatedMoves = record.annotatedMoves();
+            // Games are written at once, so the output gets few large writes
+            int length = 0;
+            length = putVarInt(length, TAG_GAME);
+            Integer fenIndex = dictionary.get(record.startingFEN());
+            if (fenIndex != null) {
+                length = putVarInt(length, fenIndex);
+            } else {
+                length = putVarInt(length, dictionary.size());
+                length = putString(length, record.startingFEN());
+                dictionary.put(record.startingFEN(), dictionary.size());
+            }
+            length = putVarInt(length, moves.size());
+            length = putVarInt(length, record.doneMovesCount());
+            for (Move move : moves)
+                length = putVarInt(length, encodeMove(move));
+            length = putVarInt(length, annotatedMoves.length);
+            for (int index : annotatedMoves) {
+                int[] nags = record.nags(index);
+                String comment = record.comment(index);
+                length = putVarInt(length, index);
+                length = putVarInt(length, nags.length);
+                for (int nag : nags)
+                    length = putVarInt(length, nag);
+                length = putString(length, comment == null ? "" : comment);
+            }
+            output.write(buffer, 0, length);
+        }
+
+        /**
+         * Writes the end of the stream. No game can be written afterwards.
+         *
+         * @throws IOException if writing fails
+         */
+        public void finish() throws IOException {
+            if (!finished)
+                output.writeByte(TAG_END);
+            finished = true;
+        }
+
+        private int putVarInt(int position, int value) {
+            ensureCapacity(position + 5);
+            while ((value & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+            return position;
+        }
+
+        private int putString(int position, final String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            position = putVarInt(position, bytes.length);
+            ensureCapacity(position + bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            return position + bytes.length;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (capacity > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+    /**
+     * Reads games one by one from a {@link DataInput} or a {@link ByteBuffer}. The header is read when the decoder is
+     * created.
+     */
+    public static final class Decoder {
+        // Exactly one of them is set, the buffer is read directly as it is much faster
+        private final DataInput input;
+        private final ByteBuffer buffer;
+        // Records without moves, so every FEN is checked only once
+        private final ArrayList<GameRecord> dictionary = new ArrayList<>();
+        private boolean finished;
+
+        /**
+         * Creates a decoder and reads the header.
+         *
+         * @param input the input
+         * @throws IOException          if reading fails, the input is not in this format or its version is not
+         *                              supported
+         * @throws NullPointerException if {@code null} is given
+         */
+        public Decoder(final DataInput input) throws IOException {
+            this(Objects.requireNonNull(input, "Input cannot be null"), null);
+        }
+
+        /**
+         * Creates a decoder reading given buffer from its position and reads the header. The position of the buffer
+         * is moved as games are read.
+         *
+         * @param buffer the buffer
+         * @throws IOException          if the buffer is not in this format or its version is not supported
+         * @throws NullPointerException if {@code null} is given
+         */
+        public Decoder(final ByteBuffer buffer) throws IOException {
+            this(null, Objects.requireNonNull(buffer, "Buffer cannot be null"));
+        }
+
+        private Decoder(final DataInput input, final ByteBuffer buffer) throws IOException {
+            this.input = input;
+            this.buffer = buffer;
+            dictionary.add(new GameRecord(Utilities.FEN_STARTING_POSITION, Collections.emptyList(), 0));
+            for (byte magic : MAGIC)
+                if (readByte() != (magic & 0xFF))
+                    throw new IOException("Not a game stream");
+            int version = readByte();
+            if (version != VERSION)
+                throw new IOException("Unsupported version of game stream: " + version);
+        }
+
+        /**
+         * Reads the next game.
+         *
+         * @return the game, or {@code null} if the end of the stream was reached
+         * @throws IOException if reading fails or the data are malformed
+         */
+        public GameRecord read() throws IOException {
+            if (finished)
+                return null;
+            int tag = readVarInt();
+            if (tag == TAG_END) {
+                finished = true;
+                return null;
+            }
+            if (tag != TAG_GAME)
+                throw new IOException("Malformed game stream: unknown tag " + tag);
+
+            int fenIndex = readVarInt();
+            if (fenIndex == dictionary.size()) {
+                String fen = readString();
+                try {
+                    dictionary.add(new GameRecord(fen, Collections.emptyList(), 0));
+                } catch (IllegalArgumentException exc) {
+                    throw new IOException("Malformed game stream: invalid FEN " + fen, exc);
+                }
+            } else if (fenIndex > dictionary.size()) {
+                throw new IOException("Malformed game stream: FEN index out of range");
+            }
+
+            int moveCount = readVarInt();
+            int doneMovesCount = readVarInt();
+            ArrayList<Move> moves = new ArrayList<>(Math.min(moveCount, 1024));
+            for (int i = 0; i < moveCount; i++)
+                moves.add(decodeMove(readVarInt()));
+
+            GameRecord record;
+            try {
+                record = dictionary.get(fenIndex).withMoves(moves, doneMovesCount);
+                int annotatedCount = readVarInt();
+                for (int i = 0; i < annotatedCount; i++) {
+                    int index = readVarInt();
+                    int[] nags = new int[readVarInt()];
+                    for (int j = 0; j < nags.length; j++)
+                        nags[j] = readVarInt();
+                    record.setNAGs(index, nags);
+                    record.setComment(index, readString());
+                }
+            } catch (IllegalArgumentException | IndexOutOfBoundsException exc) {
+                throw new IOException("Malformed game stream: " + exc.getMessage(), exc);
+            }
+            return record;
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0)
+                        break;
+                    return value;
+                }
+            }
+            throw new IOException("Malformed game stream: number out of range");
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[readVarInt()];
+            if (input != null)
+                input.readFully(bytes);
+            else if (buffer.remaining() >= bytes.length)
+                buffer.get(bytes);
+            else
+                throw new EOFException();
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int readByte() throws IOException {
+            if (input != null)
+                return input.readUnsignedByte();
+            if (!buffer.hasRemaining())
+                throw new EOFException();
+            return buffer.get() & 0xFF;
+        }
+    }
+
+    /**
+     * Writes given games as a stream into given output.
+     *
+     * @param records the games
+     * @param output  the output
+     * @throws IOException if writing fails
+     */
+    public static void encode(final Iterable<GameRecord> records, final DataOutput output) throws IOException {
+        Encoder encoder = new Encoder(output);
+        for (GameRecord record : records)
+            encoder.write(record);
+        encoder.finish();
+    }
+
+    /**
+     * Writes given games as a stream into a new {@link ByteBuffer}.
+     *
+     * @param records the games
+     * @return the buffer ready to be read
+     */
+    public static ByteBuffer encode(final Iterable<GameRecord> records) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            encode(records, new DataOutputStream(bytes));
+        } catch (IOException exc) {
+            // ByteArrayOutputStream never fails
+            throw new IllegalStateException(exc);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Reads all games of a stream from given input.
+     *
+     * @param input the input
+     * @return the games
+     * @throws IOException if reading fails or the data are malformed
+     */
+    public static List<GameRecord> decode(final DataInput input) throws IOException {
+        return decodeAll(new Decoder(input));
+    }
+
+    /**
+     * Reads all games of a stream from given buffer.
+     *
+     * @param buffer the buffer
+     * @return the games
+     * @throws IOException if the data are malformed
+     */
+    public static List<GameRecord> decode(final ByteBuffer buffer) throws IOException {
+        return decodeAll(new Decoder(buffer));
+    }
+
+    private static List<GameRecord> decodeAll(final Decoder decoder) throws IOException {
+        ArrayList<GameRecord> records = new ArrayList<>();
+        GameRecord record;
+        while ((record = decoder.read()) != null)
+            records.add(record);
+        return records;
+    }
+
+    private static int encodeMove(final Move move) {
+        return move.pawnPromotion().hashCode() << 12 | move.squareFrom().hashCode() << 6 | move.squareTo().hashCode();
+    }
+
+    private static Move decodeMove(final int code) throws IOException {
+        if (code >>> 12 >= PawnPromotion.values().size())
+            throw new IOException("Malformed game stream: invalid move " + code);
+        return new Move(SQUARES[(code >> 6) & 63], SQUARES[code & 63], PawnPromotion.fromHashCode(code >>> 12));
+    }
+}
@@ -0,0 +1,138 @@
+package md.jgames.jchess.io;
+
+import mdlib.utils.IllegalStringFormatException;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Capabilities of a UCI chess engine as told during the handshake: its name, author and options. Instances of this
+ * class are immutable.
+ *
+ * @author Michal Douša
+ * @see #parse(List)
+ * @see UCIEngineRegistry
+ */
+public final class UCIEngineInfo {
+
+    private final String name;
+    private final String author;
+    private final Map<String, UCIOption> options;
+
+    private UCIEngineInfo(final String name, final String author, final Map<String, UCIOption> options) {
+        this.name = name;
+        this.author = author;
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    /**
+     * Parses lines printed by a UCI engine after the {@code uci} command. Lines other than {@code id} and {@code
+     * option} are ignored.
+     *
+     * @param lines output of the engine up to {@code uciok}
+     * @return the engine capabilities
+     * @throws NullPointerException          if {@code null} is given
+     * @throws IllegalStringFormatException if one of the option lines is not valid
+     */
+    public static UCIEngineInfo parse(final List<String> lines) {
+        Objects.requireNonNull(lines, "Lines cannot be null");
+        String name = null, author = null;
+        LinkedHashMap<String, UCIOption> options = new LinkedHashMap<>();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("id name "))
+                name = trimmed.substring(8).trim();
+            else if (trimmed.startsWith("id author "))
+                author = trimmed.substring(10).trim();
+            else if (trimmed.startsWith("option ")) {
+                UCIOption option = UCIOption.parse(trimmed);
+                options.put(option.name(), option);
+            }
+        }
+        return new UCIEngineInfo(name, author, options);
+    }
+
+    /**
+     * Returns the name of the engine, or {@code null} if the engine did not tell it.
+     *
+     * @return engine name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns the author of the engine, or {@code null} if the engine did not tell it.
+     *
+     * @return engine author
+     */
+    public String author() {
+        return author;
+    }
+
+    /**
+     * Returns unmodifiable {@link Map} of supported options by their names, in the order the engine printed them.
+     *
+     * @return supported options
+     */
+    public Map<String, UCIOption> options() {
+        return options;
+    }
+
+    /**
+     * Returns the option of given name, or {@code null} if the engine does not support it. Option names are case
+     * insensitive in UCI protocol.
+     *
+     * @param name option name
+     * @return the option descriptor
+     */
+    public UCIOption option(final String name) {
+        UCIOption option = options.get(name);
+        if (option == null)
+            for (UCIOption candidate : options.values())
+                if (candidate.name().equalsIgnoreCase(name))
+                    return candidate;
+        return option;
+    }
+
+    /**
+     * Checks given options and converts their values to the form which is sent to the engine.
+     *
+     * @param values option values by option names
+     * @return checked values by option names as told by the engine, in the same order
+     * @throws IllegalArgumentException if the engine does not support some option or its value is invalid
+     * @see UCIOption#validate(Object)
+     */
+    public Map<String, String> validate(final Map<String, ?> values) {
+        Objects.requireNonNull(values, "Option values cannot be null");
+        LinkedHashMap<String, String> validated = new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            UCIOption option = option(entry.getKey());
+            if (option == null)
+                throw new IllegalArgumentException("Unsupported option: '" + entry.getKey() + "'");
+            validated.put(option.name(), option.validate(entry.getValue()));
+        }
+        return validated;
+    }
+
+    /**
+     * Returns the information in the same format as printed by UCI engines after the {@code uci} command, without
+     * the terminating {@code uciok}.
+     *
+     * @return the handshake lines
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        if (name != null)
+            builder.append("id name ").append(name).append('\n');
+        if (author != null)
+            builder.append("id author ").append(author).append('\n');
+        for (UCIOption option : options.values())
+            builder.append(option).append('\n');
+        return builder.toString();
+    }
+}
@@ -2,20 +2,31 @@ package md.jgames.jchess.io;
 
 import md.jgames.jchess.logic.Move;
 import mdlib.utils.Disposable;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Scanner;
 import java.util.stream.Stream;
 
 public class UCIEngineProcess implements Disposable {
 
+    // Command to response latencies, same as of engines driven by md.jgames.jchess.logic.Utilities
+    private static final Histogram LATENCY_UCI = Metrics.histogram("jchess.uci.uci");
+    private static final Histogram LATENCY_ISREADY = Metrics.histogram("jchess.uci.isready");
+
     protected final Process process;
     protected final Scanner standardStream, errorStream;
     protected final PrintStream commandStream;
+    private boolean handshakeDone;
 
     /**
      * Creates a {@link UCIEngineProcess} wrapper class instance from given {@link ProcessBuilder} instance.
@@ -39,6 +50,65 @@ public class UCIEngineProcess implements Disposable {
      */
     public final synchronized void startNewGame() {
         commandStream.println("ucinewgame");
+        commandStream.flush();
+    }
+
+    /**
+     * Sends {@code uci} command and waits for {@code uciok}. Returns all lines the engine printed in between, which
+     * tell the engine name and its options.
+     *
+     * @return lines printed by the engine before {@code uciok}
+     * @throws NotUCIEngineException if the process ended before printing {@code uciok}
+     * @see UCIEngineInfo#parse(List)
+     */
+    public final synchronized List<String> handshake() {
+        long start = System.nanoTime();
+        commandStream.println("uci");
+        commandStream.flush();
+        ArrayList<String> lines = new ArrayList<>();
+        try {
+            String line;
+            while (!(line = standardStream.nextLine().trim()).equals("uciok"))
+                lines.add(line);
+        } catch (NoSuchElementException exc) {
+            throw new NotUCIEngineException(process);
+        }
+        handshakeDone = true;
+        LATENCY_UCI.recordSince(start);
+        return lines;
+    }
+
+    /**
+     * Sends the handshake if it was not done yet, all given options and {@code isready} at once, then waits for {@code
+     * readyok}. Options should be checked by {@link UCIEngineInfo#validate(Map)} first.
+     *
+     * @param options option values by option names, {@code null} value for button options
+     * @throws NullPointerException if {@code null} is given
+     * @see #waitForReady()
+     */
+    public final synchronized void initialize(final Map<String, String> options) {
+        Objects.requireNonNull(options, "Options cannot be null");
+        if (!handshakeDone)
+            commandStream.println("uci");
+        handshakeDone = true;
+        for (Map.Entry<String, String> option : options.entrySet())
+            commandStream.println(option.getValue() == null ? "setoption name " + option.getKey()
+                    : "setoption name " + option.getKey() + " value " + option.getValue());
+        waitForReady();
+    }
+
+    /**
+     * Sets an option of the chess engine, e.g. {@code UCI_Chess960} to {@code true} before Chess960 positions are set.
+     *
+     * @param name  option name
+     * @param value option value
+     * @throws NullPointerException if option name or value is {@code null}
+     */
+    public final synchronized void setOption(final String name, final Object value) {
+        Objects.requireNonNull(name, "Option name cannot be null");
+        Objects.requireNonNull(value, "Option value cannot be null");
+        commandStream.println("setoption name " + name + " value " + value);
+        commandStream.flush();
     }
 
     /**
@@ -64,6 +134,7 @@ public class UCIEngineProcess implements Disposable {
         }
 
         commandStream.println(command);
+        commandStream.flush();
     }
 
     /**
@@ -110,18 +181,22 @@ public class UCIEngineProcess implements Disposable {
      */
     public final synchronized void waitForReady() {
         boolean readyok = false;
+        long start = System.nanoTime();
         commandStream.println("isready");
+        commandStream.flush();
 
         while (!readyok) {
             // Waiting for 'readyok'
             String line = standardStream.nextLine().trim();
             readyok = line.equals("readyok");
         }
+        LATENCY_ISREADY.recordSince(start);
     }
 
     @Override
     public final synchronized void close() {
         commandStream.println("quit");
+        commandStream.flush();
         process.destroy();
     }
 
@@ -0,0 +1,211 @@
+package md.jgames.jchess.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Registry of UCI chess engines. The handshake of every engine executable is done only once and its result is kept
+ * until the executable changes, i.e. its size or modification time differs. If a cache file is given, the results are
+ * persisted there, so later launches of the application do not need the handshake at all.
+ * <p>
+ * The cache file is a plain text file. Every engine starts by line {@code engine <size> <modification time in
+ * milliseconds> <absolute path>} followed by lines printed by the engine after {@code uci} command, ending with {@code
+ * uciok}.
+ *
+ * @author Michal Douša
+ * @see #describe(Path)
+ * @see #launch(Path, Map)
+ */
+public final class UCIEngineRegistry {
+
+    private static final class Entry {
+        final long size;
+        final long modified;
+        final UCIEngineInfo info;
+
+        Entry(final long size, final long modified, final UCIEngineInfo info) {
+            this.size = size;
+            this.modified = modified;
+            this.info = info;
+        }
+    }
+
+    private final Path cacheFile;
+    private final HashMap<Path, Entry> entries = new HashMap<>();
+    private boolean loaded;
+
+    /**
+     * Creates an engine registry.
+     *
+     * @param cacheFile file to persist engine capabilities to, or {@code null} to keep them only in memory
+     */
+    public UCIEngineRegistry(final Path cacheFile) {
+        this.cacheFile = cacheFile;
+        this.loaded = cacheFile == null;
+    }
+
+    /**
+     * Returns capabilities of given engine. The engine is started only if it is not known yet or it has changed.
+     *
+     * @param engine path to the engine executable
+     * @return the engine capabilities
+     * @throws IOException           if the engine cannot be started or the cache file cannot be written
+     * @throws NotUCIEngineException if the executable is not a UCI engine
+     */
+    public UCIEngineInfo describe(final Path engine) throws IOException {
+        Path path = normalize(engine);
+        UCIEngineInfo info = cachedInfo(path);
+        if (info != null)
+            return info;
+        try (UCIEngineProcess process = new UCIEngineProcess(new ProcessBuilder(path.toString()))) {
+            return discover(path, process);
+        }
+    }
+
+    /**
+     * Starts given engine with given options set. Options are checked against the capabilities of the engine before
+     * they are sent. If the engine is known, there is just one round-trip to the engine: the handshake, all options and
+     * {@code isready} are sent at once and the method waits for {@code readyok}.
+     *
+     * @param engine  path to the engine executable
+     * @param options option values by option names, may be empty
+     * @return started engine ready to accept commands
+     * @throws IOException              if the engine cannot be started or the cache file cannot be written
+     * @throws IllegalArgumentException if the engine does not support some option or its value is invalid
+     * @throws NotUCIEngineException    if the executable is not a UCI engine
+     */
+    public UCIEngineProcess launch(final Path engine, final Map<String, ?> options) throws IOException {
+        Objects.requireNonNull(options, "Options cannot be null");
+        Path path = normalize(engine);
+        UCIEngineInfo info = cachedInfo(path);
+        // Invalid options of a known engine are reported before the process is started
+        Map<String, String> validated = info == null ? null : info.validate(options);
+
+        UCIEngineProcess process = new UCIEngineProcess(new ProcessBuilder(path.toString()));
+        try {
+            if (validated == null)
+                validated = discover(path, process).validate(options);
+            process.initialize(validated);
+        } catch (IOException | RuntimeException exc) {
+            process.close();
+            throw exc;
+        }
+        return process;
+    }
+
+    /**
+     * Remembers capabilities of given engine from a handshake which was done by the caller, so the engine does not
+     * have to be started again by {@link #describe(Path)}.
+     *
+     * @param engine    path to the engine executable
+     * @param handshake lines printed by the engine after {@code uci} command, up to {@code uciok}
+     * @return the engine capabilities
+     * @throws IOException                                if the engine executable cannot be accessed or the cache
+     *                                                    file cannot be written
+     * @throws mdlib.utils.IllegalStringFormatException if one of the option lines is not valid
+     */
+    public UCIEngineInfo remember(final Path engine, final List<String> handshake) throws IOException {
+        return remember(normalize(engine), UCIEngineInfo.parse(handshake));
+    }
+
+    /**
+     * Forgets capabilities of given engine, so the handshake is done again next time.
+     *
+     * @param engine path to the engine executable
+     * @throws IOException if the cache file cannot be written
+     */
+    public synchronized void forget(final Path engine) throws IOException {
+        load();
+        if (entries.remove(normalize(engine)) != null)
+            save();
+    }
+
+    private static Path normalize(final Path engine) {
+        Objects.requireNonNull(engine, "Engine path cannot be null");
+        return engine.toAbsolutePath().normalize();
+    }
+
+    private synchronized UCIEngineInfo cachedInfo(final Path path) throws IOException {
+        load();
+        Entry entry = entries.get(path);
+        if (entry == null)
+            return null;
+        if (entry.size != Files.size(path) || entry.modified != Files.getLastModifiedTime(path).toMillis()) {
+            entries.remove(path);
+            return null;
+        }
+        return entry.info;
+    }
+
+    private UCIEngineInfo discover(final Path path, final UCIEngineProcess process) throws IOException {
+        return remember(path, UCIEngineInfo.parse(process.handshake()));
+    }
+
+    private UCIEngineInfo remember(final Path path, final UCIEngineInfo info) throws IOException {
+        long size = Files.size(path), modified = Files.getLastModifiedTime(path).toMillis();
+        synchronized (this) {
+            entries.put(path, new Entry(size, modified, info));
+            save();
+        }
+        return info;
+    }
+
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        loaded = true;
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String header = null;
+            ArrayList<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("engine ")) {
+                    header = line;
+                    lines.clear();
+                } else if (line.equals("uciok") && header != null) {
+                    String[] fields = header.split(" ", 4);
+                    try {
+                        entries.put(Path.of(fields[3]), new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                                UCIEngineInfo.parse(lines)));
+                    } catch (IllegalArgumentException | IndexOutOfBoundsException exc) {
+                        // Damaged entries are skipped, the engine will be asked again
+                    }
+                    header = null;
+                } else
+                    lines.add(line);
+            }
+        } catch (NoSuchFileException exc) {
+            // Nothing persisted yet
+        }
+    }
+
+    private void save() throws IOException {
+        if (cacheFile == null)
+            return;
+        Path directory = cacheFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        // Written to a temporary file first, so a crash cannot leave a half-written cache
+        Path temporary = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+                writer.write("engine " + entry.getValue().size + " " + entry.getValue().modified + " " + entry.getKey());
+                writer.newLine();
+                writer.write(entry.getValue().info.toString());
+                writer.write("uciok");
+                writer.newLine();
+            }
+        }
+        Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,262 @@
+package md.jgames.jchess.io;
+
+import mdlib.utils.IllegalStringFormatException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Descriptor of an option of a UCI chess engine, parsed from an {@code option} line which the engine prints during the
+ * handshake, e.g. {@code option name Hash type spin default 16 min 1 max 33554432}. Instances of this class are
+ * immutable.
+ *
+ * @author Michal Douša
+ * @see #parse(String)
+ * @see UCIEngineInfo
+ */
+public final class UCIOption {
+
+    /**
+     * Types of UCI options.
+     */
+    public enum Type {
+        /**
+         * Boolean option, {@code true} or {@code false}.
+         */
+        CHECK,
+        /**
+         * Integer option with minimum and maximum value.
+         */
+        SPIN,
+        /**
+         * One of predefined strings.
+         */
+        COMBO,
+        /**
+         * Option without a value, setting it triggers an action.
+         */
+        BUTTON,
+        /**
+         * Any string.
+         */
+        STRING
+    }
+
+    private final String name;
+    private final Type type;
+    private final String defaultValue;
+    private final long min, max;
+    private final List<String> vars;
+
+    private UCIOption(final String name, final Type type, final String defaultValue, final long min, final long max,
+                      final List<String> vars) {
+        this.name = name;
+        this.type = type;
+        this.defaultValue = defaultValue;
+        this.min = min;
+        this.max = max;
+        this.vars = Collections.unmodifiableList(vars);
+    }
+
+    /**
+     * Parses an {@code option} line printed by a UCI engine.
+     *
+     * @param line the line
+     * @return the option descriptor
+     * @throws NullPointerException          if {@code null} is given
+     * @throws IllegalStringFormatException if the line is not a valid option line
+     */
+    public static UCIOption parse(final String line) {
+        Objects.requireNonNull(line, "Option line cannot be null");
+        String[] tokens = line.trim().split("\\s+");
+        if (tokens.length < 5 || !tokens[0].equals("option") || !tokens[1].equals("name"))
+            throw new IllegalStringFormatException("Not an option line: '" + line + "'");
+
+        // Name, default value and vars may contain spaces, so they are joined until the next keyword
+        StringBuilder name = new StringBuilder(), defaultValue = null, current = name;
+        String type = null;
+        long min = Long.MIN_VALUE, max = Long.MAX_VALUE;
+        ArrayList<StringBuilder> vars = new ArrayList<>();
+        for (int i = 2; i < tokens.length; i++) {
+            String token = tokens[i];
+            boolean inName = current == name;
+            if (token.equals("type") && i + 1 < tokens.length) {
+                type = tokens[++i];
+                current = null;
+            } else if (token.equals("default") && !inName) {
+                defaultValue = new StringBuilder();
+                current = defaultValue;
+            } else if ((token.equals("min") || token.equals("max")) && !inName && i + 1 < tokens.length) {
+                try {
+                    long value = Long.parseLong(tokens[++i]);
+                    if (token.equals("min"))
+                        min = value;
+                    else
+                        max = value;
+                } catch (NumberFormatException exc) {
+                    throw new IllegalStringFormatException("Invalid bound in option line: '" + line + "'");
+                }
+                current = null;
+            } else if (token.equals("var") && !inName) {
+                current = new StringBuilder();
+                vars.add(current);
+            } else if (current != null) {
+                if (current.length() > 0)
+                    current.append(' ');
+                current.append(token);
+            }
+        }
+        ArrayList<String> parsedVars = new ArrayList<>(vars.size());
+        for (StringBuilder var : vars)
+            parsedVars.add(var.toString());
+
+        Type parsedType;
+        try {
+            parsedType = Type.valueOf(type == null ? "" : type.toUpperCase());
+        } catch (IllegalArgumentException exc) {
+            throw new IllegalStringFormatException("Unknown option type in line: '" + line + "'");
+        }
+        if (name.length() == 0)
+            throw new IllegalStringFormatException("Missing option name in line: '" + line + "'");
+        String parsedDefault = defaultValue == null ? null : defaultValue.toString();
+        // The special value <empty> is used by some engines for empty strings
+        if ("<empty>".equals(parsedDefault))
+            parsedDefault = "";
+        return new UCIOption(name.toString(), parsedType, parsedDefault, min, max, parsedVars);
+    }
+
+    /**
+     * Returns the name of the option.
+     *
+     * @return option name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns the type of the option.
+     *
+     * @return option type
+     */
+    public Type type() {
+        return type;
+    }
+
+    /**
+     * Returns the default value of the option, or {@code null} if the engine did not tell it.
+     *
+     * @return default value
+     */
+    public String defaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * Returns the minimum value of a {@link Type#SPIN} option.
+     *
+     * @return minimum value
+     */
+    public long min() {
+        return min;
+    }
+
+    /**
+     * Returns the maximum value of a {@link Type#SPIN} option.
+     *
+     * @return maximum value
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Returns unmodifiable {@link List} of allowed values of a {@link Type#COMBO} option.
+     *
+     * @return allowed values
+     */
+    public List<String> vars() {
+        return vars;
+    }
+
+    /**
+     * Checks given value and converts it to the form which is sent to the engine.
+     *
+     * @param value the value, ignored for {@link Type#BUTTON} options
+     * @return the value to be sent, or {@code null} for {@link Type#BUTTON} options
+     * @throws IllegalArgumentException if the value is not valid for this option
+     */
+    public String validate(final Object value) {
+        if (type == Type.BUTTON)
+            return null;
+        Objects.requireNonNull(value, "Option value cannot be null");
+        String string = value.toString().trim();
+        switch (type) {
+            case CHECK:
+                if (!string.equals("true") && !string.equals("false"))
+                    throw new IllegalArgumentException("Value of option '" + name + "' must be true or false: " + value);
+                return string;
+            case SPIN:
+                long number;
+                try {
+                    number = Long.parseLong(string);
+                } catch (NumberFormatException exc) {
+                    throw new IllegalArgumentException("Value of option '" + name + "' is not a number: " + value, exc);
+                }
+                if (number < min || number > max)
+                    throw new IllegalArgumentException("Value of option '" + name + "' out of range: " + value);
+                return string;
+            case COMBO:
+                for (String var : vars)
+                    if (var.equalsIgnoreCase(string))
+                        return var;
+                throw new IllegalArgumentException("Value of option '" + name + "' not allowed: " + value);
+            default:
+                return value.toString();
+        }
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof UCIOption))
+            return false;
+        UCIOption option = (UCIOption) obj;
+        return name.equals(option.name) && type == option.type && Objects.equals(defaultValue, option.defaultValue)
+                && min == option.min && max == option.max && vars.equals(option.vars);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, type, defaultValue, min, max, vars);
+    }
+
+    /**
+     * Returns the option in the same format as printed by UCI engines.
+     *
+     * @return the option line
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("option name ");
+        builder.append(name);
+        builder.append(" type ");
+        builder.append(type.name().toLowerCase());
+        if (defaultValue != null) {
+            builder.append(" default ");
+            builder.append(defaultValue.isEmpty() ? "<empty>" : defaultValue);
+        }
+        if (type == Type.SPIN) {
+            builder.append(" min ");
+            builder.append(min);
+            builder.append(" max ");
+            builder.append(max);
+        }
+        for (String var : vars) {
+            builder.append(" var ");
+            builder.append(var);
+        }
+        return builder.toString();
+    }
+}
@@ -1,5 +1,7 @@
 package md.jgames.jchess.logic;
 
+import md.jgames.jchess.engine.EngineMove;
+import md.jgames.jchess.engine.Position;
 import mdlib.utils.Disposable;
 import mdlib.utils.collections.BasicTree;
 import mdlib.utils.collections.BasicTreeNode;
@@ -7,6 +9,8 @@ import mdlib.utils.collections.MDCollections;
 import mdlib.utils.collections.Tree;
 import mdlib.utils.collections.TreeNode.UnmodifiableNode;
 import mdlib.utils.io.ExecutableProcess;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
 
 import java.util.*;
 
@@ -17,25 +21,84 @@ import java.util.*;
  */
 public final class AnalysisChessboard extends Chessboard implements Tree<Move, UnmodifiableNode<Move>>, Disposable {
 
+    // Duration of update() of all instances, see Metrics
+    private static final Histogram UPDATE_TIME = Metrics.histogram("jchess.board.AnalysisChessboard.update");
+
     private String startingFEN, currentFEN;
     private BasicTree<Move> doneMovesTree;
     private Vector<Integer> doneMovesIndices;
+    // Released when the chessboard hibernates, see engine()
     private ExecutableProcess stockfishProcess;
     private TreeSet<Move> possibleMoves;
     private byte[][] pieces;
+    private SyzygyTablebase tablebase;
+    // Tablebase results of the current position, null if not probed yet
+    private OptionalInt tablebaseWDL, tablebaseDTZ;
+    // Engine analyses of the nodes of the tree, filled in by the scheduler
+    private IdentityHashMap<BasicTreeNode<Move>, NodeAnalysis> analyses;
+    private AnalysisScheduler scheduler;
+
+    private synchronized void update() {
+        long start = System.nanoTime();
+        movesModified();
+        tablebaseWDL = null;
+        tablebaseDTZ = null;
+        Position position = tablebase == null ? null : tablebasePosition(tablebase, startingFEN, doneMoves());
+        if (position != null) {
+            // Positions in the tablebase are known without the engine
+            touch();
+            currentFEN = position.toFEN();
+            int[] buffer = new int[Position.MAX_MOVES];
+            int count = position.generateLegalMoves(buffer, 0);
+            possibleMoves.clear();
+            for (int i = 0; i < count; i++)
+                possibleMoves.add(position.toMove(buffer[i]));
+            tablebaseWDL = tablebase.probeWDL(position);
+            tablebaseDTZ = tablebase.probeDTZ(position);
+        } else {
+            ExecutableProcess process = engine();
 
-    private void update() {
-        // Set position
-        Utilities.setPosition(stockfishProcess, startingFEN, doneMoves());
-        // Get current FEN
-        currentFEN = Utilities.getPosition(stockfishProcess);
-        // Get all possible moves
-        TreeMap<Move, Integer> moves = Utilities.getAllMovesRating(stockfishProcess, 1);
-        possibleMoves.clear();
-        possibleMoves.addAll(moves.keySet());
+            // Set position
+            Utilities.setPosition(process, startingFEN, doneMoves());
+            // Get current FEN
+            currentFEN = Utilities.getPosition(process);
+            // Get all possible moves
+            TreeMap<Move, Integer> moves = Utilities.getAllMovesRating(process, 1);
+            possibleMoves.clear();
+            possibleMoves.addAll(moves.keySet());
+        }
 
         // Map pieces
         pieces = Utilities.mapPieces(currentFEN);
+        UPDATE_TIME.recordSince(start);
+
+        if (scheduler != null)
+            scheduler.cursorMoved();
+    }
+
+    // Position reached by the moves if it can be probed in the tablebase, otherwise null
+    private static Position tablebasePosition(final SyzygyTablebase tablebase, final String startingFEN,
+                                              final List<Move> moves) {
+        Position position = new Position(startingFEN);
+        if (Utilities.isChess960FEN(startingFEN))
+            position.setChess960(true);
+        for (Move move : moves) {
+            int encoded = position.findMove(move);
+            if (encoded == EngineMove.NONE)
+                return null;
+            position.makeMove(encoded);
+        }
+        return tablebase.canProbe(position) ? position : null;
+    }
+
+    // Acquires the engine again if the chessboard is hibernated
+    private ExecutableProcess engine() {
+        touch();
+        if (stockfishProcess == null) {
+            stockfishProcess = acquireEngine();
+            Utilities.setOption(stockfishProcess, "UCI_Chess960", Utilities.isChess960FEN(startingFEN));
+        }
+        return stockfishProcess;
     }
 
     @Override
@@ -73,19 +136,23 @@ public final class AnalysisChessboard extends Chessboard implements Tree<Move, U
     }
 
     @Override
-    public void reset(final String fen) {
+    public synchronized void reset(final String fen) {
         Disposable.requireNotDisposed(this);
         Utilities.assertFENValidity(fen);
-        stockfishProcess.send("ucinewgame");
         doneMovesTree.getRootNode().clearChildren();
         doneMovesIndices.clear();
+        analyses.clear();
         startingFEN = fen;
+        ExecutableProcess process = engine();
+        process.send("ucinewgame");
+        // Chess960 castling is written as the king capturing own rook
+        Utilities.setOption(process, "UCI_Chess960", Utilities.isChess960FEN(fen));
 
         update();
     }
 
     @Override
-    public void undo() {
+    public synchronized void undo() {
         Disposable.requireNotDisposed(this);
         if (!doneMovesIndices.isEmpty()) {
             doneMovesIndices.remove(doneMovesIndices.size() - 1);
@@ -94,19 +161,21 @@ public final class AnalysisChessboard extends Chessboard implements Tree<Move, U
     }
 
     @Override
-    public void redo() {
+    public synchronized void redo() {
         Disposable.requireNotDisposed(this);
         // Get the current node and check if it has at least one subnode
         BasicTreeNode<Move> currentNode = doneMovesTree.getRootNode();
         for (int i : doneMovesIndices)
             currentNode = currentNode.childNodes().get(i);
         // If it has no children, then, then, cannot redo move
-        if (!currentNode.childNodes().isEmpty())
+        if (!currentNode.childNodes().isEmpty()) {
             doneMovesIndices.add(0);
+            update();
+        }
     }
 
     @Override
-    public void performMove(final Move move) {
+    public synchronized void performMove(final Move move) {
         Disposable.requireNotDisposed(this);
         // Move cannot be null
         if (move == null)
@@ -143,6 +212,7 @@ public final class AnalysisChessboard extends Chessboard implements Tree<Move, U
     @Override
     public SortedSet<Move> possibleMoves() {
         Disposable.requireNotDisposed(this);
+        touch();
         return Collections.unmodifiableSortedSet(possibleMoves);
     }
 
@@ -166,6 +236,156 @@ public final class AnalysisChessboard extends Chessboard implements Tree<Move, U
         return pieces[square.rank()][square.file()];
     }
 
+    /**
+     * Sets the Syzygy tablebase used to analyze positions with few pieces without the engine. Moves and results of
+     * positions in the tablebase are taken from it, also by {@link AnalysisScheduler}. The tablebase is not closed
+     * when this chessboard is closed.
+     *
+     * @param tablebase the tablebase or {@code null} to not use any tablebase
+     */
+    public synchronized void setTablebase(final SyzygyTablebase tablebase) {
+        Disposable.requireNotDisposed(this);
+        this.tablebase = tablebase;
+        tablebaseWDL = null;
+        tablebaseDTZ = null;
+    }
+
+    /**
+     * Returns the Syzygy tablebase used by this chessboard.
+     *
+     * @return the tablebase or {@code null} if no tablebase is used
+     */
+    public SyzygyTablebase getTablebase() {
+        Disposable.requireNotDisposed(this);
+        return tablebase;
+    }
+
+    /**
+     * Returns win/draw/loss value of the current position from the tablebase.
+     *
+     * @return one of {@code WDL_*} constants of {@link SyzygyTablebase} from the point of view of the side to move,
+     *         or empty {@link OptionalInt} if no tablebase is set or the position is not in the tablebase
+     * @see #setTablebase(SyzygyTablebase)
+     */
+    public OptionalInt tablebaseWDL() {
+        Disposable.requireNotDisposed(this);
+        if (tablebaseWDL == null)
+            tablebaseWDL = tablebase == null ? OptionalInt.empty() : tablebase.probeWDL(currentFEN);
+        return tablebaseWDL;
+    }
+
+    /**
+     * Returns distance to zeroing move of the current position from the tablebase.
+     *
+     * @return the distance in plies, see {@link SyzygyTablebase#probeDTZ(String)}, or empty {@link OptionalInt} if
+     *         no tablebase is set or the position is not in the tablebase
+     * @see #setTablebase(SyzygyTablebase)
+     */
+    public OptionalInt tablebaseDTZ() {
+        Disposable.requireNotDisposed(this);
+        if (tablebaseDTZ == null)
+            tablebaseDTZ = tablebase == null ? OptionalInt.empty() : tablebase.probeDTZ(currentFEN);
+        return tablebaseDTZ;
+    }
+
+    /**
+     * Returns the best move in the current position according to the tablebase.
+     *
+     * @return the best move or {@code null} if no tablebase is set, the position is not in the tablebase or there
+     *         is no legal move
+     * @see SyzygyTablebase#bestMove(String)
+     */
+    public Move tablebaseBestMove() {
+        Disposable.requireNotDisposed(this);
+        return tablebase == null ? null : tablebase.bestMove(currentFEN);
+    }
+
+    /**
+     * Returns the engine analysis of the current position.
+     *
+     * @return the analysis or {@code null} if the position is not analysed yet
+     * @see AnalysisScheduler
+     */
+    public synchronized NodeAnalysis analysis() {
+        Disposable.requireNotDisposed(this);
+        return analyses.get(currentNode());
+    }
+
+    /**
+     * Returns the engine analysis of the position reached by given moves from the starting position.
+     *
+     * @param moves moves from the starting position
+     * @return the analysis or {@code null} if the moves are not in the tree or the position is not analysed yet
+     * @throws NullPointerException if {@code null} is given
+     * @see AnalysisScheduler
+     */
+    public synchronized NodeAnalysis analysis(final List<Move> moves) {
+        Disposable.requireNotDisposed(this);
+        Objects.requireNonNull(moves, "Moves cannot be null");
+        BasicTreeNode<Move> node = doneMovesTree.getRootNode();
+        for (Move move : moves) {
+            BasicTreeNode<Move> next = null;
+            for (BasicTreeNode<Move> child : node.childNodes())
+                if (child.getValue().equals(move))
+                    next = child;
+            if (next == null)
+                return null;
+            node = next;
+        }
+        return analyses.get(node);
+    }
+
+    // Node of the current position
+    synchronized BasicTreeNode<Move> currentNode() {
+        BasicTreeNode<Move> node = doneMovesTree.getRootNode();
+        for (int i : doneMovesIndices)
+            node = node.childNodes().get(i);
+        return node;
+    }
+
+    // Moves from the root to given node, null if the node is no longer in the tree
+    synchronized List<Move> lineTo(final BasicTreeNode<Move> node) {
+        if (isDisposed() || node.parentTree() != doneMovesTree)
+            return null;
+        ArrayList<Move> moves = new ArrayList<>();
+        for (BasicTreeNode<Move> n = node; n.parentNode() != null; n = n.parentNode())
+            moves.add(n.getValue());
+        Collections.reverse(moves);
+        return moves;
+    }
+
+    // Analysis of the position reached by the moves from the tablebase, null if it is not in the tablebase
+    synchronized NodeAnalysis tablebaseAnalysis(final String startingFEN, final List<Move> moves, final int multiPV) {
+        if (isDisposed() || tablebase == null)
+            return null;
+        Position position = tablebasePosition(tablebase, startingFEN, moves);
+        return position == null ? null : tablebase.analyse(position, multiPV);
+    }
+
+    synchronized NodeAnalysis analysisOf(final BasicTreeNode<Move> node) {
+        return analyses.get(node);
+    }
+
+    // The root node is kept by reset(String), so the starting FEN tells if the result is not for an old position
+    synchronized void storeAnalysis(final BasicTreeNode<Move> node, final String startingFEN,
+                                    final NodeAnalysis analysis) {
+        if (!isDisposed() && node.parentTree() == doneMovesTree && startingFEN.equals(this.startingFEN))
+            analyses.put(node, analysis);
+    }
+
+    synchronized void attachScheduler(final AnalysisScheduler scheduler) {
+        Disposable.requireNotDisposed(this);
+        if (this.scheduler != null)
+            throw new IllegalStateException("Chessboard is already analysed by another scheduler");
+        this.scheduler = scheduler;
+        scheduler.cursorMoved();
+    }
+
+    synchronized void detachScheduler(final AnalysisScheduler scheduler) {
+        if (this.scheduler == scheduler)
+            this.scheduler = null;
+    }
+
     @Override
     public UnmodifiableNode<Move> getRootNode() {
         return MDCollections.unmodifiableTree(doneMovesTree).getRootNode();
@@ -187,10 +407,10 @@ public final class AnalysisChessboard extends Chessboard implements Tree<Move, U
         doneMovesTree = new BasicTree<>();
         doneMovesIndices = new Vector<>();
         possibleMoves = new TreeSet<>();
-        stockfishProcess = Utilities.createStockfishProcess();
-        stockfishProcess.start();
+        analyses = new IdentityHashMap<>();
 
         reset(fen);
+        register();
     }
 
     /**
@@ -206,10 +426,26 @@ public final class AnalysisChessboard extends Chessboard implements Tree<Move, U
     }
 
     @Override
-    public void close() {
+    public synchronized void hibernate() {
+        if (isDisposed() || stockfishProcess == null)
+            return;
+        releaseEngine(stockfishProcess);
+        stockfishProcess = null;
+    }
+
+    @Override
+    public synchronized boolean isHibernated() {
+        return !isDisposed() && stockfishProcess == null;
+    }
+
+    @Override
+    public synchronized void close() {
         if (!isDisposed()) {
-            if (stockfishProcess != null && stockfishProcess.isAlive())
-                stockfishProcess.close();
+            if (stockfishProcess != null)
+                releaseEngine(stockfishProcess);
+            if (scheduler != null)
+                scheduler.close();
+            unregister();
 
             stockfishProcess = null;
             startingFEN = null;
@@ -218,6 +454,8 @@ public final class AnalysisChessboard extends Chessboard implements Tree<Move, U
             doneMovesIndices = null;
             possibleMoves = null;
             pieces = null;
+            tablebase = null;
+            analyses = null;
         }
     }
 
@@ -0,0 +1,331 @@
+package md.jgames.jchess.logic;
+
+import mdlib.utils.Disposable;
+import mdlib.utils.collections.BasicTreeNode;
+import mdlib.utils.debug.LogLevel;
+import mdlib.utils.debug.Logger;
+import mdlib.utils.io.ExecutableProcess;
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyses all positions of the variation tree of an {@link AnalysisChessboard} in background by MultiPV searches and
+ * stores the results on the nodes of the tree, see {@link AnalysisChessboard#analysis()}. Positions are analysed in
+ * order of their distance from the current position in the tree and the order is recomputed whenever the current
+ * position changes. The current position always gets an engine at once: if all engines are busy, the search of the
+ * most distant position is stopped and that position is analysed later again.
+ *
+ * <p>Positions which can be probed in the tablebase of the chessboard are analysed by {@link
+ * SyzygyTablebase#analyse(md.jgames.jchess.engine.Position, int)} instead of the engine. Total engine time spent on
+ * positions other than the current one is capped, so a long game does not keep the engines busy forever. Engines are
+ * taken from {@link StockfishPool} and given back when the scheduler is closed, which is done also when the
+ * chessboard is closed.</p>
+ *
+ * @author Michal Douša
+ * @see NodeAnalysis
+ */
+public final class AnalysisScheduler implements Disposable {
+
+    private static final Logger LOGGER = Logger.getLogger(AnalysisScheduler.class);
+    private static final Histogram SEARCH_TIME = Metrics.histogram("jchess.analysis.search");
+    private static final Counter PREEMPTIONS = Metrics.counter("jchess.analysis.preemptions");
+    private static final AtomicInteger createdSchedulersCount = new AtomicInteger();
+
+    private final AnalysisChessboard chessboard;
+    private final int multiPV, depth;
+    private final long searchTimeMillis, engineTimeBudgetMillis;
+    private final Worker[] workers;
+    // Nodes waiting for analysis, the nearest to the current position first
+    private final PriorityQueue<Job> queue = new PriorityQueue<>();
+    private long engineTimeMillis;
+    // Part of the engine time spent on positions other than the current one, which is limited by the budget
+    private long backgroundTimeMillis;
+    private boolean closed;
+
+    /**
+     * Creates a scheduler and starts analysing the tree of given chessboard. A chessboard can be analysed by one
+     * scheduler at a time.
+     *
+     * @param chessboard             the chessboard
+     * @param engineCount            count of engines analysing in parallel
+     * @param multiPV                count of the best lines found for every position
+     * @param depth                  depth of the searches
+     * @param searchTimeMillis       longest time of a search of one position in milliseconds
+     * @param engineTimeBudgetMillis total engine time in milliseconds to be spent on positions other than the current
+     *                               one
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalArgumentException if a count, the depth or a time is out of range
+     * @throws IllegalStateException    if the chessboard is closed or already analysed by another scheduler
+     */
+    public AnalysisScheduler(final AnalysisChessboard chessboard, final int engineCount, final int multiPV,
+                             final int depth, final long searchTimeMillis, final long engineTimeBudgetMillis) {
+        if (engineCount < 1)
+            throw new IllegalArgumentException("Invalid engine count: " + engineCount);
+        if (multiPV < 1)
+            throw new IllegalArgumentException("Invalid MultiPV: " + multiPV);
+        if (depth < 1)
+            throw new IllegalArgumentException("Invalid depth: " + depth);
+        if (searchTimeMillis < 1 || engineTimeBudgetMillis < 0)
+            throw new IllegalArgumentException("Invalid time limit");
+        this.chessboard = Objects.requireNonNull(chessboard, "Chessboard cannot be null");
+        this.multiPV = multiPV;
+        this.depth = depth;
+        this.searchTimeMillis = searchTimeMillis;
+        this.engineTimeBudgetMillis = engineTimeBudgetMillis;
+
+        workers = new Worker[engineCount];
+        for (int i = 0; i < engineCount; i++)
+            workers[i] = new Worker();
+        chessboard.attachScheduler(this);
+        int schedulerNumber = createdSchedulersCount.getAndIncrement();
+        for (int i = 0; i < engineCount; i++) {
+            Thread thread = new Thread(workers[i], "AnalysisScheduler" + schedulerNumber + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Recomputes the order of the nodes to be analysed. Called by the chessboard whenever the current position or the
+     * tree changes, while the lock of the chessboard is held.
+     */
+    void cursorMoved() {
+        // Breadth-first search from the current node gives the distance of every node
+        String fen = chessboard.startingFEN();
+        IdentityHashMap<BasicTreeNode<Move>, Integer> distances = new IdentityHashMap<>();
+        ArrayList<Job> jobs = new ArrayList<>();
+        ArrayDeque<BasicTreeNode<Move>> pending = new ArrayDeque<>();
+        BasicTreeNode<Move> current = chessboard.currentNode();
+        distances.put(current, 0);
+        pending.add(current);
+        while (!pending.isEmpty()) {
+            BasicTreeNode<Move> node = pending.remove();
+            int distance = distances.get(node);
+            if (chessboard.analysisOf(node) == null)
+                jobs.add(new Job(node, fen, distance, jobs.size()));
+            if (node.parentNode() != null && distances.putIfAbsent(node.parentNode(), distance + 1) == null)
+                pending.add(node.parentNode());
+            for (BasicTreeNode<Move> child : node.childNodes())
+                if (distances.putIfAbsent(child, distance + 1) == null)
+                    pending.add(child);
+        }
+
+        synchronized (this) {
+            if (closed)
+                return;
+            // The current position needs an engine unless one is already searching it or is about to be free
+            boolean needsEngine = !jobs.isEmpty() && jobs.get(0).distance == 0;
+            Worker farthest = null;
+            int farthestDistance = 0;
+            for (Worker worker : workers) {
+                if (worker.job == null || worker.job.preempted) {
+                    needsEngine = false;
+                    continue;
+                }
+                if (worker.job.node == current)
+                    needsEngine = false;
+                Integer distance = distances.get(worker.job.node);
+                int workerDistance = distance == null ? Integer.MAX_VALUE : distance;
+                if (workerDistance > farthestDistance) {
+                    farthest = worker;
+                    farthestDistance = workerDistance;
+                }
+            }
+            if (needsEngine && farthest != null)
+                farthest.preempt();
+
+            queue.clear();
+            for (Job job : jobs)
+                if (!isRunning(job.node))
+                    queue.add(job);
+            notifyAll();
+        }
+    }
+
+    // Called with the lock held
+    private boolean isRunning(final BasicTreeNode<Move> node) {
+        for (Worker worker : workers)
+            if (worker.job != null && !worker.job.preempted && worker.job.node == node)
+                return true;
+        return false;
+    }
+
+    // Waits for the next job which may be run within the budget, returns null when the scheduler is closed
+    private synchronized Job take(final Worker worker) {
+        while (!closed) {
+            Job job = queue.peek();
+            if (job != null && (job.distance == 0 || backgroundTimeMillis < engineTimeBudgetMillis)) {
+                queue.remove();
+                worker.job = job;
+                return job;
+            }
+            try {
+                wait();
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Stores the result unless the search was stopped, the lock of the chessboard is taken first as everywhere else
+    private void finish(final Worker worker, final Job job, final NodeAnalysis analysis, final long millis) {
+        synchronized (chessboard) {
+            synchronized (this) {
+                worker.job = null;
+                engineTimeMillis += millis;
+                if (job.distance > 0)
+                    backgroundTimeMillis += millis;
+                if (analysis != null && !job.preempted)
+                    chessboard.storeAnalysis(job.node, job.startingFEN, analysis);
+                notifyAll();
+            }
+        }
+    }
+
+    // Limit of the search time of given job, the budget shrinks it for positions other than the current one
+    private synchronized long searchTimeLimit(final Job job) {
+        if (job.distance == 0)
+            return searchTimeMillis;
+        return Math.max(1, Math.min(searchTimeMillis, engineTimeBudgetMillis - backgroundTimeMillis));
+    }
+
+    /**
+     * Returns total engine time spent by searches in milliseconds, including searches of the current position.
+     *
+     * @return engine time in milliseconds
+     */
+    public synchronized long engineTimeMillis() {
+        return engineTimeMillis;
+    }
+
+    /**
+     * Returns count of positions waiting for analysis.
+     *
+     * @return count of queued positions
+     */
+    public synchronized int queuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stops all searches and gives the engines back to {@link StockfishPool}. Analyses stored on the chessboard are
+     * kept.
+     */
+    @Override
+    public void close() {
+        chessboard.detachScheduler(this);
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            queue.clear();
+            for (Worker worker : workers)
+                if (worker.job != null)
+                    worker.preempt();
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized boolean isDisposed() {
+        return closed;
+    }
+
+    private static final class Job implements Comparable<Job> {
+        final BasicTreeNode<Move> node;
+        final String startingFEN;
+        final int distance;
+        final int order;
+        // Set when the search is stopped before it is done, the result is then thrown away
+        volatile boolean preempted;
+
+        Job(final BasicTreeNode<Move> node, final String startingFEN, final int distance, final int order) {
+            this.node = node;
+            this.startingFEN = startingFEN;
+            this.distance = distance;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(final Job job) {
+            return distance != job.distance ? Integer.compare(distance, job.distance) : Integer.compare(order, job.order);
+        }
+    }
+
+    private final class Worker implements Runnable {
+        // Both guarded by the lock of the scheduler
+        private Job job;
+        private ExecutableProcess process;
+
+        @Override
+        public void run() {
+            ExecutableProcess engine;
+            try {
+                engine = StockfishPool.acquire();
+            } catch (RuntimeException exc) {
+                LOGGER.log(LogLevel.ERROR, "Cannot start engine for analysis", exc);
+                return;
+            }
+            synchronized (AnalysisScheduler.this) {
+                process = engine;
+            }
+            Utilities.setOption(engine, "MultiPV", multiPV);
+            try {
+                Job next;
+                while ((next = take(this)) != null) {
+                    List<Move> moves = chessboard.lineTo(next.node);
+                    // Positions in the tablebase are not searched and do not count in the engine time
+                    NodeAnalysis known = moves == null ? null
+                            : chessboard.tablebaseAnalysis(next.startingFEN, moves, multiPV);
+                    if (known != null) {
+                        finish(this, next, known, 0);
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    NodeAnalysis analysis = moves == null ? null : search(engine, next, moves);
+                    finish(this, next, analysis, (System.nanoTime() - start) / 1_000_000);
+                    if (analysis != null)
+                        SEARCH_TIME.recordSince(start);
+                }
+            } finally {
+                synchronized (AnalysisScheduler.this) {
+                    process = null;
+                }
+                StockfishPool.release(engine);
+            }
+        }
+
+        // Called with the lock of the scheduler held
+        void preempt() {
+            job.preempted = true;
+            if (process != null)
+                process.send("stop");
+            PREEMPTIONS.increment();
+        }
+
+        private NodeAnalysis search(final ExecutableProcess engine, final Job job, final List<Move> moves) {
+            long timeLimit = searchTimeLimit(job);
+            NodeAnalysis analysis;
+            synchronized (engine) {
+                if (job.preempted)
+                    return null;
+                Utilities.setOption(engine, "UCI_Chess960", Utilities.isChess960FEN(job.startingFEN));
+                Utilities.setPosition(engine, job.startingFEN, moves);
+                // A stop which comes before the search starts is ignored, the search is then limited by time only
+                analysis = Utilities.analyse(engine, depth, timeLimit);
+            }
+            return job.preempted ? null : analysis;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.util.TreeSet;
 import java.util.Vector;
 
 import mdlib.utils.Disposable;
+import mdlib.utils.io.ExecutableProcess;
 
 /**
  * Base class for all classes implementing a chessboard for chess game.
@@ -16,6 +17,14 @@ import mdlib.utils.Disposable;
  */
 public abstract class Chessboard implements Disposable {
     private final Vector<ChessboardListener> chessboardListeners = new Vector<>();
+    // Every chessboard is tracked since the end of its constructor, so it can be hibernated, see register()
+    private volatile ChessboardRegistry.Entry registryEntry;
+    // Engine acquired and not released yet, it is handed over to ChessboardRegistry by register()
+    private ExecutableProcess engine;
+    // Follows the done moves lazily, see DrawDetector
+    private final DrawDetector drawDetector = new DrawDetector();
+    // Incremented whenever the done moves change, see movesModified()
+    private volatile int modificationCount;
 
     /**
      * Represents a square where is no piece.
@@ -245,4 +254,163 @@ public abstract class Chessboard implements Disposable {
      */
     public abstract byte pieceAt(Square square);
 
+    /**
+     * Returns how many times the current position occurred in the game, including the current occurrence. Positions
+     * are equal if the same pieces stand on the same squares, the same side is to move and the same castling and en
+     * passant captures are possible. Only positions since the last capture or pawn move are compared.
+     *
+     * @return count of occurrences of the current position
+     * @see #isThreefoldRepetition()
+     */
+    public int repetitionCount() {
+        Disposable.requireNotDisposed(this);
+        return updatedDrawDetector().repetitionCount();
+    }
+
+    /**
+     * Returns if the current position occurred at least three times, so either player can claim a draw.
+     *
+     * @return if the current position is repeated three times
+     * @see #repetitionCount()
+     */
+    public boolean isThreefoldRepetition() {
+        return repetitionCount() >= 3;
+    }
+
+    /**
+     * Returns if no capture or pawn move was done in last fifty moves of each player, so either player can claim a
+     * draw. A position where the side to move is checkmated is not a draw.
+     *
+     * @return if a draw can be claimed by the fifty-move rule
+     */
+    public boolean isFiftyMoveDraw() {
+        Disposable.requireNotDisposed(this);
+        DrawDetector detector = updatedDrawDetector();
+        return detector.halfmoveClock() >= 100 && !detector.isCheckmate();
+    }
+
+    /**
+     * Returns if neither player can checkmate by any sequence of legal moves, so the game is drawn: king against king,
+     * king and a bishop or a knight against king, or only kings and bishops standing on squares of one color.
+     *
+     * @return if there is not enough material to checkmate
+     */
+    public boolean isInsufficientMaterial() {
+        Disposable.requireNotDisposed(this);
+        return updatedDrawDetector().isInsufficientMaterial();
+    }
+
+    // Unchanged chessboards are not replayed again, so draw queries do not depend on the count of done moves
+    private DrawDetector updatedDrawDetector() {
+        int modification = modificationCount;
+        if (!drawDetector.isUpdated(modification))
+            drawDetector.update(modification, startingFEN(), doneMoves());
+        return drawDetector;
+    }
+
+    /**
+     * Must be called by subclasses whenever the starting position or the done moves change, so results of draw queries
+     * such as {@link #repetitionCount()} are computed again.
+     */
+    protected final void movesModified() {
+        modificationCount++;
+    }
+
+    /**
+     * Frees resources of this chessboard which can be restored later, most importantly its engine process. The moves
+     * and positions already computed are kept. The chessboard stays usable: the engine is acquired again from {@link
+     * StockfishPool} once it is needed. Chessboards are hibernated automatically by {@link ChessboardRegistry}. The
+     * default implementation does nothing.
+     */
+    public void hibernate() {
+    }
+
+    /**
+     * Returns if this chessboard is hibernated, i.e. it does not own any engine process at the moment.
+     *
+     * @return if the chessboard is hibernated
+     * @see #hibernate()
+     */
+    public boolean isHibernated() {
+        return false;
+    }
+
+    /**
+     * Returns estimated count of bytes held by this chessboard which can be freed by {@link #trimMemory()}. The
+     * default implementation returns 0.
+     *
+     * @return estimated size of data which can be computed again
+     * @see ChessboardRegistry#setMemoryBudget(long)
+     */
+    long trimmableMemory() {
+        return 0;
+    }
+
+    /**
+     * Frees data of this chessboard which can be computed again once it is needed, e.g. positions which are not
+     * visited at the moment. Called by {@link ChessboardRegistry} when the memory budget is exceeded. The default
+     * implementation does nothing.
+     */
+    void trimMemory() {
+    }
+
+    /**
+     * Tells {@link ChessboardRegistry} that data counted by {@link #trimmableMemory()} has grown, so the memory budget
+     * is checked.
+     */
+    final void memoryGrown() {
+        ChessboardRegistry.memoryGrown();
+    }
+
+    /**
+     * Starts tracking this chessboard by {@link ChessboardRegistry}. Must be called once at the end of every
+     * constructor of a subclass which does not call another constructor of the same class, so the registry never
+     * hibernates a chessboard which is not constructed yet.
+     *
+     * @throws IllegalStateException if the chessboard is already registered
+     */
+    final void register() {
+        if (registryEntry != null)
+            throw new IllegalStateException("Chessboard is already registered");
+        registryEntry = ChessboardRegistry.register(this, engine);
+    }
+
+    /**
+     * Acquires an engine process from {@link StockfishPool} and counts it in the engine budget of {@link
+     * ChessboardRegistry}.
+     *
+     * @return started and initialized engine process
+     */
+    final ExecutableProcess acquireEngine() {
+        ExecutableProcess process = StockfishPool.acquire();
+        engine = process;
+        ChessboardRegistry.engineAcquired(registryEntry, process);
+        return process;
+    }
+
+    /**
+     * Gives the engine process back to {@link StockfishPool}.
+     *
+     * @param process the engine process
+     */
+    final void releaseEngine(final ExecutableProcess process) {
+        engine = null;
+        ChessboardRegistry.engineReleased(registryEntry);
+        StockfishPool.release(process);
+    }
+
+    /**
+     * Marks this chessboard as used now, so it is not hibernated as an idle one.
+     */
+    final void touch() {
+        ChessboardRegistry.touch(registryEntry);
+    }
+
+    /**
+     * Removes this chessboard from {@link ChessboardRegistry}. Called when the chessboard is closed.
+     */
+    final void unregister() {
+        ChessboardRegistry.unregister(registryEntry);
+    }
+
 }
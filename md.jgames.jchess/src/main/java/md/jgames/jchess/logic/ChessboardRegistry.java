@@ -0,0 +1,355 @@
+package md.jgames.jchess.logic;
+
+import mdlib.utils.io.ExecutableProcess;
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Metrics;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Registry of all live {@link Chessboard} instances. Chessboards are tracked by weak references, so a chessboard which
+ * is no longer used is garbage collected even if it was not closed, and its engine process goes back to {@link
+ * StockfishPool}. The registry keeps the count of engine processes owned by chessboards within a budget and
+ * hibernates chessboards which were not used for given time, see {@link Chessboard#hibernate()}. A hibernated
+ * chessboard keeps its moves and computed positions and acquires an engine again once it is needed, so hibernation is
+ * transparent to the users of the chessboard. Computed positions are kept within a memory budget, positions of the
+ * least recently used chessboards are dropped first and computed again when visited.
+ *
+ * @author Michal Douša
+ * @see #setEngineBudget(int)
+ * @see #setMemoryBudget(long)
+ * @see #setIdleTimeout(long)
+ */
+public final class ChessboardRegistry {
+
+    // Do not create any instance
+    private ChessboardRegistry() {
+    }
+
+    // Registered chessboards, guarded by the lock of the class
+    private static final HashSet<Entry> entries = new HashSet<>();
+    private static final ReferenceQueue<Chessboard> collectedChessboards = new ReferenceQueue<>();
+
+    private static int engineBudget = Integer.MAX_VALUE;
+    private static long memoryBudget = Long.MAX_VALUE;
+    // Set while a check of the memory budget waits for the sweeper, so growing chessboards do not flood it
+    private static final AtomicBoolean memoryCheckScheduled = new AtomicBoolean();
+    private static long idleTimeoutNanos = 0;
+    private static ScheduledFuture<?> idleSweep;
+
+    // Count of hibernated and collected chessboards, see Metrics
+    private static final Counter HIBERNATED = Metrics.counter("jchess.registry.hibernated");
+    private static final Counter COLLECTED = Metrics.counter("jchess.registry.collected");
+    private static final Counter TRIMMED = Metrics.counter("jchess.registry.trimmed");
+
+    static {
+        Metrics.gauge("jchess.registry.chessboards", ChessboardRegistry::chessboardCount);
+        Metrics.gauge("jchess.registry.engines", ChessboardRegistry::engineCount);
+    }
+
+    // Chessboards are hibernated by a single background thread, never by the thread using another chessboard
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ChessboardRegistrySweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Weak reference to a registered chessboard. The engine process is referenced strongly, so it can be released
+     * after the chessboard is collected.
+     */
+    static final class Entry extends WeakReference<Chessboard> {
+        private volatile long lastAccess = System.nanoTime();
+        private ExecutableProcess engine;
+
+        private Entry(final Chessboard chessboard) {
+            super(chessboard, collectedChessboards);
+        }
+    }
+
+    /**
+     * Sets the maximum count of engine processes owned by chessboards. When a chessboard acquires an engine and the
+     * budget is exceeded, the least recently used chessboards are hibernated in background.
+     *
+     * @param budget maximum count of engine processes, {@link Integer#MAX_VALUE} for no limit
+     * @throws IllegalArgumentException if the budget is less than 1
+     */
+    public static void setEngineBudget(final int budget) {
+        if (budget < 1)
+            throw new IllegalArgumentException("Engine budget must be positive");
+        synchronized (ChessboardRegistry.class) {
+            engineBudget = budget;
+        }
+        sweeper.execute(ChessboardRegistry::enforceEngineBudget);
+    }
+
+    /**
+     * Returns the maximum count of engine processes owned by chessboards.
+     *
+     * @return the engine budget
+     */
+    public static synchronized int engineBudget() {
+        return engineBudget;
+    }
+
+    /**
+     * Sets the maximum estimated count of bytes of computed positions kept by chessboards. When a chessboard computes
+     * new positions and the budget is exceeded, positions of the least recently used chessboards are dropped in
+     * background, except the current ones. Moves and analyses are never dropped.
+     *
+     * @param bytes maximum estimated memory, {@link Long#MAX_VALUE} for no limit
+     * @throws IllegalArgumentException if the budget is negative
+     */
+    public static void setMemoryBudget(final long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Memory budget cannot be negative");
+        synchronized (ChessboardRegistry.class) {
+            memoryBudget = bytes;
+        }
+        memoryGrown();
+    }
+
+    /**
+     * Returns the maximum estimated count of bytes of computed positions kept by chessboards.
+     *
+     * @return the memory budget
+     */
+    public static synchronized long memoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns estimated count of bytes of computed positions kept by live chessboards, which is kept within the memory
+     * budget.
+     *
+     * @return estimated memory
+     * @see #setMemoryBudget(long)
+     */
+    public static long trimmableMemory() {
+        long memory = 0;
+        for (Entry entry : liveEntries()) {
+            Chessboard chessboard = entry.get();
+            if (chessboard != null)
+                memory += chessboard.trimmableMemory();
+        }
+        return memory;
+    }
+
+    /**
+     * Sets time after which unused chessboards are hibernated. Chessboards are checked periodically in background.
+     *
+     * @param millis idle time in milliseconds, 0 to never hibernate idle chessboards
+     * @throws IllegalArgumentException if negative time is given
+     */
+    public static synchronized void setIdleTimeout(final long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Idle timeout cannot be negative");
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        if (idleSweep != null)
+            idleSweep.cancel(false);
+        idleSweep = null;
+        if (millis > 0) {
+            long period = Math.max(millis / 4, 10);
+            idleSweep = sweeper.scheduleWithFixedDelay(() -> hibernateIdle(millis), period, period,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns time after which unused chessboards are hibernated.
+     *
+     * @return idle time in milliseconds, 0 if idle chessboards are never hibernated
+     */
+    public static synchronized long idleTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos);
+    }
+
+    /**
+     * Hibernates all chessboards owning an engine which were not used for given time.
+     *
+     * @param millis idle time in milliseconds
+     * @return count of hibernated chessboards
+     */
+    public static int hibernateIdle(final long millis) {
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        ArrayList<Entry> idle = new ArrayList<>();
+        synchronized (ChessboardRegistry.class) {
+            expungeCollected();
+            for (Entry entry : entries)
+                if (entry.engine != null && now - entry.lastAccess >= idleNanos)
+                    idle.add(entry);
+        }
+        return hibernate(idle);
+    }
+
+    /**
+     * Returns count of live chessboards, i.e. chessboards which were neither closed nor garbage collected.
+     *
+     * @return count of chessboards
+     */
+    public static synchronized int chessboardCount() {
+        expungeCollected();
+        return entries.size();
+    }
+
+    /**
+     * Returns count of engine processes owned by live chessboards.
+     *
+     * @return count of engine processes
+     */
+    public static synchronized int engineCount() {
+        expungeCollected();
+        int count = 0;
+        for (Entry entry : entries)
+            if (entry.engine != null)
+                count++;
+        return count;
+    }
+
+    static Entry register(final Chessboard chessboard, final ExecutableProcess engine) {
+        Entry entry = new Entry(chessboard);
+        synchronized (ChessboardRegistry.class) {
+            expungeCollected();
+            entries.add(entry);
+        }
+        // Engine acquired by the constructor is counted in the budget from now on
+        if (engine != null)
+            engineAcquired(entry, engine);
+        return entry;
+    }
+
+    // Methods below are also called by chessboards being constructed, which are not registered yet
+    static void touch(final Entry entry) {
+        if (entry != null)
+            entry.lastAccess = System.nanoTime();
+    }
+
+    static void engineAcquired(final Entry entry, final ExecutableProcess engine) {
+        if (entry == null)
+            return;
+        boolean overBudget;
+        synchronized (ChessboardRegistry.class) {
+            entry.engine = engine;
+            entry.lastAccess = System.nanoTime();
+            overBudget = engineBudget != Integer.MAX_VALUE && engineCount() > engineBudget;
+        }
+        // The caller may hold the lock of its chessboard, so other chessboards are hibernated in background
+        if (overBudget)
+            sweeper.execute(ChessboardRegistry::enforceEngineBudget);
+    }
+
+    static synchronized void engineReleased(final Entry entry) {
+        if (entry != null)
+            entry.engine = null;
+    }
+
+    static void memoryGrown() {
+        // The caller may hold the lock of its chessboard, so positions of other chessboards are dropped in background
+        if (memoryBudget() != Long.MAX_VALUE && memoryCheckScheduled.compareAndSet(false, true))
+            sweeper.execute(ChessboardRegistry::enforceMemoryBudget);
+    }
+
+    static synchronized void unregister(final Entry entry) {
+        if (entry == null)
+            return;
+        entries.remove(entry);
+        entry.engine = null;
+        entry.clear();
+    }
+
+    private static void enforceEngineBudget() {
+        ArrayList<Entry> leastRecentlyUsed = new ArrayList<>();
+        synchronized (ChessboardRegistry.class) {
+            expungeCollected();
+            for (Entry entry : entries)
+                if (entry.engine != null)
+                    leastRecentlyUsed.add(entry);
+            if (leastRecentlyUsed.size() <= engineBudget)
+                return;
+            sortLeastRecentlyUsedFirst(leastRecentlyUsed);
+            leastRecentlyUsed.subList(leastRecentlyUsed.size() - engineBudget, leastRecentlyUsed.size()).clear();
+        }
+        hibernate(leastRecentlyUsed);
+    }
+
+    private static void enforceMemoryBudget() {
+        memoryCheckScheduled.set(false);
+        long budget = memoryBudget();
+        ArrayList<Entry> leastRecentlyUsed = liveEntries();
+        // Chessboards are asked without the lock of the registry, they may be waiting for it in engineAcquired()
+        HashMap<Entry, Long> memory = new HashMap<>();
+        long total = 0;
+        for (Entry entry : leastRecentlyUsed) {
+            Chessboard chessboard = entry.get();
+            long bytes = chessboard == null ? 0 : chessboard.trimmableMemory();
+            memory.put(entry, bytes);
+            total += bytes;
+        }
+        sortLeastRecentlyUsedFirst(leastRecentlyUsed);
+        for (Entry entry : leastRecentlyUsed) {
+            if (total <= budget)
+                break;
+            Chessboard chessboard = entry.get();
+            if (chessboard != null && memory.get(entry) > 0) {
+                chessboard.trimMemory();
+                TRIMMED.increment();
+                total -= memory.get(entry);
+            }
+        }
+    }
+
+    private static synchronized ArrayList<Entry> liveEntries() {
+        expungeCollected();
+        return new ArrayList<>(entries);
+    }
+
+    // Access times are copied first, so chessboards used while sorting do not break the order
+    private static void sortLeastRecentlyUsedFirst(final List<Entry> list) {
+        HashMap<Entry, Long> lastAccess = new HashMap<>();
+        for (Entry entry : list)
+            lastAccess.put(entry, entry.lastAccess);
+        list.sort(Comparator.comparingLong(lastAccess::get));
+    }
+
+    private static int hibernate(final ArrayList<Entry> entriesToHibernate) {
+        int count = 0;
+        for (Entry entry : entriesToHibernate) {
+            Chessboard chessboard = entry.get();
+            if (chessboard != null && !chessboard.isDisposed() && !chessboard.isHibernated()) {
+                chessboard.hibernate();
+                HIBERNATED.increment();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Gives engines of collected chessboards back to the pool
+    private static void expungeCollected() {
+        Reference<? extends Chessboard> reference;
+        while ((reference = collectedChessboards.poll()) != null) {
+            Entry entry = (Entry) reference;
+            if (entries.remove(entry)) {
+                COLLECTED.increment();
+                if (entry.engine != null) {
+                    ExecutableProcess engine = entry.engine;
+                    entry.engine = null;
+                    sweeper.execute(() -> StockfishPool.release(engine));
+                }
+            }
+        }
+    }
+}
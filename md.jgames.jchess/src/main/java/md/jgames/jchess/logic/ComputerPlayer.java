@@ -0,0 +1,185 @@
+package md.jgames.jchess.logic;
+
+import mdlib.utils.Disposable;
+import mdlib.utils.io.ExecutableProcess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computer opponent backed by a Stockfish process from {@link StockfishPool}. After playing a move the player can ponder
+ * on the reply it expects (UCI {@code go ponder}). When the opponent plays the expected reply, the search already done
+ * is used ({@code ponderhit}), so the next move is found almost immediately.
+ *
+ * @author Michal Douša
+ * @see #findMove(Chessboard)
+ * @see #startPondering(Chessboard)
+ * @see ChessPlayerConfiguration
+ */
+public final class ComputerPlayer implements Disposable {
+
+    private final ExecutableProcess stockfishProcess;
+    private final int depth;
+    // Completed by the reader thread, so it is not guarded by the lock of this object
+    private final AtomicReference<CompletableFuture<String[]>> pendingSearch = new AtomicReference<>();
+    // Position after the expected reply
+    private List<Move> ponderedMoves;
+    private String ponderedFEN;
+    private boolean pondering;
+    // Read by the reader thread too, which must not lock this object
+    private volatile boolean disposed;
+
+    /**
+     * Creates a computer player of given skill level.
+     *
+     * @param skillLevel skill level from 0 to 20, see {@link ChessPlayerConfiguration#engineSkillLevel()}
+     * @param depth      depth of the search
+     * @throws IllegalArgumentException   if skill level or depth is out of range
+     * @throws StockfishNotFoundException if chess engine executable was not found
+     */
+    public ComputerPlayer(final int skillLevel, final int depth) {
+        if (skillLevel < 0 || skillLevel > 20)
+            throw new IllegalArgumentException("Invalid engine skill level");
+        if (depth < 1)
+            throw new IllegalArgumentException("Depth must be positive");
+        this.depth = depth;
+        stockfishProcess = StockfishPool.acquire();
+        // Every 'bestmove' line finishes the search which was started last, the process outlives the player in the pool
+        stockfishProcess.read(line -> {
+            if (disposed)
+                return false;
+            if (line != null && line.startsWith("bestmove")) {
+                CompletableFuture<String[]> search = pendingSearch.getAndSet(null);
+                if (search != null)
+                    search.complete(line.split(" "));
+            }
+            return true;
+        });
+        Utilities.setOption(stockfishProcess, "Skill Level", skillLevel);
+        Utilities.setOption(stockfishProcess, "Ponder", true);
+    }
+
+    /**
+     * Finds the move to be played in the current position of given chessboard. If the player was pondering on the
+     * current position, the pondering search is continued, otherwise it is thrown away and a new search is started.
+     *
+     * @param chessboard the chessboard
+     * @return the best move, or {@code null} if there is no legal move
+     * @throws NullPointerException if {@code null} is given
+     */
+    public Move findMove(final Chessboard chessboard) {
+        Disposable.requireNotDisposed(this);
+        Objects.requireNonNull(chessboard, "Chessboard cannot be null");
+        String fen = chessboard.startingFEN();
+        List<Move> moves = new ArrayList<>(chessboard.doneMoves());
+
+        CompletableFuture<String[]> search;
+        boolean ponderhit;
+        synchronized (this) {
+            ponderhit = pondering && ponderedFEN.equals(fen) && ponderedMoves.equals(moves);
+            if (pondering && !ponderhit)
+                stopPondering();
+            pondering = false;
+            ponderedMoves = null;
+            ponderedFEN = null;
+            if (ponderhit) {
+                search = pendingSearch.get();
+                stockfishProcess.send("ponderhit");
+            } else {
+                Utilities.setOption(stockfishProcess, "UCI_Chess960", Utilities.isChess960FEN(fen));
+                Utilities.setPosition(stockfishProcess, fen, moves);
+                search = new CompletableFuture<>();
+                pendingSearch.set(search);
+                stockfishProcess.send("go depth " + depth);
+            }
+        }
+        long start = System.nanoTime();
+        String[] bestMove = search.join();
+        (ponderhit ? Utilities.LATENCY_PONDERHIT : Utilities.LATENCY_GO).recordSince(start);
+        synchronized (this) {
+            // Remembered for pondering
+            if (bestMove.length >= 4 && bestMove[2].equals("ponder") && !bestMove[1].equals("(none)")) {
+                ponderedFEN = fen;
+                ponderedMoves = moves;
+                ponderedMoves.add(new Move(bestMove[1]));
+                ponderedMoves.add(new Move(bestMove[3]));
+            }
+        }
+        return bestMove[1].equals("(none)") ? null : new Move(bestMove[1]);
+    }
+
+    /**
+     * Starts pondering on the reply expected after the move returned by {@link #findMove(Chessboard)} was played on
+     * given chessboard. Does nothing if no reply is expected or the chessboard is in another position.
+     *
+     * @param chessboard the chessboard
+     * @return if pondering was started
+     * @throws NullPointerException if {@code null} is given
+     */
+    public synchronized boolean startPondering(final Chessboard chessboard) {
+        Disposable.requireNotDisposed(this);
+        Objects.requireNonNull(chessboard, "Chessboard cannot be null");
+        if (ponderedMoves == null || pondering)
+            return false;
+        List<Move> moves = chessboard.doneMoves();
+        if (!ponderedFEN.equals(chessboard.startingFEN()) || moves.size() != ponderedMoves.size() - 1
+                || !ponderedMoves.subList(0, moves.size()).equals(moves)) {
+            ponderedMoves = null;
+            ponderedFEN = null;
+            return false;
+        }
+        Utilities.setPosition(stockfishProcess, ponderedFEN, ponderedMoves);
+        pendingSearch.set(new CompletableFuture<>());
+        pondering = true;
+        stockfishProcess.send("go ponder depth " + depth);
+        return true;
+    }
+
+    /**
+     * Returns the reply the player is pondering on.
+     *
+     * @return the expected reply, or {@code null} if the player is not pondering
+     */
+    public synchronized Move ponderedMove() {
+        return pondering ? ponderedMoves.get(ponderedMoves.size() - 1) : null;
+    }
+
+    /**
+     * Returns if the player is pondering.
+     *
+     * @return if pondering is running
+     */
+    public synchronized boolean isPondering() {
+        return pondering;
+    }
+
+    // Stops pondering and waits until the engine reports the move, which is thrown away
+    private void stopPondering() {
+        CompletableFuture<String[]> search = pendingSearch.get();
+        stockfishProcess.send("stop");
+        if (search != null)
+            search.join();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!disposed) {
+            disposed = true;
+            pondering = false;
+            ponderedMoves = null;
+            ponderedFEN = null;
+            CompletableFuture<String[]> search = pendingSearch.getAndSet(null);
+            if (search != null)
+                search.complete(new String[]{"bestmove", "(none)"});
+            StockfishPool.release(stockfishProcess);
+        }
+    }
+
+    @Override
+    public synchronized boolean isDisposed() {
+        return disposed;
+    }
+}
@@ -0,0 +1,159 @@
+package md.jgames.jchess.logic;
+
+import md.jgames.jchess.engine.EngineMove;
+import md.jgames.jchess.engine.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Follows the moves of a {@link Chessboard} on a {@link Position} of the embedded engine and keeps a stack of
+ * position hashes, so draws by rules are detected without any engine process. For every ply, the count of occurrences
+ * of the position is computed once when the ply is reached, looking back only to the last irreversible move (capture
+ * or pawn move). Queries are then answered in constant time, and the chessboard replays its moves only when it has
+ * changed since the last query, see {@link #isUpdated(int)}.
+ *
+ * @author Michal Douša
+ * @see Chessboard#isThreefoldRepetition()
+ * @see Chessboard#isFiftyMoveDraw()
+ * @see Chessboard#isInsufficientMaterial()
+ */
+final class DrawDetector {
+
+    private final Position position = new Position();
+    private final ArrayList<Move> moves = new ArrayList<>();
+    private final int[] moveBuffer = new int[Position.MAX_MOVES];
+    private String startingFEN;
+    // Modification count of the chessboard the moves are replayed at
+    private int modification = -1;
+    // Hash of the position and count of its occurrences at every ply, index 0 is the starting position
+    private long[] keys = new long[64];
+    private int[] occurrences = new int[64];
+
+    /**
+     * Returns if the moves are replayed at given modification count of the chessboard.
+     *
+     * @param modification the modification count
+     * @return if the detector is up to date
+     */
+    synchronized boolean isUpdated(final int modification) {
+        return this.modification == modification;
+    }
+
+    /**
+     * Replays given game, reusing the moves which are already replayed. Undoing moves and performing a few new ones is
+     * as cheap as the count of changed moves.
+     *
+     * @param modification modification count of the chessboard the game is taken at
+     * @param startingFEN  FEN of the starting position
+     * @param doneMoves    moves done from the starting position
+     * @throws IllegalArgumentException if one of the moves is illegal
+     */
+    synchronized void update(final int modification, final String startingFEN, final List<Move> doneMoves) {
+        if (!startingFEN.equals(this.startingFEN)) {
+            position.setFEN(startingFEN);
+            moves.clear();
+            keys[0] = position.key();
+            occurrences[0] = 1;
+            this.startingFEN = startingFEN;
+        }
+
+        int common = 0;
+        int limit = Math.min(moves.size(), doneMoves.size());
+        while (common < limit && moves.get(common).equals(doneMoves.get(common)))
+            common++;
+        while (moves.size() > common) {
+            position.unmakeMove();
+            moves.remove(moves.size() - 1);
+        }
+        for (int i = common; i < doneMoves.size(); i++) {
+            Move move = doneMoves.get(i);
+            int encoded = position.findMove(move);
+            if (encoded == EngineMove.NONE)
+                throw new IllegalArgumentException("Illegal move " + move + " in position " + position.toFEN());
+            position.makeMove(encoded);
+            moves.add(move);
+            push(moves.size());
+        }
+        this.modification = modification;
+    }
+
+    // Stores hash of the position reached at given ply
+    private void push(final int ply) {
+        if (ply == keys.length) {
+            keys = Arrays.copyOf(keys, ply * 2);
+            occurrences = Arrays.copyOf(occurrences, ply * 2);
+        }
+        long key = position.key();
+        keys[ply] = key;
+        occurrences[ply] = 1;
+        // Same position can be reached only with the same side to move and after no irreversible move
+        int lookbackLimit = Math.max(0, ply - position.halfmoveClock());
+        for (int i = ply - 2; i >= lookbackLimit; i -= 2) {
+            if (keys[i] == key) {
+                occurrences[ply] = occurrences[i] + 1;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns how many times the current position occurred in the game, including the current occurrence.
+     *
+     * @return count of occurrences
+     */
+    synchronized int repetitionCount() {
+        return occurrences[moves.size()];
+    }
+
+    /**
+     * Returns count of halfmoves since the last capture or pawn move.
+     *
+     * @return the halfmove clock
+     */
+    synchronized int halfmoveClock() {
+        return position.halfmoveClock();
+    }
+
+    /**
+     * Returns if the side to move is checkmated.
+     *
+     * @return if the side to move is checkmated
+     */
+    synchronized boolean isCheckmate() {
+        return position.inCheck() && position.generateLegalMoves(moveBuffer, 0) == 0;
+    }
+
+    /**
+     * Returns if neither side can checkmate by any sequence of legal moves: king against king, king and a minor piece
+     * against king, or kings and bishops all standing on squares of the same color.
+     *
+     * @return if there is not enough material to checkmate
+     */
+    synchronized boolean isInsufficientMaterial() {
+        for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+            if (position.pieceCount(Position.pieceOf(color, Position.PAWN)) > 0
+                    || position.pieceCount(Position.pieceOf(color, Position.ROOK)) > 0
+                    || position.pieceCount(Position.pieceOf(color, Position.QUEEN)) > 0)
+                return false;
+        }
+        int knights = position.pieceCount(Position.pieceOf(Position.WHITE, Position.KNIGHT))
+                + position.pieceCount(Position.pieceOf(Position.BLACK, Position.KNIGHT));
+        int bishops = position.pieceCount(Position.pieceOf(Position.WHITE, Position.BISHOP))
+                + position.pieceCount(Position.pieceOf(Position.BLACK, Position.BISHOP));
+        if (knights + bishops <= 1)
+            return true;
+        if (knights > 0)
+            return false;
+
+        // Only bishops are left, mate is impossible if all of them stand on squares of one color
+        int squareColors = 0;
+        for (int square = 0; square < 64; square++) {
+            int piece = position.pieceAt(square);
+            if (piece != Chessboard.PIECE_NONE && Position.typeOf(piece) == Position.BISHOP)
+                squareColors |= 1 << (((square >> 3) + (square & 7)) & 1);
+        }
+        return squareColors != 3;
+    }
+}
@@ -1,9 +1,16 @@
 package md.jgames.jchess.logic;
 
+import md.jgames.jchess.engine.EngineMove;
+import md.jgames.jchess.engine.Position;
 import mdlib.utils.Disposable;
 import mdlib.utils.io.ExecutableProcess;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Represents chessboard good for gameplay. If you want to analyze a game, use {@link
@@ -12,27 +19,115 @@ import java.util.*;
  * @author Michal Douša
  * @see #GamePlayChessboard()
  * @see #GamePlayChessboard(String)
- * @see #GamePlayChessboard(SerializableGamePlayChessboard)
+ * @see #GamePlayChessboard(GameRecord)
  * @see #reset()
  * @see SerializableGamePlayChessboard
  * @see AnalysisChessboard
  */
 public final class GamePlayChessboard extends Chessboard implements Disposable {
 
-    private final ExecutableProcess stockfishProcess;
-    private String startingFEN, currentFEN;
-    private final ArrayList<Move> moves;
-    private final TreeSet<Move> possibleMoves;
-    private byte[][] pieces;
+    // Duration of update() of all instances, see Metrics
+    private static final Histogram UPDATE_TIME = Metrics.histogram("jchess.board.GamePlayChessboard.update");
+
+    // Rough size of a snapshot: FEN, mapped pieces and a set of about 35 possible moves, see trimmableMemory()
+    private static final long SNAPSHOT_BYTES = 2560;
+
+    // Snapshots of loaded games are computed by a single background thread, see prefetchSnapshots()
+    private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "GamePlayChessboardPrefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Released when the chessboard hibernates, see engine()
+    private ExecutableProcess stockfishProcess;
+    private String startingFEN;
+    private PositionHistory history;
+    // Read by other threads without the lock, e.g. by views on JavaFX application thread
+    private volatile PositionHistory.Snapshot current;
     private int movesDone;
+    // Incremented when the line changes or snapshots are discarded, so running prefetching stops
+    private int prefetchGeneration;
+    // Completed when the last started prefetching finishes or stops, see positionsComputed()
+    private volatile CompletableFuture<Void> positionsComputed = CompletableFuture.completedFuture(null);
+
+    private synchronized void update() {
+        long start = System.nanoTime();
+        touch();
+        movesModified();
+        // Positions already visited are not computed again, so jumping through the game is just a reference swap
+        PositionHistory.Snapshot snapshot = history.snapshot(movesDone);
+        if (snapshot == null) {
+            ExecutableProcess process = engine();
+            Utilities.setPosition(process, startingFEN, doneMoves());
+            String fen = Utilities.getPosition(process);
+            TreeMap<Move, Integer> mappedMoves = Utilities.getAllMovesRating(process, 1);
+            snapshot = new PositionHistory.Snapshot(fen, Utilities.mapPieces(fen), mappedMoves.keySet());
+            history.snapshot(movesDone, snapshot);
+            memoryGrown();
+        }
+        current = snapshot;
+        UPDATE_TIME.recordSince(start);
+    }
+
+    // Computes snapshots of all positions of the line in background with the embedded engine, so even the first jump
+    // to any ply of a loaded game does not ask Stockfish. Snapshots are stored one by one, the chessboard stays usable
+    private synchronized void prefetchSnapshots() {
+        int generation = ++prefetchGeneration;
+        String fen = startingFEN;
+        List<Move> moves = new ArrayList<>(history.moves(history.size()));
+        CompletableFuture<Void> computed = new CompletableFuture<>();
+        positionsComputed = computed;
+        prefetcher.execute(() -> {
+            try {
+                prefetchSnapshots(generation, fen, moves);
+                memoryGrown();
+            } finally {
+                computed.complete(null);
+            }
+        });
+    }
+
+    private void prefetchSnapshots(final int generation, final String fen, final List<Move> moves) {
+        Position position = new Position(fen);
+        try {
+            // Castling is written in the same notation as Stockfish is told to use, see engine()
+            position.setChess960(Utilities.isChess960FEN(fen));
+        } catch (IllegalStateException exc) {
+            // Left to Stockfish
+            return;
+        }
+        int[] buffer = new int[Position.MAX_MOVES];
+        for (int ply = 0; ply <= moves.size(); ply++) {
+            int count = position.generateLegalMoves(buffer, 0);
+            ArrayList<Move> possibleMoves = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                possibleMoves.add(position.toMove(buffer[i]));
+            String currentFEN = position.toFEN();
+            PositionHistory.Snapshot snapshot = new PositionHistory.Snapshot(currentFEN,
+                    Utilities.mapPieces(currentFEN), possibleMoves);
+            synchronized (this) {
+                if (isDisposed() || generation != prefetchGeneration)
+                    return;
+                if (history.snapshot(ply) == null)
+                    history.snapshot(ply, snapshot);
+            }
+            if (ply < moves.size()) {
+                int move = position.findMove(moves.get(ply));
+                if (move == EngineMove.NONE)
+                    return;
+                position.makeMove(move);
+            }
+        }
+    }
 
-    private void update() {
-        Utilities.setPosition(stockfishProcess, startingFEN, doneMoves());
-        currentFEN = Utilities.getPosition(stockfishProcess);
-        pieces = Utilities.mapPieces(currentFEN);
-        TreeMap<Move, Integer> mappedMoves = Utilities.getAllMovesRating(stockfishProcess, 1);
-        possibleMoves.clear();
-        possibleMoves.addAll(mappedMoves.keySet());
+    // Acquires the engine again if the chessboard is hibernated
+    private ExecutableProcess engine() {
+        if (stockfishProcess == null) {
+            stockfishProcess = acquireEngine();
+            Utilities.setOption(stockfishProcess, "UCI_Chess960", Utilities.isChess960FEN(startingFEN));
+        }
+        return stockfishProcess;
     }
 
     @Override
@@ -44,7 +139,7 @@ public final class GamePlayChessboard extends Chessboard implements Disposable {
     @Override
     public List<Move> doneMoves() {
         Disposable.requireNotDisposed(this);
-        return Collections.unmodifiableList(moves.subList(0, movesDone));
+        return history.moves(movesDone);
     }
 
     @Override
@@ -55,23 +150,20 @@ public final class GamePlayChessboard extends Chessboard implements Disposable {
 
     public List<Move> getAllMoves() {
         Disposable.requireNotDisposed(this);
-        if (moves == null)
-            throw new IllegalStateException("Chessboard is disposed");
-        return Collections.unmodifiableList(moves);
+        return history.moves(history.size());
     }
 
     @Override
     public String currentFEN() {
         Disposable.requireNotDisposed(this);
-        if (currentFEN == null)
-            throw new IllegalStateException("Chessboard is disposed");
-        return currentFEN;
+        return current.fen();
     }
 
     @Override
     public SortedSet<Move> possibleMoves() {
         Disposable.requireNotDisposed(this);
-        return Collections.unmodifiableSortedSet(possibleMoves);
+        touch();
+        return current.possibleMoves();
     }
 
     @Override
@@ -79,47 +171,48 @@ public final class GamePlayChessboard extends Chessboard implements Disposable {
         Disposable.requireNotDisposed(this);
         byte[][] pieces = new byte[8][8];
         for (int i = 0; i < 8; i++)
-            pieces[i] = Arrays.copyOf(this.pieces[i], 8);
+            pieces[i] = Arrays.copyOf(current.pieces()[i], 8);
         return pieces;
     }
 
     @Override
     public byte pieceAt(final Square square) {
+        Disposable.requireNotDisposed(this);
         // Require non-null
         Objects.requireNonNull(square, "Illegaly r;eceived null as argument");
         // Return at specific rank and file
-        return pieces[square.rank()][square.file()];
+        return current.pieces()[square.rank()][square.file()];
     }
 
     @Override
-    public void reset(final String fen) {
+    public synchronized void reset(final String fen) {
         Disposable.requireNotDisposed(this);
         Utilities.assertFENValidity(fen);
-        moves.clear();
+        history.clear();
+        prefetchGeneration++;
         startingFEN = fen;
         movesDone = 0;
 
         // Always send 'ucinewgame' if we are overwriting chessboard with new game
         // For more information see Universal Chess Interface (UCI) standard.
-        stockfishProcess.send("ucinewgame");
+        ExecutableProcess process = engine();
+        process.send("ucinewgame");
+        // Chess960 castling is written as the king capturing own rook
+        Utilities.setOption(process, "UCI_Chess960", Utilities.isChess960FEN(fen));
 
         update();
     }
 
     @Override
-    public void performMove(final Move move) {
+    public synchronized void performMove(final Move move) {
         Disposable.requireNotDisposed(this);
         if (move == null)
             throw new NullPointerException("Performed move cannot be null");
-        if (!possibleMoves.contains(move))
+        if (!current.possibleMoves().contains(move))
             throw new IllegalArgumentException("Not a possible move on this chessboard!");
-        ArrayList<Move> newMoves = new ArrayList<>();
-        for (int i = 0; i < movesDone; i++)
-            newMoves.add(moves.get(i));
-        newMoves.add(move);
-
-        moves.clear();
-        moves.addAll(newMoves);
+        // Moves after the current one are discarded
+        history.truncateAndAppend(movesDone, move);
+        prefetchGeneration++;
         movesDone++;
 
         update();
@@ -132,26 +225,27 @@ public final class GamePlayChessboard extends Chessboard implements Disposable {
     }
 
     /**
-     * Sets how many moves should be done.
+     * Sets how many moves should be done. Positions which were already shown are not computed again, so jumping to any
+     * of them takes constant time. Positions of a loaded game are computed in background when it is loaded.
      *
      * @param doneMoves how many moves should be done
      * @throws IllegalArgumentException if value less than 0 or more than all moves count is passed
      */
-    public void setDoneMovesCount(final int doneMoves) {
+    public synchronized void setDoneMovesCount(final int doneMoves) {
         Disposable.requireNotDisposed(this);
-        if (doneMoves < 0 || doneMoves > moves.size())
+        if (doneMoves < 0 || doneMoves > history.size())
             throw new IllegalArgumentException("Invalid # of moves to be done");
         this.movesDone = doneMoves;
         this.update();
     }
 
     @Override
-    public void undo() {
+    public synchronized void undo() {
         Disposable.requireNotDisposed(this);
         if (movesDone > 0) {
             movesDone--;
             update();
-            ChessboardEvent event = new ChessboardEvent(this, moves.get(movesDone));
+            ChessboardEvent event = new ChessboardEvent(this, history.move(movesDone));
             for (ChessboardListener listener : this.getChessboardListeners()) {
                 Thread thread = new Thread(() -> listener.moveUndone(event));
                 thread.start();
@@ -160,12 +254,12 @@ public final class GamePlayChessboard extends Chessboard implements Disposable {
     }
 
     @Override
-    public void redo() {
+    public synchronized void redo() {
         Disposable.requireNotDisposed(this);
-        if (movesDone < moves.size()) {
+        if (movesDone < history.size()) {
             movesDone++;
             update();
-            ChessboardEvent event = new ChessboardEvent(this, moves.get(movesDone - 1));
+            ChessboardEvent event = new ChessboardEvent(this, history.move(movesDone - 1));
             for (ChessboardListener listener : this.getChessboardListeners()) {
                 Thread thread = new Thread(() -> listener.moveRedone(event));
                 thread.start();
@@ -191,13 +285,34 @@ public final class GamePlayChessboard extends Chessboard implements Disposable {
      */
     public GamePlayChessboard(final String fen) {
         Utilities.assertFENValidity(fen);
-        moves = new ArrayList<>();
-        possibleMoves = new TreeSet<>();
+        history = new PositionHistory();
         startingFEN = fen;
         movesDone = 0;
-        stockfishProcess = Utilities.createStockfishProcess();
-        stockfishProcess.start();
+        // The engine is already started and initialized if the pool was warmed up, see StockfishPool#warmUp(int)
         update();
+        register();
+    }
+
+    /**
+     * Creates new instance from a record of a game. Annotations of the record are not used by the chessboard.
+     *
+     * @param record the record of the game
+     * @throws NullPointerException       if {@code null} is given as argument
+     * @throws StockfishNotFoundException when Stockfish chess engine executable is not found.
+     * @see GameRecord#GameRecord(GamePlayChessboard)
+     */
+    public GamePlayChessboard(final GameRecord record) {
+        Objects.requireNonNull(record, "Cannot pass null as argument");
+        startingFEN = record.startingFEN();
+        movesDone = record.doneMovesCount();
+        history = new PositionHistory();
+        List<Move> moves = record.moves();
+        for (int i = 0; i < moves.size(); i++)
+            history.truncateAndAppend(i, moves.get(i));
+
+        update();
+        prefetchSnapshots();
+        register();
     }
 
     /**
@@ -205,37 +320,82 @@ public final class GamePlayChessboard extends Chessboard implements Disposable {
      *
      * @param sboard {@link SerializableGamePlayChessboard} instance to be the instance created from
      * @throws NullPointerException if {@code null} is given as argument
+     * @deprecated use {@link #GamePlayChessboard(GameRecord)} instead
      */
+    @Deprecated
     public GamePlayChessboard(final SerializableGamePlayChessboard sboard) {
         if (sboard == null)
             throw new NullPointerException("Cannot pass null as argument");
         startingFEN = sboard.getStartingFEN();
         movesDone = sboard.getDoneMovesCount();
-        moves = new ArrayList<>();
-        possibleMoves = new TreeSet<>();
+        history = new PositionHistory();
         short[] sbmoves = sboard.getMoves();
-        stockfishProcess = Utilities.createStockfishProcess();
-        stockfishProcess.start();
-        for (short sbmove : sbmoves)
-            this.moves.add(new Move(sbmove));
+        for (int i = 0; i < sbmoves.length; i++)
+            history.truncateAndAppend(i, new Move(sbmoves[i]));
 
         update();
+        prefetchSnapshots();
+        register();
+    }
+
+    @Override
+    public synchronized void hibernate() {
+        if (isDisposed() || stockfishProcess == null)
+            return;
+        releaseEngine(stockfishProcess);
+        // Snapshots do not need the engine, so they are kept and jumping through the game stays fast
+        stockfishProcess = null;
+    }
+
+    /**
+     * Returns a future completed once positions of a loaded game are computed in background, or once computing them
+     * stops because the game was changed or closed or because of the memory budget of {@link ChessboardRegistry}. For
+     * chessboards which were not loaded from a record, the returned
+     * future is already completed. Positions not computed in background are computed by Stockfish when visited.
+     *
+     * @return future completed when computing positions in background ends
+     * @see #GamePlayChessboard(GameRecord)
+     */
+    public CompletableFuture<Void> positionsComputed() {
+        return positionsComputed;
+    }
+
+    @Override
+    synchronized long trimmableMemory() {
+        // The current snapshot is always kept, see trimMemory()
+        return isDisposed() ? 0 : Math.max(history.snapshotCount() - 1, 0) * SNAPSHOT_BYTES;
+    }
+
+    @Override
+    synchronized void trimMemory() {
+        if (isDisposed())
+            return;
+        prefetchGeneration++;
+        history.clearSnapshotsExcept(movesDone);
+    }
+
+    @Override
+    public synchronized boolean isHibernated() {
+        return !isDisposed() && stockfishProcess == null;
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
         if (!isDisposed()) {
-            moves.clear();
-            possibleMoves.clear();
+            history.clear();
+            history = null;
+            current = null;
             movesDone = 0;
             startingFEN = null;
-            currentFEN = null;
-            stockfishProcess.close();
+            if (stockfishProcess != null)
+                releaseEngine(stockfishProcess);
+            stockfishProcess = null;
+            unregister();
         }
     }
 
     @Override
     public boolean isDisposed() {
-        return moves == null;
+        return history == null;
     }
 }
@@ -0,0 +1,208 @@
+package md.jgames.jchess.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Record of a game: the starting position, all moves and how many of them are done, together with optional comments
+ * and numeric annotation glyphs (NAGs, e.g. 1 for {@code !} or 4 for {@code ??}) attached to the moves. Unlike a
+ * chessboard, a record owns no engine, so it is cheap to keep many of them. Records are stored by {@link
+ * md.jgames.jchess.io.GameCodec}.
+ *
+ * @author Michal Douša
+ * @see #GameRecord(GamePlayChessboard)
+ * @see GamePlayChessboard#GamePlayChessboard(GameRecord)
+ */
+public final class GameRecord {
+
+    private static final int[] NO_NAGS = new int[0];
+
+    private final String startingFEN;
+    private final List<Move> moves;
+    private final int doneMovesCount;
+    // Annotations by index of the move they follow
+    private final TreeMap<Integer, String> comments = new TreeMap<>();
+    private final TreeMap<Integer, int[]> nags = new TreeMap<>();
+
+    /**
+     * Creates a record of a game. Moves are not checked to be legal.
+     *
+     * @param startingFEN    FEN of the starting position
+     * @param moves          all moves of the game
+     * @param doneMovesCount how many of the moves are done
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalFENException      if invalid FEN is given
+     * @throws IllegalArgumentException if count of done moves is out of range
+     */
+    public GameRecord(final String startingFEN, final List<Move> moves, final int doneMovesCount) {
+        this(validFEN(startingFEN), moves, doneMovesCount, true);
+    }
+
+    // The FEN is already checked
+    private GameRecord(final String startingFEN, final List<Move> moves, final int doneMovesCount,
+                       final boolean validFEN) {
+        Objects.requireNonNull(moves, "Moves cannot be null");
+        if (doneMovesCount < 0 || doneMovesCount > moves.size())
+            throw new IllegalArgumentException("Invalid # of done moves");
+        this.startingFEN = startingFEN;
+        this.moves = Collections.unmodifiableList(new ArrayList<>(moves));
+        this.doneMovesCount = doneMovesCount;
+    }
+
+    private static String validFEN(final String fen) {
+        Utilities.assertFENValidity(fen);
+        return fen;
+    }
+
+    /**
+     * Creates a record of the game on given chessboard, including moves which are undone.
+     *
+     * @param chessboard the chessboard
+     * @throws NullPointerException if {@code null} is given
+     */
+    public GameRecord(final GamePlayChessboard chessboard) {
+        this(chessboard.startingFEN(), chessboard.getAllMoves(), chessboard.doneMovesCount());
+    }
+
+    /**
+     * Creates a record of another game from the same starting position, without annotations. The FEN is not checked
+     * again, so this is faster than creating a record by the constructor.
+     *
+     * @param moves          all moves of the game
+     * @param doneMovesCount how many of the moves are done
+     * @return the new record
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalArgumentException if count of done moves is out of range
+     */
+    public GameRecord withMoves(final List<Move> moves, final int doneMovesCount) {
+        return new GameRecord(startingFEN, moves, doneMovesCount, true);
+    }
+
+    /**
+     * Returns FEN of the starting position.
+     *
+     * @return FEN of the starting position
+     */
+    public String startingFEN() {
+        return startingFEN;
+    }
+
+    /**
+     * Returns unmodifiable {@link List} of all moves of the game.
+     *
+     * @return all moves
+     */
+    public List<Move> moves() {
+        return moves;
+    }
+
+    /**
+     * Returns how many moves are done.
+     *
+     * @return count of done moves
+     */
+    public int doneMovesCount() {
+        return doneMovesCount;
+    }
+
+    /**
+     * Returns the comment following the move at given index.
+     *
+     * @param moveIndex index of the move
+     * @return the comment, or {@code null} if there is no comment
+     */
+    public synchronized String comment(final int moveIndex) {
+        return comments.get(moveIndex);
+    }
+
+    /**
+     * Sets the comment following the move at given index.
+     *
+     * @param moveIndex index of the move
+     * @param comment   the comment, {@code null} or empty string to remove the comment
+     * @throws IndexOutOfBoundsException if there is no move at given index
+     */
+    public synchronized void setComment(final int moveIndex, final String comment) {
+        Objects.checkIndex(moveIndex, moves.size());
+        if (comment == null || comment.isEmpty())
+            comments.remove(moveIndex);
+        else
+            comments.put(moveIndex, comment);
+    }
+
+    /**
+     * Returns numeric annotation glyphs of the move at given index.
+     *
+     * @param moveIndex index of the move
+     * @return copy of the glyphs, empty array if there is none
+     */
+    public synchronized int[] nags(final int moveIndex) {
+        int[] moveNAGs = nags.get(moveIndex);
+        return moveNAGs == null ? NO_NAGS : moveNAGs.clone();
+    }
+
+    /**
+     * Sets numeric annotation glyphs of the move at given index.
+     *
+     * @param moveIndex index of the move
+     * @param nags      the glyphs, from 0 to 255, no glyph to remove them
+     * @throws IndexOutOfBoundsException if there is no move at given index
+     * @throws IllegalArgumentException  if a glyph is out of range
+     */
+    public synchronized void setNAGs(final int moveIndex, final int... nags) {
+        Objects.checkIndex(moveIndex, moves.size());
+        for (int nag : nags)
+            if (nag < 0 || nag > 255)
+                throw new IllegalArgumentException("Invalid NAG: " + nag);
+        if (nags.length == 0)
+            this.nags.remove(moveIndex);
+        else
+            this.nags.put(moveIndex, nags.clone());
+    }
+
+    /**
+     * Returns indices of moves having a comment or a glyph, in ascending order.
+     *
+     * @return indices of annotated moves
+     */
+    public synchronized int[] annotatedMoves() {
+        TreeMap<Integer, Boolean> indices = new TreeMap<>();
+        for (Integer index : comments.keySet())
+            indices.put(index, true);
+        for (Integer index : nags.keySet())
+            indices.put(index, true);
+        int[] result = new int[indices.size()];
+        int i = 0;
+        for (Integer index : indices.keySet())
+            result[i++] = index;
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof GameRecord))
+            return false;
+        GameRecord record = (GameRecord) obj;
+        if (!startingFEN.equals(record.startingFEN) || !moves.equals(record.moves)
+                || doneMovesCount != record.doneMovesCount)
+            return false;
+        // Annotations are compared one by one, so the locks of both records are never held at once
+        int[] annotatedMoves = annotatedMoves();
+        if (!Arrays.equals(annotatedMoves, record.annotatedMoves()))
+            return false;
+        for (int index : annotatedMoves)
+            if (!Objects.equals(comment(index), record.comment(index))
+                    || !Arrays.equals(nags(index), record.nags(index)))
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(startingFEN, moves, doneMovesCount);
+    }
+}
@@ -50,9 +50,15 @@ public final class Move implements Comparable<Move>, Cloneable {
         return pawnPromotion;
     }
 
+    /**
+     * Returns hash code unique for every move: bits 9 to 14 hold the square the piece moves from, bits 3 to 8 the
+     * square it moves to and bits 0 to 2 the pawn promotion. The move can be created back by {@link #Move(int)}.
+     *
+     * @return hash code of the move
+     */
     @Override
     public int hashCode() {
-        return (from.hashCode() >> 9) | (to.hashCode() >> 3) | pawnPromotion.hashCode();
+        return (from.hashCode() << 9) | (to.hashCode() << 3) | pawnPromotion.hashCode();
     }
 
     /**
@@ -132,7 +138,8 @@ public final class Move implements Comparable<Move>, Cloneable {
     public Move(final Square from, final Square to, final PawnPromotion pawnPromotion) {
         // Require non-null squares
         Objects.requireNonNull(from, "Square from cannot be null");
-        Objects.requireNonNull(from, "Square to cannot be null");
+        Objects.requireNonNull(to, "Square to cannot be null");
+        Objects.requireNonNull(pawnPromotion, "Pawn promotion cannot be null");
         // Assign values
         this.from = from;
         this.to = to;
@@ -165,9 +172,9 @@ public final class Move implements Comparable<Move>, Cloneable {
             throw new IllegalArgumentException("Invalid move hash code");
 
         // Get square from, square to and promotion hash code
-        int hcFrom = (hashCode >> 9) & 64;
-        int hcTo = (hashCode >> 3) & 64;
-        int hcPromotion = hashCode & 8;
+        int hcFrom = (hashCode >> 9) & 63;
+        int hcTo = (hashCode >> 3) & 63;
+        int hcPromotion = hashCode & 7;
 
         // Assign values
         this.from = new Square(hcFrom);
@@ -0,0 +1,111 @@
+package md.jgames.jchess.logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Engine analysis of one position of the variation tree of an {@link AnalysisChessboard}: the best lines found by a
+ * MultiPV search, the best line first. Instances of this class are immutable.
+ *
+ * @author Michal Douša
+ * @see AnalysisScheduler
+ * @see AnalysisChessboard#analysis()
+ */
+public final class NodeAnalysis {
+
+    private final int depth;
+    private final List<Line> lines;
+
+    NodeAnalysis(final int depth, final List<Line> lines) {
+        this.depth = depth;
+        this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+    }
+
+    /**
+     * Returns the depth of the search.
+     *
+     * @return the depth
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns unmodifiable {@link List} of the best lines, the best one first. The list is empty if the side to move
+     * has no legal move.
+     *
+     * @return the lines
+     */
+    public List<Line> lines() {
+        return lines;
+    }
+
+    /**
+     * Returns the best line, or {@code null} if the side to move has no legal move.
+     *
+     * @return the best line
+     */
+    public Line bestLine() {
+        return lines.isEmpty() ? null : lines.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return "depth " + depth + " " + lines;
+    }
+
+    /**
+     * One line of {@link NodeAnalysis}: a principal variation and its score.
+     */
+    public static final class Line {
+        private final int score;
+        private final boolean mate;
+        private final List<Move> principalVariation;
+
+        Line(final int score, final boolean mate, final List<Move> principalVariation) {
+            this.score = score;
+            this.mate = mate;
+            this.principalVariation = Collections.unmodifiableList(new ArrayList<>(principalVariation));
+        }
+
+        /**
+         * Returns the score from the point of view of the side to move: centipawns, or count of moves to mate if
+         * {@link #isMate()} returns {@code true}, negative if the side to move gets mated.
+         *
+         * @return the score
+         */
+        public int score() {
+            return score;
+        }
+
+        /**
+         * Returns if the score is count of moves to mate.
+         *
+         * @return if a forced mate was found
+         */
+        public boolean isMate() {
+            return mate;
+        }
+
+        /**
+         * Returns unmodifiable {@link List} of moves of the line, starting by the first move.
+         *
+         * @return the principal variation
+         */
+        public List<Move> principalVariation() {
+            return principalVariation;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(mate ? "mate " : "cp ");
+            builder.append(score);
+            for (Move move : principalVariation) {
+                builder.append(' ');
+                builder.append(move);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package md.jgames.jchess.logic;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A line of moves together with snapshots of the positions reached by them. Position at ply {@code 0} is the starting
+ * position, position at ply {@code n} is the one after first {@code n} moves. Snapshots are immutable, so jumping to
+ * any ply with a known snapshot is just swapping a reference. Performing a new move in the middle of the line
+ * truncates the rest of the line in constant time.
+ *
+ * @author Michal Douša
+ * @see GamePlayChessboard
+ */
+final class PositionHistory {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Move[] moves;
+    private Snapshot[] snapshots;
+    private int size;
+
+    /**
+     * Creates an empty history containing only the starting position (whose snapshot is not known yet).
+     */
+    PositionHistory() {
+        moves = new Move[INITIAL_CAPACITY];
+        snapshots = new Snapshot[INITIAL_CAPACITY + 1];
+        size = 0;
+    }
+
+    /**
+     * Returns the count of moves in the line.
+     *
+     * @return count of moves
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns move at given index.
+     *
+     * @param index index of the move
+     * @return move at given index
+     * @throws IndexOutOfBoundsException if index is out of range
+     */
+    Move move(final int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Move index out of range: " + index);
+        return moves[index];
+    }
+
+    /**
+     * Returns unmodifiable {@link List} view of first {@code count} moves. The view is not copied, it is backed by the
+     * history until the history grows or is truncated.
+     *
+     * @param count count of moves to be returned
+     * @return unmodifiable {@link List} of first {@code count} moves
+     * @throws IndexOutOfBoundsException if {@code count} is out of range
+     */
+    List<Move> moves(final int count) {
+        if (count < 0 || count > size)
+            throw new IndexOutOfBoundsException("Move count out of range: " + count);
+        return Collections.unmodifiableList(Arrays.asList(moves).subList(0, count));
+    }
+
+    /**
+     * Returns snapshot of the position at given ply, or {@code null} if it has not been computed yet.
+     *
+     * @param ply the ply, from 0 to {@link #size()} (inclusive)
+     * @return snapshot of the position, or {@code null}
+     */
+    Snapshot snapshot(final int ply) {
+        if (ply < 0 || ply > size)
+            throw new IndexOutOfBoundsException("Ply out of range: " + ply);
+        return snapshots[ply];
+    }
+
+    /**
+     * Stores snapshot of the position at given ply.
+     *
+     * @param ply      the ply, from 0 to {@link #size()} (inclusive)
+     * @param snapshot snapshot of the position at the ply
+     */
+    void snapshot(final int ply, final Snapshot snapshot) {
+        if (ply < 0 || ply > size)
+            throw new IndexOutOfBoundsException("Ply out of range: " + ply);
+        snapshots[ply] = snapshot;
+    }
+
+    /**
+     * Returns the count of known snapshots.
+     *
+     * @return count of snapshots which are not {@code null}
+     */
+    int snapshotCount() {
+        int count = 0;
+        for (int ply = 0; ply <= size; ply++)
+            if (snapshots[ply] != null)
+                count++;
+        return count;
+    }
+
+    /**
+     * Removes snapshots of all positions except the one at given ply. Moves are kept, so the snapshots can be computed
+     * again.
+     *
+     * @param ply the ply whose snapshot is kept, from 0 to {@link #size()} (inclusive)
+     */
+    void clearSnapshotsExcept(final int ply) {
+        if (ply < 0 || ply > size)
+            throw new IndexOutOfBoundsException("Ply out of range: " + ply);
+        Arrays.fill(snapshots, 0, ply, null);
+        Arrays.fill(snapshots, ply + 1, size + 1, null);
+    }
+
+    /**
+     * Makes given move the move done at given ply. Every move after it is discarded together with its snapshot, so an
+     * abandoned line is not kept in memory. The snapshot of the position reached by the move is unknown afterwards.
+     *
+     * @param ply  index of the move, from 0 to {@link #size()} (inclusive)
+     * @param move the move
+     */
+    void truncateAndAppend(final int ply, final Move move) {
+        if (ply < 0 || ply > size)
+            throw new IndexOutOfBoundsException("Ply out of range: " + ply);
+        if (ply == moves.length) {
+            moves = Arrays.copyOf(moves, moves.length * 2);
+            snapshots = Arrays.copyOf(snapshots, moves.length + 1);
+        }
+        Arrays.fill(moves, ply + 1, Math.max(size, ply + 1), null);
+        Arrays.fill(snapshots, ply + 1, Math.max(size, ply) + 1, null);
+        moves[ply] = move;
+        size = ply + 1;
+    }
+
+    /**
+     * Removes all moves and all snapshots, including the snapshot of the starting position.
+     */
+    void clear() {
+        Arrays.fill(moves, 0, size, null);
+        Arrays.fill(snapshots, 0, size + 1, null);
+        size = 0;
+    }
+
+    /**
+     * Immutable snapshot of a position: its FEN, mapped pieces and possible moves.
+     */
+    static final class Snapshot {
+        private final String fen;
+        private final byte[][] pieces;
+        private final SortedSet<Move> possibleMoves;
+
+        Snapshot(final String fen, final byte[][] pieces, final Collection<Move> possibleMoves) {
+            this.fen = fen;
+            this.pieces = pieces;
+            this.possibleMoves = Collections.unmodifiableSortedSet(new TreeSet<>(possibleMoves));
+        }
+
+        String fen() {
+            return fen;
+        }
+
+        /**
+         * Returns mapped pieces. Returned array must not be modified.
+         *
+         * @return the pieces as described in {@link Chessboard#pieces()}
+         */
+        byte[][] pieces() {
+            return pieces;
+        }
+
+        SortedSet<Move> possibleMoves() {
+            return possibleMoves;
+        }
+    }
+}
@@ -11,7 +11,11 @@ import java.util.List;
  * 
  * @see #SerializableGamePlayChessboard(GamePlayChessboard)
  * @see GamePlayChessboard#GamePlayChessboard(SerializableGamePlayChessboard)
+ * 
+ * @deprecated Java serialization is slow and not versioned, use {@link GameRecord} stored by
+ *             {@link md.jgames.jchess.io.GameCodec} instead.
  */
+@Deprecated
 public class SerializableGamePlayChessboard implements Serializable {
 	private static final long serialVersionUID = 0x0100L;
 
@@ -0,0 +1,163 @@
+package md.jgames.jchess.logic;
+
+import mdlib.utils.io.ExecutableProcess;
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pool of Stockfish processes started in background, so creating a chessboard or a {@link ComputerPlayer} does not
+ * wait for the process to start. Processes in the pool have already done the UCI handshake (see {@link
+ * Utilities#initializeEngine(ExecutableProcess)}) and are ready to accept commands.
+ *
+ * @author Michal Douša
+ * @see #warmUp(int)
+ * @see #acquire()
+ * @see #release(ExecutableProcess)
+ */
+public final class StockfishPool {
+
+    // Do not create any instance
+    private StockfishPool() {
+    }
+
+    // Processes started or being started, the oldest first
+    private static final ArrayDeque<CompletableFuture<ExecutableProcess>> idleProcesses = new ArrayDeque<>();
+
+    // Count of processes kept ready in the pool
+    private static int targetSize = 0;
+
+    // Time spent in acquire() and count of processes which had to be started synchronously, see Metrics
+    private static final Histogram ACQUIRE_WAIT = Metrics.histogram("jchess.pool.acquire");
+    private static final Counter MISSES = Metrics.counter("jchess.pool.misses");
+
+    static {
+        Metrics.gauge("jchess.pool.idle", StockfishPool::idleCount);
+    }
+
+    // Processes are started by a single background thread
+    private static final ExecutorService starter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "StockfishPoolStarter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Starts given count of Stockfish processes in background, unless the pool already holds that many. The pool will
+     * be refilled to this count whenever a process is acquired.
+     *
+     * @param count count of processes to be kept ready, 0 to stop refilling
+     * @throws IllegalArgumentException if negative count is given
+     */
+    public static synchronized void warmUp(final int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Count of processes cannot be negative");
+        targetSize = count;
+        refill();
+    }
+
+    /**
+     * Returns a ready Stockfish process. A process from the pool is used if there is any, otherwise a new process is
+     * started and initialized synchronously. The caller owns the returned process and should give it back by {@link
+     * #release(ExecutableProcess)} or close it.
+     *
+     * @return started and initialized Stockfish process
+     * @throws StockfishNotFoundException if chess engine executable was not found
+     */
+    public static ExecutableProcess acquire() {
+        long start = System.nanoTime();
+        try {
+            return acquireProcess();
+        } finally {
+            ACQUIRE_WAIT.recordSince(start);
+        }
+    }
+
+    private static ExecutableProcess acquireProcess() {
+        CompletableFuture<ExecutableProcess> future;
+        synchronized (StockfishPool.class) {
+            future = idleProcesses.pollFirst();
+            refill();
+        }
+        if (future != null) {
+            try {
+                ExecutableProcess process = future.join();
+                if (process.isAlive())
+                    return process;
+            } catch (CompletionException exc) {
+                if (exc.getCause() instanceof StockfishNotFoundException)
+                    throw (StockfishNotFoundException) exc.getCause();
+            }
+        }
+        MISSES.increment();
+        return startProcess();
+    }
+
+    /**
+     * Gives the process back to the pool. Running search is stopped, the engine is told that a new game will start and
+     * options changed by this application are set back to their defaults. If the pool is already full, the process is
+     * closed instead.
+     *
+     * @param process the process to be given back
+     * @throws NullPointerException if {@code process} is {@code null}
+     */
+    public static void release(final ExecutableProcess process) {
+        Objects.requireNonNull(process, "null given instead of ExecutableProcess instance");
+        if (!process.isAlive())
+            return;
+        synchronized (StockfishPool.class) {
+            if (idleProcesses.size() >= targetSize) {
+                process.close();
+                return;
+            }
+            idleProcesses.addLast(CompletableFuture.supplyAsync(() -> {
+                process.send("stop");
+                process.send("ucinewgame");
+                Utilities.setOption(process, "UCI_Chess960", false);
+                Utilities.setOption(process, "MultiPV", 1);
+                Utilities.setOption(process, "Skill Level", 20);
+                Utilities.setOption(process, "Ponder", false);
+                Utilities.waitForReady(process);
+                return process;
+            }, starter));
+        }
+    }
+
+    /**
+     * Closes all processes in the pool and stops refilling it.
+     */
+    public static synchronized void shutdown() {
+        targetSize = 0;
+        for (CompletableFuture<ExecutableProcess> future : idleProcesses)
+            future.thenAccept(ExecutableProcess::close);
+        idleProcesses.clear();
+    }
+
+    /**
+     * Returns count of processes in the pool, including those being started.
+     *
+     * @return count of idle processes
+     */
+    public static synchronized int idleCount() {
+        return idleProcesses.size();
+    }
+
+    private static void refill() {
+        while (idleProcesses.size() < targetSize)
+            idleProcesses.addLast(CompletableFuture.supplyAsync(StockfishPool::startProcess, starter));
+    }
+
+    private static ExecutableProcess startProcess() {
+        ExecutableProcess process = Utilities.createStockfishProcess();
+        process.start();
+        Utilities.initializeEngine(process);
+        return process;
+    }
+}
@@ -0,0 +1,1249 @@
+package md.jgames.jchess.logic;
+
+import md.jgames.jchess.engine.EngineMove;
+import md.jgames.jchess.engine.Position;
+import mdlib.utils.Disposable;
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reader of Syzygy endgame tablebases. It gives perfect win/draw/loss (WDL) and distance-to-zero (DTZ) answers for
+ * positions with few pieces, without any engine search.
+ *
+ * <p>Only existence of the files ({@code .rtbw} for WDL, {@code .rtbz} for DTZ) is checked when an instance is
+ * created. A file is memory-mapped when a position of its material is probed first time, so the tables stay off the
+ * Java heap and the operating system loads only the pages which are really read. Count of mapped files is bounded,
+ * least recently used files are released when the limit is exceeded. A compressed block is decoded as a whole when
+ * it is read first time and its values are cached, so probes of near positions, e.g. after every move of {@link
+ * #bestMove(String)}, do not decode the same block again. The cache is bounded by size in bytes and least recently
+ * used blocks are dropped first.</p>
+ *
+ * <p>Probing is thread-safe. Files larger than 2 GiB (some of 7-piece tables) are not supported and are ignored.</p>
+ *
+ * @author Michal Douša
+ * @see AnalysisChessboard#setTablebase(SyzygyTablebase)
+ */
+public final class SyzygyTablebase implements Disposable {
+
+    /**
+     * WDL value of a position, where the side to move loses.
+     */
+    public static final int WDL_LOSS = -2;
+
+    /**
+     * WDL value of a position, where the side to move loses, but the opponent cannot win because of the 50-move rule.
+     */
+    public static final int WDL_BLESSED_LOSS = -1;
+
+    /**
+     * WDL value of a drawn position.
+     */
+    public static final int WDL_DRAW = 0;
+
+    /**
+     * WDL value of a position, where the side to move wins, but cannot win because of the 50-move rule.
+     */
+    public static final int WDL_CURSED_WIN = 1;
+
+    /**
+     * WDL value of a position, where the side to move wins.
+     */
+    public static final int WDL_WIN = 2;
+
+    /**
+     * Default count of files mapped at the same time.
+     */
+    public static final int DEFAULT_MAX_MAPPED_FILES = 256;
+
+    /**
+     * Default size of the cache of decoded blocks in bytes.
+     */
+    public static final long DEFAULT_BLOCK_CACHE_SIZE = 16L << 20;
+
+    /**
+     * Score of a won position in {@link #analyse(Position, int)}, decreased by the distance to zero in plies.
+     */
+    public static final int SCORE_WIN = 20000;
+
+    private static final Counter DECODED_BLOCKS = Metrics.counter("jchess.tablebase.decoded");
+    // Moves of a principal variation given by analyse(Position, int)
+    private static final int MAX_PV_PLIES = 8;
+    // Estimated size of an entry of the block cache without its values
+    private static final int BLOCK_OVERHEAD = 64;
+
+    private static final int MAX_PIECES = 7;
+
+    private static final String WDL_SUFFIX = ".rtbw", DTZ_SUFFIX = ".rtbz";
+    private static final int[] WDL_MAGIC = {0x71, 0xE8, 0x23, 0x5D}, DTZ_MAGIC = {0xD7, 0x66, 0x0C, 0xA5};
+
+    // Flags of the tables
+    private static final int FLAG_STM = 1, FLAG_MAPPED = 2, FLAG_WIN_PLIES = 4, FLAG_LOSS_PLIES = 8, FLAG_WIDE = 16,
+            FLAG_SINGLE_VALUE = 128;
+
+    // Results of a probe
+    private static final int STATE_OK = 0, STATE_FAIL = 1, STATE_ZEROING_BEST_MOVE = 2, STATE_CHANGE_STM = 3;
+
+    // Piece type letters in file names, strongest first
+    private static final String PIECE_LETTERS = "KQRBNP";
+
+    // Tables for computing indices of positions
+    private static final int[] MAP_PAWNS = new int[64];
+    private static final int[] MAP_B1H1H7 = new int[64];
+    private static final int[] MAP_A1D1D4 = new int[64];
+    private static final int[][] MAP_KK = new int[10][64];
+    private static final int[][] BINOMIAL = new int[6][64];
+    private static final int[][] LEAD_PAWN_INDEX = new int[6][64];
+    private static final int[][] LEAD_PAWNS_SIZE = new int[6][4];
+
+    static {
+        int code = 0;
+        for (int square = 0; square < 64; square++)
+            if (offDiagonal(square) < 0)
+                MAP_B1H1H7[square] = code++;
+
+        // Squares of the a1-d1-d4 triangle below the diagonal first, then the diagonal
+        code = 0;
+        Arrays.fill(MAP_A1D1D4, -1);
+        for (int square = 0; square <= 27; square++)
+            if (offDiagonal(square) < 0 && (square & 7) <= 3)
+                MAP_A1D1D4[square] = code++;
+        for (int square = 0; square <= 27; square++)
+            if (offDiagonal(square) == 0 && (square & 7) <= 3)
+                MAP_A1D1D4[square] = code++;
+
+        // All legal placements of two kings, first one in the a1-d1-d4 triangle; if the first king is on the
+        // diagonal, the second one is not above it. Placements with both kings on the diagonal are the last ones.
+        code = 0;
+        int[][] bothOnDiagonal = new int[64][2];
+        int bothOnDiagonalCount = 0;
+        for (int index = 0; index < 10; index++)
+            for (int first = 0; first <= 27; first++) {
+                if (MAP_A1D1D4[first] != index)
+                    continue;
+                for (int second = 0; second < 64; second++) {
+                    if (Math.abs((first >> 3) - (second >> 3)) <= 1 && Math.abs((first & 7) - (second & 7)) <= 1)
+                        continue;
+                    if (offDiagonal(first) == 0 && offDiagonal(second) > 0)
+                        continue;
+                    if (offDiagonal(first) == 0 && offDiagonal(second) == 0)
+                        bothOnDiagonal[bothOnDiagonalCount++] = new int[]{index, second};
+                    else
+                        MAP_KK[index][second] = code++;
+                }
+            }
+        for (int i = 0; i < bothOnDiagonalCount; i++)
+            MAP_KK[bothOnDiagonal[i][0]][bothOnDiagonal[i][1]] = code++;
+
+        // Binomial coefficients by Pascal's rule
+        BINOMIAL[0][0] = 1;
+        for (int n = 1; n < 64; n++)
+            for (int k = 0; k < 6 && k <= n; k++)
+                BINOMIAL[k][n] = (k > 0 ? BINOMIAL[k - 1][n - 1] : 0) + (k < n ? BINOMIAL[k][n - 1] : 0);
+
+        // Squares a2-h7 are mapped to 0-47 so that the leading pawn has the highest value
+        int availableSquares = 47;
+        for (int leadPawns = 1; leadPawns <= 5; leadPawns++)
+            for (int file = 0; file < 4; file++) {
+                int index = 0;
+                for (int rank = 1; rank <= 6; rank++) {
+                    int square = rank * 8 + file;
+                    if (leadPawns == 1) {
+                        MAP_PAWNS[square] = availableSquares--;
+                        MAP_PAWNS[square ^ 7] = availableSquares--;
+                    }
+                    LEAD_PAWN_INDEX[leadPawns][square] = index;
+                    index += BINOMIAL[leadPawns - 1][MAP_PAWNS[square]];
+                }
+                LEAD_PAWNS_SIZE[leadPawns][file] = index;
+            }
+    }
+
+    private static int offDiagonal(final int square) {
+        return (square >> 3) - (square & 7);
+    }
+
+    private final Map<String, Path> wdlFiles = new HashMap<>();
+    private final Map<String, Path> dtzFiles = new HashMap<>();
+    private final int maxPieces;
+    private LinkedHashMap<String, Table> mappedTables;
+    // Values of decoded blocks by PairsData.id in the high half and number of the block in the low half
+    private final LinkedHashMap<Long, short[]> decodedBlocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final long blockCacheSize;
+    private long decodedBytes;
+
+    /**
+     * Creates a tablebase from files in given directories. Directories which do not exist are ignored.
+     *
+     * @param directories directories with {@code .rtbw} and {@code .rtbz} files
+     * @throws NullPointerException if {@code null} is given
+     * @throws UncheckedIOException if a directory cannot be listed
+     */
+    public SyzygyTablebase(final Path... directories) {
+        this(DEFAULT_MAX_MAPPED_FILES, directories);
+    }
+
+    /**
+     * Creates a tablebase from files in given directories. Directories which do not exist are ignored.
+     *
+     * @param maxMappedFiles maximum count of files mapped at the same time
+     * @param directories    directories with {@code .rtbw} and {@code .rtbz} files
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalArgumentException if the maximum count of mapped files is not positive
+     * @throws UncheckedIOException     if a directory cannot be listed
+     */
+    public SyzygyTablebase(final int maxMappedFiles, final Path... directories) {
+        this(maxMappedFiles, DEFAULT_BLOCK_CACHE_SIZE, directories);
+    }
+
+    /**
+     * Creates a tablebase from files in given directories. Directories which do not exist are ignored.
+     *
+     * @param maxMappedFiles maximum count of files mapped at the same time
+     * @param blockCacheSize maximum size of decoded blocks kept in memory in bytes, 0 to not keep any
+     * @param directories    directories with {@code .rtbw} and {@code .rtbz} files
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalArgumentException if the maximum count of mapped files is not positive or the size of the cache
+     *                                  is negative
+     * @throws UncheckedIOException     if a directory cannot be listed
+     */
+    public SyzygyTablebase(final int maxMappedFiles, final long blockCacheSize, final Path... directories) {
+        Objects.requireNonNull(directories, "Directories cannot be null");
+        if (maxMappedFiles <= 0)
+            throw new IllegalArgumentException("Maximum count of mapped files must be positive");
+        if (blockCacheSize < 0)
+            throw new IllegalArgumentException("Size of the block cache cannot be negative");
+        this.blockCacheSize = blockCacheSize;
+
+        int pieces = 0;
+        for (Path directory : directories) {
+            Objects.requireNonNull(directory, "Directory cannot be null");
+            if (!Files.isDirectory(directory))
+                continue;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{rtbw,rtbz}")) {
+                for (Path file : stream) {
+                    String fileName = file.getFileName().toString();
+                    String name = fileName.substring(0, fileName.length() - WDL_SUFFIX.length());
+                    if (!name.matches("K[QRBNP]*vK[QRBNP]*") || name.length() - 1 > MAX_PIECES
+                            || Files.size(file) > Integer.MAX_VALUE)
+                        continue;
+                    if (fileName.endsWith(WDL_SUFFIX)) {
+                        wdlFiles.putIfAbsent(name, file);
+                        pieces = Math.max(pieces, name.length() - 1);
+                    } else {
+                        dtzFiles.putIfAbsent(name, file);
+                    }
+                }
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+        }
+        maxPieces = pieces;
+        mappedTables = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Table> eldest) {
+                // Released mapping is unmapped by the garbage collector
+                return size() > maxMappedFiles;
+            }
+        };
+    }
+
+    /**
+     * Returns the highest count of pieces (including kings) of available WDL tables, 0 if there is no table.
+     *
+     * @return maximum count of pieces
+     */
+    public int maxPieces() {
+        return maxPieces;
+    }
+
+    /**
+     * Returns count of available WDL tables.
+     *
+     * @return count of WDL tables
+     */
+    public int tableCount() {
+        return wdlFiles.size();
+    }
+
+    /**
+     * Returns if positions with the same material as given position can be probed. Positions with castling rights are
+     * never in the tablebase.
+     *
+     * @param position the position
+     * @return if the position can be probed
+     */
+    public boolean canProbe(final Position position) {
+        Disposable.requireNotDisposed(this);
+        if (position.castlingRights() != 0)
+            return false;
+        int pieces = pieceCount(position);
+        return pieces == 2 || (pieces <= maxPieces && findTableName(position, false) != null);
+    }
+
+    /**
+     * Returns if positions with the same material as position given by FEN can be probed.
+     *
+     * @param fen FEN of the position
+     * @return if the position can be probed
+     * @throws IllegalFENException if invalid FEN is given
+     * @see #canProbe(Position)
+     */
+    public boolean canProbe(final String fen) {
+        return canProbe(new Position(fen));
+    }
+
+    /**
+     * Probes the WDL tables. The result does not take the halfmove clock of the position into account.
+     *
+     * @param position the position, it is not modified
+     * @return one of {@code WDL_*} constants from the point of view of the side to move, or empty {@link OptionalInt}
+     *         if the position is not in the tablebase
+     */
+    public OptionalInt probeWDL(final Position position) {
+        Disposable.requireNotDisposed(this);
+        if (!canProbe(position))
+            return OptionalInt.empty();
+        Probe probe = new Probe(position);
+        int wdl = searchCaptures(probe, false);
+        return probe.state == STATE_FAIL ? OptionalInt.empty() : OptionalInt.of(wdl);
+    }
+
+    /**
+     * Probes the WDL tables.
+     *
+     * @param fen FEN of the position
+     * @return one of {@code WDL_*} constants, or empty {@link OptionalInt} if the position is not in the tablebase
+     * @throws IllegalFENException if invalid FEN is given
+     * @see #probeWDL(Position)
+     */
+    public OptionalInt probeWDL(final String fen) {
+        return probeWDL(new Position(fen));
+    }
+
+    /**
+     * Probes the DTZ tables. The result is count of plies to the next zeroing move (capture or pawn move) with the
+     * best play, positive if the side to move wins, negative if it loses and 0 if the position is drawn. Values
+     * greater than 100 in absolute value mean that the result is drawn by the 50-move rule.
+     *
+     * @param position the position, it is not modified
+     * @return the distance to zero, or empty {@link OptionalInt} if the position is not in the tablebase
+     */
+    public OptionalInt probeDTZ(final Position position) {
+        Disposable.requireNotDisposed(this);
+        if (!canProbe(position))
+            return OptionalInt.empty();
+        Probe probe = new Probe(position);
+        int dtz = probeDTZ(probe);
+        return probe.state == STATE_FAIL ? OptionalInt.empty() : OptionalInt.of(dtz);
+    }
+
+    /**
+     * Probes the DTZ tables.
+     *
+     * @param fen FEN of the position
+     * @return the distance to zero, or empty {@link OptionalInt} if the position is not in the tablebase
+     * @throws IllegalFENException if invalid FEN is given
+     * @see #probeDTZ(Position)
+     */
+    public OptionalInt probeDTZ(final String fen) {
+        return probeDTZ(new Position(fen));
+    }
+
+    /**
+     * Returns the best move according to the tablebase: the winning move with the lowest DTZ, a drawing move or the
+     * losing move with the highest DTZ.
+     *
+     * @param fen FEN of the position
+     * @return the best move, or {@code null} if there is no legal move or the position is not in the tablebase
+     * @throws IllegalFENException if invalid FEN is given
+     */
+    public Move bestMove(final String fen) {
+        Disposable.requireNotDisposed(this);
+        Position position = new Position(fen);
+        if (!canProbe(position))
+            return null;
+        Probe probe = new Probe(position);
+        int move = bestMove(probe);
+        return probe.state == STATE_FAIL || move == EngineMove.NONE ? null : EngineMove.toMove(move);
+    }
+
+    /**
+     * Analyses a position by the tablebase instead of an engine. Moves are ordered as by {@link #bestMove(String)}.
+     * The score of a line is {@link #SCORE_WIN} decreased by the distance to zero if the side to move wins,
+     * {@code -SCORE_WIN} increased by the distance if it loses, and 0 for draws including results drawn by the 50-move
+     * rule. The principal variation follows the best moves of the tablebase for a few plies. The depth of the analysis
+     * is 0.
+     *
+     * @param position the position, it is not modified
+     * @param multiPV  count of the best lines
+     * @return the analysis, or {@code null} if the position is not in the tablebase
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalArgumentException if the count of lines is not positive
+     */
+    public NodeAnalysis analyse(final Position position, final int multiPV) {
+        Disposable.requireNotDisposed(this);
+        Objects.requireNonNull(position, "Position cannot be null");
+        if (multiPV < 1)
+            throw new IllegalArgumentException("Invalid MultiPV: " + multiPV);
+        if (!canProbe(position))
+            return null;
+
+        Probe probe = new Probe(position);
+        int end = probe.position.generateLegalMoves(probe.moves, 0);
+        int[] moves = Arrays.copyOf(probe.moves, end), ranks = new int[end];
+        for (int i = 0; i < end; i++) {
+            probe.depth = 1;
+            int dtz = dtzAfter(probe, moves[i]);
+            if (probe.state == STATE_FAIL)
+                return null;
+            ranks[i] = rank(dtz);
+        }
+
+        // Selection of the best lines, the first of equally ranked moves is taken as by bestMove(Probe)
+        ArrayList<NodeAnalysis.Line> lines = new ArrayList<>();
+        boolean[] taken = new boolean[end];
+        while (lines.size() < multiPV && lines.size() < end) {
+            int best = -1;
+            for (int i = 0; i < end; i++)
+                if (!taken[i] && (best < 0 || ranks[i] > ranks[best]))
+                    best = i;
+            taken[best] = true;
+            List<Move> pv = principalVariation(probe, moves[best]);
+            if (probe.state == STATE_FAIL)
+                return null;
+            lines.add(new NodeAnalysis.Line(score(ranks[best]), false, pv));
+        }
+        return new NodeAnalysis(0, lines);
+    }
+
+    // Moves are ranked by DTZ: wins by the shortest distance, then draws, then losses by the longest distance
+    private static int rank(final int dtz) {
+        return dtz > 0 ? SCORE_WIN - dtz : dtz < 0 ? -SCORE_WIN - dtz : 0;
+    }
+
+    // Results beyond the 50-move rule are drawn
+    private static int score(final int rank) {
+        return Math.abs(rank) >= SCORE_WIN - 100 ? rank : 0;
+    }
+
+    // The given move followed by the best moves, the position of the probe is restored
+    private List<Move> principalVariation(final Probe probe, final int move) {
+        Position position = probe.position;
+        ArrayList<Move> pv = new ArrayList<>();
+        pv.add(position.toMove(move));
+        position.makeMove(move);
+        int made = 1;
+        try {
+            while (made < MAX_PV_PLIES) {
+                int next = bestMove(probe);
+                if (probe.state == STATE_FAIL || next == EngineMove.NONE)
+                    break;
+                pv.add(position.toMove(next));
+                position.makeMove(next);
+                made++;
+            }
+        } finally {
+            for (; made > 0; made--)
+                position.unmakeMove();
+        }
+        return pv;
+    }
+
+    // The winning move with the lowest DTZ, a drawing move or the losing move with the highest DTZ
+    private int bestMove(final Probe probe) {
+        probe.depth = 0;
+        int end = probe.position.generateLegalMoves(probe.moves, 0);
+        int bestMove = EngineMove.NONE, bestRank = Integer.MIN_VALUE;
+        for (int i = 0; i < end; i++) {
+            int move = probe.moves[i];
+            probe.depth = 1;
+            int rank = rank(dtzAfter(probe, move));
+            if (probe.state == STATE_FAIL)
+                return EngineMove.NONE;
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestMove = move;
+            }
+        }
+        return bestMove;
+    }
+
+    // DTZ of the position of the probe if given move is played first, from the point of view of the side making it
+    private int dtzAfter(final Probe probe, final int move) {
+        Position position = probe.position;
+        position.makeMove(move);
+        probe.state = STATE_OK;
+        int dtz;
+        if (position.halfmoveClock() == 0) {
+            dtz = dtzBeforeZeroing(-searchCaptures(probe, false));
+        } else {
+            dtz = -probeDTZ(probe);
+            dtz = dtz > 0 ? dtz + 1 : dtz < 0 ? dtz - 1 : 0;
+        }
+        // Mate is the best zeroing
+        int offset = probe.depth * Position.MAX_MOVES;
+        if (dtz == 2 && position.inCheck() && position.generateLegalMoves(probe.moves, offset) == offset)
+            dtz = 1;
+        position.unmakeMove();
+        return dtz;
+    }
+
+    // Probing ----------------------------------------------------------------
+
+    // State of one probe: the position and buffers for moves, one MAX_MOVES long part for every recursion level
+    private static final class Probe {
+        final Position position;
+        final int[] moves = new int[(MAX_PIECES * 2 + 2) * Position.MAX_MOVES];
+        int depth;
+        int state = STATE_OK;
+        final int[] squares = new int[MAX_PIECES];
+        final int[] pieces = new int[MAX_PIECES];
+
+        Probe(final Position position) {
+            this.position = new Position(position);
+        }
+    }
+
+    private static int pieceCount(final Position position) {
+        int count = 0;
+        for (int piece = Chessboard.PIECE_WHITE_PAWN; piece <= Chessboard.PIECE_BLACK_KING; piece++)
+            count += position.pieceCount(piece);
+        return count;
+    }
+
+    // Material signature of one side, e.g. KRP
+    private static String signature(final Position position, final int color) {
+        StringBuilder builder = new StringBuilder(MAX_PIECES);
+        for (int i = 0; i < PIECE_LETTERS.length(); i++) {
+            int type = " PNBRQK".indexOf(PIECE_LETTERS.charAt(i));
+            for (int n = position.pieceCount(Position.pieceOf(color, type)); n > 0; n--)
+                builder.append(PIECE_LETTERS.charAt(i));
+        }
+        return builder.toString();
+    }
+
+    // Name of the table containing the position, prefixed by '!' if Black is the side written first
+    private String findTableName(final Position position, final boolean dtz) {
+        Map<String, Path> files = dtz ? dtzFiles : wdlFiles;
+        String white = signature(position, Position.WHITE), black = signature(position, Position.BLACK);
+        if (files.containsKey(white + 'v' + black))
+            return white + 'v' + black;
+        if (files.containsKey(black + 'v' + white))
+            return '!' + black + 'v' + white;
+        return null;
+    }
+
+    // Resolves captures (and pawn moves if zeroing moves are checked) because the tables store "don't care" values
+    // for positions where such a move is the best one
+    private int searchCaptures(final Probe probe, final boolean checkZeroingMoves) {
+        Position position = probe.position;
+        int offset = probe.depth * Position.MAX_MOVES;
+        int end = position.generateLegalMoves(probe.moves, offset);
+        int totalCount = end - offset, moveCount = 0;
+        int bestValue = WDL_LOSS;
+
+        probe.depth++;
+        try {
+            for (int i = offset; i < end; i++) {
+                int move = probe.moves[i];
+                if (!isCapture(position, move) && (!checkZeroingMoves || !isPawnMove(position, move)))
+                    continue;
+                moveCount++;
+                position.makeMove(move);
+                int value = -searchCaptures(probe, false);
+                position.unmakeMove();
+                if (probe.state == STATE_FAIL)
+                    return WDL_DRAW;
+                if (value > bestValue) {
+                    bestValue = value;
+                    if (value >= WDL_WIN) {
+                        probe.state = STATE_ZEROING_BEST_MOVE;
+                        return value;
+                    }
+                }
+            }
+
+            // If all moves were searched, the stored value may be wrong (e.g. en passant is not in the tables)
+            boolean noMoreMoves = moveCount > 0 && moveCount == totalCount;
+            int value;
+            if (noMoreMoves) {
+                value = bestValue;
+            } else {
+                value = probeTable(probe, false, WDL_DRAW);
+                if (probe.state == STATE_FAIL)
+                    return WDL_DRAW;
+            }
+
+            if (bestValue >= value) {
+                probe.state = bestValue > WDL_DRAW || noMoreMoves ? STATE_ZEROING_BEST_MOVE : STATE_OK;
+                return bestValue;
+            }
+            probe.state = STATE_OK;
+            return value;
+        } finally {
+            probe.depth--;
+        }
+    }
+
+    private int probeDTZ(final Probe probe) {
+        probe.state = STATE_OK;
+        int wdl = searchCaptures(probe, true);
+        // Draws are not stored in DTZ tables
+        if (probe.state == STATE_FAIL || wdl == WDL_DRAW)
+            return 0;
+        if (probe.state == STATE_ZEROING_BEST_MOVE)
+            return dtzBeforeZeroing(wdl);
+
+        int dtz = probeTable(probe, true, wdl);
+        if (probe.state == STATE_FAIL)
+            return 0;
+        if (probe.state != STATE_CHANGE_STM)
+            return (dtz + (wdl == WDL_BLESSED_LOSS || wdl == WDL_CURSED_WIN ? 100 : 0)) * Integer.signum(wdl);
+
+        // The table stores values for the other side to move, so 1-ply search is needed
+        Position position = probe.position;
+        int offset = probe.depth * Position.MAX_MOVES;
+        int end = position.generateLegalMoves(probe.moves, offset);
+        int minDTZ = 0xFFFF;
+        probe.depth++;
+        try {
+            for (int i = offset; i < end; i++) {
+                int move = probe.moves[i];
+                boolean zeroing = isCapture(position, move) || isPawnMove(position, move);
+                position.makeMove(move);
+                probe.state = STATE_OK;
+                // For zeroing moves the DTZ before the move is wanted, so only the sign is taken from the WDL
+                dtz = zeroing ? -dtzBeforeZeroing(searchCaptures(probe, false)) : -probeDTZ(probe);
+                if (dtz == 1 && position.inCheck()
+                        && position.generateLegalMoves(probe.moves, probe.depth * Position.MAX_MOVES)
+                        == probe.depth * Position.MAX_MOVES)
+                    minDTZ = 1;
+                if (!zeroing)
+                    dtz += Integer.signum(dtz);
+                if (dtz < minDTZ && Integer.signum(dtz) == Integer.signum(wdl))
+                    minDTZ = dtz;
+                position.unmakeMove();
+                if (probe.state == STATE_FAIL)
+                    return 0;
+            }
+        } finally {
+            probe.depth--;
+        }
+        // Without legal moves the position is mate
+        return minDTZ == 0xFFFF ? -1 : minDTZ;
+    }
+
+    private static int dtzBeforeZeroing(final int wdl) {
+        switch (wdl) {
+            case WDL_WIN:
+                return 1;
+            case WDL_CURSED_WIN:
+                return 101;
+            case WDL_BLESSED_LOSS:
+                return -101;
+            case WDL_LOSS:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isCapture(final Position position, final int move) {
+        if ((EngineMove.flags(move) & EngineMove.FLAG_EN_PASSANT) != 0)
+            return true;
+        return (EngineMove.flags(move) & EngineMove.FLAG_CASTLING) == 0
+                && position.pieceAt(EngineMove.to(move)) != Chessboard.PIECE_NONE;
+    }
+
+    private static boolean isPawnMove(final Position position, final int move) {
+        return Position.typeOf(position.pieceAt(EngineMove.from(move))) == Position.PAWN;
+    }
+
+    // Piece constant used in the files: white pieces 1-6, black pieces 9-14
+    private static int tablePiece(final int piece) {
+        return piece > Chessboard.PIECE_WHITE_KING ? piece + 2 : piece;
+    }
+
+    private int probeTable(final Probe probe, final boolean dtz, final int wdl) {
+        Position position = probe.position;
+        if (pieceCount(position) == 2)
+            return WDL_DRAW;
+        String name = findTableName(position, dtz);
+        Table table = name == null ? null : table(name.charAt(0) == '!' ? name.substring(1) : name, dtz);
+        if (table == null) {
+            probe.state = STATE_FAIL;
+            return 0;
+        }
+        return probeTable(probe, table, name.charAt(0) == '!', wdl);
+    }
+
+    private synchronized Table table(final String name, final boolean dtz) {
+        Disposable.requireNotDisposed(this);
+        String key = dtz ? name + DTZ_SUFFIX : name + WDL_SUFFIX;
+        Table table = mappedTables.get(key);
+        if (table == null) {
+            Path file = (dtz ? dtzFiles : wdlFiles).get(name);
+            if (file == null)
+                return null;
+            table = new Table(name, file, dtz);
+            mappedTables.put(key, table);
+        }
+        return table;
+    }
+
+    private int probeTable(final Probe probe, final Table table, final boolean blackStronger, final int wdl) {
+        Position position = probe.position;
+        int[] squares = probe.squares, pieces = probe.pieces;
+        int size = 0, leadPawnsCount = 0;
+        long leadPawns = 0;
+        int tableFile = 0;
+
+        // Symmetric tables store only positions with White to move; tables are computed with White as the side
+        // written first in the name. Otherwise colors are swapped and squares flipped.
+        boolean blackSymmetric = position.sideToMove() == Position.BLACK && table.symmetric;
+        boolean flip = blackSymmetric || blackStronger;
+        int flipColor = flip ? 8 : 0, flipSquares = flip ? 56 : 0;
+        int stm = (flip ? 1 : 0) ^ position.sideToMove();
+
+        // With pawns, there are 4 tables according to the file of the leading pawn
+        if (table.hasPawns) {
+            int pawn = table.pairs[0][0].pieces[0] ^ flipColor;
+            int color = pawn > 8 ? Position.BLACK : Position.WHITE;
+            long bitboard = position.pawnBitboard(color);
+            leadPawns = bitboard;
+            for (; bitboard != 0; bitboard &= bitboard - 1)
+                squares[size++] = Long.numberOfTrailingZeros(bitboard) ^ flipSquares;
+            leadPawnsCount = size;
+            int max = 0;
+            for (int i = 1; i < leadPawnsCount; i++)
+                if (MAP_PAWNS[squares[i]] > MAP_PAWNS[squares[max]])
+                    max = i;
+            swap(squares, 0, max);
+            tableFile = Math.min(squares[0] & 7, 7 - (squares[0] & 7));
+        }
+
+        // DTZ tables store only one side to move
+        if (table.dtz && !table.checkSideToMove(stm, tableFile)) {
+            probe.state = STATE_CHANGE_STM;
+            return 0;
+        }
+
+        for (int square = 0; square < 64; square++) {
+            int piece = position.pieceAt(square);
+            if (piece == Chessboard.PIECE_NONE || (leadPawns & (1L << square)) != 0)
+                continue;
+            squares[size] = square ^ flipSquares;
+            pieces[size++] = tablePiece(piece) ^ flipColor;
+        }
+
+        PairsData data = table.pairs[table.dtz ? 0 : stm % table.sides][table.hasPawns ? tableFile : 0];
+
+        // Order the pieces same as in the table
+        for (int i = leadPawnsCount; i < size - 1; i++)
+            for (int j = i + 1; j < size; j++)
+                if (data.pieces[i] == pieces[j]) {
+                    swap(pieces, i, j);
+                    swap(squares, i, j);
+                    break;
+                }
+
+        // The leading piece must be on files a-d
+        if ((squares[0] & 7) > 3)
+            for (int i = 0; i < size; i++)
+                squares[i] ^= 7;
+
+        long index;
+        if (table.hasPawns) {
+            index = LEAD_PAWN_INDEX[leadPawnsCount][squares[0]];
+            sortByPawnMap(squares, 1, leadPawnsCount);
+            for (int i = 1; i < leadPawnsCount; i++)
+                index += BINOMIAL[i][MAP_PAWNS[squares[i]]];
+        } else {
+            // The leading piece must be on ranks 1-4 and below the a1-h8 diagonal
+            if ((squares[0] >> 3) > 3)
+                for (int i = 0; i < size; i++)
+                    squares[i] ^= 56;
+            for (int i = 0; i < data.groupLength[0]; i++) {
+                if (offDiagonal(squares[i]) == 0)
+                    continue;
+                if (offDiagonal(squares[i]) > 0)
+                    for (int j = i; j < size; j++)
+                        squares[j] = ((squares[j] >> 3) | (squares[j] << 3)) & 63;
+                break;
+            }
+
+            if (table.hasUniquePieces) {
+                int adjust1 = squares[1] > squares[0] ? 1 : 0;
+                int adjust2 = (squares[2] > squares[0] ? 1 : 0) + (squares[2] > squares[1] ? 1 : 0);
+                if (offDiagonal(squares[0]) != 0)
+                    index = (MAP_A1D1D4[squares[0]] * 63L + (squares[1] - adjust1)) * 62 + squares[2] - adjust2;
+                else if (offDiagonal(squares[1]) != 0)
+                    index = (6 * 63L + (squares[0] >> 3) * 28 + MAP_B1H1H7[squares[1]]) * 62
+                            + squares[2] - adjust2;
+                else if (offDiagonal(squares[2]) != 0)
+                    index = 6 * 63L * 62 + 4 * 28 * 62 + (squares[0] >> 3) * 7 * 28
+                            + ((squares[1] >> 3) - adjust1) * 28 + MAP_B1H1H7[squares[2]];
+                else
+                    index = 6 * 63L * 62 + 4 * 28 * 62 + 4 * 7 * 28 + (squares[0] >> 3) * 7 * 6
+                            + ((squares[1] >> 3) - adjust1) * 6 + ((squares[2] >> 3) - adjust2);
+            } else {
+                index = MAP_KK[MAP_A1D1D4[squares[0]]][squares[1]];
+            }
+        }
+
+        // Remaining groups, every group sorted by square
+        index *= data.groupIndex[0];
+        int groupStart = data.groupLength[0];
+        boolean remainingPawns = table.hasPawns && table.pawnCount[1] > 0;
+        for (int next = 1; data.groupLength[next] != 0; next++) {
+            Arrays.sort(squares, groupStart, groupStart + data.groupLength[next]);
+            long n = 0;
+            for (int i = 0; i < data.groupLength[next]; i++) {
+                int square = squares[groupStart + i];
+                int adjust = 0;
+                for (int j = 0; j < groupStart; j++)
+                    if (square > squares[j])
+                        adjust++;
+                n += BINOMIAL[i + 1][square - adjust - (remainingPawns ? 8 : 0)];
+            }
+            remainingPawns = false;
+            index += n * data.groupIndex[next];
+            groupStart += data.groupLength[next];
+        }
+
+        int value = decompressPairs(table.buffer, data, index);
+        return table.dtz ? table.mapScore(tableFile, value, wdl) : value - 2;
+    }
+
+    private static void swap(final int[] array, final int i, final int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    // Stable insertion sort of squares by MAP_PAWNS
+    private static void sortByPawnMap(final int[] squares, final int from, final int to) {
+        for (int i = from + 1; i < to; i++) {
+            int square = squares[i];
+            int j = i - 1;
+            while (j >= from && MAP_PAWNS[squares[j]] > MAP_PAWNS[square]) {
+                squares[j + 1] = squares[j];
+                j--;
+            }
+            squares[j + 1] = square;
+        }
+    }
+
+    // Tables are compressed by canonical Huffman code of symbols, where every symbol expands recursively into a pair
+    // of symbols (Recursive Pairing). Data are divided into blocks, every block stores up to 65536 values.
+    private int decompressPairs(final ByteBuffer buffer, final PairsData data, final long index) {
+        if ((data.flags & FLAG_SINGLE_VALUE) != 0)
+            return data.minSymbolLength;
+
+        // Find the block using the sparse index, which points into every span-th value
+        int k = (int) (index / data.span);
+        int sparseEntry = data.sparseIndex + 6 * k;
+        int block = buffer.getInt(sparseEntry);
+        int offset = Short.toUnsignedInt(buffer.getShort(sparseEntry + 4));
+        offset += (int) (index % data.span - data.span / 2);
+        while (offset < 0)
+            offset += data.blockLength(buffer, --block) + 1;
+        while (offset > data.blockLength(buffer, block))
+            offset -= data.blockLength(buffer, block++) + 1;
+
+        long key = (long) data.id << 32 | block;
+        short[] values = cachedBlock(key);
+        if (values == null) {
+            // Blocks decoded by two threads at once are decoded twice, which is cheaper than waiting for each other
+            values = decodeBlock(buffer, data, block);
+            cacheBlock(key, values);
+        }
+        return Short.toUnsignedInt(values[offset]);
+    }
+
+    private synchronized short[] cachedBlock(final long key) {
+        return decodedBlocks.get(key);
+    }
+
+    // Blocks of released files are not removed at once, they are dropped as least recently used ones
+    private synchronized void cacheBlock(final long key, final short[] values) {
+        if (isDisposed() || decodedBlocks.containsKey(key))
+            return;
+        decodedBlocks.put(key, values);
+        decodedBytes += 2L * values.length + BLOCK_OVERHEAD;
+        Iterator<short[]> iterator = decodedBlocks.values().iterator();
+        while (decodedBytes > blockCacheSize && iterator.hasNext()) {
+            decodedBytes -= 2L * iterator.next().length + BLOCK_OVERHEAD;
+            iterator.remove();
+        }
+    }
+
+    // Reads all symbols of the block and expands them into values
+    private static short[] decodeBlock(final ByteBuffer buffer, final PairsData data, final int block) {
+        short[] values = new short[data.blockLength(buffer, block) + 1];
+        int pointer = data.data + block * data.blockSize;
+        long bits = Long.reverseBytes(buffer.getLong(pointer));
+        pointer += 8;
+        int bitCount = 64;
+        int count = 0;
+        while (true) {
+            int length = 0;
+            while (Long.compareUnsigned(bits, data.base64[length]) < 0)
+                length++;
+            int symbol = (int) ((bits - data.base64[length]) >>> (64 - length - data.minSymbolLength));
+            symbol = (symbol + Short.toUnsignedInt(buffer.getShort(data.lowestSymbol + 2 * length))) & 0xFFFF;
+            count = expand(buffer, data, symbol, values, count);
+            // The last symbol is not followed by any other, so no bits after the block are read
+            if (count >= values.length)
+                break;
+            length += data.minSymbolLength;
+            bits <<= length;
+            bitCount -= length;
+            if (bitCount <= 32) {
+                bitCount += 32;
+                bits |= Integer.toUnsignedLong(Integer.reverseBytes(buffer.getInt(pointer))) << (64 - bitCount);
+                pointer += 4;
+            }
+        }
+        DECODED_BLOCKS.increment();
+        return values;
+    }
+
+    // Writes values of the symbol from the position, values beyond the end of the block are ignored
+    private static int expand(final ByteBuffer buffer, final PairsData data, final int symbol, final short[] values,
+                              final int position) {
+        if (position >= values.length)
+            return position;
+        if (data.symbolLength[symbol] == 0) {
+            values[position] = (short) data.left(buffer, symbol);
+            return position + 1;
+        }
+        int next = expand(buffer, data, data.left(buffer, symbol), values, position);
+        return expand(buffer, data, data.right(buffer, symbol), values, next);
+    }
+
+    // Table files --------------------------------------------------------------
+
+    // Indexing and decompression information of one table of a file
+    private static final class PairsData {
+        private static final AtomicInteger createdPairsDataCount = new AtomicInteger();
+
+        // Identifies decoded blocks of this table in the cache
+        final int id = createdPairsDataCount.getAndIncrement();
+        int flags;
+        int maxSymbolLength, minSymbolLength;
+        int blockCount;
+        int blockSize;
+        long span;
+        int sparseIndexSize;
+        int blockLengthSize;
+        // Offsets in the file
+        int lowestSymbol, binaryTree, blockLengths, sparseIndex, data;
+        long[] base64;
+        int[] symbolLength;
+        final int[] pieces = new int[MAX_PIECES];
+        final long[] groupIndex = new long[MAX_PIECES + 1];
+        final int[] groupLength = new int[MAX_PIECES + 1];
+        final int[] mapIndex = new int[4];
+
+        int blockLength(final ByteBuffer buffer, final int block) {
+            return Short.toUnsignedInt(buffer.getShort(blockLengths + 2 * block));
+        }
+
+        int left(final ByteBuffer buffer, final int symbol) {
+            int offset = binaryTree + 3 * symbol;
+            return ((buffer.get(offset + 1) & 0xF) << 8) | (buffer.get(offset) & 0xFF);
+        }
+
+        int right(final ByteBuffer buffer, final int symbol) {
+            int offset = binaryTree + 3 * symbol;
+            return ((buffer.get(offset + 2) & 0xFF) << 4) | ((buffer.get(offset + 1) & 0xFF) >> 4);
+        }
+    }
+
+    // One memory-mapped file and its parsed header, immutable after construction
+    private static final class Table {
+        final boolean dtz;
+        final boolean symmetric;
+        final boolean hasPawns;
+        final boolean hasUniquePieces;
+        final int pieceCount;
+        final int[] pawnCount = new int[2];
+        final int sides;
+        final PairsData[][] pairs;
+        final ByteBuffer buffer;
+        int dtzMap;
+
+        Table(final String name, final Path file, final boolean dtz) {
+            this.dtz = dtz;
+            String[] colors = name.split("v");
+            symmetric = colors[0].equals(colors[1]);
+            pieceCount = name.length() - 1;
+            hasPawns = name.indexOf('P') >= 0;
+
+            boolean unique = false;
+            int[] whitePawnsAndBlackPawns = new int[2];
+            for (int color = 0; color < 2; color++)
+                for (char letter : "QRBNP".toCharArray()) {
+                    int count = count(colors[color], letter);
+                    unique |= count == 1;
+                    if (letter == 'P')
+                        whitePawnsAndBlackPawns[color] = count;
+                }
+            hasUniquePieces = unique;
+            // The leading color is the one with less pawns, if both sides have pawns
+            int white = whitePawnsAndBlackPawns[0], black = whitePawnsAndBlackPawns[1];
+            boolean whiteLeads = black == 0 || (white > 0 && black >= white);
+            pawnCount[0] = whiteLeads ? white : black;
+            pawnCount[1] = whiteLeads ? black : white;
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+            int[] magic = dtz ? DTZ_MAGIC : WDL_MAGIC;
+            for (int i = 0; i < 4; i++)
+                if (buffer.capacity() < 4 || (buffer.get(i) & 0xFF) != magic[i])
+                    throw new IllegalStateException("Corrupted tablebase file: " + file);
+
+            this.sides = !dtz && !symmetric ? 2 : 1;
+            int files = hasPawns ? 4 : 1;
+            pairs = new PairsData[this.sides][files];
+            for (int side = 0; side < this.sides; side++)
+                for (int f = 0; f < files; f++)
+                    pairs[side][f] = new PairsData();
+            parse();
+        }
+
+        private static int count(final String string, final char letter) {
+            int count = 0;
+            for (int i = 0; i < string.length(); i++)
+                if (string.charAt(i) == letter)
+                    count++;
+            return count;
+        }
+
+        private int u8(final int offset) {
+            return buffer.get(offset) & 0xFF;
+        }
+
+        private void parse() {
+            // First byte after the magic stores flags
+            int offset = 5;
+            int files = pairs[0].length;
+            boolean bothPawns = hasPawns && pawnCount[1] > 0;
+
+            for (int f = 0; f < files; f++) {
+                int[][] order = {
+                        {u8(offset) & 0xF, bothPawns ? u8(offset + 1) & 0xF : 0xF},
+                        {u8(offset) >> 4, bothPawns ? u8(offset + 1) >> 4 : 0xF}};
+                offset += bothPawns ? 2 : 1;
+                for (int k = 0; k < pieceCount; k++, offset++)
+                    for (int side = 0; side < sides; side++)
+                        pairs[side][f].pieces[k] = side == 1 ? u8(offset) >> 4 : u8(offset) & 0xF;
+                for (int side = 0; side < sides; side++)
+                    setGroups(pairs[side][f], order[side], f);
+            }
+            offset += offset & 1;
+
+            for (int f = 0; f < files; f++)
+                for (int side = 0; side < sides; side++)
+                    offset = setSizes(pairs[side][f], offset);
+
+            if (dtz)
+                offset = setDTZMap(offset, files);
+
+            for (int f = 0; f < files; f++)
+                for (int side = 0; side < sides; side++) {
+                    pairs[side][f].sparseIndex = offset;
+                    offset += pairs[side][f].sparseIndexSize * 6;
+                }
+            for (int f = 0; f < files; f++)
+                for (int side = 0; side < sides; side++) {
+                    pairs[side][f].blockLengths = offset;
+                    offset += pairs[side][f].blockLengthSize * 2;
+                }
+            for (int f = 0; f < files; f++)
+                for (int side = 0; side < sides; side++) {
+                    offset = (offset + 0x3F) & ~0x3F;
+                    pairs[side][f].data = offset;
+                    offset += pairs[side][f].blockCount * pairs[side][f].blockSize;
+                }
+        }
+
+        // Pieces of the same kind form groups encoded together; the first group has 3 unique pieces, or two kings,
+        // or the leading pawns
+        private void setGroups(final PairsData data, final int[] order, final int file) {
+            int n = 0, firstLength = hasPawns ? 0 : hasUniquePieces ? 3 : 2;
+            data.groupLength[n] = 1;
+            for (int i = 1; i < pieceCount; i++)
+                if (--firstLength > 0 || data.pieces[i] == data.pieces[i - 1])
+                    data.groupLength[n]++;
+                else
+                    data.groupLength[++n] = 1;
+            data.groupLength[++n] = 0;
+
+            boolean bothPawns = hasPawns && pawnCount[1] > 0;
+            int next = bothPawns ? 2 : 1;
+            int freeSquares = 64 - data.groupLength[0] - (bothPawns ? data.groupLength[1] : 0);
+            long index = 1;
+            for (int k = 0; next < n || k == order[0] || k == order[1]; k++)
+                if (k == order[0]) {
+                    data.groupIndex[0] = index;
+                    index *= hasPawns ? LEAD_PAWNS_SIZE[data.groupLength[0]][file] : hasUniquePieces ? 31332 : 462;
+                } else if (k == order[1]) {
+                    data.groupIndex[1] = index;
+                    index *= BINOMIAL[data.groupLength[1]][48 - data.groupLength[0]];
+                } else {
+                    data.groupIndex[next] = index;
+                    index *= BINOMIAL[data.groupLength[next]][freeSquares];
+                    freeSquares -= data.groupLength[next++];
+                }
+            data.groupIndex[n] = index;
+        }
+
+        private int setSizes(final PairsData data, int offset) {
+            data.flags = u8(offset++);
+            if ((data.flags & FLAG_SINGLE_VALUE) != 0) {
+                data.minSymbolLength = u8(offset++);
+                return offset;
+            }
+
+            int groups = 0;
+            while (data.groupLength[groups] != 0)
+                groups++;
+            long tableSize = data.groupIndex[groups];
+
+            data.blockSize = 1 << u8(offset++);
+            data.span = 1L << u8(offset++);
+            data.sparseIndexSize = (int) ((tableSize + data.span - 1) / data.span);
+            int padding = u8(offset++);
+            data.blockCount = buffer.getInt(offset);
+            offset += 4;
+            data.blockLengthSize = data.blockCount + padding;
+            data.maxSymbolLength = u8(offset++);
+            data.minSymbolLength = u8(offset++);
+            data.lowestSymbol = offset;
+
+            // base64[i] is the lowest symbol of length i + minimum length, left-aligned in 64 bits
+            int lengths = data.maxSymbolLength - data.minSymbolLength + 1;
+            data.base64 = new long[lengths];
+            for (int i = lengths - 2; i >= 0; i--)
+                data.base64[i] = (data.base64[i + 1] + lowestSymbol(data, i) - lowestSymbol(data, i + 1)) / 2;
+            for (int i = 0; i < lengths; i++)
+                data.base64[i] <<= 64 - i - data.minSymbolLength;
+            offset += lengths * 2;
+
+            int symbols = Short.toUnsignedInt(buffer.getShort(offset));
+            offset += 2;
+            data.binaryTree = offset;
+            data.symbolLength = new int[symbols];
+            boolean[] visited = new boolean[symbols];
+            for (int symbol = 0; symbol < symbols; symbol++)
+                if (!visited[symbol])
+                    data.symbolLength[symbol] = symbolLength(data, symbol, visited);
+            return offset + symbols * 3 + (symbols & 1);
+        }
+
+        private int lowestSymbol(final PairsData data, final int index) {
+            return Short.toUnsignedInt(buffer.getShort(data.lowestSymbol + 2 * index));
+        }
+
+        // Count of values represented by the symbol minus one
+        private int symbolLength(final PairsData data, final int symbol, final boolean[] visited) {
+            visited[symbol] = true;
+            int right = data.right(buffer, symbol);
+            if (right == 0xFFF)
+                return 0;
+            int left = data.left(buffer, symbol);
+            if (!visited[left])
+                data.symbolLength[left] = symbolLength(data, left, visited);
+            if (!visited[right])
+                data.symbolLength[right] = symbolLength(data, right, visited);
+            return data.symbolLength[left] + data.symbolLength[right] + 1;
+        }
+
+        // DTZ values are remapped by frequency, the maps are stored after the sizes
+        private int setDTZMap(int offset, final int files) {
+            dtzMap = offset;
+            for (int f = 0; f < files; f++) {
+                PairsData data = pairs[0][f];
+                if ((data.flags & FLAG_MAPPED) == 0)
+                    continue;
+                if ((data.flags & FLAG_WIDE) != 0) {
+                    offset += offset & 1;
+                    for (int i = 0; i < 4; i++) {
+                        data.mapIndex[i] = (offset - dtzMap) / 2 + 1;
+                        offset += 2 * Short.toUnsignedInt(buffer.getShort(offset)) + 2;
+                    }
+                } else {
+                    for (int i = 0; i < 4; i++) {
+                        data.mapIndex[i] = offset - dtzMap + 1;
+                        offset += u8(offset) + 1;
+                    }
+                }
+            }
+            return offset + (offset & 1);
+        }
+
+        boolean checkSideToMove(final int stm, final int file) {
+            return (pairs[0][hasPawns ? file : 0].flags & FLAG_STM) == stm || (symmetric && !hasPawns);
+        }
+
+        int mapScore(final int file, int value, final int wdl) {
+            // Indexed by WDL + 2, maps are stored in order win, loss, cursed win, blessed loss
+            final int[] wdlMap = {1, 3, 0, 2, 0};
+            PairsData data = pairs[0][hasPawns ? file : 0];
+            if ((data.flags & FLAG_MAPPED) != 0) {
+                int index = data.mapIndex[wdlMap[wdl + 2]] + value;
+                if ((data.flags & FLAG_WIDE) != 0)
+                    value = Short.toUnsignedInt(buffer.getShort(dtzMap + 2 * index));
+                else
+                    value = u8(dtzMap + index);
+            }
+            // Values are stored in moves or in plies, plies are returned
+            if ((wdl == WDL_WIN && (data.flags & FLAG_WIN_PLIES) == 0)
+                    || (wdl == WDL_LOSS && (data.flags & FLAG_LOSS_PLIES) == 0)
+                    || wdl == WDL_CURSED_WIN || wdl == WDL_BLESSED_LOSS)
+                value *= 2;
+            return value + 1;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!isDisposed()) {
+            mappedTables.clear();
+            mappedTables = null;
+            decodedBlocks.clear();
+            decodedBytes = 0;
+        }
+    }
+
+    @Override
+    public synchronized boolean isDisposed() {
+        return mappedTables == null;
+    }
+}
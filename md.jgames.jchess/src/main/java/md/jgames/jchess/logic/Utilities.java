@@ -1,12 +1,20 @@
 package md.jgames.jchess.logic;
 
+import md.jgames.jchess.io.UCIEngineInfo;
+import md.jgames.jchess.io.UCIEngineRegistry;
 import mdlib.utils.ClasspathUtilities;
 import mdlib.utils.io.ExecutableProcess;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -27,8 +35,19 @@ public final class Utilities {
     // Initialize Stockfish path when it is requested through getStockfishPath() method
     private static Path stockfishPath = null;
 
+    // Command to response latencies of the UCI engine, see Metrics
+    static final Histogram LATENCY_UCI = Metrics.histogram("jchess.uci.uci");
+    static final Histogram LATENCY_ISREADY = Metrics.histogram("jchess.uci.isready");
+    static final Histogram LATENCY_D = Metrics.histogram("jchess.uci.d");
+    static final Histogram LATENCY_GO = Metrics.histogram("jchess.uci.go");
+    static final Histogram LATENCY_PERFT = Metrics.histogram("jchess.uci.perft");
+    static final Histogram LATENCY_PONDERHIT = Metrics.histogram("jchess.uci.ponderhit");
+
+    // Capabilities of Stockfish, remembered by initializeEngine() and checked by setOption()
+    private static final UCIEngineRegistry engineRegistry = new UCIEngineRegistry(null);
+
     // Count of already created Stockfish processes. Used in createStockfishProcess() method.
-    private static int createdStockfishProcessesCount = 0;
+    private static final AtomicInteger createdStockfishProcessesCount = new AtomicInteger();
 
     /**
      * The FEN notation of the typical starting position.
@@ -42,7 +61,7 @@ public final class Utilities {
      * @see #isValidFEN(String)
      * @see #assertFENValidity(String)
      */
-    public static final Pattern PATTERN_FEN = Pattern.compile("((?:[prnbqkPRNBQK1-8]+/){7}[prnbqkPRNBQK1-8]+) ([wb]) (-|KQ?k?q?|K?Qk?q?|K?Q?kq?|K?Q?k?q) (-|[a-h][36]) ([0-9])+ ([0-9])+");
+    public static final Pattern PATTERN_FEN = Pattern.compile("((?:[prnbqkPRNBQK1-8]+/){7}[prnbqkPRNBQK1-8]+) ([wb]) (-|(?=[KQA-Hkqa-h])(?:K?Q?|[A-H]{1,2})(?:k?q?|[a-h]{1,2})) (-|[a-h][36]) ([0-9])+ ([0-9])+");
 
     /**
      * Regex pattern for read lines in {@link #getAllMovesRating(ExecutableProcess, int)} method. For more information,
@@ -78,6 +97,11 @@ public final class Utilities {
             return false;
 
         String position = matcher.group(1);
+        // Shredder-FEN castling of one side gives files of two different rooks
+        String castling = matcher.group(3);
+        for (int i = 0; i + 1 < castling.length(); i++)
+            if (castling.charAt(i) == castling.charAt(i + 1))
+                return false;
         int halfmoves = Integer.parseInt(matcher.group(5));
         int fullmoves = Integer.parseInt(matcher.group(6));
 
@@ -239,27 +263,92 @@ public final class Utilities {
      * Generates a random Chess960 position.
      *
      * @return the FEN notation of some Chess960 position
+     * @see #generateChess960FEN(int)
      */
     public static String generateChess960FEN() {
-        List<Character> firstRankPieces = Arrays.asList('r', 'n', 'b', 'q', 'k', 'b', 'n', 'r');
-        String firstRank = null;
-        while (firstRank == null) {
-            Collections.shuffle(firstRankPieces);
-            StringBuilder firstRankBuilder = new StringBuilder(8);
-            for (Character firstRankPiece : firstRankPieces)
-                firstRankBuilder.append(firstRankPiece);
-            firstRank = firstRankBuilder.toString();
-            if (!firstRank.matches(".*r.*k.*r.*") || !firstRank.matches(".*b(..|....|......|)b.*"))
-                firstRank = null;
-        }
+        return generateChess960FEN(ThreadLocalRandom.current().nextInt(960));
+    }
+
+    /**
+     * Generates Chess960 position of given number in Scharnagl's numbering, e.g. 518 is the standard starting
+     * position. Castling rights are written as in X-FEN, i.e. {@code KQkq}.
+     *
+     * @param number number of the position, from 0 to 959
+     * @return the FEN notation of the Chess960 position
+     * @throws IllegalArgumentException if the number is out of range
+     * @see #isChess960FEN(String)
+     */
+    public static String generateChess960FEN(final int number) {
+        if (number < 0 || number >= 960)
+            throw new IllegalArgumentException("Chess960 position number out of range: " + number);
+        char[] firstRank = new char[8];
+        int n = number;
+        // Bishops on light and dark squares
+        firstRank[2 * (n % 4) + 1] = 'b';
+        n /= 4;
+        firstRank[2 * (n % 4)] = 'b';
+        n /= 4;
+        // Queen and knights on the free squares
+        placeOnFreeSquare(firstRank, n % 6, 'q');
+        n /= 6;
+        int[] knights = CHESS960_KNIGHTS[n];
+        placeOnFreeSquare(firstRank, knights[1], 'n');
+        placeOnFreeSquare(firstRank, knights[0], 'n');
+        // King between the rooks
+        placeOnFreeSquare(firstRank, 0, 'r');
+        placeOnFreeSquare(firstRank, 0, 'k');
+        placeOnFreeSquare(firstRank, 0, 'r');
+
         StringBuilder fenBuilder = new StringBuilder();
         fenBuilder.append(firstRank);
         fenBuilder.append("/pppppppp/8/8/8/8/PPPPPPPP/");
-        fenBuilder.append(firstRank.toUpperCase());
+        fenBuilder.append(new String(firstRank).toUpperCase());
         fenBuilder.append(" w KQkq - 0 1");
         return fenBuilder.toString();
     }
 
+    // Placements of two knights among five free squares in Scharnagl's numbering
+    private static final int[][] CHESS960_KNIGHTS = {
+            {0, 1}, {0, 2}, {0, 3}, {0, 4}, {1, 2}, {1, 3}, {1, 4}, {2, 3}, {2, 4}, {3, 4}
+    };
+
+    private static void placeOnFreeSquare(final char[] rank, final int freeSquareIndex, final char piece) {
+        int remaining = freeSquareIndex;
+        for (int file = 0; file < rank.length; file++)
+            if (rank[file] == 0 && remaining-- == 0) {
+                rank[file] = piece;
+                return;
+            }
+    }
+
+    /**
+     * Tests if given FEN needs Chess960 castling rules, i.e. its castling rights are written by files of rooks
+     * (Shredder-FEN) or a castling king or rook does not stand on its square in the standard starting position.
+     *
+     * @param fen the FEN notation
+     * @return if the position needs Chess960 castling rules
+     * @throws IllegalFENException if invalid FEN is given
+     */
+    public static boolean isChess960FEN(final String fen) {
+        assertFENValidity(fen);
+        String castling = fen.split(" ")[2];
+        byte[][] pieces = mapPieces(fen);
+        for (char ch : castling.toCharArray()) {
+            if (ch == '-')
+                continue;
+            if (ch != 'K' && ch != 'Q' && ch != 'k' && ch != 'q')
+                return true;
+            boolean white = Character.isUpperCase(ch);
+            byte[] rank = pieces[white ? 0 : 7];
+            if (rank[4] != (white ? Chessboard.PIECE_WHITE_KING : Chessboard.PIECE_BLACK_KING))
+                return true;
+            if (rank[Character.toLowerCase(ch) == 'k' ? 7 : 0]
+                    != (white ? Chessboard.PIECE_WHITE_ROOK : Chessboard.PIECE_BLACK_ROOK))
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Returns path to Stockfish chess engine as {@link Path} object.
      *
@@ -298,7 +387,7 @@ public final class Utilities {
         Path stockfishPath = getStockfishPath();
         if (!Files.isRegularFile(stockfishPath))
             throw new StockfishNotFoundException();
-        return new ExecutableProcess(stockfishPath, "StockfishProc" + createdStockfishProcessesCount++);
+        return new ExecutableProcess(stockfishPath, "StockfishProc" + createdStockfishProcessesCount.getAndIncrement());
     }
 
     /**
@@ -325,19 +414,43 @@ public final class Utilities {
                     return true;
             });
 
+            long start = System.nanoTime();
             process.send("d");
             semaphore.acquireUninterruptibly();
+            LATENCY_D.recordSince(start);
             return currFEN.get();
         }
     }
 
     /**
-     * Sets an option of Stockfish chess engine
+     * Returns capabilities of Stockfish chess engine, most importantly its options. They are remembered from the first
+     * handshake done by {@link #initializeEngine(ExecutableProcess)}.
+     *
+     * @return the engine capabilities
+     * @throws StockfishNotFoundException if chess engine executable was not found
+     * @throws UncheckedIOException       if the engine executable cannot be accessed
+     * @see UCIEngineRegistry#describe(Path)
+     */
+    public static UCIEngineInfo stockfishInfo() throws StockfishNotFoundException {
+        Path stockfishPath = getStockfishPath();
+        if (!Files.isRegularFile(stockfishPath))
+            throw new StockfishNotFoundException();
+        try {
+            return engineRegistry.describe(stockfishPath);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    /**
+     * Sets an option of Stockfish chess engine. The option and its value are checked against the options which the
+     * engine told during the handshake, see {@link #stockfishInfo()}.
      *
      * @param process the Stockfish process which you want to set an option on
      * @param name    option name
      * @param value   option value
-     * @throws NullPointerException if {@code process} is {@code null}
+     * @throws NullPointerException     if {@code process} is {@code null}
+     * @throws IllegalArgumentException if Stockfish does not support the option or the value is invalid
      * @see #setOptions(ExecutableProcess, Map)
      */
     public static void setOption(final ExecutableProcess process, final String name, final Object value) {
@@ -345,11 +458,16 @@ public final class Utilities {
         Objects.requireNonNull(name, "Option name cannot be null");
         Objects.requireNonNull(value, "Option value cannot be null");
 
+        // The option is written as the engine told it, so misspelled options are not silently ignored by the engine
+        Map.Entry<String, String> option = stockfishInfo().validate(Collections.singletonMap(name, value))
+                .entrySet().iterator().next();
         StringBuilder command = new StringBuilder();
         command.append("setoption name ");
-        command.append(name);
-        command.append(" value ");
-        command.append(value);
+        command.append(option.getKey());
+        if (option.getValue() != null) {
+            command.append(" value ");
+            command.append(option.getValue());
+        }
 
         synchronized (process) {
             process.send(command.toString());
@@ -361,7 +479,8 @@ public final class Utilities {
      *
      * @param process the Stockfish process which you want to set options on
      * @param options map, where key is option name and value is option value
-     * @throws NullPointerException if {@code process} is {@code null}
+     * @throws NullPointerException     if {@code process} is {@code null}
+     * @throws IllegalArgumentException if Stockfish does not support some option or its value is invalid
      * @see #setOption(ExecutableProcess, String, Object)
      */
     public static void setOptions(final ExecutableProcess process, final Map<String, Object> options) {
@@ -466,8 +585,10 @@ public final class Utilities {
                 return true;
             });
 
+            long start = System.nanoTime();
             process.send("go depth " + depth);
             semaphore.acquireUninterruptibly();
+            LATENCY_GO.recordSince(start);
             return bestMove.get();
         }
     }
@@ -506,12 +627,137 @@ public final class Utilities {
                 return true;
             });
 
+            long start = System.nanoTime();
             process.send("go perft " + depth);
             semaphore.acquireUninterruptibly();
+            LATENCY_PERFT.recordSince(start);
             return map;
         }
     }
 
+    /**
+     * Searches the position set on the engine and returns the best lines found. Count of the lines is given by the
+     * {@code MultiPV} option of the engine. The search may be interrupted by sending {@code stop} to the engine from
+     * another thread, the lines found so far are returned then.
+     *
+     * @param process        the Stockfish process
+     * @param depth          depth of the search
+     * @param moveTimeMillis longest time of the search in milliseconds, 0 for no limit
+     * @return the analysis, without any line if the side to move has no legal move
+     * @throws NullPointerException if {@code process} is {@code null}
+     * @see #setPosition(ExecutableProcess, String, List)
+     */
+    public static NodeAnalysis analyse(final ExecutableProcess process, final int depth, final long moveTimeMillis) {
+        Objects.requireNonNull(process, "null given instead of ExecutableProcess instance");
+
+        Semaphore semaphore = new Semaphore(0);
+        TreeMap<Integer, NodeAnalysis.Line> lines = new TreeMap<>();
+        int[] reachedDepth = new int[1];
+
+        synchronized (process) {
+            process.read(line -> {
+                if (line == null || line.startsWith("bestmove")) {
+                    semaphore.release();
+                    return false;
+                }
+                if (line.startsWith("info "))
+                    parseInfo(line, lines, reachedDepth);
+                return true;
+            });
+
+            long start = System.nanoTime();
+            process.send(moveTimeMillis > 0 ? "go depth " + depth + " movetime " + moveTimeMillis : "go depth " + depth);
+            semaphore.acquireUninterruptibly();
+            LATENCY_GO.recordSince(start);
+        }
+
+        ArrayList<NodeAnalysis.Line> result = new ArrayList<>(lines.size());
+        for (NodeAnalysis.Line line : lines.values())
+            if (!line.principalVariation().isEmpty())
+                result.add(line);
+        return new NodeAnalysis(reachedDepth[0], result);
+    }
+
+    // Reads a line like "info depth 12 seldepth 16 multipv 2 score cp 31 nodes 1000 pv e2e4 e7e5"
+    private static void parseInfo(final String info, final Map<Integer, NodeAnalysis.Line> lines,
+                                  final int[] reachedDepth) {
+        String[] tokens = info.split(" ");
+        int lineDepth = -1, index = 1, score = 0;
+        boolean mate = false, hasScore = false;
+        ArrayList<Move> pv = new ArrayList<>();
+        for (int i = 1; i < tokens.length; i++) {
+            switch (tokens[i]) {
+                case "string":
+                    return;
+                case "lowerbound":
+                case "upperbound":
+                    // Scores of failed searches are not exact
+                    return;
+                case "depth":
+                    lineDepth = Integer.parseInt(tokens[++i]);
+                    break;
+                case "multipv":
+                    index = Integer.parseInt(tokens[++i]);
+                    break;
+                case "score":
+                    mate = "mate".equals(tokens[i + 1]);
+                    score = Integer.parseInt(tokens[i + 2]);
+                    hasScore = true;
+                    i += 2;
+                    break;
+                case "pv":
+                    for (i++; i < tokens.length; i++)
+                        pv.add(new Move(tokens[i]));
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!hasScore)
+            return;
+        lines.put(index, new NodeAnalysis.Line(score, mate, pv));
+        if (index == 1)
+            reachedDepth[0] = Math.max(lineDepth, 0);
+    }
+
+    /**
+     * Does the UCI handshake with the chess engine: sends {@code uci}, waits for {@code uciok} and then waits until the
+     * engine is ready. The engine accepts options only after the handshake.
+     *
+     * @param process the Stockfish process
+     * @throws NullPointerException if {@code process} is {@code null}
+     * @see #waitForReady(ExecutableProcess)
+     * @see #stockfishInfo()
+     */
+    public static void initializeEngine(final ExecutableProcess process) {
+        Objects.requireNonNull(process, "null given instead of ExecutableProcess instance");
+
+        Semaphore semaphore = new Semaphore(0);
+        ArrayList<String> handshake = new ArrayList<>();
+
+        synchronized (process) {
+            process.read(line -> {
+                boolean uciok = "uciok".equals(line);
+                if (uciok)
+                    semaphore.release();
+                else
+                    handshake.add(line);
+                return !uciok;
+            });
+            long start = System.nanoTime();
+            process.send("uci");
+            semaphore.acquireUninterruptibly();
+            LATENCY_UCI.recordSince(start);
+        }
+        // Options are checked against the handshake, so the engine does not have to be started again to tell them
+        try {
+            engineRegistry.remember(getStockfishPath(), handshake);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        waitForReady(process);
+    }
+
     /**
      * Sends the {@code isready} command and waits until chess engine sends {@code readyok} back
      *
@@ -526,12 +772,14 @@ public final class Utilities {
         synchronized (process) {
             process.read(line -> {
                 boolean rdy = line.equals("readyok");
-                semaphore.release();
+                if (rdy)
+                    semaphore.release();
                 return !rdy;
             });
+            long start = System.nanoTime();
             process.send("isready");
-
             semaphore.acquireUninterruptibly();
+            LATENCY_ISREADY.recordSince(start);
         }
     }
 }
@@ -0,0 +1,139 @@
+package md.jgames.jchess.puzzles;
+
+import md.jgames.jchess.logic.IllegalFENException;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Tactical puzzle found in a game by {@link PuzzleExtractor}: the position after a mistake, the line refuting the
+ * mistake and theme tags describing the line. Instances of this class are immutable.
+ *
+ * <p>Puzzles are written one per line as the FEN, the solution in UCI notation and the themes, separated by
+ * semicolons, e.g. {@code 6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - 0 1;a1a8;check mate mateIn1}. See {@link
+ * #toString()} and {@link #parse(String)}.</p>
+ *
+ * @author Michal Douša
+ */
+public final class Puzzle {
+
+    private final String fen;
+    private final List<Move> solution;
+    private final SortedSet<String> themes;
+
+    /**
+     * Creates a puzzle.
+     *
+     * @param fen      FEN of the position, the side to move solves the puzzle
+     * @param solution moves of the solution, the first one is played by the solver
+     * @param themes   theme tags
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalFENException      if invalid FEN is given
+     * @throws IllegalArgumentException if the solution is empty or a theme contains whitespace or a semicolon
+     */
+    public Puzzle(final String fen, final List<Move> solution, final Iterable<String> themes) {
+        Utilities.assertFENValidity(fen);
+        Objects.requireNonNull(solution, "Solution cannot be null");
+        Objects.requireNonNull(themes, "Themes cannot be null");
+        if (solution.isEmpty())
+            throw new IllegalArgumentException("Solution cannot be empty");
+        TreeSet<String> themeSet = new TreeSet<>();
+        for (String theme : themes) {
+            if (theme.isEmpty() || theme.matches(".*[\\s;].*"))
+                throw new IllegalArgumentException("Invalid theme: '" + theme + "'");
+            themeSet.add(theme);
+        }
+        this.fen = fen;
+        this.solution = Collections.unmodifiableList(new ArrayList<>(solution));
+        this.themes = Collections.unmodifiableSortedSet(themeSet);
+    }
+
+    /**
+     * Reads a puzzle written by {@link #toString()}.
+     *
+     * @param line the line
+     * @return the puzzle
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalArgumentException if the line is not a puzzle
+     */
+    public static Puzzle parse(final String line) {
+        String[] parts = line.split(";", -1);
+        if (parts.length != 3)
+            throw new IllegalArgumentException("Not a puzzle: " + line);
+        ArrayList<Move> solution = new ArrayList<>();
+        for (String move : parts[1].split(" "))
+            if (!move.isEmpty())
+                solution.add(new Move(move));
+        ArrayList<String> themes = new ArrayList<>();
+        for (String theme : parts[2].split(" "))
+            if (!theme.isEmpty())
+                themes.add(theme);
+        return new Puzzle(parts[0], solution, themes);
+    }
+
+    /**
+     * Returns FEN of the position of the puzzle.
+     *
+     * @return FEN of the position
+     */
+    public String fen() {
+        return fen;
+    }
+
+    /**
+     * Returns unmodifiable {@link List} of moves of the solution, starting by the move of the solver. Moves of the
+     * solver and the replies alternate and the last move is always played by the solver.
+     *
+     * @return the solution
+     */
+    public List<Move> solution() {
+        return solution;
+    }
+
+    /**
+     * Returns unmodifiable sorted set of theme tags, e.g. {@code mateIn2}, {@code sacrifice} or {@code promotion}.
+     *
+     * @return the themes
+     */
+    public SortedSet<String> themes() {
+        return themes;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof Puzzle))
+            return false;
+        Puzzle puzzle = (Puzzle) obj;
+        return fen.equals(puzzle.fen) && solution.equals(puzzle.solution) && themes.equals(puzzle.themes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fen, solution, themes);
+    }
+
+    /**
+     * Returns the puzzle as one line in the format read by {@link #parse(String)}.
+     *
+     * @return the puzzle as a line
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(fen);
+        builder.append(';');
+        for (int i = 0; i < solution.size(); i++) {
+            if (i > 0)
+                builder.append(' ');
+            builder.append(solution.get(i));
+        }
+        builder.append(';');
+        builder.append(String.join(" ", themes));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,463 @@
+package md.jgames.jchess.puzzles;
+
+import md.jgames.jchess.engine.EngineMove;
+import md.jgames.jchess.engine.Position;
+import md.jgames.jchess.engine.SearchResult;
+import md.jgames.jchess.io.GameCodec;
+import md.jgames.jchess.logic.GameRecord;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.NodeAnalysis;
+import md.jgames.jchess.logic.StockfishPool;
+import md.jgames.jchess.logic.SyzygyTablebase;
+import md.jgames.jchess.logic.Utilities;
+import mdlib.utils.Disposable;
+import mdlib.utils.debug.LogLevel;
+import mdlib.utils.debug.Logger;
+import mdlib.utils.io.ExecutableProcess;
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds tactical puzzles in games. Every position of a game is evaluated by a shallow search first. Only where the
+ * evaluation drops by at least the swing threshold after a move, the position before and after the move are searched
+ * again deeper, the position after the move also for the second best reply. The move is taken for a mistake if the
+ * deep searches confirm the drop and the best reply is clearly better than the second one, so the puzzle has a single
+ * solution. The puzzle is the position after the mistake, its solution is the principal variation of the deep search
+ * and its themes are found by {@link ThemeClassifier}. Positions in the tablebase set by {@link
+ * #setTablebase(SyzygyTablebase)} are analysed by the tablebase instead of the engine.
+ *
+ * <p>Games are analysed in parallel, each game on one of a fixed count of engines taken from {@link StockfishPool}.
+ * {@link #run(GameCodec.Decoder, Path, Path)} processes a whole stream of games and saves its progress to a checkpoint
+ * file, so an interrupted run continues where it stopped.</p>
+ *
+ * @author Michal Douša
+ * @see Puzzle
+ */
+public final class PuzzleExtractor implements Disposable {
+
+    /**
+     * Default depth of the search of every position.
+     */
+    public static final int DEFAULT_SCAN_DEPTH = 8;
+
+    /**
+     * Default depth of the searches confirming a mistake.
+     */
+    public static final int DEFAULT_VERIFY_DEPTH = 18;
+
+    /**
+     * Default drop of the evaluation in centipawns making a move a mistake.
+     */
+    public static final int DEFAULT_SWING_THRESHOLD = 200;
+
+    /**
+     * Longest solution in plies.
+     */
+    public static final int MAX_SOLUTION_PLIES = 7;
+
+    private static final Logger LOGGER = Logger.getLogger(PuzzleExtractor.class);
+    private static final Histogram GAME_TIME = Metrics.histogram("jchess.puzzles.game");
+    private static final Counter POSITIONS = Metrics.counter("jchess.puzzles.positions");
+    private static final Counter CANDIDATES = Metrics.counter("jchess.puzzles.candidates");
+    private static final Counter PUZZLES = Metrics.counter("jchess.puzzles.found");
+    private static final AtomicInteger createdExtractorsCount = new AtomicInteger();
+
+    // Games between two checkpoints
+    private static final int CHECKPOINT_INTERVAL = 100;
+    // Scores are clamped to this limit, so a missed mate is not a mistake if the position is still won
+    private static final int SCORE_LIMIT = 1000;
+
+    private final int scanDepth, verifyDepth, swingThreshold;
+    private final BlockingQueue<ExecutableProcess> idleProcesses;
+    private final ArrayList<ExecutableProcess> processes;
+    private final ExecutorService executor;
+    private volatile SyzygyTablebase tablebase;
+    private volatile boolean closed;
+
+    /**
+     * Acquires given count of engines from {@link StockfishPool}.
+     *
+     * @param engineCount    count of engines analysing games in parallel
+     * @param scanDepth      depth of the search of every position
+     * @param verifyDepth    depth of the searches confirming a mistake
+     * @param swingThreshold drop of the evaluation in centipawns making a move a mistake
+     * @throws IllegalArgumentException                          if a count, a depth or the threshold is not positive
+     * @throws md.jgames.jchess.logic.StockfishNotFoundException if chess engine executable was not found
+     */
+    public PuzzleExtractor(final int engineCount, final int scanDepth, final int verifyDepth,
+                           final int swingThreshold) {
+        if (engineCount < 1)
+            throw new IllegalArgumentException("Invalid engine count: " + engineCount);
+        if (scanDepth < 1 || verifyDepth < 1)
+            throw new IllegalArgumentException("Invalid depth");
+        if (swingThreshold < 1)
+            throw new IllegalArgumentException("Invalid swing threshold: " + swingThreshold);
+        this.scanDepth = scanDepth;
+        this.verifyDepth = verifyDepth;
+        this.swingThreshold = swingThreshold;
+
+        int extractorNumber = createdExtractorsCount.getAndIncrement();
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(engineCount, runnable -> {
+            Thread thread = new Thread(runnable, "PuzzleExtractor" + extractorNumber + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Processes which are not in the pool yet are started in parallel
+        ArrayList<CompletableFuture<ExecutableProcess>> futures = new ArrayList<>(engineCount);
+        for (int i = 0; i < engineCount; i++)
+            futures.add(CompletableFuture.supplyAsync(StockfishPool::acquire, executor));
+        idleProcesses = new ArrayBlockingQueue<>(engineCount);
+        processes = new ArrayList<>(engineCount);
+        try {
+            for (CompletableFuture<ExecutableProcess> future : futures) {
+                ExecutableProcess process = future.join();
+                processes.add(process);
+                idleProcesses.add(process);
+            }
+        } catch (CompletionException exc) {
+            close();
+            if (exc.getCause() instanceof RuntimeException)
+                throw (RuntimeException) exc.getCause();
+            throw exc;
+        }
+    }
+
+    /**
+     * Sets the Syzygy tablebase used to analyse positions with few pieces instead of the engine. The tablebase is not
+     * closed when this extractor is closed.
+     *
+     * @param tablebase the tablebase or {@code null} to not use any tablebase
+     */
+    public void setTablebase(final SyzygyTablebase tablebase) {
+        Disposable.requireNotDisposed(this);
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * Finds puzzles in given game on one of the engines.
+     *
+     * @param game the game
+     * @return future completed with the puzzles in order of the moves
+     * @throws NullPointerException if {@code null} is given
+     */
+    public CompletableFuture<List<Puzzle>> extractAsync(final GameRecord game) {
+        Disposable.requireNotDisposed(this);
+        Objects.requireNonNull(game, "Game cannot be null");
+        return CompletableFuture.supplyAsync(() -> {
+            ExecutableProcess process = idleProcesses.remove();
+            try {
+                return extract(process, game);
+            } finally {
+                idleProcesses.add(process);
+            }
+        }, executor);
+    }
+
+    /**
+     * Finds puzzles in given game and waits for the result.
+     *
+     * @param game the game
+     * @return the puzzles in order of the moves
+     * @throws NullPointerException if {@code null} is given
+     */
+    public List<Puzzle> extract(final GameRecord game) {
+        return join(extractAsync(game));
+    }
+
+    /**
+     * Finds puzzles in all games of given stream and appends them to the output file, one per line (see {@link
+     * Puzzle#toString()}). Every {@value #CHECKPOINT_INTERVAL} games the count of processed games and the length of the
+     * output are saved to the checkpoint file. If the checkpoint file exists, the run continues after the saved count
+     * of games and puzzles written after the checkpoint are removed from the output, so no puzzle is written twice.
+     * The stream has to contain the same games as in the interrupted run.
+     *
+     * @param games      the games
+     * @param output     the output file
+     * @param checkpoint the checkpoint file
+     * @return count of puzzles written by this run
+     * @throws IOException          if reading or writing fails, or the checkpoint does not match the files
+     * @throws NullPointerException if {@code null} is given
+     */
+    public long run(final GameCodec.Decoder games, final Path output, final Path checkpoint) throws IOException {
+        Disposable.requireNotDisposed(this);
+        Properties state = new Properties();
+        if (Files.exists(checkpoint)) {
+            try (InputStream input = Files.newInputStream(checkpoint)) {
+                state.load(input);
+            }
+        }
+        long processedGames = Long.parseLong(state.getProperty("games", "0"));
+        long outputLength = Long.parseLong(state.getProperty("outputLength", "0"));
+
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() < outputLength)
+                throw new IOException("Output is shorter than saved in the checkpoint");
+            channel.truncate(outputLength);
+            channel.position(outputLength);
+            Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1);
+            for (long i = 0; i < processedGames; i++)
+                if (games.read() == null)
+                    throw new IOException("Stream has less games than saved in the checkpoint");
+
+            // Games are analysed in parallel, but written in order, so the checkpoint is a count of games
+            ArrayDeque<CompletableFuture<List<Puzzle>>> pending = new ArrayDeque<>();
+            int maxPending = processes.size() * 4;
+            long written = 0;
+            int sinceCheckpoint = 0;
+            GameRecord game;
+            do {
+                game = games.read();
+                if (game != null)
+                    pending.add(extractAsync(game));
+                while (!pending.isEmpty() && (game == null || pending.size() >= maxPending || pending.peek().isDone())) {
+                    for (Puzzle puzzle : join(pending.remove())) {
+                        writer.write(puzzle.toString());
+                        writer.write('\n');
+                        written++;
+                    }
+                    processedGames++;
+                    if (++sinceCheckpoint == CHECKPOINT_INTERVAL) {
+                        writer.flush();
+                        channel.force(false);
+                        saveCheckpoint(checkpoint, processedGames, channel.position());
+                        sinceCheckpoint = 0;
+                    }
+                }
+            } while (game != null);
+            writer.flush();
+            channel.force(false);
+            saveCheckpoint(checkpoint, processedGames, channel.position());
+            return written;
+        }
+    }
+
+    // Written to another file and moved, so the checkpoint is never half written
+    private static void saveCheckpoint(final Path checkpoint, final long games, final long outputLength)
+            throws IOException {
+        Properties state = new Properties();
+        state.setProperty("games", Long.toString(games));
+        state.setProperty("outputLength", Long.toString(outputLength));
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temporary)) {
+            state.store(stream, "PuzzleExtractor checkpoint");
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException exc) {
+            if (exc.getCause() instanceof RuntimeException)
+                throw (RuntimeException) exc.getCause();
+            throw exc;
+        }
+    }
+
+    private List<Puzzle> extract(final ExecutableProcess process, final GameRecord game) {
+        long start = System.nanoTime();
+        String fen = game.startingFEN();
+        Position position = new Position(fen);
+        if (Utilities.isChess960FEN(fen))
+            position.setChess960(true);
+        // Hash of the previous game is cleared, so the puzzles do not depend on the order of the games
+        process.send("ucinewgame");
+        Utilities.setOption(process, "UCI_Chess960", position.isChess960());
+
+        // Shallow search of every position, scores are from the point of view of the side to move
+        List<Move> moves = game.moves();
+        int[] scores = new int[moves.size() + 1];
+        int[] buffer = new int[Position.MAX_MOVES];
+        int plies = 0;
+        while (true) {
+            if (position.generateLegalMoves(buffer, 0) == 0) {
+                scores[plies] = position.inCheck() ? -SearchResult.SCORE_MATE : 0;
+            } else {
+                NodeAnalysis analysis = tablebaseAnalysis(position, 1);
+                if (analysis == null)
+                    analysis = analyse(process, fen, moves.subList(0, plies), scanDepth);
+                scores[plies] = score(analysis.bestLine());
+                POSITIONS.increment();
+            }
+            if (plies == moves.size())
+                break;
+            int move = position.findMove(moves.get(plies));
+            if (move == EngineMove.NONE) {
+                LOGGER.log(LogLevel.WARNING, "Illegal move {} in game from {}, the rest of the game is skipped",
+                        moves.get(plies), fen);
+                break;
+            }
+            position.makeMove(move);
+            plies++;
+        }
+
+        // Deep searches only where the evaluation drops
+        ArrayList<Puzzle> puzzles = new ArrayList<>();
+        for (int ply = 0; ply < plies; ply++) {
+            if (isMistake(scores[ply], scores[ply + 1])) {
+                CANDIDATES.increment();
+                Puzzle puzzle = verify(process, fen, moves.subList(0, ply + 1));
+                if (puzzle != null)
+                    puzzles.add(puzzle);
+            }
+        }
+        PUZZLES.add(puzzles.size());
+        GAME_TIME.recordSince(start);
+        return puzzles;
+    }
+
+    // Scores are of the position before the move and after it, each from the point of view of its side to move
+    private boolean isMistake(final int scoreBefore, final int scoreAfter) {
+        int before = clamp(scoreBefore), solver = clamp(scoreAfter);
+        return before + solver >= swingThreshold && solver >= swingThreshold / 2;
+    }
+
+    private Puzzle verify(final ExecutableProcess process, final String fen, final List<Move> moves) {
+        Position position = new Position(fen);
+        if (Utilities.isChess960FEN(fen))
+            position.setChess960(true);
+        for (Move move : moves.subList(0, moves.size() - 1))
+            position.makeMove(position.findMove(move));
+        NodeAnalysis before = tablebaseAnalysis(position, 1);
+        if (before == null)
+            before = analyse(process, fen, moves.subList(0, moves.size() - 1), verifyDepth);
+        position.makeMove(position.findMove(moves.get(moves.size() - 1)));
+        NodeAnalysis after = tablebaseAnalysis(position, 2);
+        if (after == null) {
+            Utilities.setOption(process, "MultiPV", 2);
+            try {
+                after = analyse(process, fen, moves, verifyDepth);
+            } finally {
+                Utilities.setOption(process, "MultiPV", 1);
+            }
+        }
+        // Forced replies are no puzzles
+        if (before.lines().isEmpty() || after.lines().size() < 2)
+            return null;
+        NodeAnalysis.Line best = after.lines().get(0), second = after.lines().get(1);
+        if (!isMistake(score(before.bestLine()), score(best))
+                || clamp(score(best)) - clamp(score(second)) < swingThreshold / 2)
+            return null;
+
+        // Solution ends by a move of the solver
+        List<Move> pv = best.principalVariation();
+        int length = Math.min(pv.size(), MAX_SOLUTION_PLIES);
+        if (length % 2 == 0)
+            length--;
+        List<Move> solution = pv.subList(0, length);
+        boolean mate = best.isMate() && best.score() > 0 && 2 * best.score() - 1 <= length;
+        int score = mate ? best.score() : clamp(score(best));
+
+        try {
+            return new Puzzle(position.toFEN(), solution, ThemeClassifier.classify(position, solution, score, mate));
+        } catch (IllegalArgumentException exc) {
+            LOGGER.log(LogLevel.WARNING, "Engine returned illegal line {} in position {}", pv, position.toFEN());
+            return null;
+        }
+    }
+
+    // Analysis of the position by the tablebase, null if no tablebase is set or the position is not in it
+    private NodeAnalysis tablebaseAnalysis(final Position position, final int multiPV) {
+        SyzygyTablebase tablebase = this.tablebase;
+        return tablebase == null ? null : tablebase.analyse(position, multiPV);
+    }
+
+    private static NodeAnalysis analyse(final ExecutableProcess process, final String fen, final List<Move> moves,
+                                        final int depth) {
+        synchronized (process) {
+            Utilities.setPosition(process, fen, moves);
+            return Utilities.analyse(process, depth, 0);
+        }
+    }
+
+    // Score in centipawns, mates are scored as by the embedded engine
+    private static int score(final NodeAnalysis.Line line) {
+        if (line == null)
+            return 0;
+        if (!line.isMate())
+            return line.score();
+        return line.score() > 0 ? SearchResult.SCORE_MATE - 2 * line.score() + 1
+                : -SearchResult.SCORE_MATE - 2 * line.score();
+    }
+
+    private static int clamp(final int score) {
+        return Math.max(-SCORE_LIMIT, Math.min(SCORE_LIMIT, score));
+    }
+
+    /**
+     * Stops analysing and gives the engines back to {@link StockfishPool}.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        executor.shutdownNow();
+        for (ExecutableProcess process : processes)
+            StockfishPool.release(process);
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return closed;
+    }
+
+    /**
+     * Finds puzzles in a file written by {@link GameCodec}. Arguments are the games file, the output file, count of
+     * engines, the scan depth, the verify depth and a directory with Syzygy tables, the last four are optional. The
+     * checkpoint is saved next to the output file with {@code .checkpoint} appended to its name.
+     *
+     * @param args the arguments
+     * @throws IOException if reading or writing fails
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PuzzleExtractor <games> <output> [engines] [scan depth] [verify depth] "
+                    + "[tablebase]");
+            return;
+        }
+        Path output = Paths.get(args[1]);
+        int engineCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int scanDepth = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_SCAN_DEPTH;
+        int verifyDepth = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_VERIFY_DEPTH;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(args[0]))));
+             PuzzleExtractor extractor = new PuzzleExtractor(engineCount, scanDepth, verifyDepth,
+                     DEFAULT_SWING_THRESHOLD);
+             SyzygyTablebase tablebase = args.length > 5 ? new SyzygyTablebase(Paths.get(args[5])) : null) {
+            extractor.setTablebase(tablebase);
+            long count = extractor.run(new GameCodec.Decoder(input),
+                    output, output.resolveSibling(output.getFileName() + ".checkpoint"));
+            System.out.println(count + " puzzles found");
+        }
+    }
+}
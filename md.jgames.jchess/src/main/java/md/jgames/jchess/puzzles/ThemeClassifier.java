@@ -0,0 +1,119 @@
+package md.jgames.jchess.puzzles;
+
+import md.jgames.jchess.engine.EngineMove;
+import md.jgames.jchess.engine.Position;
+import md.jgames.jchess.logic.Chessboard;
+import md.jgames.jchess.logic.Move;
+
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Tags puzzles by themes found by replaying the solution on a {@link Position} of the embedded engine, so no engine
+ * process is needed.
+ *
+ * @author Michal Douša
+ */
+final class ThemeClassifier {
+
+    // Do not create any instance
+    private ThemeClassifier() {
+    }
+
+    // Material values in pawns, indexed by piece type
+    private static final int[] MATERIAL = {0, 1, 3, 3, 5, 9, 0};
+
+    // Scores from this limit up are crushing advantages
+    private static final int CRUSHING_SCORE = 500;
+
+    /**
+     * Returns themes of a puzzle.
+     *
+     * @param position the position of the puzzle, which is restored before returning
+     * @param solution the solution
+     * @param score    score of the solution in centipawns, or count of moves to mate if {@code mate} is {@code true}
+     * @param mate     if the solution ends by a mate
+     * @return the themes
+     * @throws IllegalArgumentException if a move of the solution is illegal
+     */
+    static TreeSet<String> classify(final Position position, final List<Move> solution, final int score,
+                                    final boolean mate) {
+        TreeSet<String> themes = new TreeSet<>();
+        int solver = position.sideToMove();
+        int startBalance = materialBalance(position, solver);
+        int lowestBalance = startBalance;
+        if (isEndgame(position))
+            themes.add("endgame");
+        int made = 0;
+        try {
+            for (int i = 0; i < solution.size(); i++) {
+                int move = position.findMove(solution.get(i));
+                if (move == EngineMove.NONE)
+                    throw new IllegalArgumentException("Illegal move " + solution.get(i) + " in solution");
+                boolean capture = isCapture(position, move);
+                position.makeMove(move);
+                made++;
+                boolean check = position.inCheck();
+                if (i % 2 == 0) {
+                    if (i == 0) {
+                        if (check)
+                            themes.add("check");
+                        themes.add(capture ? "capture" : check ? "forcing" : "quiet");
+                    }
+                    if (EngineMove.promotion(move) != 0)
+                        themes.add("promotion");
+                } else {
+                    // Material is compared after the replies, so trades are not taken for sacrifices
+                    lowestBalance = Math.min(lowestBalance, materialBalance(position, solver));
+                }
+            }
+        } finally {
+            for (int i = 0; i < made; i++)
+                position.unmakeMove();
+        }
+
+        if (lowestBalance <= startBalance - 2)
+            themes.add("sacrifice");
+        if (mate) {
+            themes.add("mate");
+            themes.add("mateIn" + score);
+        } else {
+            themes.add(score >= CRUSHING_SCORE ? "crushing" : "advantage");
+        }
+        int solverMoves = (solution.size() + 1) / 2;
+        themes.add(solverMoves == 1 ? "oneMove" : solverMoves == 2 ? "short" : "long");
+        return themes;
+    }
+
+    private static boolean isCapture(final Position position, final int move) {
+        if ((EngineMove.flags(move) & EngineMove.FLAG_EN_PASSANT) != 0)
+            return true;
+        // Castling is encoded as the king capturing own rook
+        int captured = position.pieceAt(EngineMove.to(move));
+        return captured != Chessboard.PIECE_NONE && Position.colorOf(captured) != position.sideToMove();
+    }
+
+    // Material of given side minus material of the other side, in pawns
+    private static int materialBalance(final Position position, final int color) {
+        int balance = 0;
+        for (int type = Position.PAWN; type < Position.KING; type++) {
+            balance += MATERIAL[type] * position.pieceCount(Position.pieceOf(color, type));
+            balance -= MATERIAL[type] * position.pieceCount(Position.pieceOf(1 - color, type));
+        }
+        return balance;
+    }
+
+    // No queens and at most two other pieces per side
+    private static boolean isEndgame(final Position position) {
+        for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+            if (position.pieceCount(Position.pieceOf(color, Position.QUEEN)) > 0)
+                return false;
+            int pieces = 0;
+            for (int type = Position.KNIGHT; type <= Position.ROOK; type++)
+                pieces += position.pieceCount(Position.pieceOf(color, type));
+            if (pieces > 2)
+                return false;
+        }
+        return true;
+    }
+}
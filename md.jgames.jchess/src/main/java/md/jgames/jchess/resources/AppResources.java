@@ -8,6 +8,9 @@ import java.net.URL;
 
 import javax.imageio.ImageIO;
 
+import mdlib.utils.drawing.CachedImage;
+import mdlib.utils.drawing.ImageCache;
+
 /**
  * Class containing some constants and responsible for loading resources from
  * this package. Used by the jChess application.
@@ -64,4 +67,22 @@ public final class AppResources {
             throw new RuntimeException(exc);
         }
     }
+
+    /**
+     * Returns an image resource from the {@link ImageCache#shared() shared image cache}. The image is decoded in
+     * background, so this method returns immediately and does not fail if the image cannot be decoded, see {@link
+     * CachedImage#isFailed()}.
+     *
+     * @param resourceName name of the image file
+     * @return the cached image
+     *
+     * @throws RuntimeException when required resource does not exist, see {@link #loadResource(String)}
+     */
+    public static CachedImage loadCachedImage(final String resourceName) {
+        URL url = AppResources.class.getResource(resourceName);
+        if (url == null)
+            throw new RuntimeException(
+                    new FileNotFoundException("jChess resource '" + resourceName + "' was not found."));
+        return ImageCache.shared().image(url);
+    }
 }
@@ -0,0 +1,434 @@
+package md.jgames.jchess.server;
+
+import md.jgames.jchess.logic.IllegalFENException;
+import md.jgames.jchess.logic.Utilities;
+import mdlib.utils.Disposable;
+import mdlib.utils.debug.LogLevel;
+import mdlib.utils.debug.Logger;
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless server hosting many games at once, e.g. for a bot playing training games. Clients connect to a port on the
+ * loopback interface and send requests as lines of text. Every request gets exactly one response line, either
+ * <code>ok <em>[result]</em></code> or <code>error <em>message</em></code>, in the order of requests. Requests can be
+ * pipelined. Supported requests are:
+ *
+ * <ul>
+ * <li><code>new <em>[fen]</em></code> &ndash; creates a game, responds with its identifier</li>
+ * <li><code>move <em>id</em> <em>move...</em></code> &ndash; performs given moves in UCI notation, either all or
+ * none of them, responds with FEN of the current position</li>
+ * <li><code>undo <em>id</em></code> &ndash; takes back the last move, responds with FEN of the current position</li>
+ * <li><code>fen <em>id</em></code> &ndash; responds with FEN of the current position</li>
+ * <li><code>legal <em>id</em></code> &ndash; responds with legal moves separated by spaces</li>
+ * <li><code>go <em>id</em> <em>depth</em></code> &ndash; responds with the best move found by the engine</li>
+ * <li><code>play <em>id</em> <em>depth</em></code> &ndash; performs the best move found by the engine, responds with
+ * the move and FEN of the position after it</li>
+ * <li><code>analyse <em>id</em> <em>depth</em></code> &ndash; responds with the last UCI {@code info} line of the
+ * search without the {@code info} word, e.g. {@code depth 12 ... score cp 31 ... pv e2e4 e7e5}</li>
+ * <li><code>close <em>id</em></code> &ndash; ends the game</li>
+ * <li>{@code quit} &ndash; closes the connection</li>
+ * </ul>
+ *
+ * <p>Games are not bound to connections. All requests except engine searches are handled by a single thread using
+ * non-blocking I/O, moves are validated by {@link md.jgames.jchess.engine.Position} without any engine process.
+ * Searches are done by a fixed count of Stockfish processes taken from {@link md.jgames.jchess.logic.StockfishPool}.
+ * Games which receive no request for given time are closed.</p>
+ *
+ * @author Michal Douša
+ * @see #main(String[])
+ */
+public final class ChessServer implements Disposable {
+
+    /**
+     * The port used if no port is given to {@link #main(String[])}.
+     */
+    public static final int DEFAULT_PORT = 7460;
+
+    /**
+     * Maximum depth of engine searches.
+     */
+    public static final int MAX_DEPTH = 40;
+
+    private static final Logger LOGGER = Logger.getLogger(ChessServer.class);
+
+    // Count of handled requests and time of engine requests, see Metrics
+    private static final Counter REQUESTS = Metrics.counter("jchess.server.requests");
+    private static final Histogram ENGINE_REQUEST = Metrics.histogram("jchess.server.engine");
+
+    // How often idle sessions are looked for
+    private static final long EVICTION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final EngineWorkers engines;
+    private final long idleTimeoutNanos;
+    private final int maxSessions;
+    private final HashMap<Long, GameSession> sessions = new HashMap<>();
+    // Engine results are handed over to the thread of the server
+    private final ConcurrentLinkedQueue<Runnable> completedRequests = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile int sessionCount;
+    private volatile boolean closed;
+    private long nextSessionId = 1;
+    private long lastEviction = System.nanoTime();
+
+    /**
+     * Creates a server listening on given port of the loopback interface. The server does not accept any connection
+     * until {@link #start()} is called.
+     *
+     * @param port              the port, or 0 for any free port, see {@link #port()}
+     * @param engineCount       count of Stockfish processes used for engine requests, 0 if engine requests should not
+     *                          be supported
+     * @param maxSessions       maximum count of games hosted at once
+     * @param idleTimeoutMillis time in milliseconds after which a game with no request is closed
+     * @throws IOException                                       if the port cannot be opened
+     * @throws IllegalArgumentException                          if any of the numbers is out of range
+     * @throws md.jgames.jchess.logic.StockfishNotFoundException if chess engine executable was not found
+     */
+    public ChessServer(final int port, final int engineCount, final int maxSessions, final long idleTimeoutMillis)
+            throws IOException {
+        if (port < 0 || port > 0xFFFF)
+            throw new IllegalArgumentException("Invalid port: " + port);
+        if (engineCount < 0)
+            throw new IllegalArgumentException("Count of engines cannot be negative");
+        if (maxSessions < 1)
+            throw new IllegalArgumentException("Maximum count of sessions must be positive");
+        if (idleTimeoutMillis < 1)
+            throw new IllegalArgumentException("Idle timeout must be positive");
+
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.maxSessions = maxSessions;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            this.engines = engineCount > 0 ? new EngineWorkers(engineCount) : null;
+        } catch (IOException | RuntimeException exc) {
+            serverChannel.close();
+            selector.close();
+            throw exc;
+        }
+        this.thread = new Thread(this::run, "ChessServer" + port());
+        Metrics.gauge("jchess.server.sessions", () -> sessionCount);
+    }
+
+    /**
+     * Starts accepting connections in background.
+     *
+     * @throws IllegalStateException if the server was already started
+     */
+    public void start() {
+        Disposable.requireNotDisposed(this);
+        if (thread.getState() != Thread.State.NEW)
+            throw new IllegalStateException("Server was already started");
+        thread.start();
+        LOGGER.info("Chess server listening on port {}", port());
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port
+     */
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Returns count of games hosted at the moment.
+     *
+     * @return count of games
+     */
+    public int sessionCount() {
+        return sessionCount;
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select(TimeUnit.NANOSECONDS.toMillis(EVICTION_INTERVAL_NANOS));
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else
+                        handle(key);
+                }
+                Runnable completed;
+                while ((completed = completedRequests.poll()) != null)
+                    completed.run();
+                long now = System.nanoTime();
+                if (now - lastEviction >= EVICTION_INTERVAL_NANOS) {
+                    evictIdleSessions(now);
+                    lastEviction = now;
+                }
+            }
+        } catch (IOException exc) {
+            if (!closed)
+                LOGGER.log(LogLevel.ERROR, "Chess server failed", exc);
+        } finally {
+            closeChannels();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new ClientConnection(channel));
+        }
+    }
+
+    private void handle(final SelectionKey key) {
+        ClientConnection connection = (ClientConnection) key.attachment();
+        try {
+            if (key.isReadable() && !connection.readLines()) {
+                disconnect(key, connection);
+                return;
+            }
+            processLines(key, connection);
+        } catch (IOException exc) {
+            LOGGER.debug("Connection {} failed: {}", connection.channel(), exc.getMessage());
+            disconnect(key, connection);
+        }
+    }
+
+    // Handles received lines and writes the responses
+    private void processLines(final SelectionKey key, final ClientConnection connection) throws IOException {
+        String line;
+        while ((line = connection.nextLine()) != null)
+            execute(key, connection, line);
+        boolean written = connection.flush();
+        if (written && connection.isClosing()) {
+            disconnect(key, connection);
+            return;
+        }
+        key.interestOps(written ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void disconnect(final SelectionKey key, final ClientConnection connection) {
+        key.cancel();
+        connection.close();
+    }
+
+    private void execute(final SelectionKey key, final ClientConnection connection, final String line) {
+        REQUESTS.increment();
+        String[] words = line.trim().split(" +");
+        try {
+            switch (words[0]) {
+                case "new":
+                    createSession(connection, line.trim().substring(3).trim());
+                    break;
+                case "move":
+                    performMoves(connection, session(words), words);
+                    break;
+                case "undo":
+                    GameSession session = session(words);
+                    if (!session.undo())
+                        throw new IllegalArgumentException("No move to be taken back");
+                    connection.respond("ok " + session.currentFEN());
+                    break;
+                case "fen":
+                    connection.respond("ok " + session(words).currentFEN());
+                    break;
+                case "legal":
+                    StringBuilder builder = new StringBuilder("ok ");
+                    session(words).appendLegalMoves(builder);
+                    connection.respond(builder);
+                    break;
+                case "go":
+                case "play":
+                case "analyse":
+                    search(key, connection, session(words), words);
+                    break;
+                case "close":
+                    sessions.remove(session(words).id());
+                    sessionCount = sessions.size();
+                    connection.respond("ok");
+                    break;
+                case "quit":
+                    connection.respond("ok");
+                    connection.closeAfterWrite();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown request '" + words[0] + "'");
+            }
+        } catch (IllegalArgumentException | IllegalStateException exc) {
+            connection.respond("error " + exc.getMessage());
+        }
+    }
+
+    private void createSession(final ClientConnection connection, final String fen) {
+        if (sessions.size() >= maxSessions)
+            throw new IllegalStateException("Too many games");
+        GameSession session;
+        try {
+            session = new GameSession(nextSessionId, fen.isEmpty() ? Utilities.FEN_STARTING_POSITION : fen);
+        } catch (IllegalFENException exc) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        nextSessionId++;
+        sessions.put(session.id(), session);
+        sessionCount = sessions.size();
+        connection.respond("ok " + session.id());
+    }
+
+    private static void performMoves(final ClientConnection connection, final GameSession session,
+                                     final String[] words) {
+        for (int i = 2; i < words.length; i++) {
+            if (!session.performMove(words[i])) {
+                for (int j = 2; j < i; j++)
+                    session.undo();
+                throw new IllegalArgumentException("Illegal move " + words[i]);
+            }
+        }
+        connection.respond("ok " + session.currentFEN());
+    }
+
+    private void search(final SelectionKey key, final ClientConnection connection, final GameSession session,
+                        final String[] words) {
+        if (engines == null)
+            throw new IllegalStateException("Engine requests are not supported");
+        if (words.length != 3)
+            throw new IllegalArgumentException("Depth expected");
+        int depth;
+        try {
+            depth = Integer.parseInt(words[2]);
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException("Invalid depth: " + words[2]);
+        }
+        if (depth < 1 || depth > MAX_DEPTH)
+            throw new IllegalArgumentException("Depth out of range: " + depth);
+
+        // Following requests of the connection wait until the search is done
+        connection.setWaiting(true);
+        long start = System.nanoTime();
+        String fen = session.currentFEN();
+        engines.search(session.startingFEN(), session.doneMoves(), session.isChess960(), depth)
+                .whenComplete((result, failure) -> {
+                    ENGINE_REQUEST.recordSince(start);
+                    completedRequests.add(() -> {
+                        connection.setWaiting(false);
+                        if (failure != null)
+                            connection.respond("error Engine failed");
+                        else
+                            respondSearch(connection, session, words[0], fen, result);
+                        if (key.isValid())
+                            handle(key);
+                    });
+                    selector.wakeup();
+                });
+    }
+
+    private static void respondSearch(final ClientConnection connection, final GameSession session,
+                                      final String request, final String fen, final String[] result) {
+        String bestMove = result[1].split(" ")[1];
+        switch (request) {
+            case "go":
+                connection.respond("ok " + bestMove);
+                break;
+            case "play":
+                if (!session.currentFEN().equals(fen))
+                    connection.respond("error Position changed during the search");
+                else if (!session.performMove(bestMove))
+                    connection.respond("error No legal move");
+                else
+                    connection.respond("ok " + bestMove + " " + session.currentFEN());
+                break;
+            default:
+                connection.respond(result[0] == null ? "ok bestmove " + bestMove : "ok " + result[0].substring(5));
+        }
+    }
+
+    private GameSession session(final String[] words) {
+        if (words.length < 2)
+            throw new IllegalArgumentException("Game identifier expected");
+        GameSession session;
+        try {
+            session = sessions.get(Long.parseLong(words[1]));
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException("Invalid game identifier: " + words[1]);
+        }
+        if (session == null)
+            throw new IllegalArgumentException("Unknown game " + words[1]);
+        session.touch();
+        return session;
+    }
+
+    private void evictIdleSessions(final long now) {
+        int before = sessions.size();
+        sessions.values().removeIf(session -> now - session.lastAccess() > idleTimeoutNanos);
+        sessionCount = sessions.size();
+        if (sessionCount < before)
+            LOGGER.debug("Closed {} idle games, {} left", before - sessionCount, sessionCount);
+    }
+
+    private void closeChannels() {
+        for (SelectionKey key : selector.keys())
+            if (key.attachment() instanceof ClientConnection)
+                ((ClientConnection) key.attachment()).close();
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException exc) {
+            LOGGER.log(LogLevel.ERROR, "Cannot close chess server", exc);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (engines != null)
+            engines.close();
+        if (thread.getState() == Thread.State.NEW)
+            closeChannels();
+        else
+            selector.wakeup();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return closed;
+    }
+
+    /**
+     * Runs the server until the JVM is terminated. Arguments are optional: the port (default {@link #DEFAULT_PORT}),
+     * count of engine processes (default count of available processors), maximum count of games (default 10000) and
+     * idle timeout in seconds (default 600).
+     *
+     * @param args arguments as described above
+     * @throws IOException if the port cannot be opened
+     */
+    public static void main(final String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int engineCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int maxSessions = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        long idleTimeout = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 600_000;
+        ChessServer server = new ChessServer(port, engineCount, maxSessions, idleTimeout);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+    }
+}
@@ -0,0 +1,124 @@
+package md.jgames.jchess.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * One client connected to {@link ChessServer}. Received bytes are split into lines, responses are buffered and written
+ * once all available lines were processed. While an engine request of the client is running, following lines are kept
+ * in a queue, so responses are always sent in the order of requests.
+ *
+ * @author Michal Douša
+ */
+final class ClientConnection {
+
+    // Longer lines are not valid requests, the connection is closed
+    static final int MAX_LINE_LENGTH = 4096;
+
+    private final SocketChannel channel;
+    private final ByteBuffer input = ByteBuffer.allocate(8192);
+    private final StringBuilder currentLine = new StringBuilder();
+    private final ArrayDeque<String> receivedLines = new ArrayDeque<>();
+    private final StringBuilder responses = new StringBuilder();
+    private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+    private boolean waiting;
+    private boolean closing;
+
+    ClientConnection(final SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Reads available bytes and splits them into lines.
+     *
+     * @return if the connection is still open and valid
+     * @throws IOException if reading fails
+     */
+    boolean readLines() throws IOException {
+        int count;
+        while ((count = channel.read(input)) > 0) {
+            input.flip();
+            while (input.hasRemaining()) {
+                char character = (char) (input.get() & 0xFF);
+                if (character == '\n') {
+                    int length = currentLine.length();
+                    if (length > 0 && currentLine.charAt(length - 1) == '\r')
+                        currentLine.setLength(length - 1);
+                    receivedLines.addLast(currentLine.toString());
+                    currentLine.setLength(0);
+                } else if (currentLine.length() < MAX_LINE_LENGTH) {
+                    currentLine.append(character);
+                } else {
+                    return false;
+                }
+            }
+            input.clear();
+        }
+        return count >= 0;
+    }
+
+    /**
+     * Returns the next received line to be processed, or {@code null} if there is none or the connection waits for an
+     * engine.
+     *
+     * @return next line
+     */
+    String nextLine() {
+        return waiting || closing ? null : receivedLines.pollFirst();
+    }
+
+    void setWaiting(final boolean waiting) {
+        this.waiting = waiting;
+    }
+
+    boolean isClosing() {
+        return closing;
+    }
+
+    /**
+     * Marks the connection to be closed once all buffered responses are written.
+     */
+    void closeAfterWrite() {
+        closing = true;
+    }
+
+    void respond(final CharSequence response) {
+        responses.append(response).append('\n');
+    }
+
+    /**
+     * Writes buffered responses, as much as the socket accepts without blocking.
+     *
+     * @return if all responses were written
+     * @throws IOException if writing fails
+     */
+    boolean flush() throws IOException {
+        if (responses.length() > 0) {
+            output.addLast(ByteBuffer.wrap(responses.toString().getBytes(StandardCharsets.UTF_8)));
+            responses.setLength(0);
+        }
+        while (!output.isEmpty()) {
+            ByteBuffer buffer = output.peekFirst();
+            channel.write(buffer);
+            if (buffer.hasRemaining())
+                return false;
+            output.pollFirst();
+        }
+        return true;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing to do, the connection is closed anyway
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package md.jgames.jchess.server;
+
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.StockfishPool;
+import md.jgames.jchess.logic.Utilities;
+import mdlib.utils.io.ExecutableProcess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fixed count of Stockfish processes taken from {@link StockfishPool} and shared by all sessions of {@link
+ * ChessServer}. Each engine request is run on a worker thread which borrows an idle process for the time of the
+ * search, so requests of many sessions are queued instead of starting a process per session.
+ *
+ * @author Michal Douša
+ */
+final class EngineWorkers {
+
+    private static final AtomicInteger createdWorkersCount = new AtomicInteger();
+    // Searches running longer are stopped, engines which do not report the move even then are considered dead
+    private static final long SEARCH_TIMEOUT_SECONDS = 120;
+    private static final long STOP_TIMEOUT_SECONDS = 5;
+
+    private final BlockingQueue<ExecutableProcess> idleProcesses;
+    private final ArrayList<ExecutableProcess> processes;
+    private final ExecutorService executor;
+
+    /**
+     * Acquires given count of processes from {@link StockfishPool} and starts the same count of worker threads.
+     *
+     * @param count count of processes
+     * @throws md.jgames.jchess.logic.StockfishNotFoundException if chess engine executable was not found
+     */
+    EngineWorkers(final int count) {
+        int workersNumber = createdWorkersCount.getAndIncrement();
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(count, runnable -> {
+            Thread thread = new Thread(runnable, "ChessServerEngine" + workersNumber + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Processes which are not in the pool yet are started in parallel
+        ArrayList<CompletableFuture<ExecutableProcess>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            futures.add(CompletableFuture.supplyAsync(StockfishPool::acquire, executor));
+        idleProcesses = new ArrayBlockingQueue<>(count);
+        processes = new ArrayList<>(count);
+        try {
+            for (CompletableFuture<ExecutableProcess> future : futures) {
+                ExecutableProcess process = future.join();
+                processes.add(process);
+                idleProcesses.add(process);
+            }
+        } catch (CompletionException exc) {
+            close();
+            if (exc.getCause() instanceof RuntimeException)
+                throw (RuntimeException) exc.getCause();
+            throw exc;
+        }
+    }
+
+    /**
+     * Searches given position to given depth.
+     *
+     * @param fen      the starting position
+     * @param moves    moves done from the starting position
+     * @param chess960 if castling moves are written in Chess960 notation
+     * @param depth    depth of the search
+     * @return future completed with the last {@code info} line containing a score and the {@code bestmove} line, or
+     * completed exceptionally if the engine has died or does not respond
+     */
+    CompletableFuture<String[]> search(final String fen, final List<Move> moves, final boolean chess960,
+                                       final int depth) {
+        return CompletableFuture.supplyAsync(() -> {
+            ExecutableProcess process = idleProcesses.remove();
+            try {
+                return search(process, fen, moves, chess960, depth);
+            } finally {
+                idleProcesses.add(process.isAlive() ? process : replace(process));
+            }
+        }, executor);
+    }
+
+    // Dead process is replaced, so following searches do not wait for it in vain
+    private ExecutableProcess replace(final ExecutableProcess process) {
+        process.close();
+        try {
+            ExecutableProcess replacement = StockfishPool.acquire();
+            synchronized (processes) {
+                processes.set(processes.indexOf(process), replacement);
+            }
+            return replacement;
+        } catch (RuntimeException exc) {
+            // Requests borrowing the dead process fail fast
+            return process;
+        }
+    }
+
+    private static String[] search(final ExecutableProcess process, final String fen, final List<Move> moves,
+                                   final boolean chess960, final int depth) {
+        Semaphore semaphore = new Semaphore(0);
+        AtomicReference<String> lastInfo = new AtomicReference<>();
+        AtomicReference<String> bestMove = new AtomicReference<>();
+
+        synchronized (process) {
+            Utilities.setOption(process, "UCI_Chess960", chess960);
+            Utilities.setPosition(process, fen, moves);
+            process.read(line -> {
+                // End of output, the engine has died
+                if (line == null) {
+                    semaphore.release();
+                    return false;
+                }
+                if (line.startsWith("bestmove")) {
+                    bestMove.set(line);
+                    semaphore.release();
+                    return false;
+                }
+                if (line.startsWith("info") && line.contains(" score ") && line.contains(" pv "))
+                    lastInfo.set(line);
+                return true;
+            });
+            if (!process.isAlive() || !process.send("go depth " + depth))
+                throw new IllegalStateException("Engine is not running");
+            if (!acquire(semaphore, SEARCH_TIMEOUT_SECONDS)) {
+                // Stopped search still reports the best move found so far
+                process.send("stop");
+                if (!acquire(semaphore, STOP_TIMEOUT_SECONDS)) {
+                    process.close();
+                    throw new IllegalStateException("Engine does not respond");
+                }
+            }
+        }
+        if (bestMove.get() == null)
+            throw new IllegalStateException("Engine has died during the search");
+        return new String[]{lastInfo.get(), bestMove.get()};
+    }
+
+    private static boolean acquire(final Semaphore semaphore, final long timeoutSeconds) {
+        try {
+            return semaphore.tryAcquire(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException exc) {
+            // Workers are interrupted when the server is closed
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search interrupted", exc);
+        }
+    }
+
+    /**
+     * Stops worker threads and gives the processes back to {@link StockfishPool}.
+     */
+    void close() {
+        executor.shutdownNow();
+        synchronized (processes) {
+            for (ExecutableProcess process : processes)
+                StockfishPool.release(process);
+        }
+    }
+}
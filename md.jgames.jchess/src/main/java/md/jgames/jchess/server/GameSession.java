@@ -0,0 +1,116 @@
+package md.jgames.jchess.server;
+
+import md.jgames.jchess.engine.EngineMove;
+import md.jgames.jchess.engine.Position;
+import md.jgames.jchess.logic.Move;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State of one game hosted by {@link ChessServer}. Moves are validated by {@link Position} of the embedded engine, so a
+ * session does not need any engine process. Sessions are accessed only by the thread of the server.
+ *
+ * @author Michal Douša
+ */
+final class GameSession {
+
+    private final long id;
+    private final String startingFEN;
+    private final Position position;
+    private final ArrayList<Move> doneMoves = new ArrayList<>();
+    private final int[] moveBuffer = new int[Position.MAX_MOVES];
+    private long lastAccess;
+
+    /**
+     * Creates a session starting from given position.
+     *
+     * @param id          identifier of the session
+     * @param startingFEN FEN of the starting position
+     * @throws md.jgames.jchess.logic.IllegalFENException if invalid FEN is given
+     */
+    GameSession(final long id, final String startingFEN) {
+        this.id = id;
+        this.position = new Position(startingFEN);
+        this.startingFEN = position.toFEN();
+        touch();
+    }
+
+    long id() {
+        return id;
+    }
+
+    String startingFEN() {
+        return startingFEN;
+    }
+
+    String currentFEN() {
+        return position.toFEN();
+    }
+
+    boolean isChess960() {
+        return position.isChess960();
+    }
+
+    /**
+     * Returns unmodifiable copy of done moves, so it can be handed over to another thread.
+     *
+     * @return done moves
+     */
+    List<Move> doneMoves() {
+        return Collections.unmodifiableList(new ArrayList<>(doneMoves));
+    }
+
+    /**
+     * Performs given move if it is legal.
+     *
+     * @param move the move in UCI notation
+     * @return if the move was legal and was performed
+     */
+    boolean performMove(final String move) {
+        if (!Move.PATTERN_UCI_MOVE.matcher(move).matches())
+            return false;
+        int encoded = position.findMove(new Move(move));
+        if (encoded == EngineMove.NONE)
+            return false;
+        doneMoves.add(position.toMove(encoded));
+        position.makeMove(encoded);
+        return true;
+    }
+
+    /**
+     * Takes back the last move.
+     *
+     * @return if there was a move to be taken back
+     */
+    boolean undo() {
+        if (doneMoves.isEmpty())
+            return false;
+        doneMoves.remove(doneMoves.size() - 1);
+        position.unmakeMove();
+        return true;
+    }
+
+    /**
+     * Appends legal moves in the current position to given builder, separated by spaces.
+     *
+     * @param builder the builder
+     */
+    void appendLegalMoves(final StringBuilder builder) {
+        int count = position.generateLegalMoves(moveBuffer, 0);
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                builder.append(' ');
+            builder.append(position.toMove(moveBuffer[i]));
+        }
+    }
+
+    long lastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.nanoTime();
+    }
+}
@@ -1,18 +1,22 @@
 package md.jgames.jchess.swingcomponents;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
 import java.awt.Insets;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.Objects;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -22,12 +26,29 @@ import javax.swing.border.Border;
 
 import md.jgames.jchess.logic.*;
 import mdlib.utils.drawing.AdvancedAWTGraphics;
+import mdlib.utils.drawing.CachedImage;
 import md.jgames.jchess.resources.AppResources;
 
 /**
  * Component for showing a chessboard. If {@link #isEnabled()} returns
  * {@code true}, then the user is able to move with chessmen. Otherwise, user is
  * not able to manipulate with che chesboard.
+ *
+ * <p>
+ * The component is painted from cached layers: the board image scaled to the
+ * chessboard size, and the position, which is the board with marks and pieces.
+ * Pieces are copied from a sprite atlas scaled to the square size only once.
+ * Layers are painted again only when they change, so resizing and dragging
+ * just copy the cached images and paint possible moves and the dragged piece
+ * over them.
+ * </p>
+ *
+ * <p>
+ * Default images are decoded and scaled in background by the shared
+ * {@link mdlib.utils.drawing.ImageCache}. Until they are ready, the closest
+ * sizes which are ready are painted and the layers are painted again when the
+ * images get ready.
+ * </p>
  * 
  * @author Michal Douša
  * 
@@ -41,13 +62,37 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 
 	private static final long serialVersionUID = 1L;
 
+	private static final Color COLOR_TARGET = new Color(0, 0, 0, 64);
+
 	private Chessboard chessboard;
 	private String alternativeText;
 
 	private final TreeMap<Byte, Image> chessmenImagesMap;
+	// Images from the image cache, used for pieces without an image in the map above
+	private final TreeMap<Byte, CachedImage> cachedImagesMap;
 	private final TreeMap<Square, Color> markedSquares;
 	private boolean chessboardReversed;
 
+	// Board image scaled to the chessboard size
+	private transient BufferedImage boardLayer;
+	// Board layer with marks and pieces
+	private transient BufferedImage positionLayer;
+	// Square with the dragged piece, which is not painted in the position layer
+	private transient Square positionLayerHidden;
+	// Cleared by any thread when the position layer must be painted again
+	private transient volatile boolean positionLayerValid;
+	// Pieces scaled to the square size, side by side in order of piece constants
+	private transient BufferedImage spriteAtlas;
+	// If the layers are painted from images of the right size, not from placeholders
+	private transient boolean boardLayerComplete, spriteAtlasComplete;
+	// Set by any thread when a cached image gets ready
+	private transient volatile boolean imagesChanged;
+	private final transient Runnable imagesReady = () -> {
+		imagesChanged = true;
+		positionLayerValid = false;
+		repaint();
+	};
+
 	/**
 	 * Construct a new {@code ChessboardView}. The component will show up given
 	 * chessboard.
@@ -63,6 +108,7 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 		this.addMouseMotionListener(this);
 		this.setMinimumSize(new Dimension(200, 200));
 		chessmenImagesMap = new TreeMap<>();
+		cachedImagesMap = new TreeMap<>();
 		markedSquares = new TreeMap<>();
 		selSquarePossibleMoves = new TreeSet<>();
 		reset();
@@ -96,6 +142,7 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 		// Add this object as listener of the new chessboard
 		if (this.chessboard != null && !this.chessboard.isDisposed())
 			this.chessboard.addChessboardListener(this);
+		this.positionLayerValid = false;
 	}
 
 	/**
@@ -147,6 +194,7 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 	 */
 	public void setChessboardReversed(final boolean chessboardReversed) {
 		this.chessboardReversed = chessboardReversed;
+		this.positionLayerValid = false;
 		this.repaint();
 	}
 
@@ -159,6 +207,7 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 	 */
 	public void flipChessboard() {
 		this.chessboardReversed = !this.chessboardReversed;
+		this.positionLayerValid = false;
 		this.repaint();
 	}
 
@@ -167,10 +216,46 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 			chessmenImagesMap.remove(p);
 		else
 			chessmenImagesMap.put(p, i);
+		cachedImagesMap.remove(p);
+		imageChanged(p);
+	}
+
+	private void putCachedImageForPiece(final byte p, final CachedImage i) {
+		chessmenImagesMap.remove(p);
+		cachedImagesMap.put(p, i);
+		imageChanged(p);
+	}
+
+	private void imageChanged(final byte p) {
+		if (p == Chessboard.PIECE_NONE)
+			boardLayer = null;
+		else
+			spriteAtlas = null;
+		positionLayerValid = false;
 	}
 
 	public Image getImageForPiece(final byte piece) {
-		return chessmenImagesMap.get(piece);
+		Image image = chessmenImagesMap.get(piece);
+		CachedImage cached = cachedImagesMap.get(piece);
+		return image == null && cached != null ? cached.get(null) : image;
+	}
+
+	private boolean hasImageForPiece(final byte piece) {
+		return chessmenImagesMap.containsKey(piece) || cachedImagesMap.containsKey(piece);
+	}
+
+	// Returns image of given piece scaled to given size, a placeholder or the
+	// image put in the map
+	private Image imageForPiece(final byte piece, final int size) {
+		Image image = chessmenImagesMap.get(piece);
+		CachedImage cached = cachedImagesMap.get(piece);
+		return image == null && cached != null ? cached.get(size, size, 1, imagesReady) : image;
+	}
+
+	// If the image returned by imageForPiece(byte, int) does not have to be
+	// painted again when cached images get ready
+	private boolean isReady(final byte piece, final Image image, final int size) {
+		return !cachedImagesMap.containsKey(piece) || image != null && image.getWidth(null) == size;
 	}
 
 	public void putChessboardImage(final Image i) {
@@ -186,10 +271,12 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 			markedSquares.remove(sq);
 		else
 			markedSquares.put(sq, c);
+		positionLayerValid = false;
 	}
 
 	public void unmarkSquare(final Square sq) {
 		markedSquares.remove(sq);
+		positionLayerValid = false;
 	}
 
 	public Color getMarkForSquare(final Square sq) {
@@ -198,12 +285,12 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 
 	public void reset() {
 		for (char ch : new char[] { 'k', 'q', 'r', 'n', 'b', 'p' }) {
-			this.putImageForPiece(Utilities.pieceCharToConstant(ch),
-					AppResources.loadImageResource("default-piece-b" + ch + ".png"));
-			this.putImageForPiece(Utilities.pieceCharToConstant(Character.toUpperCase(ch)),
-					AppResources.loadImageResource("default-piece-w" + ch + ".png"));
+			this.putCachedImageForPiece(Utilities.pieceCharToConstant(ch),
+					AppResources.loadCachedImage("default-piece-b" + ch + ".png"));
+			this.putCachedImageForPiece(Utilities.pieceCharToConstant(Character.toUpperCase(ch)),
+					AppResources.loadCachedImage("default-piece-w" + ch + ".png"));
 		}
-		this.putChessboardImage(AppResources.loadImageResource("default-chessboard.png"));
+		this.putCachedImageForPiece(Chessboard.PIECE_NONE, AppResources.loadCachedImage("default-chessboard.png"));
 	}
 
 	// Painting & Mouse event handling ----------------------------------------
@@ -212,30 +299,67 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 	private final TreeSet<Move> selSquarePossibleMoves;
 	private boolean mouseDown;
 
-	public Rectangle getChessboardBounds() {
+	// All squares indexed by hash code, so mouse events do not create them
+	private static final Square[] SQUARES = new Square[64];
+
+	static {
+		for (int i = 0; i < SQUARES.length; i++)
+			SQUARES[i] = new Square(i);
+	}
+
+	// Geometry of the chessboard, computed again when the size or the border
+	// changes
+	private int geometryWidth = -1, geometryHeight = -1;
+	private transient Border geometryBorder;
+	private int boardX, boardY, squareSize;
+
+	// Where the selected piece is dragged to, valid while the mouse is down
+	private int dragX, dragY;
+
+	private void updateGeometry() {
 		Border border = getBorder();
+		if (geometryWidth == getWidth() && geometryHeight == getHeight() && geometryBorder == border)
+			return;
+		geometryWidth = getWidth();
+		geometryHeight = getHeight();
+		geometryBorder = border;
 		Insets insets = border == null ? new Insets(0, 0, 0, 0) : border.getBorderInsets(this);
-		int w = this.getWidth() - insets.left - insets.right;
-		int h = this.getHeight() - insets.top - insets.bottom;
-		int s = Math.min(w, h) / 8 * 8; // Size must be divisible by 8
-		int x = insets.left + (w - s) / 2;
-		int y = insets.top + (h - s) / 2;
-		return new Rectangle(x, y, s, s);
+		int w = geometryWidth - insets.left - insets.right;
+		int h = geometryHeight - insets.top - insets.bottom;
+		int s = Math.max(Math.min(w, h) / 8 * 8, 0); // Size must be divisible by 8
+		boardX = insets.left + (w - s) / 2;
+		boardY = insets.top + (h - s) / 2;
+		squareSize = s / 8;
+	}
+
+	public Rectangle getChessboardBounds() {
+		updateGeometry();
+		return new Rectangle(boardX, boardY, 8 * squareSize, 8 * squareSize);
 	}
 
 	public Rectangle getSquareBounds(final Square square) {
+		updateGeometry();
+		return new Rectangle(squareX(square.file()), squareY(square.rank()), squareSize, squareSize);
+	}
 
-		Rectangle bounds = this.getChessboardBounds();
-		int sqsz = this.getChessboardBounds().width / 8;
-		int realx, realy;
-		if (!isChessboardReversed()) {
-			realx = bounds.x + square.file() * sqsz;
-			realy = bounds.y + (7 - square.rank()) * sqsz;
-		} else {
-			realx = bounds.x + (7 - square.file()) * sqsz;
-			realy = bounds.y + square.rank() * sqsz;
-		}
-		return new Rectangle(realx, realy, sqsz, sqsz);
+	private int squareX(final int file) {
+		return boardX + (chessboardReversed ? 7 - file : file) * squareSize;
+	}
+
+	private int squareY(final int rank) {
+		return boardY + (chessboardReversed ? rank : 7 - rank) * squareSize;
+	}
+
+	// Square at given point, null if there is none
+	private Square squareAt(final int x, final int y) {
+		updateGeometry();
+		if (squareSize == 0 || x < boardX || y < boardY)
+			return null;
+		int column = (x - boardX) / squareSize;
+		int row = (y - boardY) / squareSize;
+		if (column > 7 || row > 7)
+			return null;
+		return SQUARES[chessboardReversed ? 8 * row + 7 - column : 8 * (7 - row) + column];
 	}
 
 	public void selectSquare(final Square square) {
@@ -255,55 +379,130 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 		Graphics2D g2d = (Graphics2D) g0;
 		AdvancedAWTGraphics gadv = new AdvancedAWTGraphics(g2d);
 
-		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-
-		if (chessboard != null) {
-			gadv.paintImage(this.getChessboardImage(), this.getChessboardBounds());
+		this.updateGeometry();
+		if (imagesChanged) {
+			// Layers painted from placeholders are painted again
+			imagesChanged = false;
+			if (!boardLayerComplete)
+				boardLayer = null;
+			if (!spriteAtlasComplete)
+				spriteAtlas = null;
+		}
+		if (chessboard != null && squareSize > 0) {
+			// Cached layers are copied without scaling
+			g2d.drawImage(this.positionLayer(8 * squareSize), boardX, boardY, null);
 
-			for (byte rank = 0; rank < 8; rank++)
-                for (byte file = 0; file < 8; file++) {
-                    Square sq = new Square(file, rank);
-                    Rectangle sqb = this.getSquareBounds(sq);
-                    Color mark = this.getMarkForSquare(sq);
-                    if (mark != null)
-                        gadv.fillRectangle(mark, sqb);
-                    byte piece = chessboard.pieceAt(sq);
-                    if (piece != Chessboard.PIECE_NONE) {
-                        Image pieceimage = this.getImageForPiece(piece);
-                        if (pieceimage != null) {
-                            if (!mouseDown || selectedSquare == null || !selectedSquare.equals(sq))
-                                gadv.paintImage(pieceimage, sqb);
-                        } else {
-                            g2d.setColor(Color.BLUE);
-                            g2d.drawString(Character.toString(piece), sqb.x + sqb.width / 2, sqb.y + sqb.height / 2);
-                        }
-                    }
-                }
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 			selSquarePossibleMoves.forEach(move -> {
-				Rectangle sqrect = getSquareBounds(move.squareTo());
-				int s = sqrect.width / 3, x = sqrect.x, y = sqrect.y;
-				gadv.fillEllipse(new Color(0, 0, 0, 64), new Ellipse2D.Float(x + s, y + s, s, s));
+				int s = squareSize / 3;
+				int x = squareX(move.squareTo().file()), y = squareY(move.squareTo().rank());
+				gadv.fillEllipse(COLOR_TARGET, new Ellipse2D.Float(x + s, y + s, s, s));
 			});
 
 			if (mouseDown && selectedSquare != null) {
 				byte p = this.chessboard.pieceAt(selectedSquare);
-				if (p != Chessboard.PIECE_NONE) {
-					Image img = this.getImageForPiece(p);
-					if (img != null) {
-						Rectangle rect = this.getSquareBounds(selectedSquare);
-						if (this.getMousePosition() != null) {
-							rect.setLocation(this.getMousePosition());
-							rect.x = rect.x - rect.width / 2;
-							rect.y = rect.y - rect.width / 2;
+				if (p != Chessboard.PIECE_NONE && this.hasImageForPiece(p))
+					this.paintSprite(g2d, p, dragX - squareSize / 2, dragY - squareSize / 2, squareSize);
+			}
+		} else {
+			// TODO: draw alternative text
+		}
+	}
+
+	// Returns the position layer for given chessboard size, painting it if needed
+	private BufferedImage positionLayer(final int size) {
+		Square hidden = mouseDown ? selectedSquare : null;
+		if (positionLayer != null && positionLayerValid && positionLayer.getWidth() == size
+				&& Objects.equals(positionLayerHidden, hidden))
+			return positionLayer;
+
+		positionLayerValid = true;
+		if (positionLayer == null || positionLayer.getWidth() != size)
+			positionLayer = this.createLayer(size, size);
+		positionLayerHidden = hidden;
+
+		Graphics2D g2d = positionLayer.createGraphics();
+		try {
+			g2d.setComposite(AlphaComposite.Src);
+			g2d.drawImage(this.boardLayer(size), 0, 0, null);
+			g2d.setComposite(AlphaComposite.SrcOver);
+
+			int sqsz = size / 8;
+			for (byte rank = 0; rank < 8; rank++)
+				for (byte file = 0; file < 8; file++) {
+					Square sq = SQUARES[8 * rank + file];
+					int x = (isChessboardReversed() ? 7 - file : file) * sqsz;
+					int y = (isChessboardReversed() ? rank : 7 - rank) * sqsz;
+					Color mark = this.getMarkForSquare(sq);
+					if (mark != null) {
+						g2d.setColor(mark);
+						g2d.fillRect(x, y, sqsz, sqsz);
+					}
+					byte piece = chessboard.pieceAt(sq);
+					if (piece != Chessboard.PIECE_NONE && !sq.equals(hidden)) {
+						if (this.hasImageForPiece(piece)) {
+							this.paintSprite(g2d, piece, x, y, sqsz);
+						} else {
+							g2d.setColor(Color.BLUE);
+							g2d.drawString(Character.toString(piece), x + sqsz / 2, y + sqsz / 2);
 						}
-						gadv.paintImage(img, rect);
 					}
 				}
+		} finally {
+			g2d.dispose();
+		}
+		return positionLayer;
+	}
+
+	// Returns the chessboard image scaled to given size, scaling it if needed
+	private BufferedImage boardLayer(final int size) {
+		if (boardLayer != null && boardLayer.getWidth() == size)
+			return boardLayer;
+
+		boardLayer = this.createLayer(size, size);
+		Image image = this.imageForPiece(Chessboard.PIECE_NONE, size);
+		boardLayerComplete = this.isReady(Chessboard.PIECE_NONE, image, size);
+		if (image != null) {
+			Graphics2D g2d = boardLayer.createGraphics();
+			try {
+				g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g2d.drawImage(image, 0, 0, size, size, null);
+			} finally {
+				g2d.dispose();
+			}
+		}
+		return boardLayer;
+	}
+
+	// Paints a piece from the sprite atlas, scaling the pieces first if the square size has changed
+	private void paintSprite(final Graphics2D g2d, final byte piece, final int x, final int y, final int sqsz) {
+		if (spriteAtlas == null || spriteAtlas.getHeight() != sqsz) {
+			spriteAtlas = this.createLayer(sqsz * Chessboard.PIECE_BLACK_KING, sqsz);
+			spriteAtlasComplete = true;
+			Graphics2D atlas = spriteAtlas.createGraphics();
+			try {
+				atlas.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				atlas.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				for (byte p = Chessboard.PIECE_WHITE_PAWN; p <= Chessboard.PIECE_BLACK_KING; p++) {
+					Image image = this.imageForPiece(p, sqsz);
+					spriteAtlasComplete &= this.isReady(p, image, sqsz);
+					if (image != null)
+						atlas.drawImage(image, (p - 1) * sqsz, 0, sqsz, sqsz, null);
+				}
+			} finally {
+				atlas.dispose();
 			}
-		} else {
-			// TODO: draw alternative text
 		}
+		int sx = (piece - 1) * sqsz;
+		g2d.drawImage(spriteAtlas, x, y, x + sqsz, y + sqsz, sx, 0, sx + sqsz, sqsz, null);
+	}
+
+	private BufferedImage createLayer(final int width, final int height) {
+		// Compatible images can be copied to the screen without conversion
+		GraphicsConfiguration configuration = this.getGraphicsConfiguration();
+		if (configuration != null)
+			return configuration.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
 	}
 
 	@Override
@@ -317,7 +516,13 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 
 	@Override
 	public void mouseDragged(final MouseEvent e) {
-		this.repaint();
+		// Only the areas under the dragged piece are painted, the rest is cached
+		if (mouseDown && selectedSquare != null) {
+			this.repaint(dragX - squareSize / 2, dragY - squareSize / 2, squareSize, squareSize);
+			dragX = e.getX();
+			dragY = e.getY();
+			this.repaint(dragX - squareSize / 2, dragY - squareSize / 2, squareSize, squareSize);
+		}
 	}
 
 	@Override
@@ -334,18 +539,11 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 
 	@Override
 	public void mousePressed(final MouseEvent e) {
-		Point mousePos = e.getPoint();
+		Square sqMouseDown = this.squareAt(e.getX(), e.getY());
 
-		if (this.isEnabled() && this.getChessboardBounds().contains(mousePos)) {
-			Square sqMouseDown = null;
-
-			for (byte file = 0; file < 8 && sqMouseDown == null; file++)
-                for (byte rank = 0; rank < 8 && sqMouseDown == null; rank++) {
-                    Square sq = new Square(rank, file);
-                    Rectangle sqrect = this.getSquareBounds(sq);
-                    if (sqrect.contains(mousePos))
-                        sqMouseDown = sq;
-                }
+		if (this.isEnabled() && sqMouseDown != null) {
+			dragX = e.getX();
+			dragY = e.getY();
 
 			if (selectedSquare != null && sqMouseDown != null) for (Move move : selSquarePossibleMoves)
                 if (move.squareTo().equals(sqMouseDown)) {
@@ -365,15 +563,7 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 		this.mouseDown = false;
 
 		if (this.isEnabled()) {
-			Point p = e.getPoint();
-			Square squareMouseOver = null;
-			for (byte file = 0; file < 8; file++)
-				for (byte rank = 0; rank < 8; rank++) {
-					Square sq = new Square(rank, file);
-                    Rectangle sqrect = this.getSquareBounds(sq);
-                    if (sqrect.contains(p))
-                        squareMouseOver = sq;
-                }
+			Square squareMouseOver = this.squareAt(e.getX(), e.getY());
 			if (squareMouseOver != null) {
 				TreeSet<Move> moves = new TreeSet<>();
 				for (Move move : selSquarePossibleMoves)
@@ -382,6 +572,7 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 				if (moves.size() == 1) {
 					chessboard.performMove(moves.first());
 					selectSquare(null);
+					positionLayerValid = false;
 				} else if (moves.size() > 1) {
 					Move selMove = (Move) JOptionPane.showInputDialog(this, "Select move to perform:",
 							"Move " + selectedSquare + "→" + squareMouseOver, JOptionPane.OK_CANCEL_OPTION, null,
@@ -389,6 +580,7 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 					if (selMove != null) {
 						chessboard.performMove(selMove);
 						selectSquare(null);
+						positionLayerValid = false;
 					}
 				}
 			}
@@ -400,18 +592,21 @@ public final class ChessboardView extends JComponent implements MouseListener, M
 	@Override
 	public void moveDone(final ChessboardEvent evt) {
 		this.selectSquare(null);
+		this.positionLayerValid = false;
 		this.repaint();
 	}
 
 	@Override
 	public void moveUndone(final ChessboardEvent evt) {
 		this.selectSquare(null);
+		this.positionLayerValid = false;
 		this.repaint();
 	}
 
 	@Override
 	public void moveRedone(final ChessboardEvent evt) {
 		this.selectSquare(null);
+		this.positionLayerValid = false;
 		this.repaint();
 	}
 }
@@ -0,0 +1,92 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.logic.AnalysisChessboard;
+import md.jgames.jchess.logic.AnalysisScheduler;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.NodeAnalysis;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AnalysisSchedulerTest {
+
+    @Test
+    public void test() throws InterruptedException {
+        // Tree with the main line 1. e4 e5 and the variation 1. d4
+        AnalysisChessboard chessboard = new AnalysisChessboard();
+        chessboard.performMove(new Move("e2e4"));
+        chessboard.performMove(new Move("e7e5"));
+        chessboard.undo();
+        chessboard.undo();
+        chessboard.performMove(new Move("d2d4"));
+
+        AnalysisScheduler scheduler = new AnalysisScheduler(chessboard, 2, 3, 8, 2000, 60_000);
+        assertThrows(IllegalStateException.class, () -> new AnalysisScheduler(chessboard, 1, 1, 1, 1, 0));
+        List<List<Move>> lines = Arrays.asList(Collections.emptyList(), moves("e2e4"), moves("e2e4", "e7e5"),
+                moves("d2d4"));
+        waitFor(() -> lines.stream().allMatch(line -> chessboard.analysis(line) != null));
+        assertEquals(0, scheduler.queuedCount());
+        assertTrue(scheduler.engineTimeMillis() >= 0);
+
+        NodeAnalysis root = chessboard.analysis(Collections.emptyList());
+        assertEquals(3, root.lines().size());
+        HashSet<Move> firstMoves = new HashSet<>();
+        for (NodeAnalysis.Line line : root.lines())
+            firstMoves.add(line.principalVariation().get(0));
+        assertEquals(3, firstMoves.size());
+        assertTrue(root.depth() >= 1);
+
+        // New moves are analysed as they are done, the current position first
+        chessboard.performMove(new Move("d7d5"));
+        waitFor(() -> chessboard.analysis() != null);
+        chessboard.undo();
+        assertNotNull(chessboard.analysis());
+
+        // Mated side has no line
+        chessboard.reset("7k/6Q1/6K1/8/8/8/8/8 b - - 0 1");
+        // Analyses of the old tree are discarded, but the new position may be analysed at once
+        NodeAnalysis analysis = chessboard.analysis();
+        assertTrue(analysis == null || analysis.lines().isEmpty());
+        waitFor(() -> chessboard.analysis() != null);
+        assertTrue(chessboard.analysis().lines().isEmpty());
+        scheduler.close();
+        assertTrue(scheduler.isDisposed());
+
+        // Without any budget only the current position is analysed
+        chessboard.reset();
+        chessboard.performMove(new Move("g1f3"));
+        scheduler = new AnalysisScheduler(chessboard, 1, 1, 6, 1000, 0);
+        waitFor(() -> chessboard.analysis() != null);
+        Thread.sleep(200);
+        assertNull(chessboard.analysis(Collections.emptyList()));
+        assertEquals(1, scheduler.queuedCount());
+
+        chessboard.close();
+        assertTrue(scheduler.isDisposed());
+    }
+
+    private static List<Move> moves(final String... moves) {
+        Move[] result = new Move[moves.length];
+        for (int i = 0; i < moves.length; i++)
+            result[i] = new Move(moves[i]);
+        return Arrays.asList(result);
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Analysis took too long");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.engine.EngineMove;
+import md.jgames.jchess.engine.Position;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Utilities;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class Chess960Test {
+
+    @Test
+    public void test() {
+        // Scharnagl's numbering
+        assertEquals(Utilities.FEN_STARTING_POSITION, Utilities.generateChess960FEN(518));
+        Set<String> positions = new HashSet<>();
+        for (int number = 0; number < 960; number++) {
+            String fen = Utilities.generateChess960FEN(number);
+            assertTrue(Utilities.isValidFEN(fen), "Invalid FEN: " + fen);
+            // Castling differs from the standard one unless king and rooks stand on their usual squares
+            assertEquals(!fen.startsWith("r") || fen.charAt(4) != 'k' || fen.charAt(7) != 'r',
+                    Utilities.isChess960FEN(fen), "Wrong Chess960 detection: " + fen);
+            assertTrue(fen.substring(0, 8).matches(".*r.*k.*r.*") && fen.substring(0, 8).matches(".*b(..)*b.*"),
+                    "Illegal placement: " + fen);
+            positions.add(fen);
+        }
+        assertEquals(960, positions.size(), "Duplicate Chess960 positions");
+
+        // Castling rights are either X-FEN letters or files of one or two rooks of each side
+        for (String castling : new String[]{"KQkq", "Kq", "k", "HAha", "Hb", "a", "KQha"})
+            assertTrue(Utilities.isValidFEN("r3k2r/8/8/8/8/8/8/R3K2R w " + castling + " - 0 1"), castling);
+        for (String castling : new String[]{"KK", "AQ", "QK", "HAH", "AA", "Kk Q", "kK", "KQkqa"})
+            assertFalse(Utilities.isValidFEN("r3k2r/8/8/8/8/8/8/R3K2R w " + castling + " - 0 1"), castling);
+
+        // Castling with king and rook squares overlapping the destinations
+        Position position = new Position("bqnb1rkr/pp3ppp/3ppn2/2p5/5P2/P2P4/NPP1P1PP/BQ1BNRKR w HFhf - 2 9");
+        assertTrue(position.isChess960());
+        assertEquals(21, position.perft(1), "Perft 1 of Chess960 position");
+        assertEquals(528, position.perft(2), "Perft 2 of Chess960 position");
+        assertEquals(12189, position.perft(3), "Perft 3 of Chess960 position");
+        assertEquals("bqnb1rkr/pp3ppp/3ppn2/2p5/5P2/P2P4/NPP1P1PP/BQ1BNRKR w HFhf - 2 9", position.toFEN());
+
+        // Notation of castling
+        position = new Position("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1");
+        assertFalse(position.isChess960());
+        int castling = position.findMove(new Move("e1g1"));
+        assertNotEquals(EngineMove.NONE, castling, "Castling not found");
+        assertEquals(new Move("e1g1"), position.toMove(castling));
+        position.setChess960(true);
+        assertEquals(new Move("e1h1"), position.toMove(castling));
+        assertEquals(castling, position.findMove(new Move("e1h1")));
+        assertEquals("r3k2r/8/8/8/8/8/8/R3K2R w HAha - 0 1", position.toFEN());
+    }
+}
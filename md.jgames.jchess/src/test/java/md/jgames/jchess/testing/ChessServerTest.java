@@ -0,0 +1,74 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.server.ChessServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChessServerTest {
+
+    @Test
+    public void test() throws IOException {
+        try (ChessServer server = new ChessServer(0, 1, 100, 60_000);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            server.start();
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            // Requests are pipelined, responses come in the same order
+            writer.write("new\nmove 1 e2e4 e7e5\nmove 1 g1f3 a1a8\nlegal 1\nfen 2\ngo 1 6\nfen 1\n");
+            writer.flush();
+            assertEquals("ok 1", reader.readLine());
+            assertEquals("ok rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2", reader.readLine());
+            assertEquals("error Illegal move a1a8", reader.readLine());
+            String legal = reader.readLine();
+            assertTrue(legal.startsWith("ok ") && legal.split(" ").length == 30, legal);
+            assertEquals("error Unknown game 2", reader.readLine());
+            String bestMove = reader.readLine();
+            assertTrue(bestMove.matches("ok [a-h][1-8][a-h][1-8]"), bestMove);
+            assertEquals("ok rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2", reader.readLine());
+
+            writer.write("play 1 6\nanalyse 1 6\nundo 1\nundo 1\nclose 1\nfen 1\n");
+            writer.flush();
+            assertTrue(reader.readLine().matches("ok [a-h][1-8][a-h][1-8] .* b .*"));
+            String analysis = reader.readLine();
+            assertTrue(analysis.startsWith("ok depth 6 ") && analysis.contains(" pv "), analysis);
+            assertTrue(reader.readLine().contains(" w KQkq "));
+            assertTrue(reader.readLine().contains(" b KQkq "));
+            assertEquals("ok", reader.readLine());
+            assertEquals("error Unknown game 1", reader.readLine());
+
+            // Many games played at once
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < 100; i++)
+                requests.append("new\n");
+            for (int i = 0; i < 100; i++)
+                requests.append("move ").append(i + 2).append(" g1f3\nmove ").append(i + 2).append(" g8f6\n")
+                        .append("move ").append(i + 2).append(" f3g1 f6g8\n");
+            writer.write(requests.toString());
+            writer.flush();
+            for (int i = 0; i < 100; i++)
+                assertEquals("ok " + (i + 2), reader.readLine());
+            for (int i = 0; i < 300; i++)
+                assertTrue(reader.readLine().startsWith("ok "));
+            assertEquals(100, server.sessionCount());
+
+            writer.write("new\nquit\n");
+            writer.flush();
+            assertEquals("error Too many games", reader.readLine());
+            assertEquals("ok", reader.readLine());
+            assertEquals(null, reader.readLine());
+        }
+    }
+}
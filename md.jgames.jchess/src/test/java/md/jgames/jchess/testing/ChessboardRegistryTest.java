@@ -0,0 +1,86 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.logic.AnalysisChessboard;
+import md.jgames.jchess.logic.ChessboardRegistry;
+import md.jgames.jchess.logic.GamePlayChessboard;
+import md.jgames.jchess.logic.GameRecord;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Utilities;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChessboardRegistryTest {
+
+    @Test
+    public void test() throws InterruptedException {
+        int chessboardsBefore = ChessboardRegistry.chessboardCount();
+        GamePlayChessboard first = new GamePlayChessboard();
+        first.performMove(new Move("e2e4"));
+        String fen = first.currentFEN();
+        GamePlayChessboard second = new GamePlayChessboard();
+        AnalysisChessboard third = new AnalysisChessboard();
+        assertEquals(chessboardsBefore + 3, ChessboardRegistry.chessboardCount());
+
+        // The least recently used chessboards give their engines back
+        ChessboardRegistry.setEngineBudget(1);
+        for (int i = 0; i < 100 && !(first.isHibernated() && second.isHibernated()); i++)
+            Thread.sleep(20);
+        assertTrue(first.isHibernated());
+        assertTrue(second.isHibernated());
+        assertFalse(third.isHibernated());
+
+        // Hibernated chessboard is still usable
+        assertEquals(fen, first.currentFEN());
+        assertTrue(first.possibleMoves().contains(new Move("e7e5")));
+        first.performMove(new Move("e7e5"));
+        assertFalse(first.isHibernated());
+        first.undo();
+        assertEquals(fen, first.currentFEN());
+        first.setDoneMovesCount(0);
+        assertEquals(first.startingFEN(), first.currentFEN());
+
+        assertTrue(ChessboardRegistry.hibernateIdle(0) >= 1);
+        assertTrue(first.isHibernated() && third.isHibernated());
+        ChessboardRegistry.setEngineBudget(Integer.MAX_VALUE);
+
+        // Positions of the least recently used chessboards are dropped, they are computed again once visited
+        ArrayList<Move> moves = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            moves.addAll(Arrays.asList(new Move("g1f3"), new Move("g8f6"), new Move("f3g1"), new Move("f6g8")));
+        GamePlayChessboard loaded = new GamePlayChessboard(new GameRecord(Utilities.FEN_STARTING_POSITION, moves, 0));
+        assertDoesNotThrow(() -> loaded.positionsComputed().get(30, TimeUnit.SECONDS), "Positions not computed");
+        loaded.setDoneMovesCount(moves.size());
+        String lastFEN = loaded.currentFEN();
+        loaded.setDoneMovesCount(0);
+        assertTrue(ChessboardRegistry.trimmableMemory() > 0, "Computed positions not counted");
+        ChessboardRegistry.setMemoryBudget(0);
+        for (int i = 0; i < 100 && ChessboardRegistry.trimmableMemory() > 0; i++)
+            Thread.sleep(20);
+        assertEquals(0, ChessboardRegistry.trimmableMemory(), "Memory budget not kept");
+        ChessboardRegistry.setMemoryBudget(Long.MAX_VALUE);
+        assertEquals(Utilities.FEN_STARTING_POSITION, loaded.currentFEN());
+        loaded.setDoneMovesCount(moves.size());
+        assertEquals(lastFEN, loaded.currentFEN(), "Dropped position not computed again");
+        loaded.close();
+
+        // Closed and forgotten chessboards are removed
+        first.close();
+        third.close();
+        assertEquals(chessboardsBefore + 1, ChessboardRegistry.chessboardCount());
+        second.performMove(new Move("d2d4"));
+        second = null;
+        for (int i = 0; i < 100 && ChessboardRegistry.chessboardCount() > chessboardsBefore; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(chessboardsBefore, ChessboardRegistry.chessboardCount());
+    }
+}
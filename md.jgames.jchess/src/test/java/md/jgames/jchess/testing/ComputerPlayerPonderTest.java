@@ -0,0 +1,58 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.logic.ComputerPlayer;
+import md.jgames.jchess.logic.GamePlayChessboard;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.StockfishPool;
+import mdlib.utils.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ComputerPlayerPonderTest {
+
+    @Test
+    public void test() {
+        StockfishPool.warmUp(2);
+        GamePlayChessboard chessboard = new GamePlayChessboard();
+        ComputerPlayer player = new ComputerPlayer(20, 10);
+
+        Move move = player.findMove(chessboard);
+        assertNotNull(move, "No move found");
+        assertTrue(chessboard.possibleMoves().contains(move), "Illegal move " + move);
+        chessboard.performMove(move);
+        assertTrue(player.startPondering(chessboard), "Pondering not started");
+        assertTrue(player.isPondering());
+
+        // Opponent plays the expected reply, so the pondering search is finished instead of a new one
+        Move reply = player.ponderedMove();
+        assertNotNull(reply, "No pondered move");
+        long ponderhits = Metrics.histogram("jchess.uci.ponderhit").snapshot(false).count();
+        chessboard.performMove(reply);
+        move = player.findMove(chessboard);
+        assertFalse(player.isPondering());
+        assertEquals(ponderhits + 1, Metrics.histogram("jchess.uci.ponderhit").snapshot(false).count());
+        assertNotNull(move, "No move found after pondering");
+        assertTrue(chessboard.possibleMoves().contains(move), "Illegal move " + move);
+
+        // Pondering on a position which is not reached is thrown away
+        chessboard.performMove(move);
+        if (player.startPondering(chessboard)) {
+            chessboard.undo();
+            chessboard.undo();
+            List<Move> moves = chessboard.doneMoves();
+            assertEquals(1, moves.size());
+            move = player.findMove(chessboard);
+            assertTrue(chessboard.possibleMoves().contains(move), "Illegal move " + move);
+        }
+
+        player.close();
+        chessboard.close();
+        StockfishPool.shutdown();
+    }
+}
@@ -0,0 +1,56 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.logic.GamePlayChessboard;
+import md.jgames.jchess.logic.Move;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DrawRulesTest {
+
+    @Test
+    public void test() {
+        GamePlayChessboard chessboard = new GamePlayChessboard();
+        assertEquals(1, chessboard.repetitionCount());
+        String[] shuffle = {"g1f3", "g8f6", "f3g1", "f6g8"};
+        for (int i = 0; i < 8; i++)
+            chessboard.performMove(new Move(shuffle[i % 4]));
+        assertEquals(3, chessboard.repetitionCount());
+        assertTrue(chessboard.isThreefoldRepetition());
+        chessboard.undo();
+        assertEquals(2, chessboard.repetitionCount());
+        assertFalse(chessboard.isThreefoldRepetition());
+        chessboard.setDoneMovesCount(8);
+        assertTrue(chessboard.isThreefoldRepetition());
+
+        // Irreversible move ends the lookback
+        chessboard.performMove(new Move("e2e4"));
+        assertEquals(1, chessboard.repetitionCount());
+        assertFalse(chessboard.isFiftyMoveDraw());
+        assertFalse(chessboard.isInsufficientMaterial());
+
+        chessboard.reset("8/8/4k3/8/8/2R5/4K3/8 w - - 99 80");
+        assertFalse(chessboard.isFiftyMoveDraw());
+        chessboard.performMove(new Move("e2d2"));
+        assertTrue(chessboard.isFiftyMoveDraw());
+        chessboard.reset("7k/8/6K1/8/8/8/8/R7 w - - 99 80");
+        chessboard.performMove(new Move("a1a8"));
+        assertFalse(chessboard.isFiftyMoveDraw(), "Checkmate is not a draw");
+
+        String[] insufficient = {"8/8/4k3/8/8/8/4K3/8 w - - 0 1", "8/8/4k3/8/8/2B5/4K3/8 w - - 0 1",
+                "8/8/4k3/8/8/2n5/4K3/8 w - - 0 1", "8/8/4k3/2b5/8/2B5/4K3/8 w - - 0 1"};
+        String[] sufficient = {"8/8/4k3/1b6/8/2B5/4K3/8 w - - 0 1", "8/8/4k3/8/8/2NN4/4K3/8 w - - 0 1",
+                "8/8/4k3/8/8/2B5/4KP2/8 w - - 0 1"};
+        for (String fen : insufficient) {
+            chessboard.reset(fen);
+            assertTrue(chessboard.isInsufficientMaterial(), fen);
+        }
+        for (String fen : sufficient) {
+            chessboard.reset(fen);
+            assertFalse(chessboard.isInsufficientMaterial(), fen);
+        }
+        chessboard.close();
+    }
+}
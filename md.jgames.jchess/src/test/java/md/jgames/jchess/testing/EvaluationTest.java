@@ -0,0 +1,46 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.engine.Evaluation;
+import md.jgames.jchess.engine.Position;
+import md.jgames.jchess.logic.Utilities;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class EvaluationTest {
+
+    @Test
+    public void test() {
+        Random random = new Random(2021);
+        Evaluation cached = new Evaluation();
+        int[] buffer = new int[Position.MAX_MOVES];
+
+        // Incrementally updated terms must equal terms computed from scratch
+        for (int game = 0; game < 50; game++) {
+            Position position = new Position(Utilities.FEN_STARTING_POSITION);
+            for (int ply = 0; ply < 120; ply++) {
+                int count = position.generateLegalMoves(buffer, 0);
+                if (count == 0)
+                    break;
+                position.makeMove(buffer[random.nextInt(count)]);
+
+                Position fresh = new Position(position.toFEN());
+                assertEquals(fresh.key(), position.key(), "Key differs in " + fresh);
+                assertEquals(fresh.pawnKey(), position.pawnKey(), "Pawn key differs in " + fresh);
+                assertEquals(fresh.middlegameScore(), position.middlegameScore(), "Middlegame differs in " + fresh);
+                assertEquals(fresh.endgameScore(), position.endgameScore(), "Endgame differs in " + fresh);
+                assertEquals(fresh.phase(), position.phase(), "Phase differs in " + fresh);
+                assertEquals(new Evaluation().evaluate(fresh), cached.evaluate(position), "Evaluation differs in " + fresh);
+            }
+            while (position.ply() > 0)
+                position.unmakeMove();
+            assertEquals(Utilities.FEN_STARTING_POSITION, position.toFEN(), "Position not restored");
+            assertEquals(new Position().middlegameScore(), position.middlegameScore(), "Score not restored");
+        }
+
+        // The starting position is symmetrical
+        assertEquals(0, cached.evaluate(new Position()), "Starting position is not equal");
+    }
+}
@@ -0,0 +1,85 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.engine.Position;
+import md.jgames.jchess.io.GameCodec;
+import md.jgames.jchess.logic.GameRecord;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Utilities;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GameCodecTest {
+
+    @Test
+    public void test() throws IOException {
+        // Every move survives its hash code
+        for (int hashCode = 0; hashCode <= 32764; hashCode++) {
+            if ((hashCode & 7) > 4)
+                continue;
+            Move move = new Move(hashCode);
+            assertEquals(hashCode, move.hashCode());
+            assertEquals(move, new Move(move.toString()));
+        }
+        assertEquals(new Move("e7e8q"), new Move(new Move("e7e8q").shortHashCode()));
+
+        // Random games from the usual and Chess960 starting positions
+        Random random = new Random(1);
+        ArrayList<GameRecord> records = new ArrayList<>();
+        int[] buffer = new int[Position.MAX_MOVES];
+        for (int i = 0; i < 10_000; i++) {
+            String fen = i % 10 == 0 ? Utilities.generateChess960FEN(random.nextInt(960))
+                    : Utilities.FEN_STARTING_POSITION;
+            Position position = new Position(fen);
+            ArrayList<Move> moves = new ArrayList<>();
+            for (int ply = 0; ply < 80; ply++) {
+                int count = position.generateLegalMoves(buffer, 0);
+                if (count == 0)
+                    break;
+                int move = buffer[random.nextInt(count)];
+                moves.add(position.toMove(move));
+                position.makeMove(move);
+            }
+            GameRecord record = new GameRecord(fen, moves, random.nextInt(moves.size() + 1));
+            if (i % 100 == 0) {
+                record.setComment(0, "Příliš žluťoučký kůň");
+                record.setNAGs(moves.size() - 1, 2, 146);
+            }
+            records.add(record);
+        }
+
+        // Streaming through DataOutput and DataInput
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GameCodec.Encoder encoder = new GameCodec.Encoder(new DataOutputStream(bytes));
+        encoder.write(records.get(0));
+        encoder.write(records.get(100));
+        encoder.finish();
+        GameCodec.Decoder decoder = new GameCodec.Decoder(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(records.get(0), decoder.read());
+        assertEquals(records.get(100), decoder.read());
+        assertEquals(null, decoder.read());
+
+        // Batch through ByteBuffer
+        ByteBuffer encoded = GameCodec.encode(records);
+        int size = encoded.remaining();
+        List<GameRecord> decoded = GameCodec.decode(encoded);
+        assertEquals(records, decoded);
+        assertTrue(size < 10_000 * 170, "10k games took " + size + " bytes");
+
+        assertThrows(IOException.class, () -> GameCodec.decode(ByteBuffer.wrap(new byte[]{'J', 'C', 'G', 99})));
+        assertThrows(IOException.class, () -> GameCodec.decode(ByteBuffer.wrap(new byte[]{'J', 'C', 'G', 1, 1, 5})));
+    }
+}
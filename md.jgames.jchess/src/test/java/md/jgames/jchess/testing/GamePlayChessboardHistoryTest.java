@@ -0,0 +1,63 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.logic.GamePlayChessboard;
+import md.jgames.jchess.logic.GameRecord;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Utilities;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GamePlayChessboardHistoryTest {
+
+    @Test
+    public void test() {
+        GamePlayChessboard chessboard = new GamePlayChessboard();
+        assertEquals(20, chessboard.possibleMoves().size(), "Possible moves in the starting position");
+        chessboard.performMove(new Move("e2e4"));
+        String afterE4 = chessboard.currentFEN();
+        chessboard.performMove(new Move("e7e5"));
+        chessboard.performMove(new Move("g1f3"));
+        String afterNf3 = chessboard.currentFEN();
+
+        // Jumping back and forth
+        chessboard.setDoneMovesCount(0);
+        assertEquals(Utilities.FEN_STARTING_POSITION, chessboard.currentFEN(), "Starting position not restored");
+        chessboard.setDoneMovesCount(3);
+        assertEquals(afterNf3, chessboard.currentFEN(), "Position after 2. Nf3 not restored");
+        chessboard.setDoneMovesCount(1);
+        assertEquals(afterE4, chessboard.currentFEN(), "Position after 1. e4 not restored");
+
+        // New move truncates the rest of the line
+        chessboard.performMove(new Move("c7c5"));
+        assertEquals(2, chessboard.getAllMoves().size(), "Line was not truncated");
+        assertEquals("rnbqkbnr/pp1ppppp/8/2p5/4P3/8/PPPP1PPP/RNBQKBNR w KQkq - 0 2", chessboard.currentFEN());
+        chessboard.undo();
+        assertEquals(afterE4, chessboard.currentFEN(), "Undo did not restore the position");
+
+        // Positions of a loaded game, computed in background, are the same as positions computed by Stockfish,
+        // including en passant (3. exf6) and castling of both players (6. O-O O-O)
+        GamePlayChessboard played = new GamePlayChessboard();
+        for (String move : new String[] { "e2e4", "d7d5", "e4e5", "f7f5", "e5f6", "g8f6", "g1f3", "e7e6", "f1e2",
+                "f8d6", "e1g1", "e8g8", "d2d4", "b8c6" })
+            played.performMove(new Move(move));
+        GamePlayChessboard loaded = new GamePlayChessboard(new GameRecord(played.startingFEN(),
+                played.getAllMoves(), 0));
+        assertDoesNotThrow(() -> loaded.positionsComputed().get(30, TimeUnit.SECONDS), "Positions not computed");
+        for (int ply = 0; ply <= played.getAllMoves().size(); ply++) {
+            played.setDoneMovesCount(ply);
+            loaded.setDoneMovesCount(ply);
+            assertEquals(played.currentFEN(), loaded.currentFEN(), "Different position at ply " + ply);
+            assertEquals(played.possibleMoves(), loaded.possibleMoves(), "Different moves at ply " + ply);
+        }
+        assertTrue(chessboard.positionsComputed().isDone(), "Nothing to compute for a played game");
+
+        played.close();
+        loaded.close();
+        chessboard.close();
+    }
+}
@@ -0,0 +1,27 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.logic.GamePlayChessboard;
+import md.jgames.jchess.logic.Move;
+import mdlib.utils.metrics.Metrics;
+import mdlib.utils.metrics.MetricsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void test() {
+        // Board and engine instrumentation
+        MetricsSnapshot before = Metrics.snapshot(false);
+        GamePlayChessboard chessboard = new GamePlayChessboard();
+        chessboard.performMove(new Move("e2e4"));
+        chessboard.close();
+        MetricsSnapshot after = Metrics.snapshot(false);
+        assertTrue(after.histograms().get("jchess.board.GamePlayChessboard.update").count() >= 2);
+        assertTrue(after.histograms().get("jchess.uci.d").count() >= 2);
+        assertTrue(after.counters().get("process.lines.read") > 0);
+        assertTrue(after.ratePerSecond("process.bytes.read", before) > 0);
+        assertTrue(after.gauges().containsKey("jchess.pool.idle"));
+    }
+}
@@ -0,0 +1,32 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.engine.EmbeddedEngine;
+import md.jgames.jchess.engine.Position;
+import md.jgames.jchess.engine.SearchResult;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Utilities;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PositionPerftTest {
+
+    @Test
+    public void test() {
+        // Move generator
+        Position position = new Position(Utilities.FEN_STARTING_POSITION);
+        assertEquals(197281, position.perft(4), "Perft 4 of the starting position");
+        assertEquals(Utilities.FEN_STARTING_POSITION, position.toFEN(), "Position not restored after perft");
+        position = new Position("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+        assertEquals(97862, position.perft(3), "Perft 3 of Kiwipete position");
+
+        // Search
+        EmbeddedEngine engine = new EmbeddedEngine();
+        engine.setPosition("6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - 0 1");
+        SearchResult result = engine.search(4, 0);
+        assertEquals(new Move("a1a8"), result.bestMove(), "Mate in one not found");
+        assertTrue(result.isMate() && result.mateIn() == 1, "Wrong mate score: " + result);
+        engine.close();
+    }
+}
@@ -0,0 +1,78 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.io.GameCodec;
+import md.jgames.jchess.logic.GameRecord;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.Utilities;
+import md.jgames.jchess.puzzles.Puzzle;
+import md.jgames.jchess.puzzles.PuzzleExtractor;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PuzzleExtractorTest {
+
+    @Test
+    public void test() throws IOException {
+        // 4. ... Nf6?? allows 5. Qxf7#
+        GameRecord blunder = game("e2e4", "e7e5", "d1h5", "b8c6", "f1c4", "g8f6");
+        GameRecord quiet = game("e2e4", "e7e5", "g1f3", "b8c6");
+
+        try (PuzzleExtractor extractor = new PuzzleExtractor(2, 8, 12, PuzzleExtractor.DEFAULT_SWING_THRESHOLD)) {
+            List<Puzzle> puzzles = extractor.extract(blunder);
+            assertEquals(1, puzzles.size());
+            Puzzle puzzle = puzzles.get(0);
+            assertEquals("r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 4 4", puzzle.fen());
+            assertEquals(Collections.singletonList(new Move("h5f7")), puzzle.solution());
+            assertTrue(puzzle.themes().containsAll(Arrays.asList("mate", "mateIn1", "capture", "check", "oneMove")),
+                    puzzle.themes().toString());
+            assertEquals(puzzle, Puzzle.parse(puzzle.toString()));
+            assertTrue(extractor.extract(quiet).isEmpty());
+
+            // Whole run, then a run interrupted after the first game
+            Path directory = Files.createTempDirectory("puzzles");
+            Path output = directory.resolve("puzzles.txt"), checkpoint = directory.resolve("puzzles.checkpoint");
+            List<GameRecord> games = Arrays.asList(blunder, quiet, blunder);
+            assertEquals(2, extractor.run(decoder(games), output, checkpoint));
+            List<String> lines = Files.readAllLines(output);
+            assertEquals(Arrays.asList(puzzle.toString(), puzzle.toString()), lines);
+            assertEquals(0, extractor.run(decoder(games), output, checkpoint));
+
+            Properties state = new Properties();
+            state.setProperty("games", "1");
+            state.setProperty("outputLength", Integer.toString(lines.get(0).length() + 1));
+            try (OutputStream stream = Files.newOutputStream(checkpoint)) {
+                state.store(stream, null);
+            }
+            Files.write(output, "half written line".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            assertEquals(1, extractor.run(decoder(games), output, checkpoint));
+            assertEquals(lines, Files.readAllLines(output));
+        }
+    }
+
+    private static GameRecord game(final String... moves) {
+        ArrayList<Move> list = new ArrayList<>();
+        for (String move : moves)
+            list.add(new Move(move));
+        return new GameRecord(Utilities.FEN_STARTING_POSITION, list, list.size());
+    }
+
+    private static GameCodec.Decoder decoder(final List<GameRecord> games) throws IOException {
+        ByteBuffer buffer = GameCodec.encode(games);
+        return new GameCodec.Decoder(buffer);
+    }
+}
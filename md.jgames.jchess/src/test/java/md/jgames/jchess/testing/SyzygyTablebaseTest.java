@@ -0,0 +1,97 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.engine.Position;
+import md.jgames.jchess.logic.AnalysisChessboard;
+import md.jgames.jchess.logic.Move;
+import md.jgames.jchess.logic.NodeAnalysis;
+import md.jgames.jchess.logic.SyzygyTablebase;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SyzygyTablebaseTest {
+
+    @Test
+    public void test() throws Exception {
+        Path directory = Files.createTempDirectory("syzygy");
+        try (SyzygyTablebase tablebase = new SyzygyTablebase(directory)) {
+            assertEquals(0, tablebase.maxPieces(), "Empty directory has no tables");
+
+            // Two kings are always a draw, even without any table
+            assertEquals(OptionalInt.of(SyzygyTablebase.WDL_DRAW), tablebase.probeWDL("8/8/8/4k3/8/8/8/4K3 w - - 0 1"));
+
+            // Missing tables
+            String kqk = "8/8/8/4k3/8/8/3q4/4K3 w - - 0 1";
+            assertFalse(tablebase.canProbe(kqk));
+            assertEquals(OptionalInt.empty(), tablebase.probeWDL(kqk));
+            assertEquals(OptionalInt.empty(), tablebase.probeDTZ(kqk));
+            assertNull(tablebase.bestMove(kqk));
+        } finally {
+            Files.delete(directory);
+        }
+
+        // KQvK and KRvK tables, the distances were checked by mate searches of Stockfish
+        Path tables = Paths.get(getClass().getResource("/syzygy/KQvK.rtbw").toURI()).getParent();
+        try (SyzygyTablebase tablebase = new SyzygyTablebase(tables)) {
+            assertEquals(2, tablebase.tableCount());
+            assertEquals(3, tablebase.maxPieces());
+            assertTrue(tablebase.canProbe("8/8/8/4k3/8/8/8/KQ6 w - - 0 1"));
+
+            // Mate in 9, also with colors swapped
+            assertEquals(OptionalInt.of(SyzygyTablebase.WDL_WIN), tablebase.probeWDL("8/8/8/4k3/8/8/8/KQ6 w - - 0 1"));
+            assertEquals(OptionalInt.of(17), tablebase.probeDTZ("8/8/8/4k3/8/8/8/KQ6 w - - 0 1"));
+            assertEquals(OptionalInt.of(17), tablebase.probeDTZ("kq6/8/8/8/4K3/8/8/8 b - - 0 1"));
+            // Black captures the queen
+            assertEquals(OptionalInt.of(SyzygyTablebase.WDL_DRAW), tablebase.probeWDL("8/8/8/8/8/5K2/1Q6/k7 b - - 0 1"));
+            assertEquals(new Move("a1b2"), tablebase.bestMove("8/8/8/8/8/5K2/1Q6/k7 b - - 0 1"));
+            // Stalemate
+            assertEquals(OptionalInt.of(SyzygyTablebase.WDL_DRAW), tablebase.probeWDL("k7/2Q5/1K6/8/8/8/8/8 b - - 0 1"));
+            assertEquals(OptionalInt.of(0), tablebase.probeDTZ("k7/2Q5/1K6/8/8/8/8/8 b - - 0 1"));
+            assertNull(tablebase.bestMove("k7/2Q5/1K6/8/8/8/8/8 b - - 0 1"));
+
+            // Mate in 1 and the mated position
+            assertEquals(OptionalInt.of(1), tablebase.probeDTZ("k7/8/1K6/8/8/8/8/7R w - - 0 1"));
+            assertEquals(new Move("h1h8"), tablebase.bestMove("k7/8/1K6/8/8/8/8/7R w - - 0 1"));
+            assertEquals(OptionalInt.of(SyzygyTablebase.WDL_LOSS), tablebase.probeWDL("R1k5/8/2K5/8/8/8/8/8 b - - 0 1"));
+            assertEquals(OptionalInt.of(-1), tablebase.probeDTZ("R1k5/8/2K5/8/8/8/8/8 b - - 0 1"));
+            // Mate in 7 and mated in 2
+            assertEquals(OptionalInt.of(13), tablebase.probeDTZ("8/3k4/8/3K4/8/8/8/7R w - - 0 1"));
+            assertEquals(OptionalInt.of(-4), tablebase.probeDTZ("4k3/8/4K3/8/8/8/8/7R b - - 0 1"));
+
+            // Analysis instead of the engine
+            NodeAnalysis analysis = tablebase.analyse(new Position("k7/8/1K6/8/8/8/8/7R w - - 0 1"), 2);
+            assertEquals(0, analysis.depth());
+            assertEquals(2, analysis.lines().size());
+            assertEquals(SyzygyTablebase.SCORE_WIN - 1, analysis.bestLine().score());
+            assertEquals(new Move("h1h8"), analysis.bestLine().principalVariation().get(0));
+            assertTrue(analysis.lines().get(1).score() < analysis.bestLine().score());
+            analysis = tablebase.analyse(new Position("4k3/8/4K3/8/8/8/8/7R b - - 0 1"), 1);
+            assertEquals(-SyzygyTablebase.SCORE_WIN + 4, analysis.bestLine().score());
+            assertEquals(4, analysis.bestLine().principalVariation().size(), "Line ends by the mate");
+            assertNull(tablebase.analyse(new Position("8/8/8/4k3/8/8/3n4/4K3 w - - 0 1"), 1));
+
+            // Moves of positions in the tablebase are not taken from the engine
+            try (AnalysisChessboard chessboard = new AnalysisChessboard("8/3k4/8/3K4/8/8/8/7R w - - 0 1")) {
+                ArrayList<Move> engineMoves = new ArrayList<>(chessboard.possibleMoves());
+                chessboard.setTablebase(tablebase);
+                chessboard.performMove(new Move("h1h7"));
+                assertEquals("8/3k3R/8/3K4/8/8/8/8 b - - 1 1", chessboard.currentFEN());
+                assertEquals(OptionalInt.of(SyzygyTablebase.WDL_LOSS), chessboard.tablebaseWDL());
+                assertEquals(OptionalInt.of(-12), chessboard.tablebaseDTZ());
+                chessboard.undo();
+                assertEquals(engineMoves, new ArrayList<>(chessboard.possibleMoves()));
+                assertEquals(OptionalInt.of(13), chessboard.tablebaseDTZ());
+                assertEquals(new Move("h1h7"), chessboard.tablebaseBestMove());
+            }
+        }
+    }
+}
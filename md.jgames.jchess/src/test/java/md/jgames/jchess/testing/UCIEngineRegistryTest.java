@@ -0,0 +1,71 @@
+package md.jgames.jchess.testing;
+
+import md.jgames.jchess.io.UCIEngineInfo;
+import md.jgames.jchess.io.UCIEngineProcess;
+import md.jgames.jchess.io.UCIEngineRegistry;
+import md.jgames.jchess.io.UCIOption;
+import md.jgames.jchess.logic.StockfishPool;
+import md.jgames.jchess.logic.Utilities;
+import mdlib.utils.io.ExecutableProcess;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UCIEngineRegistryTest {
+
+    @Test
+    public void test() throws IOException {
+        // Option descriptors
+        UCIOption combo = UCIOption.parse("option name Analysis Contempt type combo default Both var Off var White var Black var Both");
+        assertEquals("Analysis Contempt", combo.name());
+        assertEquals(UCIOption.Type.COMBO, combo.type());
+        assertEquals(4, combo.vars().size());
+        assertEquals("White", combo.validate("white"));
+        assertEquals(combo, UCIOption.parse(combo.toString()));
+        UCIOption spin = UCIOption.parse("option name Skill Level type spin default 20 min 0 max 20");
+        assertThrows(IllegalArgumentException.class, () -> spin.validate(21));
+
+        // Handshake is done once and persisted
+        Path directory = Files.createTempDirectory("jchess-engines");
+        Path cacheFile = directory.resolve("engines.cache");
+        Path stockfish = Utilities.getStockfishPath();
+        UCIEngineRegistry registry = new UCIEngineRegistry(cacheFile);
+        UCIEngineInfo info = registry.describe(stockfish);
+        assertTrue(info.name().startsWith("Stockfish"), "Unexpected engine name: " + info.name());
+        assertNotNull(info.option("hash"), "Hash option not found");
+        assertTrue(Files.isRegularFile(cacheFile), "Cache file not written");
+        UCIEngineInfo loaded = new UCIEngineRegistry(cacheFile).describe(stockfish);
+        assertEquals(info.toString(), loaded.toString(), "Persisted capabilities differ");
+
+        // Launching with options
+        Map<String, Object> options = new LinkedHashMap<>();
+        options.put("Hash", 32);
+        options.put("Skill Level", 10);
+        UCIEngineProcess process = registry.launch(stockfish, options);
+        process.setPosition(Utilities.FEN_STARTING_POSITION);
+        process.waitForReady();
+        process.close();
+        options.put("Skill Level", 30);
+        assertThrows(IllegalArgumentException.class, () -> registry.launch(stockfish, options));
+
+        Files.deleteIfExists(cacheFile);
+        Files.delete(directory);
+
+        // Options set on processes of the application are checked against the handshake
+        ExecutableProcess pooled = StockfishPool.acquire();
+        assertEquals(info.toString(), Utilities.stockfishInfo().toString(), "Capabilities not remembered");
+        Utilities.setOption(pooled, "uci_chess960", true);
+        assertThrows(IllegalArgumentException.class, () -> Utilities.setOption(pooled, "Skill Levle", 10));
+        assertThrows(IllegalArgumentException.class, () -> Utilities.setOption(pooled, "Skill Level", 21));
+        pooled.close();
+    }
+}
@@ -3,6 +3,7 @@ package md.jsk.mathcalc;
 import javafx.application.Application;
 import javafx.stage.Stage;
 import md.jsk.mathcalc.activities.MainActivity;
+import mdlib.utils.metrics.StartupProfile;
 
 /**
  * Class with entry point for MathCalc application.
@@ -50,5 +51,6 @@ public final class App extends Application {
         primaryStage.setTitle("MD MathCalc");
         primaryStage.setScene(MainActivity.getInstance());
         primaryStage.show();
+        StartupProfile.recordFirstFrame(primaryStage.getScene());
     }
 }
@@ -1,8 +1,10 @@
 package md.jsk.mathcalc.activities;
 
 import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
 import md.jsk.mathcalc.resources.Resources;
+import mdlib.utils.metrics.StartupProfile;
 
 import java.io.IOException;
 
@@ -21,7 +23,11 @@ public final class MainActivity extends Scene {
      */
     public static MainActivity getInstance() {
         if (instance == null) try {
-            instance = new MainActivity();
+            // Load FXML file
+            long start = System.nanoTime();
+            Parent root = FXMLLoader.load(ActivityLoader.loadActivityFXML("main"));
+            StartupProfile.record("fxml", start);
+            instance = new MainActivity(root);
         } catch (IOException exc) {
             // Should never happen
             throw new RuntimeException(exc);
@@ -29,8 +35,7 @@ public final class MainActivity extends Scene {
         return instance;
     }
 
-    private MainActivity() throws IOException {
-        // Load FXML file
-        super(FXMLLoader.load(ActivityLoader.loadActivityFXML("main")), 800, 600);
+    private MainActivity(final Parent root) {
+        super(root, 800, 600);
     }
 }
@@ -1,18 +1,32 @@
 package md.jsk.mathcalc.components;
 
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Arc;
-import javafx.scene.shape.Ellipse;
-import javafx.scene.shape.Line;
+import javafx.scene.shape.ArcType;
 import mdlib.mdfx.components.MDFXProgressBar;
 
 import static mdlib.mdfx.components.MDFXProgressBar.INDETERMINATE;
 
+/**
+ * {@link MDFXProgressBar.Animator} drawing a times table on a circle: point {@code i} is joined with point {@code
+ * multiplier * i}. Every progress bar gets one {@link Canvas} which is drawn again in every frame, so no nodes are
+ * created while animating. Sines and cosines of the points are computed only when the point count or the multiplier
+ * changes.
+ *
+ * @author Michal Douša
+ */
 public final class TimesTablesPBAnimationTimer implements MDFXProgressBar.Animator {
 
     private int pointCount;
     private int multiplier;
 
+    // Sine and cosine of the angle of every point and of the point it is joined with
+    private double[] startSin;
+    private double[] startCos;
+    private double[] endSin;
+    private double[] endCos;
+
     public TimesTablesPBAnimationTimer() {
         this(200, 51);
     }
@@ -28,6 +42,7 @@ public final class TimesTablesPBAnimationTimer implements MDFXProgressBar.Animat
 
     public void setPointCount(final int pointCount) {
         this.pointCount = Math.max(pointCount, 20);
+        updateTables();
     }
 
     public int getMultiplier() {
@@ -36,8 +51,41 @@ public final class TimesTablesPBAnimationTimer implements MDFXProgressBar.Animat
 
     public void setMultiplier(final int multiplier) {
         this.multiplier = multiplier;
+        updateTables();
+    }
+
+    private void updateTables() {
+        if (pointCount == 0)
+            return;
+        double unitAngle = 2.0 * Math.PI / (double) pointCount;
+        double[] startSin = new double[pointCount], startCos = new double[pointCount];
+        double[] endSin = new double[pointCount], endCos = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            startSin[i] = Math.sin(i * unitAngle);
+            startCos[i] = Math.cos(i * unitAngle);
+            // Multiples of the angle are taken modulo full circle, so they stay exact for big multipliers
+            int end = (int) Math.floorMod((long) multiplier * i, (long) pointCount);
+            endSin[i] = Math.sin(end * unitAngle);
+            endCos[i] = Math.cos(end * unitAngle);
+        }
+        this.startSin = startSin;
+        this.startCos = startCos;
+        this.endSin = endSin;
+        this.endCos = endCos;
+    }
+
+    // Canvas of the progress bar, created when the progress bar is refreshed for the first time
+    private Canvas canvasOf(final MDFXProgressBar progressBar) {
+        Object canvas = progressBar.getProperties().get(this);
+        if (!(canvas instanceof Canvas) || ((Canvas) canvas).getParent() != progressBar) {
+            canvas = new Canvas();
+            progressBar.getProperties().put(this, canvas);
+            progressBar.getChildren().setAll((Canvas) canvas);
+        }
+        return (Canvas) canvas;
     }
 
+
     @Override
     public strictfp void refresh(final long nanoTime, final MDFXProgressBar progressBar) {
         double timeSecs = nanoTime / 1000000000.0;
@@ -53,53 +101,54 @@ public final class TimesTablesPBAnimationTimer implements MDFXProgressBar.Animat
         double progress = pbValue == INDETERMINATE ? (reversed ? 1 - animationProgress % 1.0 : animationProgress % 1.0) : pbValue;
         double shownLinesCount = pointCount * progress;
         double lineStrokeWidth = .05 * Math.exp(d / 300);
-        double unitAngle = 2.0 * Math.PI / (double) pointCount;
         double phase = (animationProgress - 1.0) * Math.PI / 4.0;
         double phaseDeg = (animationProgress - 1.0) * 45.0;
         double arcStart = progressBar.getValue() == INDETERMINATE ? (-phaseDeg - 90.0 + (reversed ? 360 : -360) * progress) : 90.0;
         double arcLength = (reversed ? -360 : 360) * (pbValue == INDETERMINATE ? progress : -pbValue);
 
-        Arc arc = new Arc();
-        arc.setCenterX(centerX);
-        arc.setCenterY(centerY);
-        arc.setRadiusX(r);
-        arc.setRadiusY(r);
-        arc.setStartAngle(arcStart);
-        arc.setLength(arcLength);
-        arc.setStroke(Color.BLACK);
-        arc.setStrokeWidth(20.0 * lineStrokeWidth);
-        arc.setFill(Color.TRANSPARENT);
-
-        Ellipse circle = new Ellipse();
-        circle.setCenterX(centerX);
-        circle.setCenterY(centerY);
-        circle.setRadiusX(r);
-        circle.setRadiusY(r);
-        circle.setStroke(Color.BLACK);
-        circle.setStrokeWidth(lineStrokeWidth);
-        circle.setFill(Color.TRANSPARENT);
-
-        Line[] lines = new Line[(int)Math.ceil(shownLinesCount)];
-
-        for (int i = 0; i < lines.length; i++) {
-            double angle = i * unitAngle * (reversed ? -1.0 : 1.0);
-            Line line = new Line();
-            line.setStartX(centerX - r * Math.sin(angle + phase));
-            line.setStartY(centerY + r * Math.cos(angle + phase));
-            line.setEndX(centerX - r * Math.sin(multiplier * angle + phase));
-            line.setEndY(centerY + r * Math.cos(multiplier * angle + phase));
-            line.setStroke(Color.BLACK);
-            line.setStrokeWidth((((i == (lines.length - 1)) && ((shownLinesCount % 1.0) != 0.0)) ?
-                    (shownLinesCount % 1.0) : 1.0) * lineStrokeWidth);
-            lines[i] = line;
+        Canvas canvas = canvasOf(progressBar);
+        if (canvas.getWidth() != progressBar.getWidth())
+            canvas.setWidth(progressBar.getWidth());
+        if (canvas.getHeight() != progressBar.getHeight())
+            canvas.setHeight(progressBar.getHeight());
+        GraphicsContext gctx = canvas.getGraphicsContext2D();
+        gctx.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gctx.setStroke(Color.BLACK);
+
+        // Angle of point i is i * unitAngle + phase, or -i * unitAngle + phase when reversed
+        double phaseSin = Math.sin(phase), phaseCos = Math.cos(phase);
+        double direction = reversed ? -1.0 : 1.0;
+        int lineCount = Math.min((int) Math.ceil(shownLinesCount), pointCount);
+        int fullLineCount = shownLinesCount % 1.0 != 0.0 ? lineCount - 1 : lineCount;
+
+        // Lines of full width are stroked as one path
+        gctx.setLineWidth(lineStrokeWidth);
+        gctx.beginPath();
+        for (int i = 0; i < fullLineCount; i++)
+            addLine(gctx, i, centerX, centerY, r, direction, phaseSin, phaseCos);
+        gctx.stroke();
+
+        // The last line gets thicker as it is being shown
+        if (fullLineCount < lineCount) {
+            gctx.setLineWidth((shownLinesCount % 1.0) * lineStrokeWidth);
+            gctx.beginPath();
+            addLine(gctx, fullLineCount, centerX, centerY, r, direction, phaseSin, phaseCos);
+            gctx.stroke();
         }
 
-        progressBar.getChildren().clear();
-
-        for (Line line : lines)
-            progressBar.getChildren().add(line);
+        gctx.setLineWidth(lineStrokeWidth);
+        gctx.strokeOval(centerX - r, centerY - r, d, d);
+        gctx.setLineWidth(20.0 * lineStrokeWidth);
+        gctx.strokeArc(centerX - r, centerY - r, d, d, arcStart, arcLength, ArcType.OPEN);
+    }
 
-        progressBar.getChildren().add(circle);
-        progressBar.getChildren().add(arc);
+    // Adds line from point i to the point it is joined with, sin(a + phase) and cos(a + phase) are expanded
+    private void addLine(final GraphicsContext gctx, final int i, final double centerX, final double centerY,
+                         final double r, final double direction, final double phaseSin, final double phaseCos) {
+        double sin = direction * startSin[i], cos = startCos[i];
+        gctx.moveTo(centerX - r * (sin * phaseCos + cos * phaseSin), centerY + r * (cos * phaseCos - sin * phaseSin));
+        sin = direction * endSin[i];
+        cos = endCos[i];
+        gctx.lineTo(centerX - r * (sin * phaseCos + cos * phaseSin), centerY + r * (cos * phaseCos - sin * phaseSin));
     }
-}
\ No newline at end of file
+}
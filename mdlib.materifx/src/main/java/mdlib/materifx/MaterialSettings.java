@@ -1,12 +1,25 @@
 package mdlib.materifx;
 
+import javafx.collections.ObservableList;
 import javafx.scene.Scene;
 import javafx.scene.paint.Color;
 import mdlib.materifx.resources.MateriFXResources;
 import mdlib.utils.ColorUtilities;
 import mdlib.utils.FilteredAtomicReference;
-
+import mdlib.utils.metrics.StartupProfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class contains utilities for JavaFX applications that helps to make this
@@ -36,6 +49,17 @@ public final class MaterialSettings {
     private static final FilteredAtomicReference<Color> secondaryVariantColor = new FilteredAtomicReference<>(Objects::nonNull, Color.DARKCYAN);
     private static final FilteredAtomicReference<Byte> theme = new FilteredAtomicReference<>(value -> value != null && (value == THEME_LIGHT || value == THEME_DARK), THEME_LIGHT);
 
+    // Faces of Roboto font which are loaded in background, the regular one is loaded by launchInit() itself
+    private static final String[] BACKGROUND_FONTS = {"Roboto-Italic.ttf", "Roboto-Medium.ttf",
+            "Roboto-MediumItalic.ttf", "Roboto-Bold.ttf", "Roboto-BoldItalic.ttf"};
+    // Completed when all fonts are loaded, null until launchInit() is called
+    private static CompletableFuture<Void> fontsLoaded;
+
+    // URLs of generated theme stylesheets by colors and theme, see themeStylesheet()
+    private static final HashMap<String, String> themeStylesheets = new HashMap<>();
+    // Activities whose theme stylesheet is replaced by applyTheme()
+    private static final Set<Scene> activities = Collections.newSetFromMap(new WeakHashMap<>());
+
     /**
      * Returns reference to primary color of the application based on this
      * implementation of Google's Material Design. Primary color cannot be set to
@@ -90,52 +114,131 @@ public final class MaterialSettings {
     }
 
     /**
-     * Initializes the application. Loads all required fonts.
+     * Initializes the application. Loads the regular face of Roboto font and starts loading the other faces in
+     * background, so they are loaded while JavaFX starts. Calling this method more times has no effect.
+     *
+     * <p>Times of loading are recorded as {@code fonts} and {@code fonts.background} phases of {@link
+     * StartupProfile}.</p>
+     *
+     * @see #fontsLoaded()
      */
-    public static void launchInit() {
-        // Load Roboto font
+    public static synchronized void launchInit() {
+        if (fontsLoaded != null)
+            return;
+        long start = System.nanoTime();
         MateriFXResources.loadFont("Roboto-Regular.ttf");
-        MateriFXResources.loadFont("Roboto-Italic.ttf");
-        MateriFXResources.loadFont("Roboto-Medium.ttf");
-        MateriFXResources.loadFont("Roboto-MediumItalic.ttf");
-        MateriFXResources.loadFont("Roboto-Bold.ttf");
-        MateriFXResources.loadFont("Roboto-BoldItalic.ttf");
+        StartupProfile.record("fonts", start);
+
+        CompletableFuture<Void> loaded = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            long backgroundStart = System.nanoTime();
+            try {
+                for (String font : BACKGROUND_FONTS)
+                    MateriFXResources.loadFont(font);
+                StartupProfile.record("fonts.background", backgroundStart);
+                loaded.complete(null);
+            } catch (RuntimeException exc) {
+                loaded.completeExceptionally(exc);
+            }
+        }, "MateriFXFonts");
+        thread.setDaemon(true);
+        thread.start();
+        fontsLoaded = loaded;
+    }
+
+    /**
+     * Returns future completed when all fonts started by {@link #launchInit()} are loaded. If {@link #launchInit()}
+     * has not been called, the returned future is already completed.
+     *
+     * @return future of the loaded fonts
+     */
+    public static synchronized CompletableFuture<Void> fontsLoaded() {
+        return fontsLoaded == null ? CompletableFuture.completedFuture(null) : fontsLoaded;
     }
 
     /**
-     * Initializes given {@link Scene} as an activity used in Android apps.
+     * Initializes given {@link Scene} as an activity used in Android apps. The scene gets the core Material stylesheet
+     * and the stylesheet of the current theme, see {@link #themeStylesheet()}. Both are shared by all activities, so
+     * JavaFX parses them only once. Initializing the same scene again has no effect.
      *
      * @param activity the {@link Scene} instance to initialize
      * @throws NullPointerException if given {@link Scene} is {@code null}
+     * @throws java.util.concurrent.CompletionException if a font started by {@link #launchInit()} cannot be loaded
+     * @see #applyTheme()
      */
     public static void activityPostInit(final Scene activity) {
+        // Stylesheets use the other faces too, fonts not loaded before the first CSS pass would not be used at all.
+        // They have been loading since launchInit(), so usually there is nothing to wait for.
+        long start = System.nanoTime();
+        fontsLoaded().join();
+        StartupProfile.record("fonts.wait", start);
+
+        start = System.nanoTime();
+        synchronized (MaterialSettings.class) {
+            if (activities.add(activity))
+                activity.getStylesheets().addAll(MateriFXResources.getResourceURL("material.css").toExternalForm(),
+                        themeStylesheet());
+        }
+        StartupProfile.record("css", start);
+    }
 
-        // Core Material CSS
-        activity.getStylesheets().add(MateriFXResources.getResourceURL("material.css").toExternalForm());
-
-        // Light or dark theme CSS
-        activity.getStylesheets().add(MateriFXResources.getResourceURL(theme().get() == THEME_LIGHT ?
-                "material-light.css" : "material-dark.css").toExternalForm());
-
-        // MATERIAL COLOR THEMING
-
-        // Calculate on-primary and on-secondary
-        Color onPrimary = primaryColor().get().getBrightness() > .5 ? Color.WHITE : Color.BLACK;
-        Color onSecondary = secondaryColor().get().getBrightness() > .5 ? Color.WHITE : Color.BLACK;
-
-        // Calculate
-
-        // Build inline CSS style for root element
-        StringBuilder inlineStyleBuilder = new StringBuilder();
-        inlineStyleBuilder.append(activity.getRoot().getStyle());
-        inlineStyleBuilder.append("; -mdc-primary: ");
-        inlineStyleBuilder.append(ColorUtilities.colorToHexRGB(primaryColor().get()));
-        inlineStyleBuilder.append("; -mdc-onprimary: ");
-        inlineStyleBuilder.append(ColorUtilities.colorToHexRGB(onPrimary));
-        inlineStyleBuilder.append("; -mdc-secondary: ");
-        inlineStyleBuilder.append(ColorUtilities.colorToHexRGB(secondaryColor().get()));
-        inlineStyleBuilder.append("; -mdc-onsecondary: ");
-        inlineStyleBuilder.append(ColorUtilities.colorToHexRGB(onSecondary));
-        activity.getRoot().setStyle(inlineStyleBuilder.toString());
+    /**
+     * Applies the current colors and theme to all initialized activities. Only the theme stylesheet is replaced in
+     * them, the core Material stylesheet is kept. Must be called on JavaFX application thread.
+     *
+     * @see #activityPostInit(Scene)
+     */
+    public static synchronized void applyTheme() {
+        String stylesheet = themeStylesheet();
+        for (Scene activity : activities) {
+            ObservableList<String> stylesheets = activity.getStylesheets();
+            for (int i = 0; i < stylesheets.size(); i++)
+                if (themeStylesheets.containsValue(stylesheets.get(i)) && !stylesheets.get(i).equals(stylesheet))
+                    stylesheets.set(i, stylesheet);
+        }
+    }
+
+    /**
+     * Returns URL of the stylesheet of the current theme: the light or dark theme with the current primary and
+     * secondary colors. The stylesheet is generated once for every combination of colors and theme into a temporary
+     * file, which is deleted when the JVM exits.
+     *
+     * @return URL of the stylesheet
+     * @throws java.io.UncheckedIOException if the stylesheet cannot be written
+     */
+    public static synchronized String themeStylesheet() {
+        Color primary = primaryColor().get();
+        Color secondary = secondaryColor().get();
+        byte theme = theme().get();
+        String key = ColorUtilities.colorToHexRGB(primary) + ColorUtilities.colorToHexRGB(secondary) + theme;
+        String url = themeStylesheets.get(key);
+        if (url != null)
+            return url;
+
+        // On-primary and on-secondary colors
+        Color onPrimary = primary.getBrightness() > .5 ? Color.WHITE : Color.BLACK;
+        Color onSecondary = secondary.getBrightness() > .5 ? Color.WHITE : Color.BLACK;
+
+        // Light or dark theme followed by the colors
+        StringBuilder css = new StringBuilder();
+        try (InputStream stream = MateriFXResources.loadToStream(theme == THEME_LIGHT ?
+                "material-light.css" : "material-dark.css")) {
+            css.append(new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+            css.append("\n\n.root {\n");
+            css.append("    -mdc-primary: ").append(ColorUtilities.colorToHexRGB(primary)).append(";\n");
+            css.append("    -mdc-onprimary: ").append(ColorUtilities.colorToHexRGB(onPrimary)).append(";\n");
+            css.append("    -mdc-secondary: ").append(ColorUtilities.colorToHexRGB(secondary)).append(";\n");
+            css.append("    -mdc-onsecondary: ").append(ColorUtilities.colorToHexRGB(onSecondary)).append(";\n");
+            css.append("}\n");
+
+            Path file = Files.createTempFile("materifx-theme-", ".css");
+            file.toFile().deleteOnExit();
+            Files.write(file, css.toString().getBytes(StandardCharsets.UTF_8));
+            url = file.toUri().toString();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        themeStylesheets.put(key, url);
+        return url;
     }
 }
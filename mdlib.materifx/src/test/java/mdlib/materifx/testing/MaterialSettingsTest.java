@@ -0,0 +1,49 @@
+package mdlib.materifx.testing;
+
+import mdlib.materifx.MaterialSettings;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import javafx.scene.paint.Color;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MaterialSettingsTest {
+
+    @Test
+    public void test() throws IOException {
+        // Without launchInit() there are no fonts to wait for
+        assertTrue(MaterialSettings.fontsLoaded().isDone());
+
+        Color primary = MaterialSettings.primaryColor().get();
+        byte theme = MaterialSettings.theme().get();
+        try {
+            // Stylesheets are generated once for every combination of colors and theme
+            MaterialSettings.primaryColor().set(Color.valueOf("#5d4037"));
+            MaterialSettings.theme().set(MaterialSettings.THEME_LIGHT);
+            String light = MaterialSettings.themeStylesheet();
+            assertEquals(light, MaterialSettings.themeStylesheet());
+            String css = new String(Files.readAllBytes(Paths.get(URI.create(light))));
+            assertTrue(css.contains("-mdc-primary: #5D4037FF;"), css);
+            assertTrue(css.contains("-mdc-onprimary: #000000FF;"), css);
+            assertTrue(css.contains("-mdc-activity-background: #f0f0f0;"), css);
+
+            MaterialSettings.theme().set(MaterialSettings.THEME_DARK);
+            String dark = MaterialSettings.themeStylesheet();
+            assertNotEquals(light, dark);
+            MaterialSettings.primaryColor().set(Color.valueOf("#a1887f"));
+            assertNotEquals(dark, MaterialSettings.themeStylesheet());
+            MaterialSettings.primaryColor().set(Color.valueOf("#5d4037"));
+            MaterialSettings.theme().set(MaterialSettings.THEME_LIGHT);
+            assertEquals(light, MaterialSettings.themeStylesheet());
+        } finally {
+            MaterialSettings.primaryColor().set(primary);
+            MaterialSettings.theme().set(theme);
+        }
+    }
+}
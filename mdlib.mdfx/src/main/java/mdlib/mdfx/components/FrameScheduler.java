@@ -0,0 +1,189 @@
+package mdlib.mdfx.components;
+
+import javafx.animation.AnimationTimer;
+import javafx.beans.InvalidationListener;
+import javafx.beans.value.ChangeListener;
+import javafx.geometry.Bounds;
+import javafx.scene.Scene;
+import javafx.stage.Window;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
+
+/**
+ * Decides when the {@link MDFXProgressBar.Animator} of a {@link MDFXProgressBar} is refreshed. The timer runs only
+ * while the progress bar is visible in a showing window, at least partly inside the scene and either indeterminate or
+ * with a change which has not been shown yet. Frames are throttled to the maximum frame rate of the progress bar and
+ * when a refresh takes longer than one frame, following frames are skipped for the same time, so a slow animator does
+ * not take all the time of JavaFX application thread.
+ *
+ * <p>Render time of every frame is recorded in the {@code mdfx.progressbar.frame} histogram, see {@link
+ * Metrics#histogram(String)}.</p>
+ *
+ * @author Michal Douša
+ */
+final class FrameScheduler {
+
+    private static final Histogram FRAME_TIME = Metrics.histogram("mdfx.progressbar.frame");
+
+    // Budget of a frame when the frame rate is not limited, one pulse at 60 Hz
+    private static final long PULSE_NANOS = 16_666_667;
+    // Pulses come a bit earlier or later, frames due within this time are not delayed to the next pulse
+    private static final long JITTER_NANOS = 2_000_000;
+
+    private final MDFXProgressBar progressBar;
+    private final AnimationTimer timer;
+    private boolean running;
+
+    private double maxFrameRate = 60;
+    private boolean showing;
+    private boolean onScreen;
+    // Set when something has changed which the last frame does not show
+    private boolean dirty = true;
+
+    private long lastFrameNanos = Long.MIN_VALUE;
+    private long skipUntilNanos = Long.MIN_VALUE;
+    private long lastRenderNanos;
+    private long skippedFrames;
+
+    FrameScheduler(final MDFXProgressBar progressBar) {
+        this.progressBar = progressBar;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(final long now) {
+                frame(now);
+            }
+        };
+
+        // Visible in a showing window
+        InvalidationListener showingListener = observable -> updateShowing();
+        ChangeListener<Window> windowListener = (observable, oldWindow, newWindow) -> {
+            if (oldWindow != null)
+                oldWindow.showingProperty().removeListener(showingListener);
+            if (newWindow != null)
+                newWindow.showingProperty().addListener(showingListener);
+            updateShowing();
+        };
+        // Inside the scene
+        InvalidationListener boundsListener = observable -> updateOnScreen();
+        progressBar.sceneProperty().addListener((observable, oldScene, newScene) -> {
+            if (oldScene != null) {
+                oldScene.windowProperty().removeListener(windowListener);
+                oldScene.widthProperty().removeListener(boundsListener);
+                oldScene.heightProperty().removeListener(boundsListener);
+                if (oldScene.getWindow() != null)
+                    oldScene.getWindow().showingProperty().removeListener(showingListener);
+            }
+            if (newScene != null) {
+                newScene.windowProperty().addListener(windowListener);
+                newScene.widthProperty().addListener(boundsListener);
+                newScene.heightProperty().addListener(boundsListener);
+                if (newScene.getWindow() != null)
+                    newScene.getWindow().showingProperty().addListener(showingListener);
+            }
+            updateShowing();
+            updateOnScreen();
+        });
+        progressBar.visibleProperty().addListener(showingListener);
+        progressBar.localToSceneTransformProperty().addListener(boundsListener);
+        progressBar.layoutBoundsProperty().addListener(observable -> {
+            updateOnScreen();
+            invalidate();
+        });
+    }
+
+    /**
+     * Requests a frame, e.g. after the value or the animator is changed.
+     */
+    void invalidate() {
+        dirty = true;
+        update();
+    }
+
+    double getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    void setMaxFrameRate(final double maxFrameRate) {
+        if (!(maxFrameRate >= 0))
+            throw new IllegalArgumentException("Illegal maximum frame rate: " + maxFrameRate);
+        this.maxFrameRate = maxFrameRate;
+    }
+
+    long getLastRenderNanos() {
+        return lastRenderNanos;
+    }
+
+    long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    private void updateShowing() {
+        Scene scene = progressBar.getScene();
+        Window window = scene == null ? null : scene.getWindow();
+        boolean showing = progressBar.isVisible() && window != null && window.isShowing();
+        // Content of the window may be lost while it is hidden
+        if (showing && !this.showing)
+            dirty = true;
+        this.showing = showing;
+        update();
+    }
+
+    private void updateOnScreen() {
+        Scene scene = progressBar.getScene();
+        boolean onScreen = false;
+        if (scene != null) {
+            Bounds bounds = progressBar.localToScene(progressBar.getLayoutBounds());
+            onScreen = bounds.getWidth() > 0 && bounds.getHeight() > 0 && bounds.getMaxX() > 0
+                    && bounds.getMaxY() > 0 && bounds.getMinX() < scene.getWidth()
+                    && bounds.getMinY() < scene.getHeight();
+        }
+        if (onScreen != this.onScreen) {
+            this.onScreen = onScreen;
+            update();
+        }
+    }
+
+    private boolean needsFrames() {
+        return showing && onScreen && (dirty || progressBar.getValue() == MDFXProgressBar.INDETERMINATE);
+    }
+
+    // Starts or stops the timer
+    private void update() {
+        boolean run = needsFrames();
+        if (run && !running)
+            timer.start();
+        else if (!run && running)
+            timer.stop();
+        running = run;
+    }
+
+    private void frame(final long now) {
+        if (!needsFrames()) {
+            update();
+            return;
+        }
+
+        // Throttling to the maximum frame rate
+        long interval = maxFrameRate > 0 ? (long) (1e9 / maxFrameRate) : 0;
+        if (lastFrameNanos != Long.MIN_VALUE && now - lastFrameNanos < interval - JITTER_NANOS)
+            return;
+        // Catching up after a frame which has overrun its budget
+        if (now < skipUntilNanos) {
+            skippedFrames++;
+            return;
+        }
+
+        dirty = false;
+        long start = System.nanoTime();
+        progressBar.getAnimator().refresh(now, progressBar);
+        long renderNanos = System.nanoTime() - start;
+        FRAME_TIME.record(renderNanos);
+        lastRenderNanos = renderNanos;
+        lastFrameNanos = now;
+        if (renderNanos > Math.max(interval, PULSE_NANOS))
+            skipUntilNanos = now + renderNanos;
+
+        // A determinate progress bar is not refreshed again until it changes
+        update();
+    }
+}
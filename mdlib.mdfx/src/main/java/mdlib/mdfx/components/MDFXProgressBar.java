@@ -1,7 +1,6 @@
 package mdlib.mdfx.components;
 
 import javafx.animation.AnimationTimer;
-import javafx.beans.binding.Bindings;
 import javafx.scene.layout.Pane;
 
 public final class MDFXProgressBar extends Pane {
@@ -15,7 +14,7 @@ public final class MDFXProgressBar extends Pane {
 
     private Animator animator;
     private double value;
-    private final PBAnimationTimer internalAnimationTimer;
+    private final FrameScheduler frameScheduler;
 
     /**
      * Returns the value of the progress bar as {@code double} in range from 0 to 1
@@ -38,6 +37,7 @@ public final class MDFXProgressBar extends Pane {
         if (value != INDETERMINATE && (value < 0 || value > 1))
             throw new IllegalArgumentException("Illegal progress bar value: " + value);
         this.value = value;
+        frameScheduler.invalidate();
     }
 
     /**
@@ -57,6 +57,46 @@ public final class MDFXProgressBar extends Pane {
         if (animator == null)
             throw new NullPointerException("Animator cannot be null");
         this.animator = animator;
+        frameScheduler.invalidate();
+    }
+
+    /**
+     * Returns the maximum count of frames per second the progress bar is refreshed with. Zero means the progress bar is
+     * refreshed in every JavaFX pulse.
+     *
+     * @return the maximum frame rate
+     */
+    public double getMaxFrameRate() {
+        return frameScheduler.getMaxFrameRate();
+    }
+
+    /**
+     * Sets the maximum count of frames per second the progress bar is refreshed with. Zero means the progress bar is
+     * refreshed in every JavaFX pulse. Default is 60 frames per second.
+     *
+     * @param maxFrameRate the maximum frame rate
+     * @throws IllegalArgumentException if the frame rate is negative or NaN
+     */
+    public void setMaxFrameRate(final double maxFrameRate) {
+        frameScheduler.setMaxFrameRate(maxFrameRate);
+    }
+
+    /**
+     * Returns how long the last {@link Animator#refresh(long, MDFXProgressBar)} call took.
+     *
+     * @return render time of the last frame in nanoseconds
+     */
+    public long getLastFrameRenderTime() {
+        return frameScheduler.getLastRenderNanos();
+    }
+
+    /**
+     * Returns how many frames were skipped, because the previous frame took longer than its budget.
+     *
+     * @return count of skipped frames
+     */
+    public long getSkippedFrameCount() {
+        return frameScheduler.getSkippedFrames();
     }
 
     /**
@@ -77,11 +117,8 @@ public final class MDFXProgressBar extends Pane {
      */
     public MDFXProgressBar(final double value, final Animator animator) {
 
-        internalAnimationTimer = new PBAnimationTimer(this);
-        Bindings.selectBoolean(this.sceneProperty(), "window", "showing").addListener((observable, wasShown, isShown) -> {
-            if (isShown) internalAnimationTimer.start();
-            else internalAnimationTimer.stop();
-        });
+        // Refreshes the progress bar only while it is shown and changing
+        frameScheduler = new FrameScheduler(this);
 
         setValue(value);
         setAnimator(animator);
@@ -100,17 +137,4 @@ public final class MDFXProgressBar extends Pane {
          */
         void refresh(long nanoTime, MDFXProgressBar progressBar);
     }
-
-    private static final class PBAnimationTimer extends AnimationTimer {
-        private final MDFXProgressBar progressBar;
-
-        PBAnimationTimer(final MDFXProgressBar progressBar) {
-            this.progressBar = progressBar;
-        }
-
-        @Override
-        public void handle(final long now) {
-            progressBar.getAnimator().refresh(now, progressBar);
-        }
-    }
 }
@@ -1,5 +1,6 @@
 module mdlib.mdfx {
     requires javafx.base;
     requires javafx.controls;
+    requires mdlib.utils;
     exports mdlib.mdfx.components;
 }
\ No newline at end of file
@@ -203,6 +203,6 @@ public final class BasicTreeNode<E> implements TreeNode<E, BasicTreeNode<E>> {
     private void setParentTree(final BasicTree<E> parent) {
         this.parentTree = parent;
         for (BasicTreeNode<E> child : children)
-            setParentTree(parent);
+            child.setParentTree(parent);
     }
 }
@@ -0,0 +1,190 @@
+package mdlib.utils.debug;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes log messages from a background thread. Messages are passed through a bounded ring buffer of preallocated
+ * slots, so logging does not allocate anything except the message arguments and never waits for console I/O. When the
+ * buffer is full, the message is dropped or the logging thread waits, see {@link Logger.OverflowPolicy}.
+ *
+ * @author Michal Douša
+ * @see Logger
+ */
+final class AsyncAppender implements Runnable {
+
+    // Mutable slot of the ring buffer
+    private static final class Event {
+        // Sequence number of the message in the slot, the slot is free for writing until it is set
+        volatile long sequence = -1;
+        LogLevel level;
+        String loggerName;
+        String pattern;
+        Object argument1, argument2;
+        Object[] arguments;
+        int argumentCount;
+    }
+
+    private final Event[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final PrintStream out, err;
+    private final StringBuilder line = new StringBuilder(256);
+    private final Thread consumer;
+    private volatile long head;
+    private volatile boolean consumerParked;
+    private volatile Logger.OverflowPolicy policy = Logger.OverflowPolicy.DROP;
+    private long reportedDropped;
+
+    /**
+     * Creates the appender and starts its thread.
+     *
+     * @param capacity capacity of the ring buffer, rounded up to a power of two
+     * @param out      stream for messages less severe than {@link LogLevel#WARNING}
+     * @param err      stream for warnings and errors
+     */
+    AsyncAppender(final int capacity, final PrintStream out, final PrintStream err) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Event[size];
+        for (int i = 0; i < size; i++)
+            slots[i] = new Event();
+        mask = size - 1;
+        this.out = out;
+        this.err = err;
+        consumer = new Thread(this, "AsyncAppender");
+        consumer.setDaemon(true);
+        consumer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "AsyncAppenderShutdown"));
+    }
+
+    void setPolicy(final Logger.OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Enqueues a message. Arguments are formatted later on the appender thread.
+     */
+    void append(final LogLevel level, final String loggerName, final String pattern, final Object argument1,
+                final Object argument2, final Object[] arguments, final int argumentCount) {
+        long sequence;
+        while (true) {
+            sequence = tail.get();
+            if (sequence - head >= slots.length) {
+                if (policy == Logger.OverflowPolicy.DROP) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                // Back-pressure: wait until the appender thread makes room
+                LockSupport.unpark(consumer);
+                LockSupport.parkNanos(10_000);
+                continue;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1))
+                break;
+        }
+        Event event = slots[(int) sequence & mask];
+        event.level = level;
+        event.loggerName = loggerName;
+        event.pattern = pattern;
+        event.argument1 = argument1;
+        event.argument2 = argument2;
+        event.arguments = arguments;
+        event.argumentCount = argumentCount;
+        // Publishes the slot to the appender thread
+        event.sequence = sequence;
+        if (consumerParked)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Waits until all messages enqueued so far are written.
+     */
+    void flush() {
+        long target = tail.get();
+        while (head < target && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long sequence = head;
+            Event event = slots[(int) sequence & mask];
+            if (event.sequence != sequence) {
+                // Nothing to write, so the streams are flushed before sleeping
+                reportDropped();
+                out.flush();
+                err.flush();
+                consumerParked = true;
+                if (slots[(int) sequence & mask].sequence != sequence)
+                    LockSupport.parkNanos(50_000_000);
+                consumerParked = false;
+                continue;
+            }
+            try {
+                write(event);
+            } catch (RuntimeException exc) {
+                // Failing toString() of an argument must not stop logging
+                line.setLength(0);
+                line.append("[ERROR: ").append(AsyncAppender.class.getName()).append("] Cannot format message: ")
+                        .append(exc);
+                err.println(line);
+            }
+            event.pattern = null;
+            event.argument1 = event.argument2 = null;
+            event.arguments = null;
+            head = sequence + 1;
+        }
+    }
+
+    private void write(final Event event) {
+        line.setLength(0);
+        line.append('[').append(event.level.name()).append(": ").append(event.loggerName).append("] ");
+        Throwable throwable = format(event);
+        PrintStream stream = event.level.compareTo(LogLevel.WARNING) >= 0 ? err : out;
+        stream.append(line).append(System.lineSeparator());
+        if (throwable != null)
+            throwable.printStackTrace(stream);
+    }
+
+    // Replaces {} placeholders by the arguments, returns the last argument if it is a Throwable without a placeholder
+    private Throwable format(final Event event) {
+        String pattern = event.pattern;
+        int argument = 0, from = 0;
+        while (true) {
+            int placeholder = argument < event.argumentCount ? pattern.indexOf("{}", from) : -1;
+            if (placeholder < 0)
+                break;
+            line.append(pattern, from, placeholder);
+            line.append(argument(event, argument++));
+            from = placeholder + 2;
+        }
+        line.append(pattern, from, pattern.length());
+        if (argument < event.argumentCount && argument(event, event.argumentCount - 1) instanceof Throwable)
+            return (Throwable) argument(event, event.argumentCount - 1);
+        return null;
+    }
+
+    private static Object argument(final Event event, final int index) {
+        if (event.arguments != null)
+            return event.arguments[index];
+        return index == 0 ? event.argument1 : event.argument2;
+    }
+
+    private void reportDropped() {
+        long count = dropped.get();
+        if (count > reportedDropped) {
+            err.println("[WARNING: " + AsyncAppender.class.getName() + "] " + (count - reportedDropped)
+                    + " log messages dropped, the buffer was full");
+            reportedDropped = count;
+        }
+    }
+}
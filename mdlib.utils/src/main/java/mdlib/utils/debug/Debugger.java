@@ -1,5 +1,12 @@
 package mdlib.utils.debug;
 
+/**
+ * Static shortcuts for logging. Kept for compatibility, they are facades of {@link Logger}, so messages are written
+ * asynchronously and only if the level is enabled for the logging class.
+ *
+ * @author Michal Douša
+ * @see Logger
+ */
 public final class Debugger {
 
     // Do not create any instances
@@ -13,12 +20,7 @@ public final class Debugger {
      * @param info         any object, will be transformed into {@link String}
      */
     public static void info(final Class<?> loggingClass, final Object info) {
-        StringBuilder sbuilder = new StringBuilder();
-        sbuilder.append("[INFO: ");
-        sbuilder.append(loggingClass.getName());
-        sbuilder.append("] ");
-        sbuilder.append(info);
-        System.out.println(sbuilder);
+        Logger.getLogger(loggingClass).log(LogLevel.INFO, "{}", info);
     }
 
     /**
@@ -28,12 +30,7 @@ public final class Debugger {
      * @param info         any object, will be transformed into {@link String}
      */
     public static void warning(final Class<?> loggingClass, final Object info) {
-        StringBuilder sbuilder = new StringBuilder();
-        sbuilder.append("[WARNING: ");
-        sbuilder.append(loggingClass.getName());
-        sbuilder.append("]");
-        sbuilder.append(info);
-        System.err.println(sbuilder);
+        Logger.getLogger(loggingClass).log(LogLevel.WARNING, "{}", info);
     }
 
     /**
@@ -43,11 +40,6 @@ public final class Debugger {
      * @param info         any object, will be transformed into {@link String}
      */
     public static void error(final Class<?> loggingClass, final Object info) {
-        StringBuilder sbuilder = new StringBuilder();
-        sbuilder.append("[ERROR: ");
-        sbuilder.append(loggingClass.getName());
-        sbuilder.append("] ");
-        sbuilder.append(info);
-        System.err.println(sbuilder);
+        Logger.getLogger(loggingClass).log(LogLevel.ERROR, "{}", info);
     }
 }
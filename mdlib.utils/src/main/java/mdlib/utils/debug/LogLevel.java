@@ -0,0 +1,35 @@
+package mdlib.utils.debug;
+
+/**
+ * Severity levels of log messages, from the least to the most severe. A {@link Logger} passes messages of its level
+ * and all more severe levels.
+ *
+ * @author Michal Douša
+ * @see Logger#setLevel(String, LogLevel)
+ */
+public enum LogLevel {
+    /**
+     * Very detailed messages, e.g. every line exchanged with a process.
+     */
+    TRACE,
+    /**
+     * Messages useful when debugging.
+     */
+    DEBUG,
+    /**
+     * Informational messages.
+     */
+    INFO,
+    /**
+     * Something unexpected which the application can recover from.
+     */
+    WARNING,
+    /**
+     * Errors.
+     */
+    ERROR,
+    /**
+     * Used only as a level of a {@link Logger}, turns logging off.
+     */
+    OFF
+}
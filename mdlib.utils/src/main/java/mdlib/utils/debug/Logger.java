@@ -0,0 +1,263 @@
+package mdlib.utils.debug;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logger whose messages are written asynchronously by a background thread, so logging never blocks on console I/O.
+ * Levels can be set per class or package and are checked before anything is formatted. Messages are patterns with
+ * {@code {}} placeholders which are replaced by the arguments on the background thread, e.g.:
+ *
+ * <pre>{@code
+ * private static final Logger LOGGER = Logger.getLogger(MyClass.class);
+ * ...
+ * LOGGER.debug("Read line [{}]: '{}'", name, line);
+ * }</pre>
+ * <p>
+ * As arguments are converted to strings later, they should not be modified after they were logged. If the last
+ * argument is a {@link Throwable} not used by any placeholder, its stack trace is written too.
+ *
+ * @author Michal Douša
+ * @see #setLevel(String, LogLevel)
+ * @see #setOverflowPolicy(OverflowPolicy)
+ * @see Debugger
+ */
+public final class Logger {
+
+    /**
+     * What happens when messages are logged faster than they can be written and the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The message is dropped. Count of dropped messages is written once the buffer has room again.
+         */
+        DROP,
+        /**
+         * The logging thread waits until there is room in the buffer.
+         */
+        BLOCK
+    }
+
+    /**
+     * Name of the system property with the default level, e.g. {@code -Dmdlib.utils.debug.level=DEBUG}. Level {@link
+     * LogLevel#INFO} is used if it is not set.
+     */
+    public static final String LEVEL_PROPERTY = "mdlib.utils.debug.level";
+
+    private static final ConcurrentHashMap<String, Logger> loggers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LogLevel> levels = new ConcurrentHashMap<>();
+    private static final AsyncAppender appender = new AsyncAppender(8192, System.out, System.err);
+
+    static {
+        levels.put("", LogLevel.valueOf(System.getProperty(LEVEL_PROPERTY, LogLevel.INFO.name()).toUpperCase()));
+    }
+
+    private final String name;
+    // Ordinal of the effective level, recomputed when levels change
+    private volatile int threshold;
+
+    private Logger(final String name) {
+        this.name = name;
+        this.threshold = effectiveLevel(name).ordinal();
+    }
+
+    /**
+     * Returns logger of given class.
+     *
+     * @param loggingClass the class
+     * @return the logger
+     * @throws NullPointerException if {@code null} is given
+     */
+    public static Logger getLogger(final Class<?> loggingClass) {
+        Objects.requireNonNull(loggingClass, "Logging class cannot be null");
+        return getLogger(loggingClass.getName());
+    }
+
+    /**
+     * Returns logger of given name, usually a fully qualified class name.
+     *
+     * @param name the name
+     * @return the logger
+     * @throws NullPointerException if {@code null} is given
+     */
+    public static Logger getLogger(final String name) {
+        Objects.requireNonNull(name, "Logger name cannot be null");
+        return loggers.computeIfAbsent(name, Logger::new);
+    }
+
+    /**
+     * Sets level of loggers of given class or package and all nested packages, unless a more specific level is set.
+     *
+     * @param name  fully qualified class or package name, empty string for all loggers
+     * @param level the level, {@code null} to use the level of the enclosing package
+     * @throws NullPointerException     if name is {@code null}
+     * @throws IllegalArgumentException if {@code null} level is given for empty name
+     */
+    public static synchronized void setLevel(final String name, final LogLevel level) {
+        Objects.requireNonNull(name, "Name cannot be null");
+        if (level != null)
+            levels.put(name, level);
+        else if (name.isEmpty())
+            throw new IllegalArgumentException("Default level cannot be removed");
+        else
+            levels.remove(name);
+        for (Logger logger : loggers.values())
+            logger.threshold = effectiveLevel(logger.name).ordinal();
+    }
+
+    /**
+     * Sets what happens when the buffer of messages is full. Default is {@link OverflowPolicy#DROP}.
+     *
+     * @param policy the policy
+     * @throws NullPointerException if {@code null} is given
+     */
+    public static void setOverflowPolicy(final OverflowPolicy policy) {
+        appender.setPolicy(Objects.requireNonNull(policy, "Policy cannot be null"));
+    }
+
+    /**
+     * Returns count of messages dropped so far because the buffer was full.
+     *
+     * @return count of dropped messages
+     */
+    public static long droppedCount() {
+        return appender.droppedCount();
+    }
+
+    /**
+     * Waits until all messages logged so far are written.
+     */
+    public static void flush() {
+        appender.flush();
+    }
+
+    private static LogLevel effectiveLevel(final String name) {
+        String prefix = name;
+        while (true) {
+            LogLevel level = levels.get(prefix);
+            if (level != null)
+                return level;
+            int dot = Math.max(prefix.lastIndexOf('.'), prefix.lastIndexOf('$'));
+            prefix = dot < 0 ? "" : prefix.substring(0, dot);
+        }
+    }
+
+    /**
+     * Returns the name of the logger.
+     *
+     * @return logger name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns if messages of given level are written. Use it to skip expensive computation of arguments.
+     *
+     * @param level the level
+     * @return if the level is enabled
+     */
+    public boolean isEnabled(final LogLevel level) {
+        return level.ordinal() >= threshold && level != LogLevel.OFF;
+    }
+
+    /**
+     * Logs a message of given level.
+     *
+     * @param level   the level
+     * @param message the message
+     */
+    public void log(final LogLevel level, final String message) {
+        if (isEnabled(level))
+            appender.append(level, name, message, null, null, null, 0);
+    }
+
+    /**
+     * Logs a message of given level with one argument.
+     *
+     * @param level    the level
+     * @param pattern  the message with {@code {}} placeholder
+     * @param argument the argument
+     */
+    public void log(final LogLevel level, final String pattern, final Object argument) {
+        if (isEnabled(level))
+            appender.append(level, name, pattern, argument, null, null, 1);
+    }
+
+    /**
+     * Logs a message of given level with two arguments.
+     *
+     * @param level     the level
+     * @param pattern   the message with {@code {}} placeholders
+     * @param argument1 the first argument
+     * @param argument2 the second argument
+     */
+    public void log(final LogLevel level, final String pattern, final Object argument1, final Object argument2) {
+        if (isEnabled(level))
+            appender.append(level, name, pattern, argument1, argument2, null, 2);
+    }
+
+    /**
+     * Logs a message of given level with any count of arguments.
+     *
+     * @param level     the level
+     * @param pattern   the message with {@code {}} placeholders
+     * @param arguments the arguments
+     */
+    public void log(final LogLevel level, final String pattern, final Object... arguments) {
+        if (isEnabled(level))
+            appender.append(level, name, pattern, null, null, arguments, arguments == null ? 0 : arguments.length);
+    }
+
+    /**
+     * Logs a {@link LogLevel#TRACE} message.
+     *
+     * @param pattern   the message with {@code {}} placeholders
+     * @param argument1 the first argument
+     * @param argument2 the second argument
+     */
+    public void trace(final String pattern, final Object argument1, final Object argument2) {
+        log(LogLevel.TRACE, pattern, argument1, argument2);
+    }
+
+    /**
+     * Logs a {@link LogLevel#DEBUG} message.
+     *
+     * @param pattern   the message with {@code {}} placeholders
+     * @param argument1 the first argument
+     * @param argument2 the second argument
+     */
+    public void debug(final String pattern, final Object argument1, final Object argument2) {
+        log(LogLevel.DEBUG, pattern, argument1, argument2);
+    }
+
+    /**
+     * Logs a {@link LogLevel#INFO} message.
+     *
+     * @param pattern  the message with {@code {}} placeholder
+     * @param argument the argument
+     */
+    public void info(final String pattern, final Object argument) {
+        log(LogLevel.INFO, pattern, argument);
+    }
+
+    /**
+     * Logs a {@link LogLevel#WARNING} message.
+     *
+     * @param pattern  the message with {@code {}} placeholder
+     * @param argument the argument
+     */
+    public void warning(final String pattern, final Object argument) {
+        log(LogLevel.WARNING, pattern, argument);
+    }
+
+    /**
+     * Logs a {@link LogLevel#ERROR} message.
+     *
+     * @param pattern  the message with {@code {}} placeholder
+     * @param argument the argument
+     */
+    public void error(final String pattern, final Object argument) {
+        log(LogLevel.ERROR, pattern, argument);
+    }
+}
@@ -0,0 +1,246 @@
+package mdlib.utils.drawing;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Image in an {@link ImageCache}. The image is decoded in background and scaled variants of it are created in
+ * background when they are requested. Getters never wait: they return what is ready and call given callback when what
+ * was requested gets ready, so the caller can paint again.
+ *
+ * <p>Only a few most recently requested sizes are scaled. Requests of older sizes which have not been scaled yet, e.g.
+ * sizes a window has had while it was resized, are dropped.</p>
+ *
+ * @author Michal Douša
+ * @see ImageCache#image(String, ImageCache.Source)
+ */
+public final class CachedImage {
+
+	// Variant key of the decoded image itself, other keys are width and height of the variant
+	static final long SOURCE = -1;
+	// How many recently requested sizes are scaled
+	private static final int RECENT_SIZES = 4;
+
+	private final ImageCache cache;
+	private final String key;
+	// Null if the image was put in the cache decoded
+	private final ImageCache.Source source;
+
+	// All fields below are guarded by the cache
+	private BufferedImage image;
+	private boolean failed;
+	private final HashMap<Long, BufferedImage> variants = new HashMap<>();
+	// Variants being decoded or scaled, with callbacks waiting for them
+	private final HashMap<Long, ArrayList<Runnable>> pending = new HashMap<>();
+	// Most recently requested sizes, the most recent one is the first one
+	private final ArrayList<Long> recent = new ArrayList<>(RECENT_SIZES + 1);
+
+	CachedImage(final ImageCache cache, final String key, final ImageCache.Source source) {
+		this.cache = cache;
+		this.key = key;
+		this.source = source;
+	}
+
+	CachedImage(final ImageCache cache, final String key, final BufferedImage image) {
+		this.cache = cache;
+		this.key = key;
+		this.source = null;
+		this.image = image;
+	}
+
+	/**
+	 * Returns key of the image in the cache.
+	 *
+	 * @return the key
+	 */
+	public String key() {
+		return key;
+	}
+
+	/**
+	 * Returns if the decoded image is in the cache.
+	 *
+	 * @return if the image is decoded
+	 */
+	public boolean isDecoded() {
+		synchronized (cache) {
+			return image != null;
+		}
+	}
+
+	/**
+	 * Returns if the image cannot be decoded, e.g. because its source is not an image.
+	 *
+	 * @return if decoding of the image has failed
+	 */
+	public boolean isFailed() {
+		synchronized (cache) {
+			return failed;
+		}
+	}
+
+	/**
+	 * Returns the decoded image in its original size. If it is not decoded yet, decoding is requested.
+	 *
+	 * @param onReady called on a background thread once the image is decoded, if it is not decoded yet; may be {@code
+	 *                null}
+	 * @return the image, {@code null} if it is not decoded yet or it cannot be decoded
+	 */
+	public BufferedImage get(final Runnable onReady) {
+		boolean submit;
+		synchronized (cache) {
+			if (image != null) {
+				if (source != null)
+					cache.touch(this, SOURCE);
+				return image;
+			}
+			if (failed)
+				return null;
+			cache.missed();
+			submit = request(SOURCE, onReady);
+		}
+		if (submit)
+			cache.submit(() -> load(SOURCE));
+		return null;
+	}
+
+	/**
+	 * Returns a variant of the image scaled to given size at given scale, e.g. a piece image for a square of 64 logical
+	 * pixels on a screen with scale 2 is scaled to 128 physical pixels, see {@link ImageCache#pixelSize(int,
+	 * double)}. If the variant is not ready, scaling is requested and the closest variant which is ready is returned
+	 * instead as a placeholder, which the caller has to scale when it paints it.
+	 *
+	 * @param width   the width in logical pixels
+	 * @param height  the height in logical pixels
+	 * @param scale   the scale of the screen
+	 * @param onReady called on a background thread once the variant is ready, if it is not ready yet; may be {@code
+	 *                null}
+	 * @return the variant, a placeholder of other size or {@code null} if nothing is ready
+	 *
+	 * @throws IllegalArgumentException if the size or the scale is not positive
+	 */
+	public BufferedImage get(final int width, final int height, final double scale, final Runnable onReady) {
+		int w = ImageCache.pixelSize(width, scale), h = ImageCache.pixelSize(height, scale);
+		long variant = (long) w << 32 | h;
+		BufferedImage placeholder;
+		boolean submit;
+		synchronized (cache) {
+			if (image != null && image.getWidth() == w && image.getHeight() == h) {
+				if (source != null)
+					cache.touch(this, SOURCE);
+				return image;
+			}
+			recent.remove((Long) variant);
+			recent.add(0, variant);
+			if (recent.size() > RECENT_SIZES)
+				recent.remove(RECENT_SIZES);
+			BufferedImage scaled = variants.get(variant);
+			if (scaled != null) {
+				cache.touch(this, variant);
+				return scaled;
+			}
+			if (failed)
+				return null;
+			cache.missed();
+			submit = request(variant, onReady);
+			placeholder = placeholder(w);
+		}
+		if (submit)
+			cache.submit(() -> load(variant));
+		return placeholder;
+	}
+
+	// Starts decoding without counting a miss
+	void prefetch() {
+		boolean submit;
+		synchronized (cache) {
+			submit = image == null && !failed && request(SOURCE, null);
+		}
+		if (submit)
+			cache.submit(() -> load(SOURCE));
+	}
+
+	// Returns if a task must be submitted for the variant
+	private boolean request(final long variant, final Runnable callback) {
+		ArrayList<Runnable> callbacks = pending.get(variant);
+		boolean submit = callbacks == null;
+		if (submit) {
+			callbacks = new ArrayList<>(1);
+			pending.put(variant, callbacks);
+		}
+		if (callback != null && !callbacks.contains(callback))
+			callbacks.add(callback);
+		return submit;
+	}
+
+	// Ready image of the closest width
+	private BufferedImage placeholder(final int width) {
+		BufferedImage closest = image;
+		for (BufferedImage variant : variants.values())
+			if (closest == null || Math.abs(variant.getWidth() - width) < Math.abs(closest.getWidth() - width))
+				closest = variant;
+		return closest;
+	}
+
+	// Runs on the executor
+	private void load(final long variant) {
+		BufferedImage decoded;
+		synchronized (cache) {
+			if (failed)
+				return;
+			if (variant != SOURCE && !recent.contains(variant)) {
+				// Nobody paints this size anymore
+				pending.remove(variant);
+				return;
+			}
+			decoded = image;
+		}
+
+		if (decoded == null) {
+			decoded = ImageCache.decode(key, source);
+			ArrayList<Runnable> callbacks = new ArrayList<>();
+			synchronized (cache) {
+				if (decoded == null) {
+					// Nothing will ever get ready, so all waiting callers are told to stop waiting
+					failed = true;
+					for (ArrayList<Runnable> waiting : pending.values())
+						callbacks.addAll(waiting);
+					pending.clear();
+				} else if (image == null) {
+					image = decoded;
+					cache.added(this, SOURCE, decoded);
+				}
+				if (pending.containsKey(SOURCE))
+					callbacks.addAll(pending.remove(SOURCE));
+			}
+			ImageCache.run(callbacks);
+			if (decoded == null)
+				return;
+		}
+		if (variant == SOURCE)
+			return;
+
+		BufferedImage scaled = ImageCache.scale(decoded, (int) (variant >>> 32), (int) variant);
+		ArrayList<Runnable> callbacks;
+		synchronized (cache) {
+			variants.put(variant, scaled);
+			cache.added(this, variant, scaled);
+			callbacks = pending.remove(variant);
+		}
+		ImageCache.run(callbacks);
+	}
+
+	// Called by the cache with its lock held
+	void evicted(final long variant) {
+		if (variant == SOURCE)
+			image = null;
+		else
+			variants.remove(variant);
+	}
+
+	@Override
+	public String toString() {
+		return "CachedImage[" + key + "]";
+	}
+}
@@ -0,0 +1,400 @@
+package mdlib.utils.drawing;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.Transparency;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Retained buffer of drawing commands. Shapes and images are recorded with their paint, stroke and composite and then
+ * replayed into a {@link Graphics2D} with as few state changes as possible: consecutive commands with the same state
+ * are painted without setting the state again, and consecutive shapes which can be painted together are merged into
+ * one {@link Path2D}, so thousands of shapes are painted by a few calls.
+ *
+ * <p>Shapes are merged only when the result is the same as if they were painted one by one: outlines and rectangles,
+ * ellipses and round rectangles painted with opaque paint into a graphics without antialiasing. With antialiasing,
+ * coverage of edges where merged shapes overlap or touch would be computed once instead of being composited twice,
+ * so shapes are then painted one by one and only setting of the same state is saved. If the order of commands does
+ * not matter, e.g. the shapes do not overlap, {@link #setOrderIndependent(boolean)} allows sorting commands by state,
+ * so even commands with alternating state are merged.</p>
+ *
+ * <p>Content which does not change can be cached in a {@link VolatileImage}, see {@link #paintCached(Graphics2D, int,
+ * int, int, int)}. The buffer is not thread-safe.</p>
+ *
+ * @author Michal Douša
+ */
+public final class DrawCommandBuffer {
+
+	private static final byte FILL = 0;
+	private static final byte DRAW = 1;
+	private static final byte IMAGE = 2;
+
+	private static final Composite DEFAULT_COMPOSITE = AlphaComposite.SrcOver;
+
+	private final ArrayList<Command> commands = new ArrayList<>();
+	// Distinct states of the commands, commands refer to them by index
+	private final ArrayList<State> states = new ArrayList<>();
+	private final HashMap<State, Integer> stateIndices = new HashMap<>();
+	private Composite composite = DEFAULT_COMPOSITE;
+	private boolean orderIndependent;
+
+	// Commands merged for painting, created again after the buffer is modified
+	private ArrayList<Command> batches;
+	// If the batches are created for a graphics with antialiasing
+	private boolean batchesAntialiased;
+	private VolatileImage cache;
+	private boolean cacheValid;
+	private boolean cacheAntialiased;
+
+	/**
+	 * Returns the composite which is recorded with the following commands.
+	 *
+	 * @return the composite
+	 */
+	public Composite getComposite() {
+		return composite;
+	}
+
+	/**
+	 * Sets the composite which is recorded with the following commands. Default is {@link AlphaComposite#SrcOver}.
+	 *
+	 * @param composite the composite
+	 *
+	 * @throws NullPointerException if {@code null} is passed
+	 */
+	public void setComposite(final Composite composite) {
+		this.composite = Objects.requireNonNull(composite, "Composite cannot be null");
+	}
+
+	/**
+	 * Returns if the commands can be painted in any order.
+	 *
+	 * @return if the order of the commands does not matter
+	 *
+	 * @see #setOrderIndependent(boolean)
+	 */
+	public boolean isOrderIndependent() {
+		return orderIndependent;
+	}
+
+	/**
+	 * Sets if the commands can be painted in any order, e.g. because they do not overlap. Commands are then sorted by
+	 * their state before they are merged. Default is {@code false}, commands are painted in the order they were
+	 * recorded.
+	 *
+	 * @param orderIndependent if the order of the commands does not matter
+	 */
+	public void setOrderIndependent(final boolean orderIndependent) {
+		this.orderIndependent = orderIndependent;
+		modified();
+	}
+
+	/**
+	 * Records filling of a shape.
+	 *
+	 * @param paint paint to fill the shape with
+	 * @param shape the shape
+	 *
+	 * @throws NullPointerException if {@code null} is passed
+	 */
+	public void fill(final Paint paint, final Shape shape) {
+		Objects.requireNonNull(paint, "Paint cannot be null");
+		Objects.requireNonNull(shape, "Shape cannot be null");
+		add(new Command(FILL, state(paint, null), shape));
+	}
+
+	/**
+	 * Records drawing of an outline of a shape.
+	 *
+	 * @param paint  paint of the outline
+	 * @param stroke stroke of the outline
+	 * @param shape  the shape
+	 *
+	 * @throws NullPointerException if {@code null} is passed
+	 */
+	public void draw(final Paint paint, final Stroke stroke, final Shape shape) {
+		Objects.requireNonNull(paint, "Paint cannot be null");
+		Objects.requireNonNull(stroke, "Stroke cannot be null");
+		Objects.requireNonNull(shape, "Shape cannot be null");
+		add(new Command(DRAW, state(paint, stroke), shape));
+	}
+
+	/**
+	 * Records painting of an image scaled to given rectangle.
+	 *
+	 * @param image  the image
+	 * @param x      x coordinate of the upper-left corner
+	 * @param y      y coordinate of the upper-left corner
+	 * @param width  width of the image
+	 * @param height height of the image
+	 *
+	 * @throws NullPointerException if {@code null} is passed
+	 */
+	public void drawImage(final Image image, final int x, final int y, final int width, final int height) {
+		Objects.requireNonNull(image, "Image cannot be null");
+		Command command = new Command(IMAGE, state(null, null), null);
+		command.image = image;
+		command.x = x;
+		command.y = y;
+		command.width = width;
+		command.height = height;
+		add(command);
+	}
+
+	/**
+	 * Removes all recorded commands.
+	 */
+	public void clear() {
+		commands.clear();
+		states.clear();
+		stateIndices.clear();
+		modified();
+	}
+
+	/**
+	 * Returns count of recorded commands.
+	 *
+	 * @return count of commands
+	 */
+	public int size() {
+		return commands.size();
+	}
+
+	/**
+	 * Returns count of calls of {@link Graphics2D} painting methods the commands are replayed with.
+	 *
+	 * @param antialiased if the graphics the commands are replayed into uses antialiasing
+	 * @return count of batches
+	 */
+	public int batchCount(final boolean antialiased) {
+		return batches(antialiased).size();
+	}
+
+	/**
+	 * Paints the commands.
+	 *
+	 * @param graphics graphics to paint into, its paint, stroke and composite are restored afterwards
+	 *
+	 * @throws NullPointerException if {@code null} is passed
+	 */
+	public void replay(final Graphics2D graphics) {
+		Paint paint = graphics.getPaint();
+		Stroke stroke = graphics.getStroke();
+		Composite composite = graphics.getComposite();
+		try {
+			// State is set only when it differs from the previous one, images need neither paint nor stroke
+			Paint currentPaint = null;
+			Stroke currentStroke = null;
+			Composite currentComposite = null;
+			for (Command batch : batches(isAntialiased(graphics))) {
+				State state = states.get(batch.state);
+				if (!state.composite.equals(currentComposite)) {
+					graphics.setComposite(state.composite);
+					currentComposite = state.composite;
+				}
+				if (state.paint != null && !state.paint.equals(currentPaint)) {
+					graphics.setPaint(state.paint);
+					currentPaint = state.paint;
+				}
+				if (state.stroke != null && !state.stroke.equals(currentStroke)) {
+					graphics.setStroke(state.stroke);
+					currentStroke = state.stroke;
+				}
+
+				if (batch.kind == FILL)
+					graphics.fill(batch.shape);
+				else if (batch.kind == DRAW)
+					graphics.draw(batch.shape);
+				else
+					graphics.drawImage(batch.image, batch.x, batch.y, batch.width, batch.height, null);
+			}
+		} finally {
+			graphics.setPaint(paint);
+			graphics.setStroke(stroke);
+			graphics.setComposite(composite);
+		}
+	}
+
+	/**
+	 * Paints the commands from a {@link VolatileImage} which caches them. The commands are painted into the image again
+	 * only if they are modified, the size changes or the content of the image is lost. Coordinates of the commands are
+	 * relative to the upper-left corner of the cached area.
+	 *
+	 * @param graphics graphics to paint into
+	 * @param x        x coordinate of the cached area
+	 * @param y        y coordinate of the cached area
+	 * @param width    width of the cached area
+	 * @param height   height of the cached area
+	 *
+	 * @throws NullPointerException     if {@code null} is passed
+	 * @throws IllegalArgumentException if the width or the height is not positive
+	 */
+	public void paintCached(final Graphics2D graphics, final int x, final int y, final int width, final int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Cached area must not be empty");
+		GraphicsConfiguration configuration = graphics.getDeviceConfiguration();
+		boolean antialiased = isAntialiased(graphics);
+		do {
+			int validation = cache == null || cache.getWidth() != width || cache.getHeight() != height
+					? VolatileImage.IMAGE_INCOMPATIBLE : cache.validate(configuration);
+			if (validation == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (cache != null)
+					cache.flush();
+				cache = configuration.createCompatibleVolatileImage(width, height, Transparency.TRANSLUCENT);
+				cacheValid = false;
+			} else if (validation == VolatileImage.IMAGE_RESTORED || cache.contentsLost()
+					|| cacheAntialiased != antialiased) {
+				// Restored surface is not lost anymore, but its content is undefined
+				cacheValid = false;
+			}
+			if (!cacheValid) {
+				Graphics2D cacheGraphics = cache.createGraphics();
+				try {
+					cacheGraphics.setRenderingHints(graphics.getRenderingHints());
+					cacheGraphics.setComposite(AlphaComposite.Clear);
+					cacheGraphics.fillRect(0, 0, width, height);
+					cacheGraphics.setComposite(AlphaComposite.SrcOver);
+					replay(cacheGraphics);
+				} finally {
+					cacheGraphics.dispose();
+				}
+				cacheValid = true;
+				cacheAntialiased = antialiased;
+			}
+			graphics.drawImage(cache, x, y, null);
+		} while (cache.contentsLost());
+	}
+
+	private void add(final Command command) {
+		commands.add(command);
+		modified();
+	}
+
+	private void modified() {
+		batches = null;
+		cacheValid = false;
+	}
+
+	private int state(final Paint paint, final Stroke stroke) {
+		State state = new State(paint, stroke, composite);
+		Integer index = stateIndices.get(state);
+		if (index == null) {
+			index = states.size();
+			states.add(state);
+			stateIndices.put(state, index);
+		}
+		return index;
+	}
+
+	private static boolean isAntialiased(final Graphics2D graphics) {
+		return RenderingHints.VALUE_ANTIALIAS_ON.equals(graphics.getRenderingHint(RenderingHints.KEY_ANTIALIASING));
+	}
+
+	private ArrayList<Command> batches(final boolean antialiased) {
+		if (batches != null && batchesAntialiased == antialiased)
+			return batches;
+
+		ArrayList<Command> ordered = new ArrayList<>(commands);
+		if (orderIndependent)
+			ordered.sort(Comparator.comparingInt((Command command) -> command.state)
+					.thenComparingInt(command -> command.kind));
+
+		batches = new ArrayList<>();
+		batchesAntialiased = antialiased;
+		Command batch = null;
+		boolean batchMergeable = false;
+		Path2D.Double path = null;
+		for (Command command : ordered) {
+			boolean mergeable = !antialiased && isMergeable(command);
+			if (batch != null && batchMergeable && mergeable && batch.state == command.state
+					&& batch.kind == command.kind) {
+				if (path == null) {
+					path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+					path.append(batch.shape, false);
+					batch = new Command(batch.kind, batch.state, path);
+					batches.set(batches.size() - 1, batch);
+				}
+				path.append(command.shape, false);
+			} else {
+				batch = command;
+				batchMergeable = mergeable;
+				path = null;
+				batches.add(command);
+			}
+		}
+		return batches;
+	}
+
+	// Merging must not change the result: overlapping parts would be painted only once and shapes with opposite
+	// orientation would make holes in each other, antialiasing is checked by the caller
+	private boolean isMergeable(final Command command) {
+		if (command.kind == IMAGE)
+			return false;
+		State state = states.get(command.state);
+		boolean opaque = state.paint.getTransparency() == Transparency.OPAQUE
+				&& state.composite instanceof AlphaComposite
+				&& ((AlphaComposite) state.composite).getRule() == AlphaComposite.SRC_OVER
+				&& ((AlphaComposite) state.composite).getAlpha() == 1f;
+		if (!opaque)
+			return false;
+		// Outlines of separate subpaths are stroked separately, shapes of these classes have the same orientation
+		Shape shape = command.shape;
+		return command.kind == DRAW || shape instanceof Rectangle2D || shape instanceof Ellipse2D
+				|| shape instanceof RoundRectangle2D;
+	}
+
+	private static final class Command {
+		final byte kind;
+		final int state;
+		final Shape shape;
+		Image image;
+		int x, y, width, height;
+
+		Command(final byte kind, final int state, final Shape shape) {
+			this.kind = kind;
+			this.state = state;
+			this.shape = shape;
+		}
+	}
+
+	private static final class State {
+		final Paint paint;
+		final Stroke stroke;
+		final Composite composite;
+
+		State(final Paint paint, final Stroke stroke, final Composite composite) {
+			this.paint = paint;
+			this.stroke = stroke;
+			this.composite = composite;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof State))
+				return false;
+			State state = (State) obj;
+			return Objects.equals(paint, state.paint) && Objects.equals(stroke, state.stroke)
+					&& Objects.equals(composite, state.composite);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(paint, stroke, composite);
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package mdlib.utils.drawing;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import mdlib.utils.debug.LogLevel;
+import mdlib.utils.debug.Logger;
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
+
+/**
+ * Cache of decoded images and their scaled variants. Images are decoded and scaled on a background executor, so
+ * neither loading an image nor changing the size it is painted at blocks the thread which paints. Until an image or its
+ * variant is ready, the closest image which is ready is returned instead, see {@link CachedImage#get(int, int, double,
+ * Runnable)}.
+ *
+ * <p>Decoded images and variants are kept within a memory budget. When it is exceeded, least recently used ones are
+ * evicted and decoded or scaled again when they are requested next time. Images put in the cache already decoded, see
+ * {@link #put(String, BufferedImage)}, cannot be decoded again, so they are never evicted and do not count into the
+ * budget.</p>
+ *
+ * <p>The cache is thread-safe. Decode and scale times are recorded in the {@code mdlib.imagecache.decode} and {@code
+ * mdlib.imagecache.scale} histograms, requests which have to wait for an image in the {@code mdlib.imagecache.misses}
+ * counter, see {@link Metrics}.</p>
+ *
+ * @author Michal Douša
+ * @see #shared()
+ */
+public final class ImageCache {
+
+	/**
+	 * Memory budget of the shared cache in bytes.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	private static final Logger LOGGER = Logger.getLogger(ImageCache.class);
+	private static final Histogram DECODE_TIME = Metrics.histogram("mdlib.imagecache.decode");
+	private static final Histogram SCALE_TIME = Metrics.histogram("mdlib.imagecache.scale");
+	private static final Counter MISSES = Metrics.counter("mdlib.imagecache.misses");
+
+	private static ImageCache shared;
+
+	/**
+	 * Source of encoded image data.
+	 */
+	@FunctionalInterface
+	public interface Source {
+
+		/**
+		 * Opens a new stream of the encoded image. The stream is closed by the cache.
+		 *
+		 * @return the stream
+		 *
+		 * @throws IOException if the stream cannot be opened
+		 */
+		InputStream open() throws IOException;
+	}
+
+	private final long memoryBudget;
+	private final Executor executor;
+	private final HashMap<String, CachedImage> images = new HashMap<>();
+	// Decoded images and variants which can be evicted, least recently used first
+	private final LinkedHashMap<Slot, Long> slots = new LinkedHashMap<>(16, 0.75f, true);
+	private long memoryUsage;
+
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param memoryBudget how many bytes decoded images and variants can take
+	 * @param executor     executor images are decoded and scaled on
+	 *
+	 * @throws NullPointerException     if the executor is {@code null}
+	 * @throws IllegalArgumentException if the memory budget is negative
+	 */
+	public ImageCache(final long memoryBudget, final Executor executor) {
+		if (memoryBudget < 0)
+			throw new IllegalArgumentException("Memory budget cannot be negative");
+		this.memoryBudget = memoryBudget;
+		this.executor = Objects.requireNonNull(executor, "Executor cannot be null");
+	}
+
+	/**
+	 * Returns the cache shared by the whole application. It has {@link #DEFAULT_MEMORY_BUDGET} and decodes images on a
+	 * single daemon thread. Its memory usage is published as the {@code mdlib.imagecache.memory} gauge.
+	 *
+	 * @return the shared cache
+	 */
+	public static synchronized ImageCache shared() {
+		if (shared == null) {
+			shared = new ImageCache(DEFAULT_MEMORY_BUDGET, Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "ImageCache");
+				thread.setDaemon(true);
+				return thread;
+			}));
+			Metrics.gauge("mdlib.imagecache.memory", shared::getMemoryUsage);
+		}
+		return shared;
+	}
+
+	/**
+	 * Returns the image of given key, registering it if it is not in the cache yet. Decoding starts in background
+	 * immediately.
+	 *
+	 * @param key    key of the image, e.g. its URL
+	 * @param source source of the encoded image, used only if the image is not in the cache yet
+	 * @return the image
+	 *
+	 * @throws NullPointerException if {@code null} is passed
+	 */
+	public CachedImage image(final String key, final Source source) {
+		Objects.requireNonNull(key, "Key cannot be null");
+		Objects.requireNonNull(source, "Source cannot be null");
+		CachedImage image;
+		synchronized (this) {
+			image = images.get(key);
+			if (image != null)
+				return image;
+			image = new CachedImage(this, key, source);
+			images.put(key, image);
+		}
+		image.prefetch();
+		return image;
+	}
+
+	/**
+	 * Returns the image loaded from given {@link URL}, registering it if it is not in the cache yet.
+	 *
+	 * @param url the URL
+	 * @return the image
+	 *
+	 * @throws NullPointerException if {@code null} is passed
+	 * @see #image(String, Source)
+	 */
+	public CachedImage image(final URL url) {
+		Objects.requireNonNull(url, "URL cannot be null");
+		return image(url.toExternalForm(), url::openStream);
+	}
+
+	/**
+	 * Puts an already decoded image in the cache, replacing any image of the same key.
+	 *
+	 * @param key   key of the image
+	 * @param image the image
+	 * @return the cached image
+	 *
+	 * @throws NullPointerException if {@code null} is passed
+	 */
+	public CachedImage put(final String key, final BufferedImage image) {
+		Objects.requireNonNull(key, "Key cannot be null");
+		Objects.requireNonNull(image, "Image cannot be null");
+		CachedImage cached = new CachedImage(this, key, image);
+		synchronized (this) {
+			CachedImage previous = images.put(key, cached);
+			if (previous != null)
+				evictAll(previous);
+		}
+		return cached;
+	}
+
+	/**
+	 * Returns the memory budget.
+	 *
+	 * @return how many bytes decoded images and variants can take
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Returns how much memory decoded images and variants take at the moment.
+	 *
+	 * @return the memory usage in bytes
+	 */
+	public synchronized long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	/**
+	 * Evicts all decoded images and variants. They are decoded again when they are requested.
+	 */
+	public synchronized void clear() {
+		for (CachedImage image : images.values())
+			evictAll(image);
+	}
+
+	/**
+	 * Returns count of pixels of given size at given scale, as variants of images are scaled to.
+	 *
+	 * @param size  size in logical pixels
+	 * @param scale the scale, e.g. 2 on a HiDPI screen
+	 * @return the size in physical pixels, at least 1
+	 *
+	 * @throws IllegalArgumentException if the size or the scale is not positive
+	 */
+	public static int pixelSize(final int size, final double scale) {
+		if (size <= 0 || !(scale > 0))
+			throw new IllegalArgumentException("Illegal size " + size + " at scale " + scale);
+		return Math.max((int) Math.round(size * scale), 1);
+	}
+
+	// Called with the lock held
+
+	void touch(final CachedImage image, final long variant) {
+		slots.get(new Slot(image, variant));
+	}
+
+	void added(final CachedImage image, final long variant, final BufferedImage data) {
+		long bytes = 4L * data.getWidth() * data.getHeight();
+		Slot slot = new Slot(image, variant);
+		Long previous = slots.put(slot, bytes);
+		memoryUsage += bytes - (previous == null ? 0 : previous);
+
+		// The image just added is the most recently used one, so it is evicted only if nothing else is left
+		Iterator<Map.Entry<Slot, Long>> iterator = slots.entrySet().iterator();
+		while (memoryUsage > memoryBudget && slots.size() > 1) {
+			Map.Entry<Slot, Long> evicted = iterator.next();
+			iterator.remove();
+			memoryUsage -= evicted.getValue();
+			evicted.getKey().image.evicted(evicted.getKey().variant);
+		}
+	}
+
+	private void evictAll(final CachedImage image) {
+		Iterator<Map.Entry<Slot, Long>> iterator = slots.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Slot, Long> entry = iterator.next();
+			if (entry.getKey().image == image) {
+				iterator.remove();
+				memoryUsage -= entry.getValue();
+				image.evicted(entry.getKey().variant);
+			}
+		}
+	}
+
+	// Called without the lock
+
+	void submit(final Runnable task) {
+		executor.execute(task);
+	}
+
+	void missed() {
+		MISSES.increment();
+	}
+
+	static BufferedImage decode(final String key, final Source source) {
+		long start = System.nanoTime();
+		try (InputStream stream = source.open()) {
+			BufferedImage image = ImageIO.read(stream);
+			if (image == null)
+				throw new IOException("Unsupported image format");
+			DECODE_TIME.recordSince(start);
+			return image;
+		} catch (IOException | RuntimeException exc) {
+			LOGGER.log(LogLevel.WARNING, "Cannot decode image {}: {}", key, exc);
+			return null;
+		}
+	}
+
+	// Scales in steps of at most a half, so bilinear filtering does not skip any pixels when an image is shrunk a lot
+	static BufferedImage scale(final BufferedImage source, final int width, final int height) {
+		long start = System.nanoTime();
+		BufferedImage current = source;
+		int w = source.getWidth(), h = source.getHeight();
+		do {
+			w = w > width ? Math.max(w / 2, width) : width;
+			h = h > height ? Math.max(h / 2, height) : height;
+			BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+			Graphics2D g2d = next.createGraphics();
+			try {
+				g2d.setComposite(AlphaComposite.Src);
+				g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				g2d.drawImage(current, 0, 0, w, h, null);
+			} finally {
+				g2d.dispose();
+			}
+			current = next;
+		} while (w != width || h != height);
+		SCALE_TIME.recordSince(start);
+		return current;
+	}
+
+	static void run(final ArrayList<Runnable> callbacks) {
+		if (callbacks != null)
+			for (Runnable callback : callbacks)
+				callback.run();
+	}
+
+	private static final class Slot {
+		final CachedImage image;
+		final long variant;
+
+		Slot(final CachedImage image, final long variant) {
+			this.image = image;
+			this.variant = variant;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Slot))
+				return false;
+			Slot slot = (Slot) obj;
+			return image == slot.image && variant == slot.variant;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(image) + Long.hashCode(variant);
+		}
+	}
+}
@@ -4,16 +4,21 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
 
-import mdlib.utils.debug.Debugger;
+import mdlib.utils.debug.LogLevel;
+import mdlib.utils.debug.Logger;
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
 
 /**
  * Represents a program process.
@@ -21,11 +26,22 @@ import mdlib.utils.debug.Debugger;
  * @author Michal Douša
  */
 public final class ExecutableProcess extends Thread implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(ExecutableProcess.class);
+
+	// Shared by all processes, see Metrics
+	private static final Counter LINES_READ = Metrics.counter("process.lines.read");
+	private static final Counter BYTES_READ = Metrics.counter("process.bytes.read");
+	private static final Counter COMMANDS_SENT = Metrics.counter("process.commands.sent");
+	private static final Counter BYTES_SENT = Metrics.counter("process.bytes.sent");
+	private static final Histogram DISPATCH_TIME = Metrics.histogram("process.dispatch");
+
 	private final File executablePath;
 	private Process process;
 	private BufferedReader reader;
 	private BufferedWriter writer;
-	private final ArrayList<Function<String, Boolean>> delegates;
+	// Delegates may register other delegates while they are called, so they are iterated over a snapshot
+	private final CopyOnWriteArrayList<Function<String, Boolean>> delegates;
 
 	public ExecutableProcess(final File executablePath, final String name) {
 		if (executablePath == null || name == null)
@@ -33,7 +49,7 @@ public final class ExecutableProcess extends Thread implements Closeable {
 		if (!name.matches("[_A-Za-z][_0-9A-Za-z]*"))
 			throw new IllegalArgumentException("Process name is illegal: '" + name + "'");
 		this.executablePath = executablePath;
-		this.delegates = new ArrayList<>();
+		this.delegates = new CopyOnWriteArrayList<>();
 		this.setName(name);
 	}
 
@@ -56,9 +72,10 @@ public final class ExecutableProcess extends Thread implements Closeable {
 		// p.toString()).toString());
 		try {
 			process = pb.start();
-			reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+			reader = new BufferedReader(new InputStreamReader(new CountingInputStream(process.getInputStream()),
+					StandardCharsets.UTF_8));
 			writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
-			Debugger.info(getClass(), "Process started [" + getName() + "]");
+			LOGGER.info("Process started [{}]", getName());
 		} catch (IOException exc) {
 			throw new IllegalStateException(exc);
 		}
@@ -70,18 +87,25 @@ public final class ExecutableProcess extends Thread implements Closeable {
 	public void run() {
 		while (process != null && process.isAlive()) {
 			String nextLine = null;
+			BufferedReader currentReader = reader;
+			// Closed by another thread
+			if (currentReader == null)
+				break;
 			try {
-				nextLine = reader.readLine();
-				Debugger.info(getClass(), "Read line [" + getName() + "]: '" + nextLine + "'");
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			Iterator<Function<String, Boolean>> iterator = delegates.iterator();
-			while (iterator.hasNext()) {
-				Function<String, Boolean> next = iterator.next();
-				if (!next.apply(nextLine))
-					iterator.remove();
+				nextLine = currentReader.readLine();
+				// Null is passed to the delegates at the end of output, but it is not a line
+				if (nextLine != null)
+					LINES_READ.increment();
+				// Engines print a lot, so single lines are logged only when debugging
+				LOGGER.debug("Read line [{}]: '{}'", getName(), nextLine);
+			} catch (IOException exc) {
+				LOGGER.log(LogLevel.ERROR, "Cannot read output of [{}]", getName(), exc);
 			}
+			long dispatchStart = System.nanoTime();
+			for (Function<String, Boolean> delegate : delegates)
+				if (!delegate.apply(nextLine))
+					delegates.remove(delegate);
+			DISPATCH_TIME.recordSince(dispatchStart);
 		}
 	}
 
@@ -118,7 +142,10 @@ public final class ExecutableProcess extends Thread implements Closeable {
 		try {
 			writer.write(command + "\n");
 			writer.flush();
-			Debugger.info(getClass(), "Sent command [" + getName() + "]: '" + command + "'");
+			COMMANDS_SENT.increment();
+			// Commands are written in UTF-8, see start()
+			BYTES_SENT.add(command.getBytes(StandardCharsets.UTF_8).length + 1);
+			LOGGER.debug("Sent command [{}]: '{}'", getName(), command);
 			return true;
 		} catch (IOException exc) {
 			return false;
@@ -137,4 +164,28 @@ public final class ExecutableProcess extends Thread implements Closeable {
 			throw new NullPointerException();
 		delegates.add(delegate);
 	}
+
+	// Counts bytes read from the process output
+	private static final class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read >= 0)
+				BYTES_READ.increment();
+			return read;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0)
+				BYTES_READ.add(read);
+			return read;
+		}
+	}
 }
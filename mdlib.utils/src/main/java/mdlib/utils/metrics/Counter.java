@@ -0,0 +1,59 @@
+package mdlib.utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free monotonic counter, e.g. of read lines or bytes. Rates are computed from two {@link MetricsSnapshot}s, see
+ * {@link MetricsSnapshot#ratePerSecond(String, MetricsSnapshot)}.
+ *
+ * @author Michal Douša
+ * @see Metrics#counter(String)
+ */
+public final class Counter {
+
+    private final String name;
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * Creates a counter starting at 0. Counters are usually obtained from {@link Metrics#counter(String)} instead.
+     *
+     * @param name name of the counter
+     */
+    public Counter(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the counter.
+     *
+     * @return counter name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Increments the counter by 1.
+     */
+    public void increment() {
+        total.increment();
+    }
+
+    /**
+     * Adds given amount to the counter.
+     *
+     * @param amount the amount
+     */
+    public void add(final long amount) {
+        total.add(amount);
+    }
+
+    /**
+     * Returns the current value.
+     *
+     * @return total count
+     */
+    public long total() {
+        return total.sum();
+    }
+}
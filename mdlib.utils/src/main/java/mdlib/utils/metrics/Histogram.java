@@ -0,0 +1,192 @@
+package mdlib.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values, usually latencies in nanoseconds. Values are counted in buckets whose
+ * width grows with the value (like in HdrHistogram), so any value up to {@link Long#MAX_VALUE} is recorded with
+ * relative error below 1/32 and recording is a few atomic increments with no allocation.
+ *
+ * @author Michal Douša
+ * @see Metrics#histogram(String)
+ * @see #snapshot(boolean)
+ */
+public final class Histogram {
+
+    // Values below 2^SUB_BUCKET_BITS have their own bucket, bigger values share a bucket with HALF_SUB_BUCKETS values
+    // of the same magnitude
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int BUCKET_COUNT = HALF_SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 2);
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates an empty histogram. Histograms are usually obtained from {@link Metrics#histogram(String)} instead.
+     *
+     * @param name name of the histogram
+     */
+    public Histogram(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the histogram.
+     *
+     * @return histogram name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Records given value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(final long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketIndex(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Records time elapsed since given start, both in nanoseconds as returned by {@link System#nanoTime()}.
+     *
+     * @param startNanos start of the measured operation
+     */
+    public void recordSince(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int bucketIndex(final long value) {
+        int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1));
+        if (magnitude == 0)
+            return (int) value;
+        return HALF_SUB_BUCKETS * (magnitude + 1) + (int) (value >>> magnitude) - HALF_SUB_BUCKETS;
+    }
+
+    static long bucketLowerBound(final int index) {
+        if (index < 2 * HALF_SUB_BUCKETS)
+            return index;
+        int magnitude = index / HALF_SUB_BUCKETS - 1;
+        return (long) (index - HALF_SUB_BUCKETS * (magnitude + 1) + HALF_SUB_BUCKETS) << magnitude;
+    }
+
+    static long bucketUpperBound(final int index) {
+        return index + 1 >= BUCKET_COUNT ? Long.MAX_VALUE : bucketLowerBound(index + 1) - 1;
+    }
+
+    /**
+     * Returns a snapshot of the histogram. Values recorded concurrently may or may not be included.
+     *
+     * @param reset if the histogram should be cleared, so the next snapshot covers only the following interval
+     * @return the snapshot
+     */
+    public Snapshot snapshot(final boolean reset) {
+        long[] buckets = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            total += buckets[i];
+        }
+        long totalSum = reset ? sum.sumThenReset() : sum.sum();
+        long maximum = reset ? max.getThenReset() : max.get();
+        if (reset)
+            count.reset();
+        return new Snapshot(name, buckets, total, totalSum, maximum);
+    }
+
+    /**
+     * Immutable state of a {@link Histogram} at some moment.
+     */
+    public static final class Snapshot {
+
+        private final String name;
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(final String name, final long[] buckets, final long count, final long sum, final long max) {
+            this.name = name;
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the name of the histogram.
+         *
+         * @return histogram name
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Returns count of recorded values.
+         *
+         * @return count of values
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Returns the mean of recorded values, or 0 if there is none.
+         *
+         * @return mean value
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the maximum recorded value, or 0 if there is none.
+         *
+         * @return maximum value
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * Returns the value below which given percentage of recorded values lies. The result is the highest value
+         * belonging to the same bucket, but never more than {@link #max()}.
+         *
+         * @param percentile percentile from 0 to 100
+         * @return the value at the percentile, or 0 if no value was recorded
+         * @throws IllegalArgumentException if percentile is out of range
+         */
+        public long percentile(final double percentile) {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("Percentile out of range: " + percentile);
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return Math.min(bucketUpperBound(i), max);
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": count=" + count + " mean=" + Math.round(mean()) + " p50=" + percentile(50) + " p90="
+                    + percentile(90) + " p99=" + percentile(99) + " p99.9=" + percentile(99.9) + " max=" + max;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package mdlib.utils.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of application metrics: {@link Histogram}s of latencies, {@link Counter}s and gauges. Metrics are created
+ * on first use and live as long as the application. All of them can be read at once by {@link #snapshot(boolean)},
+ * periodically by {@link #schedule(long, TimeUnit, boolean, Consumer)} or through JMX after {@link
+ * #registerMBean()} was called.
+ *
+ * @author Michal Douša
+ * @see MetricsSnapshot
+ */
+public final class Metrics {
+
+    // Do not create any instances
+    private Metrics() {
+    }
+
+    /**
+     * Name under which the metrics are registered in the platform MBean server.
+     */
+    public static final String MBEAN_NAME = "mdlib.utils:type=Metrics";
+
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService scheduler;
+
+    /**
+     * Returns histogram of given name. The histogram is created if it does not exist yet.
+     *
+     * @param name histogram name
+     * @return the histogram
+     * @throws NullPointerException if {@code null} is given
+     */
+    public static Histogram histogram(final String name) {
+        Objects.requireNonNull(name, "Metric name cannot be null");
+        return histograms.computeIfAbsent(name, Histogram::new);
+    }
+
+    /**
+     * Returns counter of given name. The counter is created if it does not exist yet.
+     *
+     * @param name counter name
+     * @return the counter
+     * @throws NullPointerException if {@code null} is given
+     */
+    public static Counter counter(final String name) {
+        Objects.requireNonNull(name, "Metric name cannot be null");
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    /**
+     * Registers a gauge, i.e. a value read when the metrics are read, e.g. size of a pool. Gauge of the same name is
+     * replaced.
+     *
+     * @param name  gauge name
+     * @param value supplier of the value, must be thread-safe
+     * @throws NullPointerException if {@code null} is given
+     */
+    public static void gauge(final String name, final LongSupplier value) {
+        Objects.requireNonNull(name, "Metric name cannot be null");
+        Objects.requireNonNull(value, "Gauge value supplier cannot be null");
+        gauges.put(name, value);
+    }
+
+    /**
+     * Reads all metrics.
+     *
+     * @param reset if histograms should be cleared, so the next snapshot covers only the following interval; counters
+     *              are never cleared
+     * @return the snapshot
+     */
+    public static MetricsSnapshot snapshot(final boolean reset) {
+        TreeMap<String, Histogram.Snapshot> histogramSnapshots = new TreeMap<>();
+        for (Histogram histogram : histograms.values())
+            histogramSnapshots.put(histogram.name(), histogram.snapshot(reset));
+        TreeMap<String, Long> counterValues = new TreeMap<>();
+        for (Counter counter : counters.values())
+            counterValues.put(counter.name(), counter.total());
+        TreeMap<String, Long> gaugeValues = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet())
+            gaugeValues.put(gauge.getKey(), gauge.getValue().getAsLong());
+        return new MetricsSnapshot(System.nanoTime(), histogramSnapshots, counterValues, gaugeValues);
+    }
+
+    /**
+     * Passes snapshot of all metrics to given consumer periodically, from a background thread.
+     *
+     * @param period   period between snapshots
+     * @param unit     unit of the period
+     * @param reset    if histograms should be cleared after every snapshot, see {@link #snapshot(boolean)}
+     * @param consumer consumer of the snapshots
+     * @return {@link ScheduledFuture} which can be used to cancel the reporting
+     * @throws NullPointerException     if {@code null} is given
+     * @throws IllegalArgumentException if the period is not positive
+     */
+    public static synchronized ScheduledFuture<?> schedule(final long period, final TimeUnit unit, final boolean reset,
+                                                           final Consumer<MetricsSnapshot> consumer) {
+        Objects.requireNonNull(unit, "Time unit cannot be null");
+        Objects.requireNonNull(consumer, "Consumer cannot be null");
+        if (period <= 0)
+            throw new IllegalArgumentException("Period must be positive");
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "MetricsReporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler.scheduleAtFixedRate(() -> consumer.accept(snapshot(reset)), period, period, unit);
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server as {@value #MBEAN_NAME}, so they can be watched by JConsole or
+     * any other JMX client. Does nothing if already registered.
+     *
+     * @throws IllegalStateException if registration failed
+     */
+    public static synchronized void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsMBean(), name);
+        } catch (JMException exc) {
+            throw new IllegalStateException("Cannot register metrics MBean", exc);
+        }
+    }
+}
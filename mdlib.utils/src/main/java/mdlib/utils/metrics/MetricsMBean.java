@@ -0,0 +1,91 @@
+package mdlib.utils.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes {@link Metrics} through JMX. Every histogram has attributes {@code <name>.count}, {@code .mean}, {@code
+ * .p50}, {@code .p90}, {@code .p99}, {@code .p999} and {@code .max} covering all values recorded so far, every counter
+ * has attributes {@code <name>} and {@code <name>.perSecond} (since the previous read) and every gauge has attribute
+ * {@code <name>}.
+ *
+ * @author Michal Douša
+ * @see Metrics#registerMBean()
+ */
+final class MetricsMBean implements DynamicMBean {
+
+    private MetricsSnapshot previous = Metrics.snapshot(false);
+
+    private synchronized Map<String, Object> values() {
+        MetricsSnapshot snapshot = Metrics.snapshot(false);
+        LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+        for (Histogram.Snapshot histogram : snapshot.histograms().values()) {
+            String name = histogram.name();
+            values.put(name + ".count", histogram.count());
+            values.put(name + ".mean", histogram.mean());
+            values.put(name + ".p50", histogram.percentile(50));
+            values.put(name + ".p90", histogram.percentile(90));
+            values.put(name + ".p99", histogram.percentile(99));
+            values.put(name + ".p999", histogram.percentile(99.9));
+            values.put(name + ".max", histogram.max());
+        }
+        for (Map.Entry<String, Long> counter : snapshot.counters().entrySet()) {
+            values.put(counter.getKey(), counter.getValue());
+            values.put(counter.getKey() + ".perSecond", snapshot.ratePerSecond(counter.getKey(), previous));
+        }
+        values.putAll(snapshot.gauges());
+        previous = snapshot;
+        return values;
+    }
+
+    @Override
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        Object value = values().get(attribute);
+        if (value == null)
+            throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        Map<String, Object> values = values();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes)
+            if (values.containsKey(attribute))
+                list.add(new Attribute(attribute, values.get(attribute)));
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) {
+        throw new UnsupportedOperationException("No operations: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Object> value : values().entrySet())
+            attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                    value.getKey(), true, false, false));
+        return new MBeanInfo(getClass().getName(), "Application metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,89 @@
+package mdlib.utils.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable state of all metrics at some moment.
+ *
+ * @author Michal Douša
+ * @see Metrics#snapshot(boolean)
+ * @see Metrics#schedule(long, java.util.concurrent.TimeUnit, boolean, java.util.function.Consumer)
+ */
+public final class MetricsSnapshot {
+
+    private final long timeNanos;
+    private final Map<String, Histogram.Snapshot> histograms;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+
+    MetricsSnapshot(final long timeNanos, final Map<String, Histogram.Snapshot> histograms,
+                    final Map<String, Long> counters, final Map<String, Long> gauges) {
+        this.timeNanos = timeNanos;
+        this.histograms = Collections.unmodifiableMap(histograms);
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * Returns when the snapshot was taken, as returned by {@link System#nanoTime()}.
+     *
+     * @return time of the snapshot in nanoseconds
+     */
+    public long timeNanos() {
+        return timeNanos;
+    }
+
+    /**
+     * Returns unmodifiable {@link Map} of histogram snapshots by histogram names.
+     *
+     * @return histogram snapshots
+     */
+    public Map<String, Histogram.Snapshot> histograms() {
+        return histograms;
+    }
+
+    /**
+     * Returns unmodifiable {@link Map} of counter totals by counter names.
+     *
+     * @return counter totals
+     */
+    public Map<String, Long> counters() {
+        return counters;
+    }
+
+    /**
+     * Returns unmodifiable {@link Map} of gauge values by gauge names.
+     *
+     * @return gauge values
+     */
+    public Map<String, Long> gauges() {
+        return gauges;
+    }
+
+    /**
+     * Returns how fast given counter grew per second between given earlier snapshot and this one.
+     *
+     * @param counter  counter name
+     * @param previous an earlier snapshot
+     * @return the rate per second, or 0 if the counter is not known or no time elapsed
+     */
+    public double ratePerSecond(final String counter, final MetricsSnapshot previous) {
+        Long now = counters.get(counter), before = previous.counters.get(counter);
+        if (now == null || timeNanos <= previous.timeNanos)
+            return 0;
+        return (now - (before == null ? 0 : before)) * 1e9 / (timeNanos - previous.timeNanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Histogram.Snapshot histogram : histograms.values())
+            builder.append(histogram).append('\n');
+        for (Map.Entry<String, Long> counter : counters.entrySet())
+            builder.append(counter.getKey()).append(": ").append(counter.getValue()).append('\n');
+        for (Map.Entry<String, Long> gauge : gauges.entrySet())
+            builder.append(gauge.getKey()).append(": ").append(gauge.getValue()).append('\n');
+        return builder.toString();
+    }
+}
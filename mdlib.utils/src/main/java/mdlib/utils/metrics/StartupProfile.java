@@ -0,0 +1,104 @@
+package mdlib.utils.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import javafx.scene.Scene;
+import mdlib.utils.debug.Logger;
+
+/**
+ * Timing of application startup, so time to the first frame can be compared across releases. Phases, e.g. {@code
+ * fonts}, {@code css}, {@code fxml} or {@code resources}, are recorded in {@code startup.<phase>} histograms, see
+ * {@link Metrics#histogram(String)}. When the first frame of the application is laid out, time since the start of the
+ * JVM is recorded in the {@code startup.firstframe} histogram and a report of all phases recorded until then is logged
+ * at INFO level, see {@link #report()}.
+ *
+ * <pre>{@code
+ * long start = System.nanoTime();
+ * Parent root = FXMLLoader.load(url);
+ * StartupProfile.record("fxml", start);
+ * ...
+ * stage.show();
+ * StartupProfile.recordFirstFrame(stage.getScene());
+ * }</pre>
+ *
+ * @author Michal Douša
+ */
+public final class StartupProfile {
+
+    // Do not create any instances
+    private StartupProfile() {
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(StartupProfile.class);
+
+    // Total time of every phase in nanoseconds, in order of their first records
+    private static final LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+    private static long firstFrameMillis = -1;
+    private static boolean firstFrameRequested;
+
+    /**
+     * Records a startup phase which has taken time since given moment. Time of phases of the same name is summed. May
+     * be called by any thread.
+     *
+     * @param phase      name of the phase
+     * @param startNanos when the phase started, as returned by {@link System#nanoTime()}
+     * @throws NullPointerException if {@code null} is given
+     */
+    public static void record(final String phase, final long startNanos) {
+        Objects.requireNonNull(phase, "Phase name cannot be null");
+        long nanos = System.nanoTime() - startNanos;
+        Metrics.histogram("startup." + phase).record(nanos);
+        synchronized (StartupProfile.class) {
+            phases.merge(phase, nanos, Long::sum);
+        }
+    }
+
+    /**
+     * Records time to the first frame of given scene, which is the first scene shown by the application. Only the first
+     * call has any effect. Must be called on JavaFX application thread.
+     *
+     * @param scene the scene
+     * @throws NullPointerException if {@code null} is given
+     */
+    public static void recordFirstFrame(final Scene scene) {
+        Objects.requireNonNull(scene, "Scene cannot be null");
+        synchronized (StartupProfile.class) {
+            if (firstFrameRequested)
+                return;
+            firstFrameRequested = true;
+        }
+        scene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {
+                scene.removePostLayoutPulseListener(this);
+                long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+                Metrics.histogram("startup.firstframe").record(uptime * 1_000_000);
+                synchronized (StartupProfile.class) {
+                    firstFrameMillis = uptime;
+                }
+                LOGGER.info("{}", report());
+            }
+        });
+    }
+
+    /**
+     * Returns report of the phases recorded so far and of time to the first frame, e.g. {@code Startup: fonts 12.3
+     * ms, fxml 85.0 ms, css 4.1 ms, first frame 912 ms}.
+     *
+     * @return the report
+     */
+    public static synchronized String report() {
+        StringBuilder builder = new StringBuilder("Startup:");
+        String separator = " ";
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            builder.append(separator).append(phase.getKey()).append(' ')
+                    .append(Math.round(phase.getValue() / 1e5) / 10.0).append(" ms");
+            separator = ", ";
+        }
+        if (firstFrameMillis >= 0)
+            builder.append(separator).append("first frame ").append(firstFrameMillis).append(" ms");
+        return builder.toString();
+    }
+}
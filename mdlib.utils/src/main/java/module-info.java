@@ -2,9 +2,12 @@ module mdlib.utils {
     exports mdlib.utils;
     exports mdlib.utils.io;
     exports mdlib.utils.collections;
+    exports mdlib.utils.debug;
     exports mdlib.utils.drawing;
+    exports mdlib.utils.metrics;
     requires java.base;
     requires java.desktop;
+    requires java.management;
     requires javafx.base;
     requires javafx.controls;
     requires javafx.fxml;
@@ -0,0 +1,134 @@
+package mdlib.utils.testing;
+
+import mdlib.utils.drawing.DrawCommandBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DrawCommandBufferTest {
+
+    private static final int SIZE = 200;
+
+    @Test
+    public void test() {
+        Color[] colors = {Color.RED, Color.BLUE, Color.GREEN};
+        Stroke[] strokes = {new BasicStroke(1), new BasicStroke(3)};
+        BufferedImage icon = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+        icon.setRGB(3, 3, 0xff00ff00);
+
+        // The same commands painted directly and from the buffer, runs of the same state are merged
+        Random random = new Random(1);
+        BufferedImage direct = image();
+        Graphics2D graphics = direct.createGraphics();
+        DrawCommandBuffer buffer = new DrawCommandBuffer();
+        for (int i = 0; i < 3000; i++) {
+            Color color = colors[i / 100 % colors.length];
+            Stroke stroke = strokes[i / 300 % strokes.length];
+            double x = random.nextInt(SIZE), y = random.nextInt(SIZE);
+            boolean fill = i / 50 % 2 == 0;
+            Shape shape = i % 3 == 0 ? new Rectangle2D.Double(x, y, 10, 7)
+                    : i % 3 == 1 || fill ? new Ellipse2D.Double(x, y, 9, 12) : new Line2D.Double(x, y, y, x);
+            if (i % 1000 == 999) {
+                graphics.drawImage(icon, (int) x, (int) y, 16, 16, null);
+                buffer.drawImage(icon, (int) x, (int) y, 16, 16);
+            } else if (fill) {
+                graphics.setPaint(color);
+                graphics.fill(shape);
+                buffer.fill(color, shape);
+            } else {
+                graphics.setPaint(color);
+                graphics.setStroke(stroke);
+                graphics.draw(shape);
+                buffer.draw(color, stroke, shape);
+            }
+        }
+        graphics.dispose();
+        assertEquals(3000, buffer.size());
+        assertTrue(buffer.batchCount(false) < 100, "Batches: " + buffer.batchCount(false));
+        assertArrayEquals(pixels(direct), pixels(replay(buffer)));
+
+        // Cached content is painted again only after a modification
+        BufferedImage cached = image();
+        graphics = cached.createGraphics();
+        buffer.paintCached(graphics, 0, 0, SIZE, SIZE);
+        graphics.dispose();
+        assertArrayEquals(pixels(direct), pixels(cached));
+        buffer.setComposite(AlphaComposite.Src);
+        buffer.fill(Color.BLACK, new Rectangle2D.Double(0, 0, 5, 5));
+        graphics = cached.createGraphics();
+        buffer.paintCached(graphics, 0, 0, SIZE, SIZE);
+        graphics.dispose();
+        assertEquals(0xff000000, cached.getRGB(2, 2));
+
+        // Overlapping translucent shapes are not merged
+        Color translucent = new Color(0, 128, 0, 100);
+        buffer = new DrawCommandBuffer();
+        buffer.fill(translucent, new Rectangle2D.Double(0, 0, 10, 10));
+        buffer.fill(translucent, new Rectangle2D.Double(5, 5, 10, 10));
+        assertEquals(2, buffer.batchCount(false));
+        BufferedImage overlapping = replay(buffer);
+        assertTrue(overlapping.getRGB(7, 7) != overlapping.getRGB(2, 2));
+
+        // Shapes are not merged when painted with antialiasing, edges of overlapping shapes would differ
+        buffer = new DrawCommandBuffer();
+        BufferedImage antialiased = image();
+        graphics = antialiased.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setPaint(Color.BLUE);
+        for (int i = 0; i < 5; i++) {
+            Shape shape = new Ellipse2D.Double(10 + i * 4.3, 10 + i * 2.7, 20, 15);
+            graphics.fill(shape);
+            buffer.fill(Color.BLUE, shape);
+        }
+        graphics.dispose();
+        assertEquals(1, buffer.batchCount(false));
+        assertEquals(5, buffer.batchCount(true));
+        BufferedImage replayed = image();
+        graphics = replayed.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        buffer.replay(graphics);
+        graphics.dispose();
+        assertArrayEquals(pixels(antialiased), pixels(replayed));
+
+        // Alternating states are merged only when the order does not matter
+        buffer = new DrawCommandBuffer();
+        for (int i = 0; i < 100; i++)
+            buffer.fill(colors[i % 2], new Rectangle2D.Double(i * 2, 0, 2, 2));
+        assertEquals(100, buffer.batchCount(false));
+        BufferedImage ordered = replay(buffer);
+        buffer.setOrderIndependent(true);
+        assertEquals(2, buffer.batchCount(false));
+        assertArrayEquals(pixels(ordered), pixels(replay(buffer)));
+    }
+
+    private static BufferedImage image() {
+        return new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    private static BufferedImage replay(final DrawCommandBuffer buffer) {
+        BufferedImage image = image();
+        Graphics2D graphics = image.createGraphics();
+        buffer.replay(graphics);
+        graphics.dispose();
+        return image;
+    }
+
+    private static int[] pixels(final BufferedImage image) {
+        return image.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+    }
+}
@@ -0,0 +1,105 @@
+package mdlib.utils.testing;
+
+import mdlib.utils.drawing.CachedImage;
+import mdlib.utils.drawing.ImageCache;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ImageCacheTest {
+
+    @Test
+    public void test() throws IOException {
+        // Tasks of the cache are run only when the test wants
+        ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        long sourceBytes = 64 * 64 * 4;
+        ImageCache cache = new ImageCache(sourceBytes + 32 * 32 * 4, tasks::add);
+        byte[] png = png(64);
+        AtomicInteger ready = new AtomicInteger();
+        Runnable onReady = ready::incrementAndGet;
+
+        // Decoding is done in background
+        CachedImage image = cache.image("piece", () -> new ByteArrayInputStream(png));
+        assertSame(image, cache.image("piece", () -> {
+            throw new IOException("Decoded twice");
+        }));
+        assertFalse(image.isDecoded());
+        assertNull(image.get(onReady));
+        runAll(tasks);
+        assertEquals(1, ready.get());
+        assertTrue(image.isDecoded());
+        assertEquals(64, image.get(onReady).getWidth());
+        assertEquals(sourceBytes, cache.getMemoryUsage());
+
+        // Variants are scaled in physical pixels, until then the closest ready image is a placeholder
+        BufferedImage placeholder = image.get(16, 16, 2, onReady);
+        assertEquals(64, placeholder.getWidth());
+        runAll(tasks);
+        assertEquals(2, ready.get());
+        BufferedImage variant = image.get(16, 16, 2, onReady);
+        assertEquals(32, variant.getWidth());
+        assertEquals(0xff00ff00, variant.getRGB(16, 16));
+        assertSame(variant, image.get(32, 32, 1, onReady));
+        assertEquals(2, ready.get());
+
+        // Sizes requested a long time ago, e.g. while resizing, are not scaled
+        for (int size = 40; size > 30; size--)
+            image.get(size, size, 1, null);
+        runAll(tasks);
+        assertNotEquals(40, image.get(40, 40, 1, null).getWidth());
+        assertEquals(31, image.get(31, 31, 1, null).getWidth());
+
+        // Least recently used images are evicted to keep the budget, and decoded again when requested
+        assertTrue(cache.getMemoryUsage() <= cache.getMemoryBudget());
+        cache.clear();
+        assertEquals(0, cache.getMemoryUsage());
+        assertFalse(image.isDecoded());
+        assertNull(image.get(8, 8, 1, onReady));
+        runAll(tasks);
+        assertEquals(8, image.get(8, 8, 1, onReady).getWidth());
+        assertEquals(3, ready.get());
+
+        // Waiting callers are told when an image cannot be decoded
+        CachedImage broken = cache.image("broken", () -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        assertNull(broken.get(10, 10, 1, onReady));
+        runAll(tasks);
+        assertTrue(broken.isFailed());
+        assertEquals(4, ready.get());
+        assertNull(broken.get(10, 10, 1, onReady));
+        assertTrue(tasks.isEmpty());
+
+        // Decoded images put in the cache are never evicted
+        CachedImage put = cache.put("empty", new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB));
+        cache.clear();
+        assertNotNull(put.get(null));
+    }
+
+    private static void runAll(final ArrayDeque<Runnable> tasks) {
+        while (!tasks.isEmpty())
+            tasks.poll().run();
+    }
+
+    private static byte[] png(final int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < size; y++)
+            for (int x = 0; x < size; x++)
+                image.setRGB(x, y, 0xff00ff00);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", stream);
+        return stream.toByteArray();
+    }
+}
@@ -0,0 +1,47 @@
+package mdlib.utils.testing;
+
+import mdlib.utils.debug.LogLevel;
+import mdlib.utils.debug.Logger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoggerTest {
+
+    @Test
+    public void test() {
+        Logger logger = Logger.getLogger("mdlib.utils.testing.logger.Logging");
+        assertSame(logger, Logger.getLogger("mdlib.utils.testing.logger.Logging"));
+
+        // Levels of packages apply to nested classes unless overridden
+        Logger.setLevel("mdlib.utils.testing.logger", LogLevel.WARNING);
+        assertFalse(logger.isEnabled(LogLevel.INFO));
+        assertTrue(logger.isEnabled(LogLevel.ERROR));
+        Logger.setLevel("mdlib.utils.testing.logger.Logging", LogLevel.TRACE);
+        assertTrue(logger.isEnabled(LogLevel.TRACE));
+        Logger.setLevel("mdlib.utils.testing.logger.Logging", null);
+        assertFalse(logger.isEnabled(LogLevel.DEBUG));
+        Logger.setLevel("mdlib.utils.testing.logger", LogLevel.OFF);
+        assertFalse(logger.isEnabled(LogLevel.ERROR));
+
+        // Disabled messages are not even enqueued
+        long dropped = Logger.droppedCount();
+        for (int i = 0; i < 1_000_000; i++)
+            logger.debug("Message {} of {}", i, logger);
+        assertEquals(dropped, Logger.droppedCount());
+
+        // Enabled messages are written by the background thread
+        Logger.setLevel("mdlib.utils.testing.logger", LogLevel.WARNING);
+        Logger.setOverflowPolicy(Logger.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 20_000; i++)
+            logger.log(LogLevel.WARNING, "Message {} of {}", i, 20_000);
+        logger.error("Logged exception:", new IllegalStateException("Expected"));
+        Logger.flush();
+        assertEquals(dropped, Logger.droppedCount(), "Messages dropped despite back-pressure");
+        Logger.setOverflowPolicy(Logger.OverflowPolicy.DROP);
+        Logger.setLevel("mdlib.utils.testing.logger", null);
+    }
+}
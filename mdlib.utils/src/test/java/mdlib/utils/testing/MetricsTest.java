@@ -0,0 +1,50 @@
+package mdlib.utils.testing;
+
+import mdlib.utils.metrics.Counter;
+import mdlib.utils.metrics.Histogram;
+import mdlib.utils.metrics.Metrics;
+import mdlib.utils.metrics.MetricsSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void test() {
+        // Percentiles within the relative error of the buckets
+        Histogram histogram = new Histogram("test");
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ThreadLocalRandom.current().nextLong(1, 1_000_000_000L);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        Histogram.Snapshot snapshot = histogram.snapshot(true);
+        assertEquals(values.length, snapshot.count());
+        assertEquals(values[values.length - 1], snapshot.max());
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = snapshot.percentile(percentile);
+            assertTrue(Math.abs(actual - expected) <= expected / 32 + 1,
+                    "p" + percentile + " expected " + expected + " but was " + actual);
+        }
+        assertEquals(0, histogram.snapshot(false).count(), "Histogram not reset");
+
+        // Registered metrics are shared by name and included in snapshots
+        Counter counter = Metrics.counter("test.counter");
+        assertSame(counter, Metrics.counter("test.counter"));
+        counter.add(5);
+        Metrics.gauge("test.gauge", () -> 42);
+        MetricsSnapshot metrics = Metrics.snapshot(false);
+        assertEquals(5, metrics.counters().get("test.counter"));
+        assertEquals(42, metrics.gauges().get("test.gauge"));
+
+        Metrics.registerMBean();
+    }
+}
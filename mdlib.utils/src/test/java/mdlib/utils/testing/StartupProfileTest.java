@@ -0,0 +1,29 @@
+package mdlib.utils.testing;
+
+import mdlib.utils.metrics.Metrics;
+import mdlib.utils.metrics.StartupProfile;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StartupProfileTest {
+
+    @Test
+    public void test() {
+        // Phases are reported in order of their first records, time of the same phase is summed
+        StartupProfile.record("test.first", System.nanoTime() - 2_000_000);
+        StartupProfile.record("test.second", System.nanoTime() - 500_000);
+        StartupProfile.record("test.first", System.nanoTime() - 1_000_000);
+        String report = StartupProfile.report();
+        assertTrue(report.startsWith("Startup: "), report);
+        int first = report.indexOf("test.first ");
+        int second = report.indexOf("test.second ");
+        assertTrue(first >= 0 && second > first, report);
+        double firstMillis = Double.parseDouble(report.substring(first + 11, report.indexOf(" ms", first)));
+        assertTrue(firstMillis >= 3, report);
+
+        // Every record is kept in a histogram too
+        assertEquals(2, Metrics.histogram("startup.test.first").snapshot(false).count());
+    }
+}